@@ -0,0 +1,143 @@
+package com.pojosontheweb.selenium.benchmarks;
+
+import org.monte.media.Buffer;
+import org.monte.media.ContactSheetGenerator;
+import org.monte.media.Format;
+import org.monte.media.FormatKeys;
+import org.monte.media.avi.AVIReader;
+import org.monte.media.avi.AVIWriter;
+import org.monte.media.converter.ScaleImageCodec;
+import org.monte.media.math.Rational;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Measures creating the contact sheets (12 thumbnails) of 8 failure videos:
+ * the way it was done before, by decoding each movie from the start, on one
+ * thread, and with the contact sheet generator, on 1 and 4 threads.
+ *
+ * The movies have 600 TechSmith frames of 640x480, with a key frame every 60
+ * frames, like screen recordings of 40 seconds.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContactSheetBenchmark {
+
+    public static final int MOVIES = 8;
+    public static final int FRAMES = 600;
+    public static final int THUMBNAILS = 12;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private File dir;
+    private List<File> movies;
+    private ContactSheetGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = File.createTempFile("contactsheet", "");
+        dir.delete();
+        dir.mkdirs();
+        movies = new ArrayList<File>();
+        for (int m = 0; m < MOVIES; m++) {
+            File file = new File(dir, "test" + m + ".avi");
+            writeMovie(file, m);
+            movies.add(file);
+        }
+        generator = new ContactSheetGenerator(threads);
+        generator.setThumbnailCount(THUMBNAILS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        generator.dispose();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public int sequential() throws IOException {
+        int count = 0;
+        for (File movie : movies) {
+            AVIReader in = new AVIReader(movie);
+            try {
+                ScaleImageCodec scaler = new ScaleImageCodec();
+                scaler.setOutputFormat(new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
+                    EncodingKey, ENCODING_BUFFERED_IMAGE, WidthKey, 240, HeightKey, 180));
+                Buffer frame = new Buffer();
+                Buffer thumbnail = new Buffer();
+                int next = FRAMES / (2 * THUMBNAILS);
+                int taken = 0;
+                for (int i = 0; taken < THUMBNAILS; i++) {
+                    BufferedImage img = in.read(0, (BufferedImage) null);
+                    if (img == null) {
+                        break;
+                    }
+                    if (i == next) {
+                        frame.data = img;
+                        scaler.process(frame, thumbnail);
+                        taken++;
+                        next = (2 * taken + 1) * FRAMES / (2 * THUMBNAILS);
+                    }
+                }
+                count += taken;
+            } finally {
+                in.close();
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int generator() throws IOException {
+        ContactSheetGenerator.Result result = generator.createContactSheets(movies, dir);
+        for (IOException error : result.getErrors()) {
+            if (error != null) {
+                throw error;
+            }
+        }
+        return result.getSheets().size();
+    }
+
+    private static void writeMovie(File file, int seed) throws IOException {
+        AVIWriter out = new AVIWriter(file);
+        try {
+            int track = out.addTrack(new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO,
+                EncodingKey, ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE, DepthKey, 24,
+                FrameRateKey, new Rational(15, 1), WidthKey, 640, HeightKey, 480,
+                KeyFrameIntervalKey, 60));
+            BufferedImage img = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = img.createGraphics();
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, 640, 480);
+            for (int i = 0; i < FRAMES; i++) {
+                g.setColor(new Color((i + seed) * 31 % 256, 0, 128));
+                g.fillRect((i + seed) * 17 % 600, i * 13 % 440, 40, 40);
+                out.write(track, img, 1);
+            }
+            g.dispose();
+        } finally {
+            out.close();
+        }
+    }
+}
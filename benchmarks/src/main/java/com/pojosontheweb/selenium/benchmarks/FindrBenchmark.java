@@ -0,0 +1,141 @@
+package com.pojosontheweb.selenium.benchmarks;
+
+import com.pojosontheweb.selenium.CachingWebDriver;
+import com.pojosontheweb.selenium.FakeWebDriver;
+import com.pojosontheweb.selenium.FakeWebElement;
+import com.pojosontheweb.selenium.Findr;
+import com.pojosontheweb.selenium.Findrs;
+import com.pojosontheweb.selenium.formz.Select;
+import org.openjdk.jmh.annotations.*;
+import org.openqa.selenium.By;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures common Findr / ListFindr evals against an in-memory DOM
+ * (<code>FakeWebDriver</code>). All evals succeed at the first poll.
+ *
+ * The <code>latencyMicros</code> param simulates the round trip to the driver
+ * for each command. The <code>commands</code> counter reports the driver commands
+ * issued (divide by the ops to get the commands per eval), and <code>-prof gc</code>
+ * shows the allocation rate. The <code>cached</code> param enables the element cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FindrBenchmark {
+
+    public static final int ITEMS = 20;
+    public static final int OPTIONS = 10;
+
+    @Param({"0", "100"})
+    public long latencyMicros;
+
+    /**
+     * Use a <code>CachingWebDriver</code>
+     */
+    @Param({"false", "true"})
+    public boolean cached;
+
+    /**
+     * Driver commands, reported by JMH along with the ops.
+     */
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class Commands {
+        public long commands;
+    }
+
+    private FakeWebDriver driver;
+    private Findr main;
+    private Findr itemsList;
+    private Select select;
+    private int selectCount = 0;
+
+    @Setup
+    public void setUp() {
+        driver = new FakeWebDriver(latencyMicros);
+        FakeWebElement ul = driver.elem("ul").attr("class", "items");
+        for (int i = 0; i < ITEMS; i++) {
+            ul.add(driver.elem("li").attr("class", "item").text("item " + i));
+        }
+        FakeWebElement sel = driver.elem("select").attr("id", "sel");
+        for (int i = 0; i < OPTIONS; i++) {
+            sel.add(driver.elem("option").attr("value", "o" + i).text("option " + i));
+        }
+        driver.getDocument().add(
+            driver.elem("body").add(
+                driver.elem("div").attr("id", "main").attr("class", "container").add(
+                    ul,
+                    driver.elem("form").attr("id", "form").add(
+                        driver.elem("input").attr("name", "q"),
+                        sel
+                    )
+                )
+            )
+        );
+        Findr root = new Findr(cached ? new CachingWebDriver(driver) : driver).setSleepInMillis(0);
+        main = root.elem(By.id("main"));
+        itemsList = main.elem(By.cssSelector("ul.items"));
+        select = new Select(main.elem(By.id("form")).elem(By.cssSelector("select#sel")));
+        driver.takeCommands();
+    }
+
+    @Benchmark
+    public void elemWhereEval(Commands c) {
+        itemsList
+            .where(Findrs.hasClass("items"))
+            .elem(By.tagName("li"))
+            .where(Findrs.textEquals("item 0"))
+            .eval();
+        c.commands += driver.takeCommands();
+    }
+
+    @Benchmark
+    public void listWhereAt(Commands c) {
+        itemsList
+            .elemList(By.cssSelector("li.item"))
+            .where(Findrs.textStartsWith("item 1"))
+            .at(1)
+            .eval();
+        c.commands += driver.takeCommands();
+    }
+
+    @Benchmark
+    public void listWhereAll(Commands c) {
+        itemsList
+            .elemList(By.tagName("li"))
+            .whereAll(Findrs.hasClass("item"))
+            .eval();
+        c.commands += driver.takeCommands();
+    }
+
+    @Benchmark
+    public void listWhereAny(Commands c) {
+        itemsList
+            .elemList(By.tagName("li"))
+            .whereAny(Findrs.textEquals("item " + (ITEMS - 1)))
+            .eval();
+        c.commands += driver.takeCommands();
+    }
+
+    @Benchmark
+    public void listWhereElemCount(Commands c) {
+        itemsList
+            .elemList(By.tagName("li"))
+            .whereElemCount(ITEMS)
+            .eval();
+        c.commands += driver.takeCommands();
+    }
+
+    @Benchmark
+    public void selectByVisibleText(Commands c) {
+        String text = "option " + (selectCount++ % OPTIONS);
+        select.selectByVisibleText(text).assertSelectedText(text);
+        c.commands += driver.takeCommands();
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.pojosontheweb.selenium.benchmarks;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.pojosontheweb.selenium.FakeWebDriver;
+import com.pojosontheweb.selenium.Findr;
+import com.pojosontheweb.selenium.Findrs;
+import org.openjdk.jmh.annotations.*;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of the Findr poll loop, with and without debug logs.
+ * Each op is an eval that succeeds at the 10th poll, against a
+ * <code>FakeWebDriver</code> without latency, and without sleeping between polls.
+ *
+ * Run with <code>-prof gc</code> to see the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FindrPollBenchmark {
+
+    public static final int POLLS_PER_EVAL = 10;
+
+    @Param({"false", "true"})
+    public boolean verbose;
+
+    private Findr findr;
+
+    /**
+     * Fails the first polls of each eval.
+     */
+    private final Predicate<WebElement> everyNthPoll = new Predicate<WebElement>() {
+
+        private int calls = 0;
+
+        @Override
+        public boolean apply(WebElement input) {
+            return ++calls % POLLS_PER_EVAL == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "everyNthPoll";
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        Findr.setDebugEnabled(verbose);
+        Findr.setDebugHandler(new Function<String, Object>() {
+            @Override
+            public Object apply(String input) {
+                return null;
+            }
+        });
+        FakeWebDriver driver = new FakeWebDriver(0);
+        driver.getDocument().add(
+            driver.elem("div").attr("id", "main").add(
+                driver.elem("div").attr("class", "content").text("fake").add(
+                    driver.elem("span")
+                )
+            )
+        );
+        findr = new Findr(driver)
+            .setSleepInMillis(0)
+            .elem(By.id("main"))
+            .elem(By.cssSelector("div.content"))
+            .where(Findrs.textEquals("fake"))
+            .elem(By.tagName("span"))
+            .where(everyNthPoll);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Findr.setDebugEnabled(false);
+    }
+
+    @Benchmark
+    public Object evalPolls() {
+        return findr.eval(Findr.IDENTITY_FOR_EVAL);
+    }
+
+}
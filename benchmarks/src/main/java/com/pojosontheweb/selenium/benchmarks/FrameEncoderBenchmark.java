@@ -0,0 +1,84 @@
+package com.pojosontheweb.selenium.benchmarks;
+
+import org.monte.media.Buffer;
+import org.monte.media.Codec;
+import org.monte.media.Format;
+import org.monte.media.FormatKeys;
+import org.monte.media.Registry;
+import org.monte.media.math.Rational;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Measures the encoding of 1080p screen captures with the JPEG and PNG
+ * codecs, the way the screen recorder does : one codec for all frames,
+ * and a new output buffer for each frame.
+ *
+ * Run with <code>-prof gc</code> to see the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameEncoderBenchmark {
+
+    public static final int WIDTH = 1920;
+    public static final int HEIGHT = 1080;
+
+    @Param({"jpeg", "png"})
+    public String encoding;
+
+    private Codec codec;
+    private Buffer in;
+
+    @Setup
+    public void setUp() {
+        Format format = encoding.equals("png")
+            ? new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
+                EncodingKey, ENCODING_QUICKTIME_PNG, DepthKey, 24)
+            : new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
+                EncodingKey, ENCODING_QUICKTIME_JPEG, DepthKey, 24, QualityKey, 0.5f);
+        codec = Registry.getInstance().getEncoder(format);
+        codec.setOutputFormat(format);
+        in = new Buffer();
+        in.format = new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO, EncodingKey, ENCODING_BUFFERED_IMAGE);
+        in.data = createScreen();
+        in.sampleDuration = new Rational(1, 15);
+    }
+
+    /**
+     * A web page, more or less : a header bar, and lines of text.
+     */
+    private static BufferedImage createScreen() {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.setColor(new Color(40, 60, 90));
+        g.fillRect(0, 0, WIDTH, 60);
+        g.setColor(Color.BLACK);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        for (int i = 0; i < 55; i++) {
+            g.drawString("Lorem ipsum dolor sit amet " + i + ", consectetur adipiscing elit, sed do eiusmod tempor " +
+                "incididunt ut labore et dolore magna aliqua.", 40, 90 + i * 18);
+        }
+        g.dispose();
+        return img;
+    }
+
+    @Benchmark
+    public Object encodeFrame() {
+        Buffer out = new Buffer();
+        codec.process(in, out);
+        return out.data;
+    }
+
+}
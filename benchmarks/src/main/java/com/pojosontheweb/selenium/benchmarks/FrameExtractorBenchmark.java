@@ -0,0 +1,102 @@
+package com.pojosontheweb.selenium.benchmarks;
+
+import org.monte.media.Format;
+import org.monte.media.FormatKeys;
+import org.monte.media.FrameExtractor;
+import org.monte.media.avi.AVIReader;
+import org.monte.media.avi.AVIWriter;
+import org.monte.media.math.Rational;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Measures getting 10 thumbnails of a recorded movie: by decoding the movie
+ * from the start, and by seeking to the key frame before each thumbnail with
+ * the frame extractor.
+ *
+ * The movie has 1500 TechSmith frames of 640x480, with a key frame every
+ * 60 frames, like a screen recording of 100 seconds.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameExtractorBenchmark {
+
+    public static final int FRAMES = 1500;
+    public static final int THUMBNAILS = 10;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("frameextractor", ".avi");
+        file.delete();
+        AVIWriter out = new AVIWriter(file);
+        try {
+            int track = out.addTrack(new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO,
+                EncodingKey, ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE, DepthKey, 24,
+                FrameRateKey, new Rational(15, 1), WidthKey, 640, HeightKey, 480,
+                KeyFrameIntervalKey, 60));
+            BufferedImage img = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = img.createGraphics();
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, 640, 480);
+            for (int i = 0; i < FRAMES; i++) {
+                g.setColor(new Color(i * 31 % 256, 0, 128));
+                g.fillRect(i * 17 % 600, i * 13 % 440, 40, 40);
+                out.write(track, img, 1);
+            }
+            g.dispose();
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public int sequential() throws IOException {
+        AVIReader in = new AVIReader(file);
+        try {
+            int count = 0;
+            int next = FRAMES / (2 * THUMBNAILS);
+            for (int i = 0; count < THUMBNAILS; i++) {
+                BufferedImage img = in.read(0, (BufferedImage) null);
+                if (img == null) {
+                    break;
+                }
+                if (i == next) {
+                    count++;
+                    next = (2 * count + 1) * FRAMES / (2 * THUMBNAILS);
+                }
+            }
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public int extractor() throws IOException {
+        AVIReader in = new AVIReader(file);
+        try {
+            return new FrameExtractor(in).getThumbnails(THUMBNAILS).length;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.pojosontheweb.selenium.benchmarks;
+
+import org.monte.media.Buffer;
+import org.monte.media.BufferFlag;
+import org.monte.media.avi.AVIOutputStream;
+import org.monte.media.avi.AVIReader;
+import org.monte.media.quicktime.QuickTimeOutputStream;
+import org.monte.media.quicktime.QuickTimeReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading all the samples of a movie with the QuickTime and AVI
+ * readers, with the samples copied into byte arrays, and with the samples
+ * sliced from the memory mapped file.
+ *
+ * The movie has 3000 frames of 20 KB, about the size of a JPEG screen capture.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MappedReadBenchmark {
+
+    public static final int FRAMES = 3000;
+    public static final int FRAME_SIZE = 20 * 1024;
+
+    @Param({"quicktime", "avi"})
+    public String format;
+
+    @Param({"false", "true"})
+    public boolean mapped;
+
+    private File file;
+    private Buffer buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] frame = new byte[FRAME_SIZE];
+        new Random(0).nextBytes(frame);
+        if (format.equals("avi")) {
+            file = File.createTempFile("mappedread", ".avi");
+            AVIOutputStream out = new AVIOutputStream(file);
+            int track = out.addVideoTrack("MJPG", 1, 15, 320, 240, 24, 1);
+            for (int i = 0; i < FRAMES; i++) {
+                out.writeSample(track, frame, 0, frame.length, true);
+            }
+            out.close();
+        } else {
+            file = File.createTempFile("mappedread", ".mov");
+            QuickTimeOutputStream out = new QuickTimeOutputStream(file);
+            int track = out.addVideoTrack("jpeg", "Photo - JPEG", 15, 320, 240, 24, 1);
+            for (int i = 0; i < FRAMES; i++) {
+                out.writeSample(track, frame, 1, true);
+            }
+            out.close();
+        }
+        buffer = new Buffer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long readAll() throws IOException {
+        long sum = 0;
+        if (format.equals("avi")) {
+            AVIReader in = new AVIReader(file, mapped);
+            try {
+                for (in.read(0, buffer); !buffer.isFlag(BufferFlag.END_OF_MEDIA); in.read(0, buffer)) {
+                    sum += firstByte(buffer);
+                }
+            } finally {
+                in.close();
+            }
+        } else {
+            QuickTimeReader in = new QuickTimeReader(file, mapped);
+            try {
+                for (in.read(0, buffer); !buffer.isFlag(BufferFlag.END_OF_MEDIA); in.read(0, buffer)) {
+                    sum += firstByte(buffer);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return sum;
+    }
+
+    private static int firstByte(Buffer buffer) {
+        return buffer.data instanceof ByteBuffer
+            ? ((ByteBuffer) buffer.data).get(0)
+            : ((byte[]) buffer.data)[buffer.offset];
+    }
+}
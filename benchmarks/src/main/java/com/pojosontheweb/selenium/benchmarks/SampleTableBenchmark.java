@@ -0,0 +1,134 @@
+package com.pojosontheweb.selenium.benchmarks;
+
+import org.monte.media.avi.AVIInputStream;
+import org.monte.media.avi.AVIOutputStream;
+import org.monte.media.quicktime.QuickTimeInputStream;
+import org.monte.media.quicktime.QuickTimeOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the sample tables of the QuickTime and AVI streams, with a track
+ * of one million small samples (about 18 hours of video at 15 fps), whose
+ * sizes vary like the sizes of compressed frames do : the
+ * time to write and read back the file, and the heap taken by the tables
+ * of the writer before it is closed, and of the reader once it has read
+ * the file.
+ *
+ * The heap sizes are printed at the end of each trial.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+@State(Scope.Thread)
+public class SampleTableBenchmark {
+
+    public static final int SAMPLES = 1000000;
+    public static final int MAX_SAMPLE_SIZE = 32;
+    public static final int KEY_FRAME_INTERVAL = 30;
+
+    @Param({"quicktime", "avi"})
+    public String format;
+
+    private File writeFile;
+    private File readFile;
+    private byte[] sample;
+    private long writerHeap;
+    private long readerHeap;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sample = new byte[MAX_SAMPLE_SIZE];
+        String suffix = format.equals("avi") ? ".avi" : ".mov";
+        writeFile = File.createTempFile("sampletable-write", suffix);
+        readFile = File.createTempFile("sampletable-read", suffix);
+        writeFile.delete();
+        readFile.delete();
+        writeMovie(readFile);
+        writeFile.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        writeFile.delete();
+        readFile.delete();
+        System.out.println();
+        System.out.println("format=" + format + " : writer tables " + (writerHeap >> 10) + " KB, reader tables "
+            + (readerHeap >> 10) + " KB for " + SAMPLES + " samples");
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        writeFile.delete();
+        return writeMovie(writeFile);
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        long before = usedHeap();
+        long result;
+        if (format.equals("avi")) {
+            AVIInputStream in = new AVIInputStream(readFile);
+            try {
+                result = in.getChunkCount(0);
+                readerHeap = usedHeap() - before;
+            } finally {
+                in.close();
+            }
+        } else {
+            QuickTimeInputStream in = new QuickTimeInputStream(readFile);
+            try {
+                result = in.getMediaDuration(0);
+                readerHeap = usedHeap() - before;
+            } finally {
+                in.close();
+            }
+        }
+        return result;
+    }
+
+    private long writeMovie(File file) throws IOException {
+        long before = usedHeap();
+        if (format.equals("avi")) {
+            AVIOutputStream out = new AVIOutputStream(file);
+            try {
+                int track = out.addVideoTrack("DIB ", 1, 15, 4, 4, 8, KEY_FRAME_INTERVAL);
+                for (int i = 0; i < SAMPLES; i++) {
+                    out.writeSample(track, sample, 0, sampleSize(i), i % KEY_FRAME_INTERVAL == 0);
+                }
+                writerHeap = usedHeap() - before;
+            } finally {
+                out.close();
+            }
+        } else {
+            QuickTimeOutputStream out = new QuickTimeOutputStream(file);
+            try {
+                int track = out.addVideoTrack("raw ", "None", 15, 4, 4, 8, KEY_FRAME_INTERVAL);
+                for (int i = 0; i < SAMPLES; i++) {
+                    out.writeSample(track, sample, 0, sampleSize(i), 1, i % KEY_FRAME_INTERVAL == 0);
+                }
+                writerHeap = usedHeap() - before;
+            } finally {
+                out.close();
+            }
+        }
+        return file.length();
+    }
+
+    private static int sampleSize(int i) {
+        return i % KEY_FRAME_INTERVAL == 0 ? MAX_SAMPLE_SIZE : 8 + i % 7;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,127 @@
+package com.pojosontheweb.selenium.benchmarks;
+
+import org.monte.media.Buffer;
+import org.monte.media.Codec;
+import org.monte.media.Format;
+import org.monte.media.FormatKeys;
+import org.monte.media.Registry;
+import org.monte.media.math.Rational;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Measures the TechSmith screen codec with each zlib compression level and
+ * strategy, on a sequence of 1080p frames that looks like a test run : a
+ * page is loaded, a form is filled, and the page is scrolled.
+ *
+ * The size of the encoded sequence is printed at the end of each trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TechSmithCompressionBenchmark {
+
+    public static final int WIDTH = 1920;
+    public static final int HEIGHT = 1080;
+    public static final int FRAMES = 30;
+
+    @Param({"1", "6", "9"})
+    public int level;
+
+    @Param({"default", "filtered", "huffman"})
+    public String strategy;
+
+    private Codec codec;
+    private Buffer[] frames;
+    private Buffer out;
+    private long encodedBytes;
+    private long encodedSequences;
+
+    @Setup
+    public void setUp() {
+        int s = strategy.equals("filtered") ? Deflater.FILTERED
+            : strategy.equals("huffman") ? Deflater.HUFFMAN_ONLY
+            : Deflater.DEFAULT_STRATEGY;
+        Format format = new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO, MimeTypeKey, MIME_AVI,
+            EncodingKey, ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE, DepthKey, 24,
+            WidthKey, WIDTH, HeightKey, HEIGHT, FrameRateKey, new Rational(15, 1),
+            KeyFrameIntervalKey, FRAMES, CompressionLevelKey, level, CompressionStrategyKey, s);
+        codec = Registry.getInstance().getEncoder(format);
+        codec.setOutputFormat(format);
+        Format inputFormat = new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO, EncodingKey, ENCODING_BUFFERED_IMAGE,
+            WidthKey, WIDTH, HeightKey, HEIGHT, DepthKey, 24);
+        frames = new Buffer[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            Buffer in = new Buffer();
+            in.format = inputFormat;
+            in.data = createScreen(i, WIDTH, HEIGHT);
+            in.sampleDuration = new Rational(1, 15);
+            frames[i] = in;
+        }
+        out = new Buffer();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println();
+        System.out.println("level=" + level + " strategy=" + strategy + " : "
+            + (encodedBytes / Math.max(1, encodedSequences)) + " bytes for " + FRAMES + " frames");
+    }
+
+    /**
+     * Frame i of the sequence : the first frames fill a text field, the
+     * last ones scroll the page.
+     */
+    static BufferedImage createScreen(int i, int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        int scroll = Math.max(0, i - FRAMES / 2) * 36;
+        g.setColor(new Color(40, 60, 90));
+        g.fillRect(0, 0, width, 60);
+        g.setColor(Color.WHITE);
+        g.setFont(new Font("SansSerif", Font.BOLD, 20));
+        g.drawString("My Application", 40, 38);
+        g.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        g.setColor(new Color(200, 200, 200));
+        g.drawRect(40, 80 - scroll, 400, 28);
+        g.setColor(Color.BLACK);
+        String typed = "john.doe@example.com";
+        g.drawString(typed.substring(0, Math.min(typed.length(), i)), 48, 99 - scroll);
+        for (int l = 0; l < 80 * height / HEIGHT; l++) {
+            int y = 140 + l * 18 - scroll;
+            if (y > 60 && y < height) {
+                g.setColor(l % 10 == 0 ? new Color(0, 90, 180) : Color.DARK_GRAY);
+                g.drawString("Lorem ipsum dolor sit amet " + l + ", consectetur adipiscing elit, sed do eiusmod tempor " +
+                    "incididunt ut labore et dolore magna aliqua.", 40, y);
+            }
+        }
+        g.dispose();
+        return img;
+    }
+
+    @Benchmark
+    public long encodeSequence() {
+        codec.reset();
+        long bytes = 0;
+        for (Buffer in : frames) {
+            codec.process(in, out);
+            bytes += out.length;
+        }
+        encodedBytes += bytes;
+        encodedSequences++;
+        return bytes;
+    }
+
+}
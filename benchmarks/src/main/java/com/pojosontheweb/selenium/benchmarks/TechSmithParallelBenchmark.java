@@ -0,0 +1,91 @@
+package com.pojosontheweb.selenium.benchmarks;
+
+import org.monte.media.Buffer;
+import org.monte.media.Codec;
+import org.monte.media.Format;
+import org.monte.media.FormatKeys;
+import org.monte.media.Registry;
+import org.monte.media.math.Rational;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Measures the scaling of the TechSmith screen codec with the number of
+ * encoder threads, on a sequence of 4K frames (see
+ * {@link TechSmithCompressionBenchmark} for the frames).
+ *
+ * The size of the encoded sequence is printed at the end of each trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TechSmithParallelBenchmark {
+
+    public static final int WIDTH = 3840;
+    public static final int HEIGHT = 2160;
+    public static final int FRAMES = TechSmithCompressionBenchmark.FRAMES;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int threads;
+
+    @Param({"0", "16"})
+    public int tileSize;
+
+    private Codec codec;
+    private Buffer[] frames;
+    private Buffer out;
+    private long encodedBytes;
+    private long encodedSequences;
+
+    @Setup
+    public void setUp() {
+        Format format = new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO, MimeTypeKey, MIME_AVI,
+            EncodingKey, ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE, DepthKey, 24,
+            WidthKey, WIDTH, HeightKey, HEIGHT, FrameRateKey, new Rational(15, 1),
+            KeyFrameIntervalKey, FRAMES, EncoderThreadsKey, threads);
+        if (tileSize > 0) {
+            format = format.append(TileSizeKey, tileSize);
+        }
+        codec = Registry.getInstance().getEncoder(format);
+        codec.setOutputFormat(format);
+        Format inputFormat = new Format(MediaTypeKey, FormatKeys.MediaType.VIDEO, EncodingKey, ENCODING_BUFFERED_IMAGE,
+            WidthKey, WIDTH, HeightKey, HEIGHT, DepthKey, 24);
+        frames = new Buffer[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            Buffer in = new Buffer();
+            in.format = inputFormat;
+            in.data = TechSmithCompressionBenchmark.createScreen(i, WIDTH, HEIGHT);
+            in.sampleDuration = new Rational(1, 15);
+            frames[i] = in;
+        }
+        out = new Buffer();
+    }
+
+    @TearDown
+    public void tearDown() {
+        codec.reset();
+        System.out.println();
+        System.out.println("threads=" + threads + " tileSize=" + tileSize + " : "
+            + (encodedBytes / Math.max(1, encodedSequences)) + " bytes for " + FRAMES + " frames");
+    }
+
+    @Benchmark
+    public long encodeSequence() {
+        codec.reset();
+        long bytes = 0;
+        for (Buffer in : frames) {
+            codec.process(in, out);
+            bytes += out.length;
+        }
+        encodedBytes += bytes;
+        encodedSequences++;
+        return bytes;
+    }
+
+}
@@ -0,0 +1,275 @@
+package com.pojosontheweb.selenium;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import org.openqa.selenium.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiles the leading steps of a Findr chain into a single JavaScript
+ * probe, so that the whole chain costs one WebDriver round trip per poll
+ * instead of one per step.
+ *
+ * Only <code>By.id</code>, <code>By.name</code>, <code>By.className</code>, <code>By.tagName</code>
+ * and <code>By.cssSelector</code> locators, and the built-in <code>Findrs</code> predicates, can
+ * be scripted. The chain is scripted up to the first step that can't be, and the remaining steps
+ * are evaluated one by one, as usual.
+ */
+final class BatchProbe {
+
+    /**
+     * The probe script. Takes a flat list of steps (3 strings per step : op, arg1, arg2),
+     * and returns a 2-elements array with the resolved element (or null), and the
+     * count of steps that were satisfied.
+     */
+    static final String SCRIPT =
+        "var steps = arguments[0], ctx = document;\n" +
+        "function attr(e, n) {\n" +
+        "  if (n === 'class') { return e.getAttribute(n); }\n" +
+        "  var p = e[n];\n" +
+        "  if (p !== undefined && p !== null && typeof p !== 'object' && typeof p !== 'function') { return String(p); }\n" +
+        "  return e.getAttribute(n);\n" +
+        "}\n" +
+        "function text(e) {\n" +
+        "  var t = e.innerText;\n" +
+        "  if (t === undefined || t === null) { t = e.textContent; }\n" +
+        "  return t === null ? '' : String(t).replace(/^\\s+|\\s+$/g, '');\n" +
+        "}\n" +
+        "function find(c, op, v) {\n" +
+        "  try {\n" +
+        "    if (op === 'id') {\n" +
+        "      if (c === document) { return document.getElementById(v); }\n" +
+        "      return c.querySelector('[id=\"' + v.replace(/([\"\\\\])/g, '\\\\$1') + '\"]');\n" +
+        "    }\n" +
+        "    if (op === 'name') { return c.querySelector('[name=\"' + v.replace(/([\"\\\\])/g, '\\\\$1') + '\"]'); }\n" +
+        "    if (op === 'tag') { return c.getElementsByTagName(v)[0] || null; }\n" +
+        "    if (op === 'class') { return c.getElementsByClassName(v)[0] || null; }\n" +
+        "    return c.querySelector(v);\n" +
+        "  } catch (x) {\n" +
+        "    return null;\n" +
+        "  }\n" +
+        "}\n" +
+        "function test(e, op, a, b) {\n" +
+        "  var v, i;\n" +
+        "  switch (op) {\n" +
+        "    case 'attrEquals': v = attr(e, a); return v !== null && v === b;\n" +
+        "    case 'attrStartsWith': v = attr(e, a); return v !== null && v.indexOf(b) === 0;\n" +
+        "    case 'attrEndsWith': v = attr(e, a); return v !== null && v.length >= b.length && v.substring(v.length - b.length) === b;\n" +
+        "    case 'hasClass':\n" +
+        "      v = e.getAttribute('class');\n" +
+        "      if (v === null) { return false; }\n" +
+        "      v = v.split(/\\s/);\n" +
+        "      for (i = 0; i < v.length; i++) { if (v[i] === a) { return true; } }\n" +
+        "      return false;\n" +
+        "    case 'textEquals': return text(e) === a;\n" +
+        "    case 'textStartsWith': return text(e).indexOf(a) === 0;\n" +
+        "    case 'textContains': return text(e).indexOf(a) !== -1;\n" +
+        "    case 'textEndsWith': v = text(e); return v.length >= a.length && v.substring(v.length - a.length) === a;\n" +
+        "    case 'isEnabled': return !e.disabled;\n" +
+        "  }\n" +
+        "  return false;\n" +
+        "}\n" +
+        "for (var i = 0; i < steps.length; i += 3) {\n" +
+        "  var op = steps[i], neg = false;\n" +
+        "  if (op === 'id' || op === 'name' || op === 'tag' || op === 'class' || op === 'css') {\n" +
+        "    ctx = find(ctx, op, steps[i + 1]);\n" +
+        "    if (!ctx) { return [null, i / 3]; }\n" +
+        "  } else {\n" +
+        "    while (op.charAt(0) === '!') { neg = !neg; op = op.substring(1); }\n" +
+        "    if (test(ctx, op, steps[i + 1], steps[i + 2]) === neg) { return [null, i / 3]; }\n" +
+        "  }\n" +
+        "}\n" +
+        "return [ctx, steps.length / 3];";
+
+    /**
+     * A step in a Findr chain : the (trapped) function, its path element, and
+     * its scripted version (null if the step can't be scripted).
+     */
+    static final class Step {
+
+        final Function<SearchContext,WebElement> function;
+        final String pathElem;
+        final List<String> script;
+
+        Step(Function<SearchContext, WebElement> function, String pathElem, List<String> script) {
+            this.function = function;
+            this.pathElem = pathElem;
+            this.script = script;
+        }
+    }
+
+    private BatchProbe() {
+    }
+
+    private static List<String> step(String op, String arg1, String arg2) {
+        List<String> res = new ArrayList<String>(3);
+        res.add(op);
+        res.add(arg1 == null ? "" : arg1);
+        res.add(arg2 == null ? "" : arg2);
+        return Collections.unmodifiableList(res);
+    }
+
+    private static String locatorValue(By by) {
+        // Selenium doesn't expose the locator values, but
+        // toString() is stable : "By.id: foo"
+        String s = by.toString();
+        int i = s.indexOf(": ");
+        return i == -1 ? null : s.substring(i + 2);
+    }
+
+    /**
+     * Return the scripted version of passed locator, or null if it can't be scripted.
+     */
+    static List<String> scriptFor(By by) {
+        String op;
+        if (by instanceof By.ById) {
+            op = "id";
+        } else if (by instanceof By.ByName) {
+            op = "name";
+        } else if (by instanceof By.ByClassName) {
+            op = "class";
+        } else if (by instanceof By.ByTagName) {
+            op = "tag";
+        } else if (by instanceof By.ByCssSelector) {
+            op = "css";
+        } else {
+            return null;
+        }
+        String value = locatorValue(by);
+        if (value == null) {
+            return null;
+        }
+        return step(op, value, null);
+    }
+
+    /**
+     * Return the scripted version of passed predicate, or null if it can't be scripted.
+     */
+    static List<String> scriptFor(Predicate<?> predicate) {
+        if (predicate instanceof Findrs.ScriptablePredicate) {
+            Findrs.ScriptablePredicate sp = (Findrs.ScriptablePredicate)predicate;
+            if (sp.arg1 == null || sp.arg2 == null) {
+                // JS and Java would disagree on nulls
+                return null;
+            }
+            return step(sp.op, sp.arg1, sp.arg2);
+        }
+        return null;
+    }
+
+    private static boolean isLocator(List<String> script) {
+        String op = script.get(0);
+        return op.equals("id") || op.equals("name") || op.equals("tag") || op.equals("class") || op.equals("css");
+    }
+
+    /**
+     * Count the steps that can be scripted at the beginning of the chain. The
+     * first step has to be a locator, as the probe starts from the document.
+     */
+    static int scriptedPrefixLength(List<Step> steps) {
+        if (steps.isEmpty() || steps.get(0).script == null || !isLocator(steps.get(0).script)) {
+            return 0;
+        }
+        int res = 0;
+        for (Step step : steps) {
+            if (step.script == null) {
+                break;
+            }
+            res++;
+        }
+        return res;
+    }
+
+    /**
+     * Create a function that evaluates passed steps with a single script for
+     * the scripted prefix of the chain, and one by one for the remaining steps.
+     * @param executor the JavascriptExecutor
+     * @param steps the steps of the chain
+     * @param fallback the function to use if no step can be scripted
+     * @return the function to use in place of the composed chain
+     */
+    static Function<SearchContext,WebElement> compile(final JavascriptExecutor executor,
+                                                      final List<Step> steps,
+                                                      Function<SearchContext,WebElement> fallback) {
+        final int prefixLen = scriptedPrefixLength(steps);
+        if (prefixLen == 0) {
+            return fallback;
+        }
+        final List<String> args = new ArrayList<String>(prefixLen * 3);
+        for (int i = 0; i < prefixLen; i++) {
+            args.addAll(steps.get(i).script);
+        }
+        return new Function<SearchContext, WebElement>() {
+            @Override
+            public WebElement apply(SearchContext input) {
+                if (!(input instanceof WebDriver)) {
+                    // probe can only start from the document
+                    return null;
+                }
+                Object res;
+                EvalRecorder r = EvalRecorder.current();
+                long start = r == null ? 0 : System.nanoTime();
+                try {
+                    res = executor.executeScript(SCRIPT, args);
+                } catch(WebDriverException e) {
+                    // retry in case of exception
+                    if (r != null) {
+                        r.exceptionRetries++;
+                    }
+                    return null;
+                } finally {
+                    // the whole script is accounted for on the last scripted step
+                    if (r != null) {
+                        r.step(prefixLen - 1, System.nanoTime() - start, 1);
+                    }
+                }
+                if (!(res instanceof List)) {
+                    return null;
+                }
+                List<?> resList = (List<?>)res;
+                Object elem = resList.get(0);
+                int satisfied = ((Number)resList.get(1)).intValue();
+                for (int i = 0; Findr.isDebugEnabled() && i < prefixLen; i++) {
+                    String pathElem = steps.get(i).pathElem;
+                    if (i < satisfied) {
+                        if (i == prefixLen - 1) {
+                            Findr.logDebug("[Findr]  > " + pathElem + " : " + elem + " (batch)");
+                        } else {
+                            Findr.logDebug("[Findr]  > " + pathElem + " (batch)");
+                        }
+                    } else if (i == satisfied) {
+                        Findr.logDebug("[Findr]  ! " + pathElem + " (batch)");
+                    } else {
+                        Findr.logDebug("[Findr]  - " + pathElem);
+                    }
+                }
+                if (!(elem instanceof WebElement)) {
+                    return null;
+                }
+                WebElement current = (WebElement)elem;
+                for (int i = prefixLen; i < steps.size(); i++) {
+                    Step step = steps.get(i);
+                    WebElement next = step.function.apply(current);
+                    if (next == null) {
+                        if (Findr.isDebugEnabled()) {
+                            Findr.logDebug("[Findr]  ! " + step.pathElem);
+                            for (int j = i + 1; j < steps.size(); j++) {
+                                Findr.logDebug("[Findr]  - " + steps.get(j).pathElem);
+                            }
+                        }
+                        return null;
+                    }
+                    if (Findr.isDebugEnabled()) {
+                        Findr.logDebug("[Findr]  > " + step.pathElem + " : " + next);
+                    }
+                    current = next;
+                }
+                return current;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.pojosontheweb.selenium;
+
+import org.openqa.selenium.*;
+import org.openqa.selenium.internal.WrapsDriver;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * WebDriver wrapper that enables element handle caching for the Findrs
+ * created with it (see <code>ElementCache</code>). The cache is cleared whenever
+ * the driver navigates, or switches to another window or frame.
+ *
+ * Page changes that don't go through the driver (e.g. clicking a link) are
+ * detected by the staleness checks of the cache.
+ */
+public class CachingWebDriver implements WebDriver, JavascriptExecutor, TakesScreenshot, WrapsDriver {
+
+    private final WebDriver driver;
+    private final ElementCache elementCache;
+
+    public CachingWebDriver(WebDriver driver) {
+        this(driver, new ElementCache());
+    }
+
+    public CachingWebDriver(WebDriver driver, ElementCache elementCache) {
+        this.driver = driver;
+        this.elementCache = elementCache;
+    }
+
+    public ElementCache getElementCache() {
+        return elementCache;
+    }
+
+    @Override
+    public WebDriver getWrappedDriver() {
+        return driver;
+    }
+
+    @Override
+    public void get(String url) {
+        elementCache.invalidate();
+        driver.get(url);
+    }
+
+    @Override
+    public String getCurrentUrl() {
+        return driver.getCurrentUrl();
+    }
+
+    @Override
+    public String getTitle() {
+        return driver.getTitle();
+    }
+
+    @Override
+    public List<WebElement> findElements(By by) {
+        return driver.findElements(by);
+    }
+
+    @Override
+    public WebElement findElement(By by) {
+        return driver.findElement(by);
+    }
+
+    @Override
+    public String getPageSource() {
+        return driver.getPageSource();
+    }
+
+    @Override
+    public void close() {
+        elementCache.invalidate();
+        driver.close();
+    }
+
+    @Override
+    public void quit() {
+        elementCache.invalidate();
+        driver.quit();
+    }
+
+    @Override
+    public Set<String> getWindowHandles() {
+        return driver.getWindowHandles();
+    }
+
+    @Override
+    public String getWindowHandle() {
+        return driver.getWindowHandle();
+    }
+
+    @Override
+    public TargetLocator switchTo() {
+        final TargetLocator tl = driver.switchTo();
+        return new TargetLocator() {
+            @Override
+            public WebDriver frame(int index) {
+                elementCache.invalidate();
+                tl.frame(index);
+                return CachingWebDriver.this;
+            }
+
+            @Override
+            public WebDriver frame(String nameOrId) {
+                elementCache.invalidate();
+                tl.frame(nameOrId);
+                return CachingWebDriver.this;
+            }
+
+            @Override
+            public WebDriver frame(WebElement frameElement) {
+                elementCache.invalidate();
+                tl.frame(frameElement);
+                return CachingWebDriver.this;
+            }
+
+            @Override
+            public WebDriver parentFrame() {
+                elementCache.invalidate();
+                tl.parentFrame();
+                return CachingWebDriver.this;
+            }
+
+            @Override
+            public WebDriver window(String nameOrHandle) {
+                elementCache.invalidate();
+                tl.window(nameOrHandle);
+                return CachingWebDriver.this;
+            }
+
+            @Override
+            public WebDriver defaultContent() {
+                elementCache.invalidate();
+                tl.defaultContent();
+                return CachingWebDriver.this;
+            }
+
+            @Override
+            public WebElement activeElement() {
+                return tl.activeElement();
+            }
+
+            @Override
+            public Alert alert() {
+                return tl.alert();
+            }
+        };
+    }
+
+    @Override
+    public Navigation navigate() {
+        final Navigation n = driver.navigate();
+        return new Navigation() {
+            @Override
+            public void back() {
+                elementCache.invalidate();
+                n.back();
+            }
+
+            @Override
+            public void forward() {
+                elementCache.invalidate();
+                n.forward();
+            }
+
+            @Override
+            public void to(String url) {
+                elementCache.invalidate();
+                n.to(url);
+            }
+
+            @Override
+            public void to(URL url) {
+                elementCache.invalidate();
+                n.to(url);
+            }
+
+            @Override
+            public void refresh() {
+                elementCache.invalidate();
+                n.refresh();
+            }
+        };
+    }
+
+    @Override
+    public Options manage() {
+        return driver.manage();
+    }
+
+    private JavascriptExecutor executor() {
+        if (driver instanceof JavascriptExecutor) {
+            return (JavascriptExecutor)driver;
+        }
+        throw new UnsupportedOperationException("Wrapped driver doesn't support JavaScript : " + driver);
+    }
+
+    @Override
+    public Object executeScript(String script, Object... args) {
+        return executor().executeScript(script, args);
+    }
+
+    @Override
+    public Object executeAsyncScript(String script, Object... args) {
+        return executor().executeAsyncScript(script, args);
+    }
+
+    @Override
+    public <X> X getScreenshotAs(OutputType<X> target) throws WebDriverException {
+        if (driver instanceof TakesScreenshot) {
+            return ((TakesScreenshot)driver).getScreenshotAs(target);
+        }
+        throw new UnsupportedOperationException("Wrapped driver doesn't take screenshots : " + driver);
+    }
+
+    @Override
+    public String toString() {
+        return "CachingWebDriver{" + driver + "}";
+    }
+}
@@ -36,7 +36,8 @@ public class ChromeBuildr {
     }
 
     /**
-     * Create chrome options from passes locales
+     * Create chrome options from passes locales. Options must only be used
+     * for one driver.
      * @param locales comma-separated locales
      * @return chrome options
      */
@@ -1,13 +1,52 @@
 package com.pojosontheweb.selenium;
 
+import com.google.common.base.Supplier;
 import org.openqa.selenium.WebDriver;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Builds WebDrivers !
  * Uses system properties and/or API in order to create the appropriate driver.
  */
 public class DriverBuildr {
 
+    /**
+     * Runs the async builds. Threads are daemons, so that
+     * pending builds don't prevent the JVM from exiting.
+     */
+    private static final ExecutorService ASYNC_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "driver-buildr-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Invoke passed factory in the background, and return a future for the driver. Allows
+     * to overlap browser startup with something else (e.g. running another test).
+     * @param factory creates the driver
+     * @return the driver's future
+     */
+    public static Future<WebDriver> buildAsync(final Supplier<WebDriver> factory) {
+        return ASYNC_EXECUTOR.submit(new Callable<WebDriver>() {
+            @Override
+            public WebDriver call() throws Exception {
+                return factory.get();
+            }
+        });
+    }
+
     /**
      * Create and return a builder from System properties.
      */
@@ -24,6 +63,19 @@ public class DriverBuildr {
         static final String PROP_WEBTESTS_LOCALES = "webtests.locales";
         static final String PROP_WEBTESTS_HUB_URL = "webtests.hub.url";
 
+        /**
+         * Build the driver in the background (sys props are read when the build starts).
+         * @return the driver's future
+         */
+        public Future<WebDriver> buildAsync() {
+            return DriverBuildr.buildAsync(new Supplier<WebDriver>() {
+                @Override
+                public WebDriver get() {
+                    return build();
+                }
+            });
+        }
+
         public WebDriver build() {
             // find requested browser in sys properties
             String browserName = System.getProperty(PROP_WEBTESTS_BROWSER, "firefox");
@@ -0,0 +1,466 @@
+package com.pojosontheweb.selenium;
+
+import com.google.common.base.Supplier;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+import java.util.*;
+
+/**
+ * Pool of WebDrivers, so that browsers can be re-used across tests instead of
+ * being started (and quit) for every test.
+ *
+ * Drivers are pooled by key (browser, locales and hub url for drivers
+ * built from the sys props). Released drivers are reset (storage, cookies, extra
+ * windows, blank page) and kept for the next test, unless the reset fails or
+ * they have been used <code>maxReuse</code> times. Idle drivers are health-checked
+ * before being handed out.
+ *
+ * The pool can also start drivers in the background, ahead of demand : call
+ * <code>expect()</code> with the number of tests to come, and the pool keeps up to
+ * <code>spawnAhead</code> drivers ready (or starting) for them. Instances are thread-safe.
+ */
+public class DriverPool {
+
+    public static final String SYS_PROP_POOL_ENABLED = "webtests.pool.enabled";
+    public static final String SYS_PROP_POOL_MAX_REUSE = "webtests.pool.maxReuse";
+    public static final String SYS_PROP_POOL_SPAWN_AHEAD = "webtests.pool.spawnAhead";
+
+    /** the default max number of tests a driver is used for */
+    public static final int DEFAULT_MAX_REUSE = 50;
+
+    private static final String RESET_STORAGE_SCRIPT =
+            "try { window.localStorage.clear(); } catch(e) {}\n" +
+            "try { window.sessionStorage.clear(); } catch(e) {}";
+
+    private static DriverPool defaultPool = null;
+
+    /**
+     * Return true if pooling is enabled in the sys props.
+     */
+    public static boolean isEnabledFromSysProps() {
+        return "true".equals(System.getProperty(SYS_PROP_POOL_ENABLED, "false").toLowerCase());
+    }
+
+    /**
+     * Return the pool shared by all <code>TestUtil</code>s, created with <code>maxReuse</code>
+     * from the sys props. Idle drivers are quit when the JVM exits.
+     * @return the default pool
+     */
+    public static synchronized DriverPool getDefault() {
+        if (defaultPool == null) {
+            int maxReuse = Integer.parseInt(System.getProperty(SYS_PROP_POOL_MAX_REUSE,
+                    Integer.toString(DEFAULT_MAX_REUSE)));
+            int spawnAhead = Integer.parseInt(System.getProperty(SYS_PROP_POOL_SPAWN_AHEAD, "0"));
+            final DriverPool pool = new DriverPool(maxReuse, spawnAhead);
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    pool.shutdown();
+                }
+            });
+            defaultPool = pool;
+        }
+        return defaultPool;
+    }
+
+    private static class PooledDriver {
+        final String key;
+        final WebDriver driver;
+        int uses = 0;
+
+        PooledDriver(String key, WebDriver driver) {
+            this.key = key;
+            this.driver = driver;
+        }
+    }
+
+    /**
+     * Background spawning state for a key
+     */
+    private static class Spawns {
+        final Supplier<WebDriver> factory;
+        int pending = 0;
+        int spawning = 0;
+
+        Spawns(Supplier<WebDriver> factory) {
+            this.factory = factory;
+        }
+    }
+
+    private final int maxReuse;
+    private final int spawnAhead;
+    private final Map<String,Spawns> spawns = new HashMap<String, Spawns>();
+    private final Map<String,Deque<PooledDriver>> idle = new HashMap<String, Deque<PooledDriver>>();
+    private final Map<WebDriver,PooledDriver> inUse = new IdentityHashMap<WebDriver, PooledDriver>();
+    private boolean shutdown = false;
+
+    private int created = 0;
+    private int reused = 0;
+    private int spawned = 0;
+    private int evicted = 0;
+
+    public DriverPool() {
+        this(DEFAULT_MAX_REUSE);
+    }
+
+    /**
+     * Create a pool that quits drivers after <code>maxReuse</code> uses.
+     * @param maxReuse the max number of times a driver is handed out
+     */
+    public DriverPool(int maxReuse) {
+        this(maxReuse, 0);
+    }
+
+    /**
+     * Create a pool that quits drivers after <code>maxReuse</code> uses, and starts
+     * up to <code>spawnAhead</code> drivers in the background for expected tests.
+     * @param maxReuse the max number of times a driver is handed out
+     * @param spawnAhead the max number of drivers started ahead of demand (0 to disable)
+     */
+    public DriverPool(int maxReuse, int spawnAhead) {
+        if (maxReuse < 1) {
+            throw new IllegalArgumentException("maxReuse must be >= 1 : " + maxReuse);
+        }
+        if (spawnAhead < 0) {
+            throw new IllegalArgumentException("spawnAhead must be >= 0 : " + spawnAhead);
+        }
+        this.maxReuse = maxReuse;
+        this.spawnAhead = spawnAhead;
+    }
+
+    private static void log(String... args) {
+        if (Findr.isDebugEnabled()) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("[DriverPool] ");
+            for (String s : args) {
+                sb.append(s);
+            }
+            Findr.logDebug(sb.toString());
+        }
+    }
+
+    /**
+     * Return the pool key for the current sys props.
+     */
+    public static String keyFromSysProps() {
+        return System.getProperty(DriverBuildr.SysPropsBuildr.PROP_WEBTESTS_BROWSER, "firefox") +
+                "|" + System.getProperty(DriverBuildr.SysPropsBuildr.PROP_WEBTESTS_LOCALES, "") +
+                "|" + System.getProperty(DriverBuildr.SysPropsBuildr.PROP_WEBTESTS_HUB_URL, "");
+    }
+
+    /**
+     * Hand out a driver for the current sys props : an idle one if any,
+     * or a new one built with <code>DriverBuildr.fromSysProps()</code>.
+     * @return a driver, to be passed back to <code>release()</code> when done
+     */
+    public WebDriver acquire() {
+        return acquire(keyFromSysProps(), SYS_PROPS_FACTORY);
+    }
+
+    private static final Supplier<WebDriver> SYS_PROPS_FACTORY = new Supplier<WebDriver>() {
+        @Override
+        public WebDriver get() {
+            return DriverBuildr.fromSysProps().build();
+        }
+    };
+
+    /**
+     * Tell the pool that <code>count</code> drivers will be acquired for the current
+     * sys props, so that it can start them in the background.
+     * @param count the number of upcoming <code>acquire()</code> calls
+     */
+    public void expect(int count) {
+        expect(keyFromSysProps(), SYS_PROPS_FACTORY, count);
+    }
+
+    /**
+     * Tell the pool that <code>count</code> drivers will be acquired for passed key,
+     * so that it can start them in the background with passed factory. Does nothing
+     * if <code>spawnAhead</code> is 0.
+     * @param key the pool key
+     * @param factory creates drivers for the key
+     * @param count the number of upcoming <code>acquire()</code> calls
+     */
+    public synchronized void expect(String key, Supplier<WebDriver> factory, int count) {
+        if (spawnAhead == 0 || count <= 0 || shutdown) {
+            return;
+        }
+        Spawns sp = spawns.get(key);
+        if (sp == null) {
+            sp = new Spawns(factory);
+            spawns.put(key, sp);
+        }
+        sp.pending += count;
+        log("expecting ", Integer.toString(sp.pending), " test(s) for ", key);
+        topUp(key, sp);
+    }
+
+    /**
+     * Start drivers in the background until <code>spawnAhead</code> drivers are
+     * ready or starting, without exceeding the number of pending tests.
+     */
+    private void topUp(final String key, final Spawns sp) {
+        Deque<PooledDriver> drivers = idle.get(key);
+        int ready = (drivers == null ? 0 : drivers.size()) + sp.spawning;
+        int target = Math.min(spawnAhead, sp.pending);
+        for (int i = ready; i < target; i++) {
+            sp.spawning++;
+            log("spawning driver ", key);
+            DriverBuildr.buildAsync(new Supplier<WebDriver>() {
+                @Override
+                public WebDriver get() {
+                    WebDriver driver = null;
+                    try {
+                        driver = sp.factory.get();
+                        return driver;
+                    } catch(RuntimeException e) {
+                        log("error while spawning driver ", key, " : ", e.toString());
+                        throw e;
+                    } finally {
+                        spawned(key, sp, driver);
+                    }
+                }
+            });
+        }
+    }
+
+    private void spawned(String key, Spawns sp, WebDriver driver) {
+        boolean quit;
+        PooledDriver pd = driver == null ? null : new PooledDriver(key, driver);
+        synchronized (this) {
+            sp.spawning--;
+            quit = shutdown;
+            if (pd != null) {
+                created++;
+                if (!quit) {
+                    spawned++;
+                    idleFor(key).addLast(pd);
+                }
+            }
+            notifyAll();
+        }
+        if (quit && pd != null) {
+            evict(pd);
+        }
+    }
+
+    private Deque<PooledDriver> idleFor(String key) {
+        Deque<PooledDriver> drivers = idle.get(key);
+        if (drivers == null) {
+            drivers = new ArrayDeque<PooledDriver>();
+            idle.put(key, drivers);
+        }
+        return drivers;
+    }
+
+    /**
+     * Hand out an idle driver for passed key if any, or a new one created with
+     * passed factory.
+     * @param key the pool key
+     * @param factory creates drivers for the key
+     * @return a driver, to be passed back to <code>release()</code> when done
+     */
+    public WebDriver acquire(String key, Supplier<WebDriver> factory) {
+        boolean first = true;
+        while (true) {
+            PooledDriver pd;
+            synchronized (this) {
+                if (shutdown) {
+                    throw new IllegalStateException("pool has been shut down");
+                }
+                Spawns sp = spawns.get(key);
+                if (sp != null && first && sp.pending > 0) {
+                    sp.pending--;
+                }
+                first = false;
+                pd = idleFor(key).pollFirst();
+                while (pd == null && sp != null && sp.spawning > 0) {
+                    // a driver is starting, it'll be here sooner than a new one
+                    try {
+                        wait();
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("interrupted while waiting for driver " + key, e);
+                    }
+                    pd = idleFor(key).pollFirst();
+                }
+                if (sp != null) {
+                    topUp(key, sp);
+                }
+            }
+            if (pd == null) {
+                break;
+            }
+            if (isHealthy(pd.driver)) {
+                synchronized (this) {
+                    if (pd.uses > 0) {
+                        reused++;
+                    }
+                    pd.uses++;
+                    inUse.put(pd.driver, pd);
+                }
+                log("re-using driver ", key, " (use ", Integer.toString(pd.uses), ")");
+                return pd.driver;
+            }
+            log("driver failed health check, evicting ", key);
+            evict(pd);
+        }
+        log("creating driver ", key);
+        WebDriver driver = factory.get();
+        PooledDriver pd = new PooledDriver(key, driver);
+        pd.uses = 1;
+        synchronized (this) {
+            created++;
+            inUse.put(driver, pd);
+        }
+        return driver;
+    }
+
+    /**
+     * Give back a driver obtained from <code>acquire()</code>. The driver is reset
+     * and kept for another test, or quit if it can't be re-used.
+     * @param driver the driver
+     */
+    public void release(WebDriver driver) {
+        PooledDriver pd;
+        synchronized (this) {
+            pd = inUse.remove(driver);
+        }
+        if (pd == null) {
+            throw new IllegalArgumentException("driver doesn't belong to the pool : " + driver);
+        }
+        if (pd.uses >= maxReuse) {
+            log("driver used ", Integer.toString(pd.uses), " times, evicting ", pd.key);
+            evict(pd);
+            return;
+        }
+        if (!reset(driver)) {
+            log("driver reset failed, evicting ", pd.key);
+            evict(pd);
+            return;
+        }
+        boolean quit;
+        synchronized (this) {
+            quit = shutdown;
+            if (!quit) {
+                idleFor(pd.key).addFirst(pd);
+                notifyAll();
+            }
+        }
+        if (quit) {
+            evict(pd);
+        }
+    }
+
+    /**
+     * Quit a driver obtained from <code>acquire()</code>, instead of giving it back.
+     * @param driver the driver
+     */
+    public void discard(WebDriver driver) {
+        PooledDriver pd;
+        synchronized (this) {
+            pd = inUse.remove(driver);
+        }
+        if (pd == null) {
+            throw new IllegalArgumentException("driver doesn't belong to the pool : " + driver);
+        }
+        evict(pd);
+    }
+
+    /**
+     * Quit all idle drivers. Drivers in use are quit when released.
+     */
+    public void shutdown() {
+        List<PooledDriver> toQuit = new ArrayList<PooledDriver>();
+        synchronized (this) {
+            shutdown = true;
+            for (Deque<PooledDriver> drivers : idle.values()) {
+                toQuit.addAll(drivers);
+            }
+            idle.clear();
+            spawns.clear();
+            notifyAll();
+        }
+        for (PooledDriver pd : toQuit) {
+            evict(pd);
+        }
+    }
+
+    private void evict(PooledDriver pd) {
+        synchronized (this) {
+            evicted++;
+        }
+        try {
+            pd.driver.quit();
+        } catch(Exception e) {
+            log("error while quitting driver ", pd.key, " : ", e.toString());
+        }
+    }
+
+    /**
+     * Cheap round trip to the browser.
+     */
+    protected boolean isHealthy(WebDriver driver) {
+        try {
+            return driver.getWindowHandle() != null;
+        } catch(Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reset the driver before it's handed out again : close extra windows,
+     * clear storage and cookies, and load a blank page. Storage and cookies are
+     * cleared for the current page's domain only.
+     * @return true if the driver can be re-used
+     */
+    protected boolean reset(WebDriver driver) {
+        try {
+            Set<String> handles = driver.getWindowHandles();
+            if (handles.isEmpty()) {
+                return false;
+            }
+            Iterator<String> it = handles.iterator();
+            String main = it.next();
+            while (it.hasNext()) {
+                driver.switchTo().window(it.next());
+                driver.close();
+            }
+            driver.switchTo().window(main);
+            if (driver instanceof JavascriptExecutor) {
+                ((JavascriptExecutor)driver).executeScript(RESET_STORAGE_SCRIPT);
+            }
+            driver.manage().deleteAllCookies();
+            driver.get("about:blank");
+            return true;
+        } catch(Exception e) {
+            return false;
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        int res = 0;
+        for (Deque<PooledDriver> drivers : idle.values()) {
+            res += drivers.size();
+        }
+        return res;
+    }
+
+    public synchronized int getInUseCount() {
+        return inUse.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DriverPool{" +
+                "maxReuse=" + maxReuse +
+                ", idle=" + getIdleCount() +
+                ", inUse=" + inUse.size() +
+                ", created=" + created +
+                ", reused=" + reused +
+                ", spawned=" + spawned +
+                ", evicted=" + evicted +
+                '}';
+    }
+}
@@ -0,0 +1,135 @@
+package com.pojosontheweb.selenium;
+
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of resolved <code>WebElement</code> handles for a driver, keyed by
+ * Findr path. Only the leading <code>elem(By)</code> steps of a chain are
+ * cached, as predicates have to be checked at every eval.
+ *
+ * Cached handles are re-used without checking, and probed for staleness
+ * only when the rest of the chain fails : the cache is cleared if a stale
+ * handle is found, and the chain is resolved again from the driver.
+ *
+ * Use a <code>CachingWebDriver</code> in order to enable the cache for all
+ * the Findrs of a driver : it clears the cache on navigation. Instances are thread-safe.
+ */
+public final class ElementCache {
+
+    /** the default max number of cached handles */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private final Map<List<String>,WebElement> elements;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long staleHits = 0;
+
+    public ElementCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a cache that holds at most <code>maxSize</code> handles. The least
+     * recently used handles are evicted first.
+     * @param maxSize the max number of handles
+     */
+    public ElementCache(final int maxSize) {
+        this.elements = new LinkedHashMap<List<String>, WebElement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, WebElement> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Return the cached handle for passed path, or null if none. Lookups
+     * are not counted : an eval may probe several paths, use
+     * <code>countLookup</code> once per eval.
+     */
+    synchronized WebElement get(List<String> path) {
+        return elements.get(path);
+    }
+
+    /**
+     * Count a hit or a miss for an eval.
+     * @param hit true if a cached handle was found for the eval
+     */
+    synchronized void countLookup(boolean hit) {
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+    }
+
+    synchronized void put(List<String> path, WebElement element) {
+        elements.put(new ArrayList<String>(path), element);
+    }
+
+    /**
+     * Probe passed handle, and clear the cache if it's stale.
+     * @return true if the handle is stale
+     */
+    boolean checkStale(WebElement element) {
+        try {
+            // cheapest remote call we have
+            element.isEnabled();
+            return false;
+        } catch(StaleElementReferenceException e) {
+            synchronized (this) {
+                staleHits++;
+            }
+            invalidate();
+            return true;
+        } catch(WebDriverException e) {
+            // can't tell : don't use the handle again
+            invalidate();
+            return true;
+        }
+    }
+
+    /**
+     * Remove all cached handles.
+     */
+    public synchronized void invalidate() {
+        elements.clear();
+    }
+
+    public synchronized int size() {
+        return elements.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Return the number of cached handles that were found stale.
+     */
+    public synchronized long getStaleHits() {
+        return staleHits;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ElementCache{" +
+                "size=" + elements.size() +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", staleHits=" + staleHits +
+                '}';
+    }
+}
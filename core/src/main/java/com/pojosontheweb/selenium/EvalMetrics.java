@@ -0,0 +1,133 @@
+package com.pojosontheweb.selenium;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Metrics for a single eval of a Findr or ListFindr. Instances are
+ * passed to the <code>EvalMetricsListener</code> of the findr.
+ */
+public final class EvalMetrics {
+
+    /**
+     * How an eval ended.
+     */
+    public enum Outcome {
+        /** the chain and the callback succeeded */
+        SUCCESS,
+        /** the chain didn't succeed before the timeout */
+        TIMEOUT,
+        /** an unexpected exception was thrown */
+        ERROR
+    }
+
+    private final List<String> path;
+    private final Outcome outcome;
+    private final long elapsedMillis;
+    private final int polls;
+    private final int commands;
+    private final int exceptionRetries;
+    private final long[] stepNanos;
+
+    EvalMetrics(List<String> path,
+                Outcome outcome,
+                long elapsedMillis,
+                int polls,
+                int commands,
+                int exceptionRetries,
+                long[] stepNanos) {
+        this.path = Collections.unmodifiableList(path);
+        this.outcome = outcome;
+        this.elapsedMillis = elapsedMillis;
+        this.polls = polls;
+        this.commands = commands;
+        this.exceptionRetries = exceptionRetries;
+        this.stepNanos = stepNanos;
+    }
+
+    /**
+     * Return the path of the evaluated findr
+     */
+    public List<String> getPath() {
+        return path;
+    }
+
+    /**
+     * Return the path as a String, as found in timeout messages
+     */
+    public String getPathString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < path.size(); i++) {
+            if (i > 0) {
+                sb.append("->");
+            }
+            sb.append(path.get(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return how the eval ended
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Return the total wait time in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Return the number of polls
+     */
+    public int getPolls() {
+        return polls;
+    }
+
+    /**
+     * Return the number of WebDriver commands issued by the chain steps and callback, over
+     * all polls. Each step invocation counts as one command (one per element for
+     * ListFindr filters), so custom predicates doing several calls are under-estimated.
+     */
+    public int getCommands() {
+        return commands;
+    }
+
+    /**
+     * Return the number of polls that were retried because a WebDriverException was thrown
+     */
+    public int getExceptionRetries() {
+        return exceptionRetries;
+    }
+
+    /**
+     * Return the total time spent in passed path element, over all polls.
+     * @param index the index of the path element
+     * @return the time in nanoseconds
+     */
+    public long getStepNanos(int index) {
+        return stepNanos[index];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("EvalMetrics{path=").append(getPathString())
+            .append(", outcome=").append(outcome)
+            .append(", elapsedMillis=").append(elapsedMillis)
+            .append(", polls=").append(polls)
+            .append(", commands=").append(commands)
+            .append(", exceptionRetries=").append(exceptionRetries)
+            .append(", stepMillis=[");
+        for (int i = 0; i < stepNanos.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(stepNanos[i] / 1000000);
+        }
+        return sb.append("]}").toString();
+    }
+}
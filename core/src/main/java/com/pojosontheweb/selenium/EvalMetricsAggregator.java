@@ -0,0 +1,168 @@
+package com.pojosontheweb.selenium;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory listener that aggregates eval metrics by path, and
+ * reports the slowest ones. Thread-safe.
+ */
+public class EvalMetricsAggregator implements EvalMetricsListener {
+
+    /**
+     * Aggregated metrics for a path.
+     */
+    public static final class PathStats {
+
+        private final String path;
+        private int evals = 0;
+        private int timeouts = 0;
+        private long totalMillis = 0;
+        private long maxMillis = 0;
+        private long polls = 0;
+        private long commands = 0;
+        private long exceptionRetries = 0;
+        private final long[] stepNanos;
+
+        PathStats(String path, int steps) {
+            this.path = path;
+            this.stepNanos = new long[steps];
+        }
+
+        synchronized void add(EvalMetrics m) {
+            evals++;
+            if (m.getOutcome() == EvalMetrics.Outcome.TIMEOUT) {
+                timeouts++;
+            }
+            totalMillis += m.getElapsedMillis();
+            maxMillis = Math.max(maxMillis, m.getElapsedMillis());
+            polls += m.getPolls();
+            commands += m.getCommands();
+            exceptionRetries += m.getExceptionRetries();
+            for (int i = 0; i < stepNanos.length; i++) {
+                stepNanos[i] += m.getStepNanos(i);
+            }
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public synchronized int getEvals() {
+            return evals;
+        }
+
+        public synchronized int getTimeouts() {
+            return timeouts;
+        }
+
+        public synchronized long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public synchronized long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public synchronized long getPolls() {
+            return polls;
+        }
+
+        public synchronized long getCommands() {
+            return commands;
+        }
+
+        public synchronized long getExceptionRetries() {
+            return exceptionRetries;
+        }
+
+        /**
+         * Return the number of path elements
+         */
+        public int getStepCount() {
+            return stepNanos.length;
+        }
+
+        /**
+         * Return the total time spent in passed path element, over all evals.
+         * @param index the index of the path element
+         * @return the time in nanoseconds
+         */
+        public synchronized long getStepNanos(int index) {
+            return stepNanos[index];
+        }
+    }
+
+    private final ConcurrentMap<String,PathStats> stats = new ConcurrentHashMap<String, PathStats>();
+
+    @Override
+    public void onEval(EvalMetrics metrics) {
+        String path = metrics.getPathString();
+        PathStats s = stats.get(path);
+        if (s == null) {
+            PathStats newStats = new PathStats(path, metrics.getPath().size());
+            s = stats.putIfAbsent(path, newStats);
+            if (s == null) {
+                s = newStats;
+            }
+        }
+        s.add(metrics);
+    }
+
+    /**
+     * Return the stats of the paths with the highest total wait time.
+     * @param n max number of paths to return
+     * @return the stats, slowest first
+     */
+    public List<PathStats> getSlowest(int n) {
+        List<PathStats> all = new ArrayList<PathStats>(stats.values());
+        Collections.sort(all, new Comparator<PathStats>() {
+            @Override
+            public int compare(PathStats o1, PathStats o2) {
+                long t1 = o1.getTotalMillis();
+                long t2 = o2.getTotalMillis();
+                return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+            }
+        });
+        return all.size() > n ? all.subList(0, n) : all;
+    }
+
+    /**
+     * Return a text report of the slowest paths.
+     * @param n max number of paths to report
+     * @return the report
+     */
+    public String report(int n) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[Findr] Slowest selectors (total ms, evals, max ms, polls, commands, timeouts, exception retries, ms per path element) :\n");
+        for (PathStats s : getSlowest(n)) {
+            sb.append("  ")
+                .append(s.getTotalMillis()).append("ms\t")
+                .append(s.getEvals()).append("\t")
+                .append(s.getMaxMillis()).append("ms\t")
+                .append(s.getPolls()).append("\t")
+                .append(s.getCommands()).append("\t")
+                .append(s.getTimeouts()).append("\t")
+                .append(s.getExceptionRetries()).append("\t");
+            for (int i = 0; i < s.getStepCount(); i++) {
+                if (i > 0) {
+                    sb.append(",");
+                }
+                sb.append(s.getStepNanos(i) / 1000000);
+            }
+            sb.append("\t").append(s.getPath()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Clear all aggregated stats
+     */
+    public void clear() {
+        stats.clear();
+    }
+}
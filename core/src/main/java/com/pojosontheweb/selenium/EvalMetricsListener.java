@@ -0,0 +1,15 @@
+package com.pojosontheweb.selenium;
+
+/**
+ * Gets called back after each eval of a Findr or ListFindr.
+ * See <code>Findr.setMetricsListener()</code>.
+ */
+public interface EvalMetricsListener {
+
+    /**
+     * Called after each eval, whatever the outcome.
+     * @param metrics the metrics of the eval
+     */
+    void onEval(EvalMetrics metrics);
+
+}
@@ -0,0 +1,47 @@
+package com.pojosontheweb.selenium;
+
+/**
+ * Records metrics during an eval. Bound to the evaluating
+ * thread, so that the (shared) chain functions can report to it.
+ */
+final class EvalRecorder {
+
+    private static final ThreadLocal<EvalRecorder> CURRENT = new ThreadLocal<EvalRecorder>();
+
+    final long[] stepNanos;
+    int commands = 0;
+    int exceptionRetries = 0;
+
+    EvalRecorder(int pathSize) {
+        this.stepNanos = new long[pathSize];
+    }
+
+    static EvalRecorder current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Bind passed recorder to current thread, and return the previous one (evals can be nested).
+     */
+    static EvalRecorder bind(EvalRecorder recorder) {
+        EvalRecorder previous = CURRENT.get();
+        CURRENT.set(recorder);
+        return previous;
+    }
+
+    static void unbind(EvalRecorder previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    void step(int index, long nanos, int commandCount) {
+        if (index >= 0 && index < stepNanos.length) {
+            stepNanos[index] += nanos;
+        }
+        commands += commandCount;
+    }
+
+}
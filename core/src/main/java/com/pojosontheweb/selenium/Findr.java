@@ -5,7 +5,11 @@ import java.util.*;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
 import org.openqa.selenium.*;
+import org.openqa.selenium.support.ui.Duration;
+import org.openqa.selenium.support.ui.Sleeper;
+import org.openqa.selenium.support.ui.SystemClock;
 import org.openqa.selenium.support.ui.WebDriverWait;
 
 /**
@@ -43,11 +47,56 @@ public final class Findr {
 
     private final long sleepInMillis;
 
+    /**
+     * The polling strategy (null for fixed polling every <code>sleepInMillis</code>)
+     */
+    private final PollingStrategy pollingStrategy;
+
+    /**
+     * The individual steps of the chain, used in batch probe mode
+     */
+    private final List<BatchProbe.Step> steps;
+
+    /**
+     * Evaluate the chain with a single script when possible
+     */
+    private final boolean batchProbe;
+
+    /**
+     * Gets notified after each eval (can be null)
+     */
+    private final EvalMetricsListener metricsListener;
+
+    /**
+     * The number of leading <code>elem(By)</code> steps, which can be
+     * cached when the driver is a <code>CachingWebDriver</code>
+     */
+    private final int cacheablePrefix;
+
+    /**
+     * The verbose flag, read once from the sys props : it's
+     * checked on every poll, for every step.
+     */
+    private static volatile boolean debugEnabled = Boolean.valueOf(System.getProperty(SYSPROP_VERBOSE, "false"));
+
+    /**
+     * Return true if debug logs are enabled. The <code>webtests.findr.verbose</code> sys prop
+     * is read only once : use <code>setDebugEnabled()</code> in order to change it afterwards.
+     * @return true if debug logs are enabled
+     */
     public static boolean isDebugEnabled() {
-        return Boolean.valueOf(System.getProperty(SYSPROP_VERBOSE, "false"));
+        return debugEnabled;
+    }
+
+    /**
+     * Enable or disable debug logs.
+     * @param enabled true to enable logs
+     */
+    public static void setDebugEnabled(boolean enabled) {
+        debugEnabled = enabled;
     }
 
-    private static Function<String,?> debugHandler = new Function<String, Object>() {
+    private static volatile Function<String,?> debugHandler = new Function<String, Object>() {
         @Override
         public Object apply(String input) {
             System.out.println(input);
@@ -64,12 +113,31 @@ public final class Findr {
         debugHandler = h;
     }
 
+    /**
+     * Return the current debug log handler function.
+     * @return the debug log handler function
+     */
+    public static Function<String,?> getDebugHandler() {
+        return debugHandler;
+    }
+
     public static void logDebug(String message) {
-        if (isDebugEnabled()) {
+        if (debugEnabled) {
             debugHandler.apply(message);
         }
     }
 
+    /**
+     * Log the message returned by passed supplier, if debug is enabled. The
+     * supplier is not invoked otherwise, so the message is never built.
+     * @param message the message supplier
+     */
+    public static void logDebug(Supplier<String> message) {
+        if (debugEnabled) {
+            debugHandler.apply(message.get());
+        }
+    }
+
     /**
      * Create a Findr with passed arguments
      * @param driver the WebDriver
@@ -84,7 +152,8 @@ public final class Findr {
      * @param waitTimeout the wait timeout in seconds
      */
     public Findr(WebDriver driver, int waitTimeout) {
-        this(driver, waitTimeout, WebDriverWait.DEFAULT_SLEEP_TIMEOUT, null, Collections.<String>emptyList());
+        this(driver, waitTimeout, WebDriverWait.DEFAULT_SLEEP_TIMEOUT, null, null, Collections.<String>emptyList(),
+                Collections.<BatchProbe.Step>emptyList(), false, null, 0);
     }
 
     /**
@@ -135,13 +204,23 @@ public final class Findr {
     private Findr(WebDriver driver,
                   int waitTimeout,
                   long sleepInMillis,
+                  PollingStrategy pollingStrategy,
                   Function<SearchContext, WebElement> f,
-                  List<String> path) {
+                  List<String> path,
+                  List<BatchProbe.Step> steps,
+                  boolean batchProbe,
+                  EvalMetricsListener metricsListener,
+                  int cacheablePrefix) {
         this.driver = driver;
         this.waitTimeout = waitTimeout;
         this.sleepInMillis = sleepInMillis;
+        this.pollingStrategy = pollingStrategy;
         this.f = f;
         this.path = path;
+        this.steps = steps;
+        this.batchProbe = batchProbe;
+        this.metricsListener = metricsListener;
+        this.cacheablePrefix = cacheablePrefix;
     }
 
     private <F,T> Function<F,T> wrapAndTrapCatchSeleniumException(final Function<F, T> function) {
@@ -152,6 +231,10 @@ public final class Findr {
                     return function.apply(input);
                 } catch(WebDriverException e) {
                     // retry in case of exception
+                    EvalRecorder r = EvalRecorder.current();
+                    if (r != null) {
+                        r.exceptionRetries++;
+                    }
                     return null;
                 }
             }
@@ -159,21 +242,55 @@ public final class Findr {
     }
 
     private Findr compose(final Function<SearchContext,WebElement> function, final String pathElem) {
-        final Function<SearchContext,WebElement> newFunction = wrapAndTrapCatchSeleniumException(function);
+        return compose(function, pathElem, null, false);
+    }
+
+    /**
+     * Wrap passed step function so that it reports to the current EvalRecorder, if any.
+     */
+    private static Function<SearchContext,WebElement> instrument(final Function<SearchContext,WebElement> function,
+                                                                 final int stepIndex) {
+        return new Function<SearchContext, WebElement>() {
+            @Override
+            public WebElement apply(SearchContext input) {
+                EvalRecorder r = EvalRecorder.current();
+                if (r == null) {
+                    return function.apply(input);
+                }
+                long start = System.nanoTime();
+                try {
+                    return function.apply(input);
+                } finally {
+                    r.step(stepIndex, System.nanoTime() - start, 1);
+                }
+            }
+        };
+    }
+
+    private Findr compose(final Function<SearchContext,WebElement> function,
+                          final String pathElem,
+                          List<String> script,
+                          boolean locator) {
+        final Function<SearchContext,WebElement> newFunction =
+                instrument(wrapAndTrapCatchSeleniumException(function), steps.size());
         ArrayList<String> newPath = new ArrayList<String>(path);
         if (pathElem!=null) {
             newPath.add(pathElem);
         }
+        ArrayList<BatchProbe.Step> newSteps = new ArrayList<BatchProbe.Step>(steps);
+        newSteps.add(new BatchProbe.Step(newFunction, pathElem, script));
         Function<SearchContext,WebElement> composed;
         if (f==null) {
             composed = new Function<SearchContext, WebElement>() {
                 @Override
                 public WebElement apply(SearchContext input) {
                     WebElement res = newFunction.apply(input);
-                    if (res==null) {
-                        logDebug("[Findr]  ! " + pathElem + " (null)");
-                    } else {
-                        logDebug("[Findr]  > " + pathElem + " : " + res);
+                    if (debugEnabled) {
+                        if (res==null) {
+                            logDebug("[Findr]  ! " + pathElem + " (null)");
+                        } else {
+                            logDebug("[Findr]  > " + pathElem + " : " + res);
+                        }
                     }
                     return res;
                 }
@@ -184,22 +301,116 @@ public final class Findr {
                 public WebElement apply(SearchContext input) {
                     WebElement res1 = f.apply(input);
                     if (res1==null) {
-                        logDebug("[Findr]  - " + pathElem);
+                        if (debugEnabled) {
+                            logDebug("[Findr]  - " + pathElem);
+                        }
                         return null;
                     } else {
                         WebElement res2 = newFunction.apply(res1);
-                        if (res2==null) {
-                            logDebug("[Findr]  ! " + pathElem);
-                        } else {
-                            logDebug("[Findr]  > " + pathElem + " : " + res2);
+                        if (debugEnabled) {
+                            if (res2==null) {
+                                logDebug("[Findr]  ! " + pathElem);
+                            } else {
+                                logDebug("[Findr]  > " + pathElem + " : " + res2);
+                            }
                         }
                         return res2;
                     }
                 }
             };
         }
-        return new Findr(driver, waitTimeout, sleepInMillis, composed, newPath);
+        int newCacheablePrefix = locator && cacheablePrefix == steps.size() ? cacheablePrefix + 1 : cacheablePrefix;
+        return new Findr(driver, waitTimeout, sleepInMillis, pollingStrategy, composed, newPath, newSteps, batchProbe,
+                metricsListener, newCacheablePrefix);
+
+    }
 
+    /**
+     * Return the function to use for evaluating the chain : the composed function,
+     * or a batched version of it in batch probe mode.
+     */
+    private Function<SearchContext,WebElement> chain() {
+        if (f==null) {
+            return null;
+        }
+        WebDriver scriptDriver = driver instanceof CachingWebDriver ?
+                ((CachingWebDriver)driver).getWrappedDriver() :
+                driver;
+        if (batchProbe && scriptDriver instanceof JavascriptExecutor) {
+            return BatchProbe.compile((JavascriptExecutor)scriptDriver, steps, f);
+        }
+        if (cacheablePrefix > 0 && driver instanceof CachingWebDriver) {
+            return cached(((CachingWebDriver)driver).getElementCache());
+        }
+        return f;
+    }
+
+    /**
+     * Return a function that evaluates the chain from the longest cached prefix,
+     * and caches the leading <code>elem(By)</code> steps. Falls back to a full
+     * resolution if the cached handle turns out to be stale.
+     */
+    private Function<SearchContext,WebElement> cached(final ElementCache cache) {
+        return new Function<SearchContext, WebElement>() {
+            @Override
+            public WebElement apply(SearchContext input) {
+                for (int i = cacheablePrefix; i > 0; i--) {
+                    WebElement e = cache.get(path.subList(0, i));
+                    if (e != null) {
+                        cache.countLookup(true);
+                        if (debugEnabled) {
+                            logDebug("[Findr]  > " + path.get(i - 1) + " : " + e + " (cached)");
+                        }
+                        if (i == steps.size()) {
+                            // nothing else to evaluate, make sure the handle is usable
+                            countCommands(1);
+                            if (!cache.checkStale(e)) {
+                                return e;
+                            }
+                        } else {
+                            WebElement res = resolve(e, i);
+                            if (res != null) {
+                                return res;
+                            }
+                            // the handle is probed only if the rest of the chain fails
+                            countCommands(1);
+                            if (!cache.checkStale(e)) {
+                                return null;
+                            }
+                        }
+                        logDebug("[Findr]  ! stale element, resolving again");
+                        return resolve(input, 0);
+                    }
+                }
+                cache.countLookup(false);
+                return resolve(input, 0);
+            }
+
+            private WebElement resolve(SearchContext input, int from) {
+                SearchContext current = input;
+                for (int i = from; i < steps.size(); i++) {
+                    BatchProbe.Step step = steps.get(i);
+                    WebElement next = step.function.apply(current);
+                    if (next == null) {
+                        if (debugEnabled) {
+                            logDebug("[Findr]  ! " + step.pathElem);
+                            for (int j = i + 1; j < steps.size(); j++) {
+                                logDebug("[Findr]  - " + steps.get(j).pathElem);
+                            }
+                        }
+                        return null;
+                    }
+                    if (debugEnabled) {
+                        logDebug("[Findr]  > " + step.pathElem + " : " + next);
+                    }
+                    if (i < cacheablePrefix) {
+                        cache.put(path.subList(0, i + 1), next);
+                    }
+                    current = next;
+                }
+                return (WebElement)current;
+            }
+        };
     }
 
     /**
@@ -208,16 +419,54 @@ public final class Findr {
      * @return an updated Findr instance
      */
     public Findr setTimeout(int timeoutInSeconds) {
-        return new Findr(driver, timeoutInSeconds, sleepInMillis, f, path);
+        return new Findr(driver, timeoutInSeconds, sleepInMillis, pollingStrategy, f, path, steps, batchProbe, metricsListener, cacheablePrefix);
     }
 
     /**
      * Set the WebDriverWait sleep interval (in ms). Use to control polling frequency.
+     * Ignored if a polling strategy is set.
      * @param sleepInMillis the sleep interval in milliseconds
      * @return an updated Findr instance
      */
     public Findr setSleepInMillis(long sleepInMillis) {
-        return new Findr(driver, waitTimeout, sleepInMillis, f, path);
+        return new Findr(driver, waitTimeout, sleepInMillis, pollingStrategy, f, path, steps, batchProbe, metricsListener, cacheablePrefix);
+    }
+
+    /**
+     * Set the polling strategy, and return an updated Findr. Allows to poll
+     * at variable intervals instead of sleeping <code>sleepInMillis</code>
+     * between polls. See <code>PollingStrategies</code>.
+     * @param pollingStrategy the polling strategy (null for fixed interval polling)
+     * @return an updated Findr instance
+     */
+    public Findr setPollingStrategy(PollingStrategy pollingStrategy) {
+        return new Findr(driver, waitTimeout, sleepInMillis, pollingStrategy, f, path, steps, batchProbe, metricsListener, cacheablePrefix);
+    }
+
+    /**
+     * Set the metrics listener, and return an updated Findr. The listener
+     * is notified after each eval of the Findr, and of the ListFindrs
+     * created from it.
+     * @param metricsListener the listener (null to disable metrics)
+     * @return an updated Findr instance
+     */
+    public Findr setMetricsListener(EvalMetricsListener metricsListener) {
+        return new Findr(driver, waitTimeout, sleepInMillis, pollingStrategy, f, path, steps, batchProbe, metricsListener, cacheablePrefix);
+    }
+
+    /**
+     * Enable or disable batch probe mode. In batch mode, the chain is evaluated with a single
+     * JavaScript call per poll, up to the first step that can't be scripted (any locator other than
+     * id, name, className, tagName or cssSelector, or any predicate other than the built-in
+     * <code>Findrs</code> ones). Remaining steps are evaluated one by one as usual.
+     *
+     * Text predicates are matched against the element's <code>innerText</code>, which is what
+     * <code>getText()</code> returns for visible elements.
+     * @param batchProbe true to enable batch probe mode
+     * @return an updated Findr instance
+     */
+    public Findr setBatchProbe(boolean batchProbe) {
+        return new Findr(driver, waitTimeout, sleepInMillis, pollingStrategy, f, path, steps, batchProbe, metricsListener, cacheablePrefix);
     }
 
     /**
@@ -240,7 +489,9 @@ public final class Findr {
                         }
                     }
                 },
-                by.toString()
+                by.toString(),
+                BatchProbe.scriptFor(by),
+                true
         );
     }
 
@@ -265,9 +516,83 @@ public final class Findr {
         return compose(f.f, "append[" + Joiner.on(", ").join(f.path) + "]");
     }
 
+    /**
+     * Sleeps as told by the polling strategy, ignoring WebDriverWait's interval,
+     * and counts the polls.
+     */
+    private static final class PollingSleeper implements Sleeper {
+
+        private final PollingStrategy.Polling polling;
+        private int polls = 1;
+
+        private PollingSleeper(PollingStrategy.Polling polling) {
+            this.polling = polling;
+        }
+
+        @Override
+        public void sleep(Duration duration) throws InterruptedException {
+            long millis = polling.nextSleepInMillis();
+            if (millis > 0) {
+                Thread.sleep(millis);
+            }
+            polls++;
+        }
+    }
+
+    private <T> T waitUntil(final Function<WebDriver,T> callback, List<String> evalPath) throws TimeoutException {
+        PollingStrategy.Polling polling = pollingStrategy == null ?
+                PollingStrategies.fixed(sleepInMillis).start(evalPath) :
+                pollingStrategy.start(evalPath);
+        PollingSleeper sleeper = new PollingSleeper(polling);
+        EvalRecorder recorder = null;
+        EvalRecorder previousRecorder = null;
+        if (metricsListener != null) {
+            recorder = new EvalRecorder(evalPath.size());
+            previousRecorder = EvalRecorder.bind(recorder);
+        }
+        long start = System.currentTimeMillis();
+        EvalMetrics.Outcome outcome = EvalMetrics.Outcome.ERROR;
+        try {
+            T res = new WebDriverWait(driver, new SystemClock(), sleeper, waitTimeout, sleepInMillis).until(callback);
+            outcome = EvalMetrics.Outcome.SUCCESS;
+            return res;
+        } catch(TimeoutException e) {
+            outcome = EvalMetrics.Outcome.TIMEOUT;
+            throw e;
+        } finally {
+            long elapsed = System.currentTimeMillis() - start;
+            boolean success = outcome == EvalMetrics.Outcome.SUCCESS;
+            polling.finished(success, sleeper.polls, elapsed);
+            if (debugEnabled) {
+                logDebug("[Findr] " + (success ? "eval OK" : "eval KO") + " after " + sleeper.polls + " poll(s), " + elapsed + "ms");
+            }
+            if (recorder != null) {
+                EvalRecorder.unbind(previousRecorder);
+                metricsListener.onEval(new EvalMetrics(
+                        evalPath,
+                        outcome,
+                        elapsed,
+                        sleeper.polls,
+                        recorder.commands,
+                        recorder.exceptionRetries,
+                        recorder.stepNanos));
+            }
+        }
+    }
+
+    /**
+     * Count passed number of WebDriver commands in the current eval, if metrics are enabled.
+     */
+    private static void countCommands(int count) {
+        EvalRecorder r = EvalRecorder.current();
+        if (r != null) {
+            r.step(-1, 0, count);
+        }
+    }
+
     private <T> T wrapWebDriverWait(final Function<WebDriver,T> callback) throws TimeoutException {
         try {
-            return new WebDriverWait(driver, waitTimeout, sleepInMillis).until(callback);
+            return waitUntil(callback, path);
         } catch(TimeoutException e) {
             // failed to find element(s), build exception message
             // and re-throw exception
@@ -291,6 +616,7 @@ public final class Findr {
      * @throws TimeoutException if at least one condition in the chain failed
      */
     public <T> T eval(final Function<WebElement,T> callback) throws TimeoutException {
+        final Function<SearchContext,WebElement> chain = chain();
         return wrapWebDriverWait(wrapAndTrapCatchSeleniumException(new Function<WebDriver, T>() {
             @Override
             public T apply(WebDriver input) {
@@ -298,16 +624,19 @@ public final class Findr {
                     throw new EmptyFindrException();
                 }
                 logDebug("[Findr] eval");
-                WebElement e = f.apply(input);
+                WebElement e = chain.apply(input);
                 if (e == null) {
                     logDebug("[Findr]  => Chain STOPPED before callback");
                     return null;
                 }
+                countCommands(1);
                 T res = callback.apply(e);
-                if (res==null || (res instanceof Boolean && !((Boolean)res))) {
-                    logDebug("[Findr]  => " + callback + " result : " + res + ", will try again");
-                } else {
-                    logDebug("[Findr]  => " + callback + " result : " + res + ", OK");
+                if (debugEnabled) {
+                    if (res==null || (res instanceof Boolean && !((Boolean)res))) {
+                        logDebug("[Findr]  => " + callback + " result : " + res + ", will try again");
+                    } else {
+                        logDebug("[Findr]  => " + callback + " result : " + res + ", OK");
+                    }
                 }
                 return res;
             }
@@ -383,7 +712,9 @@ public final class Findr {
                 }
             }
         },
-                predicate.toString()
+                predicate.toString(),
+                BatchProbe.scriptFor(predicate),
+                false
         );
     }
 
@@ -463,13 +794,13 @@ public final class Findr {
         }
 
         private <T> T wrapWebDriverWaitList(final Function<WebDriver,T> callback) throws TimeoutException {
+            ArrayList<String> newPath = new ArrayList<String>(path);
+            newPath.add(by.toString());
             try {
-                return new WebDriverWait(driver, waitTimeout, sleepInMillis).until(callback);
+                return waitUntil(callback, newPath);
             } catch(TimeoutException e) {
                 // failed to find element(s), build exception message
                 // and re-throw exception
-                ArrayList<String> newPath = new ArrayList<String>(path);
-                newPath.add(by.toString());
                 StringBuilder sb = new StringBuilder();
                 for (Iterator<String> it = newPath.iterator(); it.hasNext(); ) {
                     sb.append(it.next());
@@ -552,11 +883,13 @@ public final class Findr {
                         return null;
                     }
                     if (checkers != null && !checkers.apply(filtered)) {
-                        logDebug("[Findr]  ! checkList KO: " + checkers);
-                        logDebug("[Findr]  => Chain STOPPED before callback");
+                        if (debugEnabled) {
+                            logDebug("[Findr]  ! checkList KO: " + checkers);
+                            logDebug("[Findr]  => Chain STOPPED before callback");
+                        }
                         return null;
                     } else {
-                        if (isDebugEnabled() && checkers!=null) {
+                        if (debugEnabled && checkers!=null) {
                             logDebug("[Findr]  > checkList OK: " + checkers);
                         }
                     }
@@ -571,13 +904,16 @@ public final class Findr {
         }
 
         private List<WebElement> filterElements(List<WebElement> source) {
+            if (filters!=null) {
+                countCommands(source.size());
+            }
             List<WebElement> filtered = new ArrayList<WebElement>();
             for (WebElement element : source) {
                 if (filters==null || filters.apply(element)) {
                     filtered.add(element);
                 }
             }
-            if (isDebugEnabled() && filters!=null) {
+            if (debugEnabled && filters!=null) {
                 int srcSize = source.size();
                 int filteredSize = filtered.size();
                 logDebug("[Findr]  > [" + by + "]* filter(" + filters + ") : " + srcSize + " -> " + filteredSize);
@@ -677,32 +1013,47 @@ public final class Findr {
          */
         public <T> T eval(final Function<List<WebElement>, T> callback) throws TimeoutException {
             logDebug("[Findr] ListFindr eval");
+            final Function<SearchContext,WebElement> chain = chain();
             return wrapWebDriverWaitList(wrapAndTrapCatchSeleniumException(new Function<WebDriver, T>() {
                 @Override
                 public T apply(WebDriver input) {
-                    SearchContext c = f == null ? input : f.apply(input);
+                    SearchContext c = chain == null ? input : chain.apply(input);
                     if (c == null) {
                         return null;
                     }
-                    List<WebElement> elements = c.findElements(by);
-                    if (elements == null) {
-                        return null;
-                    }
-                    List<WebElement> filtered = filterElements(elements);
-                    if (checkers != null && !checkers.apply(filtered)) {
-                        logDebug("[Findr]  ! checkList KO: " + checkers);
-                        logDebug("[Findr]  => Chain STOPPED before callback");
-                        return null;
-                    } else {
-                        if (isDebugEnabled() && checkers!=null) {
-                            logDebug("[Findr]  > checkList OK: " + checkers);
+                    EvalRecorder r = EvalRecorder.current();
+                    long start = r == null ? 0 : System.nanoTime();
+                    List<WebElement> filtered;
+                    try {
+                        List<WebElement> elements = c.findElements(by);
+                        if (elements == null) {
+                            return null;
+                        }
+                        filtered = filterElements(elements);
+                        if (checkers != null && !checkers.apply(filtered)) {
+                            if (debugEnabled) {
+                                logDebug("[Findr]  ! checkList KO: " + checkers);
+                                logDebug("[Findr]  => Chain STOPPED before callback");
+                            }
+                            return null;
+                        } else {
+                            if (debugEnabled && checkers!=null) {
+                                logDebug("[Findr]  > checkList OK: " + checkers);
+                            }
+                        }
+                    } finally {
+                        if (r != null) {
+                            r.step(path.size(), System.nanoTime() - start, 1);
                         }
                     }
+                    countCommands(1);
                     T res = callback.apply(filtered);
-                    if (res==null || (res instanceof Boolean && !((Boolean)res))) {
-                        logDebug("[Findr]  => " + callback + " result : " + res + ", will try again");
-                    } else {
-                        logDebug("[Findr]  => " + callback + " result : " + res + ", OK");
+                    if (debugEnabled) {
+                        if (res==null || (res instanceof Boolean && !((Boolean)res))) {
+                            logDebug("[Findr]  => " + callback + " result : " + res + ", will try again");
+                        } else {
+                            logDebug("[Findr]  => " + callback + " result : " + res + ", OK");
+                        }
                     }
                     return res;
                 }
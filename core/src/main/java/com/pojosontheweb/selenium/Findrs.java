@@ -20,7 +20,7 @@ public class Findrs {
      * @return a new Predicate
      */
     public static Predicate<WebElement> attrEquals(final String attrName, final String expectedValue) {
-        return new Predicate<WebElement>() {
+        return new ScriptablePredicate("attrEquals", attrName, expectedValue) {
             @Override
             public boolean apply(WebElement webElement) {
                 String attrVal = webElement.getAttribute(attrName);
@@ -42,7 +42,7 @@ public class Findrs {
      * @return a new Predicate
      */
     public static Predicate<WebElement> attrStartsWith(final String attrName, final String expectedStartsWith) {
-        return new Predicate<WebElement>() {
+        return new ScriptablePredicate("attrStartsWith", attrName, expectedStartsWith) {
             @Override
             public boolean apply(WebElement webElement) {
                 String attrVal = webElement.getAttribute(attrName);
@@ -64,7 +64,7 @@ public class Findrs {
      * @return a new Predicate
      */
     public static Predicate<WebElement> attrEndsWith(final String attrName, final String expectedEndsWith) {
-        return new Predicate<WebElement>() {
+        return new ScriptablePredicate("attrEndsWith", attrName, expectedEndsWith) {
             @Override
             public boolean apply(WebElement webElement) {
                 String attrVal = webElement.getAttribute(attrName);
@@ -86,7 +86,7 @@ public class Findrs {
      * @return a new Predicate
      */
     public static Predicate<WebElement> hasClass(final String className) {
-        return new Predicate<WebElement>() {
+        return new ScriptablePredicate("hasClass", className, "") {
             @Override
             public boolean apply(WebElement webElement) {
                 String cssClasses = webElement.getAttribute("class");
@@ -112,7 +112,7 @@ public class Findrs {
      * @return a new Predicate
      */
     public static Predicate<WebElement> textEquals(final String expected) {
-        return new Predicate<WebElement>() {
+        return new ScriptablePredicate("textEquals", expected, "") {
             @Override
             public boolean apply(WebElement webElement) {
                 String text = webElement.getText();
@@ -134,7 +134,7 @@ public class Findrs {
      * @return a new Predicate
      */
     public static Predicate<WebElement> textStartsWith(final String expectedStartsWith) {
-        return new Predicate<WebElement>() {
+        return new ScriptablePredicate("textStartsWith", expectedStartsWith, "") {
             @Override
             public boolean apply(WebElement input) {
                 String text = input.getText();
@@ -160,7 +160,7 @@ public class Findrs {
      * @return a new Predicate
      */
     public static Predicate<WebElement> textContains(final String expectedContains) {
-        return new Predicate<WebElement>() {
+        return new ScriptablePredicate("textContains", expectedContains, "") {
             @Override
             public boolean apply(WebElement input) {
                 String text = input.getText();
@@ -186,7 +186,7 @@ public class Findrs {
      * @return a new Predicate
      */
     public static Predicate<WebElement> textEndsWith(final String expectedEndsWith) {
-        return new Predicate<WebElement>() {
+        return new ScriptablePredicate("textEndsWith", expectedEndsWith, "") {
             @Override
             public boolean apply(WebElement input) {
                 String text = input.getText();
@@ -210,7 +210,7 @@ public class Findrs {
      * @return a new Predicate
      */
     public static Predicate<WebElement> isEnabled() {
-        return new Predicate<WebElement>() {
+        return new ScriptablePredicate("isEnabled", "", "") {
             @Override
             public boolean apply(WebElement input) {
                 return input.isEnabled();
@@ -294,6 +294,20 @@ public class Findrs {
      * @return a new Predicate
      */
     public static Predicate<WebElement> not(final Predicate<WebElement> in) {
+        if (in instanceof ScriptablePredicate) {
+            ScriptablePredicate sp = (ScriptablePredicate)in;
+            return new ScriptablePredicate("!" + sp.op, sp.arg1, sp.arg2) {
+                @Override
+                public boolean apply(WebElement input) {
+                    return !in.apply(input);
+                }
+
+                @Override
+                public String toString() {
+                    return "not " + in.toString();
+                }
+            };
+        }
         return new Predicate<WebElement>() {
             @Override
             public boolean apply(WebElement input) {
@@ -307,6 +321,25 @@ public class Findrs {
         };
     }
 
+    /**
+     * Base class for built-in predicates that have a JavaScript counterpart. Those
+     * can be compiled into a single script when a Findr is evaluated in batch mode
+     * (see <code>Findr.setBatchProbe()</code>).
+     */
+    static abstract class ScriptablePredicate implements Predicate<WebElement> {
+
+        final String op;
+        final String arg1;
+        final String arg2;
+
+        ScriptablePredicate(String op, String arg1, String arg2) {
+            this.op = op;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+        }
+
+    }
+
     public static Function<WebElement, ?> click() {
         return new Function<WebElement, Object>() {
             @Override
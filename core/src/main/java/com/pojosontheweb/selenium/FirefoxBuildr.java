@@ -29,16 +29,23 @@ public class FirefoxBuildr {
     }
 
     public WebDriver build() {
-        if (profile==null) {
-            profile = createFirefoxProfile(locales);
+        FirefoxProfile p = profile;
+        if (p==null) {
+            p = createFirefoxProfile(locales);
         }
         if (path!=null) {
-            return new FirefoxDriver(new FirefoxBinary(path), profile);
+            return new FirefoxDriver(new FirefoxBinary(path), p);
         } else {
-            return new FirefoxDriver(profile);
+            return new FirefoxDriver(p);
         }
     }
 
+    /**
+     * Create a new profile for passed locales. Profiles are modified by the
+     * driver when it starts, so a profile must only be used for one driver.
+     * @param locales comma-separated locales
+     * @return the firefox profile
+     */
     public static FirefoxProfile createFirefoxProfile(String locales) {
         File tmpDir = new File(System.getProperty("java.io.tmpdir"), "wt-ffprofile");
         tmpDir.mkdirs();
@@ -1,11 +1,13 @@
 package com.pojosontheweb.selenium;
 
+import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.rules.TestRule;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 import org.junit.runners.model.Statement;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.support.ui.WebDriverWait;
 
 /**
  * Base JUnit4 test class.
@@ -14,9 +16,74 @@ public class ManagedDriverJunit4TestBase {
 
     public static final String PROP_WEBTESTS_FINDR_TIMEOUT = "webtests.findr.timeout";
     public static final String PROP_WEBTESTS_FINDR_SLEEP = "webtests.findr.sleep";
+    public static final String PROP_WEBTESTS_FINDR_BATCH = "webtests.findr.batch";
+    public static final String PROP_WEBTESTS_FINDR_POLLING = "webtests.findr.polling";
+    public static final String PROP_WEBTESTS_FINDR_METRICS = "webtests.findr.metrics";
+    public static final String PROP_WEBTESTS_FINDR_METRICS_TOP = "webtests.findr.metrics.top";
+    public static final String PROP_WEBTESTS_FINDR_CACHE = "webtests.findr.cache";
 
     private final TestUtil testUtil = new TestUtil();
 
+    /**
+     * Wraps the test's driver when element caching is on
+     */
+    private CachingWebDriver cachingDriver = null;
+
+    /**
+     * Adaptive strategies are shared by all tests, so that
+     * they can learn from previous evals
+     */
+    private static PollingStrategy adaptivePolling = null;
+
+    private static synchronized PollingStrategy getAdaptivePolling(long maxSleepInMillis) {
+        if (adaptivePolling == null) {
+            adaptivePolling = PollingStrategies.adaptive(PollingStrategies.DEFAULT_INITIAL_SLEEP, maxSleepInMillis);
+        }
+        return adaptivePolling;
+    }
+
+    /**
+     * Metrics are aggregated for the whole run, and reported to the Findr debug
+     * handler when the JVM exits
+     */
+    private static EvalMetricsAggregator findrMetrics = null;
+
+    /**
+     * Return the metrics aggregated for all findrs created by <code>findr()</code> so
+     * far, or null if metrics are disabled (sys prop <code>webtests.findr.metrics</code>).
+     * @return the metrics aggregator, or null
+     */
+    protected static synchronized EvalMetricsAggregator getFindrMetrics() {
+        if (findrMetrics == null && Boolean.valueOf(System.getProperty(PROP_WEBTESTS_FINDR_METRICS, "false"))) {
+            findrMetrics = new EvalMetricsAggregator();
+            final EvalMetricsAggregator m = findrMetrics;
+            final int top = Integer.parseInt(System.getProperty(PROP_WEBTESTS_FINDR_METRICS_TOP, "20"));
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    // through the debug handler, even if debug logs are off
+                    Findr.getDebugHandler().apply(m.report(top));
+                }
+            });
+        }
+        return findrMetrics;
+    }
+
+    /**
+     * Tells the driver pool how many tests are coming, so that
+     * it can start drivers ahead of time.
+     */
+    @ClassRule
+    public static TestRule driverPoolRule = new TestRule() {
+        @Override
+        public Statement apply(Statement base, Description description) {
+            if (DriverPool.isEnabledFromSysProps()) {
+                DriverPool.getDefault().expect(description.testCount());
+            }
+            return base;
+        }
+    };
+
     private static String toTestName(Description d) {
         return d.getClassName() + "." + d.getMethodName();
     }
@@ -55,8 +122,22 @@ public class ManagedDriverJunit4TestBase {
         }
     };
 
+    /**
+     * Return the test's driver. When element caching is on (sys prop
+     * <code>webtests.findr.cache</code>), the driver is wrapped in a
+     * <code>CachingWebDriver</code>, so that navigating with it clears the
+     * handles cached by the findrs.
+     * @return the driver
+     */
     protected final WebDriver getWebDriver() {
-        return testUtil.getWebDriver();
+        WebDriver driver = testUtil.getWebDriver();
+        if (!Boolean.valueOf(System.getProperty(PROP_WEBTESTS_FINDR_CACHE, "false"))) {
+            return driver;
+        }
+        if (cachingDriver == null || cachingDriver.getWrappedDriver() != driver) {
+            cachingDriver = new CachingWebDriver(driver);
+        }
+        return cachingDriver;
     }
 
     protected Findr findr() {
@@ -66,8 +147,29 @@ public class ManagedDriverJunit4TestBase {
             f = f.setTimeout(Integer.parseInt(timeoutStr));
         }
         String sleepInMillisStr = System.getProperty(PROP_WEBTESTS_FINDR_SLEEP);
+        long sleepInMillis = WebDriverWait.DEFAULT_SLEEP_TIMEOUT;
         if (sleepInMillisStr!=null) {
-            f = f.setSleepInMillis(Long.parseLong(sleepInMillisStr));
+            sleepInMillis = Long.parseLong(sleepInMillisStr);
+            f = f.setSleepInMillis(sleepInMillis);
+        }
+        String pollingStr = System.getProperty(PROP_WEBTESTS_FINDR_POLLING);
+        if (pollingStr!=null) {
+            if (pollingStr.equals("exponential")) {
+                f = f.setPollingStrategy(PollingStrategies.exponential(PollingStrategies.DEFAULT_INITIAL_SLEEP, sleepInMillis));
+            } else if (pollingStr.equals("adaptive")) {
+                f = f.setPollingStrategy(getAdaptivePolling(sleepInMillis));
+            } else if (!pollingStr.equals("fixed")) {
+                throw new IllegalArgumentException("Invalid " + PROP_WEBTESTS_FINDR_POLLING + "=" + pollingStr +
+                        " (allowed values : fixed, exponential, adaptive)");
+            }
+        }
+        EvalMetricsAggregator metrics = getFindrMetrics();
+        if (metrics!=null) {
+            f = f.setMetricsListener(metrics);
+        }
+        String batchStr = System.getProperty(PROP_WEBTESTS_FINDR_BATCH);
+        if (batchStr!=null) {
+            f = f.setBatchProbe(Boolean.valueOf(batchStr));
         }
         return f;
     }
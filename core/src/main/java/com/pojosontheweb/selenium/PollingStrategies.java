@@ -0,0 +1,149 @@
+package com.pojosontheweb.selenium;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Built-in polling strategies.
+ */
+public class PollingStrategies {
+
+    /** the default initial sleep interval for backoff strategies */
+    public static final long DEFAULT_INITIAL_SLEEP = 10; // ms
+
+    /** max number of paths remembered by adaptive strategies */
+    static final int MAX_HISTORY_SIZE = 1024;
+
+    /**
+     * Create and return a strategy that sleeps for a fixed interval
+     * between polls (that's what WebDriverWait does).
+     *
+     * @param sleepInMillis the sleep interval in milliseconds
+     * @return a new PollingStrategy
+     */
+    public static PollingStrategy fixed(final long sleepInMillis) {
+        return new PollingStrategy() {
+            @Override
+            public Polling start(List<String> path) {
+                return new Polling() {
+                    @Override
+                    public long nextSleepInMillis() {
+                        return sleepInMillis;
+                    }
+
+                    @Override
+                    public void finished(boolean success, int polls, long elapsedMillis) {
+                    }
+                };
+            }
+
+            @Override
+            public String toString() {
+                return "fixed(" + sleepInMillis + ")";
+            }
+        };
+    }
+
+    /**
+     * Create and return a strategy that starts polling fast, and doubles the
+     * sleep interval after each poll, up to <code>maxSleepInMillis</code>.
+     *
+     * @param initialSleepInMillis the first sleep interval in milliseconds
+     * @param maxSleepInMillis the max sleep interval in milliseconds
+     * @return a new PollingStrategy
+     */
+    public static PollingStrategy exponential(final long initialSleepInMillis, final long maxSleepInMillis) {
+        return new PollingStrategy() {
+            @Override
+            public Polling start(List<String> path) {
+                return new Backoff(initialSleepInMillis, initialSleepInMillis * 2, maxSleepInMillis);
+            }
+
+            @Override
+            public String toString() {
+                return "exponential(" + initialSleepInMillis + "," + maxSleepInMillis + ")";
+            }
+        };
+    }
+
+    /**
+     * Create and return an exponential backoff strategy that remembers how long
+     * successful evals took for each path, and sleeps close to that time
+     * before the second poll. Instances are thread-safe, and should be
+     * shared between Findrs in order to build history.
+     *
+     * @param initialSleepInMillis the first sleep interval in milliseconds
+     * @param maxSleepInMillis the max sleep interval in milliseconds
+     * @return a new PollingStrategy
+     */
+    public static PollingStrategy adaptive(final long initialSleepInMillis, final long maxSleepInMillis) {
+        final Map<List<String>,Long> history = Collections.synchronizedMap(
+            new LinkedHashMap<List<String>, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<String>, Long> eldest) {
+                    return size() > MAX_HISTORY_SIZE;
+                }
+            });
+        return new PollingStrategy() {
+            @Override
+            public Polling start(final List<String> path) {
+                Long expected = history.get(path);
+                long first = initialSleepInMillis;
+                long then = initialSleepInMillis * 2;
+                if (expected != null && expected > initialSleepInMillis) {
+                    // aim a bit before the expected time, and poll fast again from there
+                    first = Math.min(maxSleepInMillis, expected * 3 / 4);
+                    then = initialSleepInMillis;
+                }
+                return new Backoff(first, then, maxSleepInMillis) {
+                    @Override
+                    public void finished(boolean success, int polls, long elapsedMillis) {
+                        if (success) {
+                            Long previous = history.get(path);
+                            // moving average, so that one slow eval doesn't spoil the history
+                            long avg = previous == null ? elapsedMillis : (previous * 3 + elapsedMillis) / 4;
+                            history.put(path, avg);
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public String toString() {
+                return "adaptive(" + initialSleepInMillis + "," + maxSleepInMillis + ")";
+            }
+        };
+    }
+
+    /**
+     * Exponential backoff : sleeps <code>first</code>, then doubles from
+     * <code>then</code>, up to <code>max</code>.
+     */
+    private static class Backoff implements PollingStrategy.Polling {
+
+        private final long max;
+        private long next;
+        private long current;
+
+        Backoff(long first, long then, long max) {
+            this.max = max;
+            this.current = Math.min(first, max);
+            this.next = Math.min(Math.max(then, 1), max);
+        }
+
+        @Override
+        public long nextSleepInMillis() {
+            long res = current;
+            current = next;
+            next = Math.min(next * 2, max);
+            return res;
+        }
+
+        @Override
+        public void finished(boolean success, int polls, long elapsedMillis) {
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.pojosontheweb.selenium;
+
+import java.util.List;
+
+/**
+ * Controls how often a Findr polls the DOM while waiting for its
+ * conditions to be satisfied. See <code>PollingStrategies</code> for
+ * the built-in strategies.
+ */
+public interface PollingStrategy {
+
+    /**
+     * Called at the beginning of each eval.
+     * @param path the path of the findr being evaluated
+     * @return a new Polling for the eval
+     */
+    Polling start(List<String> path);
+
+    /**
+     * The polling state of a single eval.
+     */
+    interface Polling {
+
+        /**
+         * Return the time to sleep before next poll.
+         * @return the sleep interval in milliseconds
+         */
+        long nextSleepInMillis();
+
+        /**
+         * Called when the eval is done.
+         * @param success true if the eval succeeded, false if it timed out
+         * @param polls the number of polls
+         * @param elapsedMillis the total wait time in milliseconds
+         */
+        void finished(boolean success, int polls, long elapsedMillis);
+    }
+
+}
@@ -5,6 +5,7 @@ import org.monte.media.Format;
 import org.monte.media.FormatKeys;
 import org.monte.media.math.Rational;
 import org.monte.screenrecorder.ScreenRecorder;
+import org.monte.screenrecorder.SharedScreenCapture;
 
 import java.awt.*;
 import java.io.File;
@@ -20,7 +21,172 @@ import static org.monte.media.VideoFormatKeys.*;
  */
 public class ScreenRecordr {
 
+    public static final String SYS_PROP_VIDEO_ENCODER_THREADS = "webtests.video.encoderThreads";
+    public static final String SYS_PROP_VIDEO_ENCODING = "webtests.video.encoding";
+    public static final String SYS_PROP_VIDEO_FRAGMENT_DURATION = "webtests.video.fragmentDuration";
+    public static final String SYS_PROP_VIDEO_SKIP_UNCHANGED = "webtests.video.skipUnchanged";
+
+    /** Photo-JPEG encoding, plays everywhere */
+    public static final String ENCODING_JPEG = "jpeg";
+
+    /**
+     * Lossless screen capture encoding (TechSmith), that only encodes the
+     * tiles of the screen that changed. Much smaller and cheaper than JPEG,
+     * but needs a player with the TSCC codec (e.g. VLC).
+     */
+    public static final String ENCODING_SCREEN = "screen";
+
+    private static final int SCREEN_TILE_SIZE = 16;
+
     private ScreenRecorder screenRecorder = null;
+    private long bufferDuration = 0;
+    private long bufferMaxSize = 0;
+    private GraphicsDevice screenDevice = null;
+    private Rectangle captureArea = null;
+    private SharedScreenCapture sharedCapture = null;
+
+    /**
+     * Number of threads encoding the frames, from sys props. Defaults to
+     * half the processors, up to 4.
+     */
+    protected static int getEncoderThreadsFromSysProps() {
+        int dflt = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        String s = System.getProperty(SYS_PROP_VIDEO_ENCODER_THREADS);
+        if (s == null) {
+            return dflt;
+        }
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(SYS_PROP_VIDEO_ENCODER_THREADS + " must be an integer : " + s);
+        }
+    }
+
+    /**
+     * Video encoding from sys props, <code>jpeg</code> (default) or <code>screen</code>.
+     */
+    protected static String getEncodingFromSysProps() {
+        String s = System.getProperty(SYS_PROP_VIDEO_ENCODING, ENCODING_JPEG);
+        if (!s.equals(ENCODING_JPEG) && !s.equals(ENCODING_SCREEN)) {
+            throw new IllegalArgumentException(SYS_PROP_VIDEO_ENCODING + " must be " +
+                    ENCODING_JPEG + " or " + ENCODING_SCREEN + " : " + s);
+        }
+        return s;
+    }
+
+    /**
+     * Duration of the video fragments in milliseconds, from sys props. Defaults
+     * to 0 : the videos are not fragmented. Fragmented videos can be played up
+     * to the last fragment if the JVM dies before the recording is stopped, but
+     * need a player that supports movie fragments (e.g. VLC, browsers, ffmpeg).
+     */
+    protected static long getFragmentDurationFromSysProps() {
+        String s = System.getProperty(SYS_PROP_VIDEO_FRAGMENT_DURATION);
+        if (s == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(SYS_PROP_VIDEO_FRAGMENT_DURATION + " must be an integer : " + s);
+        }
+    }
+
+    /**
+     * Skip unchanged frames, from sys props. Defaults to true : frames identical
+     * to the previous one aren't encoded, the previous frame is shown for longer.
+     */
+    protected static boolean getSkipUnchangedFromSysProps() {
+        String s = System.getProperty(SYS_PROP_VIDEO_SKIP_UNCHANGED, "true");
+        if (!s.equals("true") && !s.equals("false")) {
+            throw new IllegalArgumentException(SYS_PROP_VIDEO_SKIP_UNCHANGED + " must be true or false : " + s);
+        }
+        return Boolean.parseBoolean(s);
+    }
+
+    private static Format createVideoFormat(String encoding) {
+        if (encoding.equals(ENCODING_SCREEN)) {
+            return new Format(MediaTypeKey,
+                    FormatKeys.MediaType.VIDEO,
+                    EncodingKey,
+                    ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE,
+                    CompressorNameKey,
+                    COMPRESSOR_NAME_AVI_TECHSMITH_SCREEN_CAPTURE,
+                    DepthKey,
+                    24,
+                    FrameRateKey,
+                    Rational.valueOf(15),
+                    KeyFrameIntervalKey,
+                    15 * 10,
+                    TileSizeKey,
+                    SCREEN_TILE_SIZE);
+        }
+        return new Format(MediaTypeKey,
+                FormatKeys.MediaType.VIDEO,
+                EncodingKey,
+                ENCODING_QUICKTIME_JPEG,
+                CompressorNameKey,
+                ENCODING_QUICKTIME_JPEG,
+//                COMPRESSOR_NAME_QUICKTIME_JPEG,
+                DepthKey,
+                24,
+                FrameRateKey,
+                Rational.valueOf(15),
+                QualityKey,
+                0.5f,
+                KeyFrameIntervalKey,
+                15 * 60);
+    }
+
+    /**
+     * Keep the last <code>duration</code> milliseconds of video in memory, instead
+     * of writing the whole recording to a file. A video file is written only when
+     * the video files are moved (see <code>moveVideoFilesTo</code>). Must be
+     * called before <code>start()</code>.
+     * @param duration the duration to keep in milliseconds, or 0 to write everything
+     * @param maxSize max size of the encoded video held in memory, in bytes
+     * @return this
+     */
+    public ScreenRecordr setBuffer(long duration, long maxSize) {
+        this.bufferDuration = duration;
+        this.bufferMaxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Record the passed screen instead of the default one. Must be called
+     * before <code>start()</code>.
+     * @param screenDevice the screen to record, or null for the default screen
+     * @return this
+     */
+    public ScreenRecordr setScreenDevice(GraphicsDevice screenDevice) {
+        this.screenDevice = screenDevice;
+        return this;
+    }
+
+    /**
+     * Record only an area of the screen (e.g. a browser window), instead of
+     * the whole screen. Must be called before <code>start()</code>.
+     * @param captureArea the area to record, in screen coordinates, or null for the whole screen
+     * @return this
+     */
+    public ScreenRecordr setCaptureArea(Rectangle captureArea) {
+        this.captureArea = captureArea;
+        return this;
+    }
+
+    /**
+     * Get the screen captures from a shared capture, instead of capturing
+     * the screen on our own. Several recorders can then record areas of the
+     * same screen with a single capture thread. Must be called before
+     * <code>start()</code>.
+     * @param sharedCapture the shared capture of the screen device, or null
+     * @return this
+     */
+    public ScreenRecordr setSharedCapture(SharedScreenCapture sharedCapture) {
+        this.sharedCapture = sharedCapture;
+        return this;
+    }
 
     public ScreenRecordr start() {
 
@@ -30,33 +196,20 @@ public class ScreenRecordr {
 
                 //Create a instance of GraphicsConfiguration to get the Graphics configuration
                 //of the Screen. This is needed for ScreenRecorder class.
-                GraphicsConfiguration gc = GraphicsEnvironment//
+                GraphicsDevice device = screenDevice != null ? screenDevice : GraphicsEnvironment//
                         .getLocalGraphicsEnvironment()//
-                        .getDefaultScreenDevice()//
-                        .getDefaultConfiguration();
+                        .getDefaultScreenDevice();
+                GraphicsConfiguration gc = device.getDefaultConfiguration();
 
                 //Create a instance of ScreenRecorder with the required configurations
                 screenRecorder = new ScreenRecorder(
                         gc,
+                        captureArea,
                         new Format(
                                 MediaTypeKey,
                                 FormatKeys.MediaType.FILE,
                                 MimeTypeKey, MIME_QUICKTIME),
-                        new Format(MediaTypeKey,
-                                FormatKeys.MediaType.VIDEO,
-                                EncodingKey,
-                                ENCODING_QUICKTIME_JPEG,
-                                CompressorNameKey,
-                                ENCODING_QUICKTIME_JPEG,
-//                                COMPRESSOR_NAME_QUICKTIME_JPEG,
-                                DepthKey,
-                                24,
-                                FrameRateKey,
-                                Rational.valueOf(15),
-                                QualityKey,
-                                0.5f,
-                                KeyFrameIntervalKey,
-                                15 * 60),
+                        createVideoFormat(getEncodingFromSysProps()),
                         new Format(
                                 MediaTypeKey,
                                 FormatKeys.MediaType.VIDEO,
@@ -65,6 +218,14 @@ public class ScreenRecordr {
                                 FrameRateKey,
                                 Rational.valueOf(30)),
                         null);
+                screenRecorder.setEncoderThreads(getEncoderThreadsFromSysProps());
+                screenRecorder.setSkipUnchangedFrames(getSkipUnchangedFromSysProps());
+                screenRecorder.setSharedScreenCapture(sharedCapture);
+                screenRecorder.setFragmentDuration(getFragmentDurationFromSysProps());
+                if (bufferDuration > 0) {
+                    screenRecorder.setRingBufferDuration(bufferDuration);
+                    screenRecorder.setRingBufferMaxSize(bufferMaxSize);
+                }
             }
 
             if (!screenRecorder.getState().equals(ScreenRecorder.State.RECORDING)) {
@@ -88,7 +249,14 @@ public class ScreenRecordr {
                 Findr.logDebug("[ScreenRecordr] stopping recorder");
                 screenRecorder.stop();
             }
-            Findr.logDebug("[ScreenRecordr] stopped video recording. List of created files :");
+            Findr.logDebug("[ScreenRecordr] stopped video recording : encoded " + screenRecorder.getEncodedFrameCount() +
+                    " frames, dropped " + screenRecorder.getDroppedFrameCount() +
+                    ", max encoder queue depth " + screenRecorder.getMaxEncodeQueueDepth());
+            Findr.logDebug("[ScreenRecordr] skipped " + screenRecorder.getSkippedFrameCount() +
+                    " unchanged frames, saving ~" + screenRecorder.getSavedEncodingTime() + "ms of encoding (" +
+                    screenRecorder.getChangeDetectionTime() + "ms spent detecting changes, " +
+                    screenRecorder.getEncodingTime() + "ms encoding)");
+            Findr.logDebug("[ScreenRecordr] List of created files :");
             for (File f : getVideoFiles()) {
                 Findr.logDebug("[ScreenRecordr]  * " + f.getAbsolutePath());
             }
@@ -106,6 +274,16 @@ public class ScreenRecordr {
 
     public ScreenRecordr moveVideoFilesTo(File destDir, String filePrefix) {
         stop();
+        if (screenRecorder != null) {
+            try {
+                File f = screenRecorder.writeRingBuffer();
+                if (f != null) {
+                    Findr.logDebug("[ScreenRecordr] wrote buffered video to " + f.getAbsolutePath());
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
         List<File> files = getVideoFiles();
         Findr.logDebug("[ScreenRecordr] moving " + files.size() + " video files to " + destDir +
                 " with filePrefix=" + filePrefix);
@@ -139,6 +317,9 @@ public class ScreenRecordr {
     public ScreenRecordr removeVideoFiles() {
         Findr.logDebug("[ScreenRecordr] removing video files");
         stop();
+        if (screenRecorder != null) {
+            screenRecorder.clearRingBuffer();
+        }
         List<File> files = getVideoFiles();
         for (File f : files) {
             f.delete();
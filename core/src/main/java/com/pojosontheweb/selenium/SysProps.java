@@ -11,6 +11,13 @@ public class SysProps {
         public final SPHub hub = new SPHub();
         public final SPFindr findr = new SPFindr();
         public final SPVideo video = new SPVideo();
+        public final SPPool pool = new SPPool();
+    }
+
+    public static class SPPool {
+        public final String enabled = DriverPool.SYS_PROP_POOL_ENABLED;
+        public final String maxReuse = DriverPool.SYS_PROP_POOL_MAX_REUSE;
+        public final String spawnAhead = DriverPool.SYS_PROP_POOL_SPAWN_AHEAD;
     }
 
     public static class SPHub {
@@ -20,12 +27,26 @@ public class SysProps {
     public static class SPFindr {
         public final String timeout = ManagedDriverJunit4TestBase.PROP_WEBTESTS_FINDR_TIMEOUT;
         public final String verbose = Findr.SYSPROP_VERBOSE;
+        public final String batch = ManagedDriverJunit4TestBase.PROP_WEBTESTS_FINDR_BATCH;
+        public final String polling = ManagedDriverJunit4TestBase.PROP_WEBTESTS_FINDR_POLLING;
+        public final String metrics = ManagedDriverJunit4TestBase.PROP_WEBTESTS_FINDR_METRICS;
+        public final String cache = ManagedDriverJunit4TestBase.PROP_WEBTESTS_FINDR_CACHE;
     }
 
     public static class SPVideo {
         public final String enabled = TestUtil.SYS_PROP_VIDEO_ENABLED;
         public final String dir = TestUtil.SYS_PROP_VIDEO_DIR;
+        public final String encoderThreads = ScreenRecordr.SYS_PROP_VIDEO_ENCODER_THREADS;
+        public final String encoding = ScreenRecordr.SYS_PROP_VIDEO_ENCODING;
+        public final String skipUnchanged = ScreenRecordr.SYS_PROP_VIDEO_SKIP_UNCHANGED;
+        public final String fragmentDuration = ScreenRecordr.SYS_PROP_VIDEO_FRAGMENT_DURATION;
         public final SPFailures failures = new SPFailures();
+        public final SPBuffer buffer = new SPBuffer();
+    }
+
+    public static class SPBuffer {
+        public final String seconds = TestUtil.SYS_PROP_VIDEO_BUFFER_SECONDS;
+        public final String maxMB = TestUtil.SYS_PROP_VIDEO_BUFFER_MAX_MB;
     }
 
     public static class SPFailures {
@@ -14,11 +14,16 @@ public class TestUtil {
     public static final String SYS_PROP_VIDEO_ENABLED = "webtests.video.enabled";
     public static final String SYS_PROP_VIDEO_FAILED_ONLY = "webtests.video.failures.only";
     public static final String SYS_PROP_VIDEO_DIR = "webtests.video.dir";
+    public static final String SYS_PROP_VIDEO_BUFFER_SECONDS = "webtests.video.buffer.seconds";
+    public static final String SYS_PROP_VIDEO_BUFFER_MAX_MB = "webtests.video.buffer.maxMB";
 
     private WebDriver webDriver;
     private boolean videoEnabled = isVideoEnabledFromSysProps();
     private String videoDir = getVideoDirFromSysProps();
     private boolean failuresOnly = isVideoFailuresOnlyFromSysProps();
+    private int videoBufferSeconds = getIntFromSysProps(SYS_PROP_VIDEO_BUFFER_SECONDS, 0);
+    private int videoBufferMaxMB = getIntFromSysProps(SYS_PROP_VIDEO_BUFFER_MAX_MB, 256);
+    private boolean pooled = DriverPool.isEnabledFromSysProps();
 
     protected static boolean isVideoEnabledFromSysProps() {
         String videoEnabledProp = System.getProperty(SYS_PROP_VIDEO_ENABLED, "false");
@@ -35,6 +40,18 @@ public class TestUtil {
         return "true".equals(prop.toLowerCase());
     }
 
+    private static int getIntFromSysProps(String name, int dflt) {
+        String s = System.getProperty(name);
+        if (s == null) {
+            return dflt;
+        }
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer : " + s);
+        }
+    }
+
     public boolean isVideoEnabled() {
         return videoEnabled;
     }
@@ -59,6 +76,41 @@ public class TestUtil {
         this.failuresOnly = failuresOnly;
     }
 
+    public int getVideoBufferSeconds() {
+        return videoBufferSeconds;
+    }
+
+    /**
+     * When keeping videos for failures only, record the last <code>videoBufferSeconds</code>
+     * seconds of each test in memory, and write them to a file only if the test fails.
+     * Off (0) by default : the whole test is recorded to a file.
+     * @param videoBufferSeconds the number of seconds to keep, or 0 to write all tests to files
+     */
+    public void setVideoBufferSeconds(int videoBufferSeconds) {
+        this.videoBufferSeconds = videoBufferSeconds;
+    }
+
+    public int getVideoBufferMaxMB() {
+        return videoBufferMaxMB;
+    }
+
+    public void setVideoBufferMaxMB(int videoBufferMaxMB) {
+        this.videoBufferMaxMB = videoBufferMaxMB;
+    }
+
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    /**
+     * Use drivers from the default <code>DriverPool</code> instead
+     * of creating and quitting a driver for each test.
+     * @param pooled true to use the pool
+     */
+    public void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
     public void log(String... args) {
         if (Findr.isDebugEnabled()) {
             StringBuilder sb = new StringBuilder();
@@ -92,10 +144,16 @@ public class TestUtil {
     public void setUp() {
 
         // init web driver before each test
-        webDriver = DriverBuildr.fromSysProps().build();
+        webDriver = pooled ?
+                DriverPool.getDefault().acquire() :
+                DriverBuildr.fromSysProps().build();
 
         // init recorder if needed
         recordr = videoEnabled ? new ScreenRecordr() : null;
+        if (recordr!=null && failuresOnly && videoBufferSeconds > 0) {
+            // only failures are kept : no need to write everything to disk
+            recordr.setBuffer(videoBufferSeconds * 1000L, videoBufferMaxMB * 1024L * 1024L);
+        }
 
         // start video recorder if video is enabled
         if (recordr!=null) {
@@ -105,15 +163,21 @@ public class TestUtil {
     }
 
     public void tearDown() {
-        // quit webdriver
+        // quit webdriver (or give it back to the pool)
         // TODO find better exception handling mechanism, this one
         // is pretty ugly !!!
         Exception closeException = null;
         if (webDriver!=null) {
             try {
-                webDriver.quit();
+                if (pooled) {
+                    DriverPool.getDefault().release(webDriver);
+                } else {
+                    webDriver.quit();
+                }
             } catch (Exception e) {
                 closeException = e;
+            } finally {
+                webDriver = null;
             }
         }
         Exception recordrException = null;
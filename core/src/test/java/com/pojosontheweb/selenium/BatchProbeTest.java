@@ -0,0 +1,152 @@
+package com.pojosontheweb.selenium;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebElement;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.openqa.selenium.By.cssSelector;
+import static org.openqa.selenium.By.id;
+import static org.openqa.selenium.By.tagName;
+
+public class BatchProbeTest {
+
+    private FakeWebDriver driver;
+
+    @Before
+    public void setUp() {
+        driver = new FakeWebDriver(0);
+        driver.getDocument().add(
+            driver.elem("div").attr("id", "top-nav").add(
+                driver.elem("ul").add(
+                    driver.elem("li").add(driver.elem("a").attr("href", "http://example.com").text("Home")),
+                    driver.elem("li").add(driver.elem("a").attr("href", "/download").text("Download"))
+                )
+            )
+        );
+    }
+
+    private Findr findr() {
+        return new Findr(driver).setBatchProbe(true).setSleepInMillis(10);
+    }
+
+    /**
+     * Callback that fails the first polls.
+     */
+    private static class SucceedAtPoll<T> implements Function<T,Object> {
+
+        private final int poll;
+        private int polls = 0;
+
+        SucceedAtPoll(int poll) {
+            this.poll = poll;
+        }
+
+        @Override
+        public Object apply(T input) {
+            return ++polls == poll ? true : null;
+        }
+    }
+
+    @Test
+    public void scriptedChainIsOneScriptPerPoll() {
+        findr()
+            .elem(id("top-nav"))
+            .elem(cssSelector("li a"))
+            .where(Findrs.attrStartsWith("href", "http"))
+            .where(Findrs.textEquals("Home"))
+            .eval(new SucceedAtPoll<WebElement>(3));
+        Assert.assertEquals(3, driver.takeScripts());
+        // the callback doesn't call the driver
+        Assert.assertEquals(3, driver.takeCommands());
+    }
+
+    @Test
+    public void failingChainIsOneScriptPerPoll() {
+        final EvalMetrics[] metrics = new EvalMetrics[1];
+        boolean failed = false;
+        try {
+            findr()
+                .setTimeout(1)
+                .setMetricsListener(new EvalMetricsListener() {
+                    @Override
+                    public void onEval(EvalMetrics m) {
+                        metrics[0] = m;
+                    }
+                })
+                .elem(id("top-nav"))
+                .where(Findrs.hasClass("no-such-class"))
+                .eval();
+        } catch(TimeoutException e) {
+            failed = true;
+            // failure messages are unchanged
+            Assert.assertTrue(e.getMessage().contains("path=By.id: top-nav->hasClass(no-such-class)"));
+        }
+        Assert.assertTrue(failed);
+        Assert.assertEquals(EvalMetrics.Outcome.TIMEOUT, metrics[0].getOutcome());
+        Assert.assertTrue(metrics[0].getPolls() > 1);
+        Assert.assertEquals(metrics[0].getPolls(), driver.takeScripts());
+        Assert.assertEquals(metrics[0].getPolls(), driver.takeCommands());
+    }
+
+    @Test
+    public void customPredicateFallsBackToPerStepEvaluation() {
+        final AtomicInteger predicateCalls = new AtomicInteger();
+        findr()
+            .elem(id("top-nav"))
+            .elem(tagName("ul"))
+            .where(Findrs.not(Findrs.textEquals("")))
+            .where(new Predicate<WebElement>() {
+                @Override
+                public boolean apply(WebElement input) {
+                    predicateCalls.incrementAndGet();
+                    return input.getText().contains("Download");
+                }
+            })
+            .elem(tagName("a"))
+            .where(Findrs.textEquals("Home"))
+            .eval(new SucceedAtPoll<WebElement>(2));
+        Assert.assertEquals(2, predicateCalls.get());
+        // the prefix up to the custom predicate is scripted...
+        Assert.assertEquals(2, driver.takeScripts());
+        // ... and the rest is evaluated one step at a time : script, getText(),
+        // findElements() and getText()
+        Assert.assertEquals(8, driver.takeCommands());
+    }
+
+    @Test
+    public void unscriptableChainIsNotScripted() {
+        // custom locators can't be scripted
+        By topNav = new By() {
+            @Override
+            public List<WebElement> findElements(SearchContext context) {
+                return context.findElements(id("top-nav"));
+            }
+        };
+        findr()
+            .elem(topNav)
+            .elem(tagName("ul"))
+            .eval();
+        Assert.assertEquals(0, driver.takeScripts());
+    }
+
+    @Test
+    public void listFindrUsesBatchedChain() {
+        findr()
+            .elem(id("top-nav"))
+            .elemList(cssSelector("li a"))
+            .where(Findrs.textEquals("Download"))
+            .whereElemCount(1)
+            .eval(new SucceedAtPoll<List<WebElement>>(2));
+        Assert.assertEquals(2, driver.takeScripts());
+    }
+
+}
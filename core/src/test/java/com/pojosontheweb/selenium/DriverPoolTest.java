@@ -0,0 +1,227 @@
+package com.pojosontheweb.selenium;
+
+import com.google.common.base.Supplier;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.WebDriver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+public class DriverPoolTest {
+
+    private static final String KEY = "fake";
+
+    /**
+     * Creates fake drivers, and keeps them for the assertions.
+     */
+    private static class Factory implements Supplier<WebDriver> {
+
+        private final List<FakeWebDriver> drivers = Collections.synchronizedList(new ArrayList<FakeWebDriver>());
+
+        @Override
+        public WebDriver get() {
+            FakeWebDriver driver = new FakeWebDriver(0);
+            drivers.add(driver);
+            return driver;
+        }
+
+        int getCreated() {
+            return drivers.size();
+        }
+    }
+
+    private final Factory factory = new Factory();
+
+    private FakeWebDriver acquire(DriverPool pool) {
+        return (FakeWebDriver)pool.acquire(KEY, factory);
+    }
+
+    /**
+     * Wait for the drivers spawned in the background.
+     */
+    private static void waitForIdle(DriverPool pool, int idleCount) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (pool.getIdleCount() != idleCount) {
+            if (System.currentTimeMillis() > end) {
+                Assert.fail("expected " + idleCount + " idle drivers : " + pool);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void releasedDriverIsReused() {
+        DriverPool pool = new DriverPool(10);
+        FakeWebDriver driver = acquire(pool);
+        Assert.assertEquals(1, factory.getCreated());
+        Assert.assertEquals(1, pool.getInUseCount());
+        Assert.assertEquals(0, pool.getIdleCount());
+
+        pool.release(driver);
+        Assert.assertEquals(0, pool.getInUseCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+        Assert.assertFalse(driver.isQuit());
+
+        Assert.assertSame(driver, acquire(pool));
+        Assert.assertEquals(1, factory.getCreated());
+        Assert.assertEquals(1, pool.getInUseCount());
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertTrue(pool.toString().contains("reused=1"));
+    }
+
+    @Test
+    public void driversAreNotSharedBetweenKeys() {
+        DriverPool pool = new DriverPool(10);
+        pool.release(acquire(pool));
+        pool.acquire("other", factory);
+        Assert.assertEquals(2, factory.getCreated());
+        Assert.assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void releasedDriverIsReset() {
+        DriverPool pool = new DriverPool(10);
+        FakeWebDriver driver = acquire(pool);
+        driver.get("http://example.com");
+        driver.manage().addCookie(new Cookie("session", "123"));
+        driver.getLocalStorage().put("user", "me");
+        driver.getSessionStorage().put("cart", "2");
+        driver.openWindow("popup").switchTo().window("popup");
+
+        pool.release(driver);
+        Assert.assertEquals(1, pool.getIdleCount());
+        Assert.assertEquals(Collections.singleton("fake"), driver.getWindowHandles());
+        Assert.assertEquals("fake", driver.getWindowHandle());
+        Assert.assertTrue(driver.manage().getCookies().isEmpty());
+        Assert.assertTrue(driver.getLocalStorage().isEmpty());
+        Assert.assertTrue(driver.getSessionStorage().isEmpty());
+        Assert.assertEquals("about:blank", driver.getCurrentUrl());
+    }
+
+    @Test
+    public void overUsedDriverIsEvicted() {
+        DriverPool pool = new DriverPool(2);
+        FakeWebDriver driver = acquire(pool);
+        pool.release(driver);
+        Assert.assertSame(driver, acquire(pool));
+        // second use : max reached
+        pool.release(driver);
+        Assert.assertTrue(driver.isQuit());
+        Assert.assertEquals(0, pool.getIdleCount());
+
+        FakeWebDriver next = acquire(pool);
+        Assert.assertNotSame(driver, next);
+        Assert.assertEquals(2, factory.getCreated());
+    }
+
+    @Test
+    public void unhealthyIdleDriverIsEvicted() {
+        DriverPool pool = new DriverPool(10);
+        FakeWebDriver driver = acquire(pool);
+        pool.release(driver);
+        // the window is closed while the driver is idle : getWindowHandle() fails
+        driver.close();
+
+        FakeWebDriver next = acquire(pool);
+        Assert.assertNotSame(driver, next);
+        Assert.assertTrue(driver.isQuit());
+        Assert.assertEquals(2, factory.getCreated());
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertTrue(pool.toString().contains("evicted=1"));
+    }
+
+    @Test
+    public void driverIsEvictedWhenResetFails() {
+        DriverPool pool = new DriverPool(10);
+        FakeWebDriver driver = acquire(pool);
+        // no window left to reset
+        driver.close();
+        pool.release(driver);
+        Assert.assertTrue(driver.isQuit());
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertEquals(0, pool.getInUseCount());
+    }
+
+    @Test
+    public void discardedDriverIsQuit() {
+        DriverPool pool = new DriverPool(10);
+        FakeWebDriver driver = acquire(pool);
+        pool.discard(driver);
+        Assert.assertTrue(driver.isQuit());
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertEquals(0, pool.getInUseCount());
+        try {
+            pool.release(driver);
+            Assert.fail("discarded driver doesn't belong to the pool anymore");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownDriverIsRejected() {
+        new DriverPool(10).release(new FakeWebDriver(0));
+    }
+
+    @Test
+    public void shutdownQuitsDrivers() {
+        DriverPool pool = new DriverPool(10);
+        FakeWebDriver idle = acquire(pool);
+        FakeWebDriver inUse = acquire(pool);
+        pool.release(idle);
+        pool.shutdown();
+        Assert.assertTrue(idle.isQuit());
+        Assert.assertFalse(inUse.isQuit());
+        pool.release(inUse);
+        Assert.assertTrue(inUse.isQuit());
+        try {
+            acquire(pool);
+            Assert.fail("pool has been shut down");
+        } catch(IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void expectDoesNothingWithoutSpawnAhead() {
+        DriverPool pool = new DriverPool(10);
+        pool.expect(KEY, factory, 5);
+        Assert.assertEquals(0, factory.getCreated());
+        Assert.assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void driversAreSpawnedAhead() throws InterruptedException {
+        DriverPool pool = new DriverPool(10, 2);
+        pool.expect(KEY, factory, 5);
+        // spawnAhead drivers, not one per expected test
+        waitForIdle(pool, 2);
+        Assert.assertEquals(2, factory.getCreated());
+
+        List<FakeWebDriver> drivers = new ArrayList<FakeWebDriver>();
+        drivers.add(acquire(pool));
+        // topped up for the 4 tests to come
+        waitForIdle(pool, 2);
+        Assert.assertEquals(3, factory.getCreated());
+
+        for (int i = 0; i < 4; i++) {
+            drivers.add(acquire(pool));
+        }
+        // one driver spawned per expected test
+        waitForIdle(pool, 0);
+        Assert.assertEquals(5, factory.getCreated());
+        Assert.assertEquals(5, pool.getInUseCount());
+        Assert.assertTrue(pool.toString().contains("spawned=5"));
+
+        // not expected : created on demand
+        drivers.add(acquire(pool));
+        Assert.assertEquals(6, factory.getCreated());
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertEquals(6, new HashSet<FakeWebDriver>(drivers).size());
+    }
+
+}
@@ -0,0 +1,378 @@
+package com.pojosontheweb.selenium;
+
+import com.google.common.base.Function;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebElement;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.openqa.selenium.By.cssSelector;
+import static org.openqa.selenium.By.id;
+import static org.openqa.selenium.By.tagName;
+
+public class ElementCacheTest {
+
+    private FakeWebDriver driver;
+    private CachingWebDriver caching;
+    private ElementCache cache;
+    private FakeWebElement menu;
+
+    @Before
+    public void setUp() {
+        driver = new FakeWebDriver(0);
+        caching = new CachingWebDriver(driver);
+        cache = caching.getElementCache();
+        menu = menu("Home");
+        driver.getDocument().add(
+            driver.elem("div").attr("id", "top-nav").add(menu)
+        );
+    }
+
+    private FakeWebElement menu(String firstLink) {
+        return driver.elem("ul").add(
+            driver.elem("li").add(driver.elem("a").attr("href", "http://example.com").text(firstLink)),
+            driver.elem("li").add(driver.elem("a").attr("href", "/download").text("Download"))
+        );
+    }
+
+    /**
+     * Replace the menu with a new one, like a page update would.
+     */
+    private FakeWebElement replaceMenu(String firstLink) {
+        menu.remove();
+        menu = menu(firstLink);
+        ((FakeWebElement)driver.getDocument().findElement(id("top-nav"))).add(menu);
+        driver.takeCommands();
+        return menu;
+    }
+
+    private Findr findr() {
+        return new Findr(caching).setSleepInMillis(10);
+    }
+
+    /** 3 cacheable elem() steps, and a predicate */
+    private Findr homeLink() {
+        return findr()
+            .elem(id("top-nav"))
+            .elem(tagName("ul"))
+            .elem(cssSelector("li a"))
+            .where(Findrs.textEquals("Home"));
+    }
+
+    /** elem() steps only */
+    private Findr menuList() {
+        return findr()
+            .elem(id("top-nav"))
+            .elem(tagName("ul"));
+    }
+
+    private static final Function<WebElement,WebElement> ELEMENT = new Function<WebElement, WebElement>() {
+        @Override
+        public WebElement apply(WebElement webElement) {
+            return webElement;
+        }
+    };
+
+    @Test
+    public void missThenHit() {
+        homeLink().eval();
+        // 3 findElement(), and getText()
+        Assert.assertEquals(4, driver.takeCommands());
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+
+        homeLink().eval();
+        // the cached link only needs getText()
+        Assert.assertEquals(1, driver.takeCommands());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(0, cache.getStaleHits());
+    }
+
+    @Test
+    public void longestCachedPrefixIsUsed() {
+        menuList().eval();
+        Assert.assertEquals(2, driver.takeCommands());
+        Assert.assertEquals(2, cache.size());
+
+        homeLink().eval();
+        // from the cached list : findElement() and getText()
+        Assert.assertEquals(2, driver.takeCommands());
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void fullyCachedChainIsProbed() {
+        WebElement first = menuList().eval(ELEMENT);
+        driver.takeCommands();
+        WebElement second = menuList().eval(ELEMENT);
+        Assert.assertSame(first, second);
+        // no step left to evaluate : isEnabled() makes sure the handle is usable
+        Assert.assertEquals(1, driver.takeCommands());
+        Assert.assertEquals(0, cache.getStaleHits());
+    }
+
+    @Test
+    public void staleFullyCachedChainIsResolvedAgain() {
+        menuList().eval();
+        FakeWebElement newMenu = replaceMenu("Home");
+        Assert.assertSame(newMenu, menuList().eval(ELEMENT));
+        // isEnabled() fails, and 2 findElement()
+        Assert.assertEquals(3, driver.takeCommands());
+        Assert.assertEquals(1, cache.getStaleHits());
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void staleHandleIsResolvedAgain() {
+        WebElement oldLink = homeLink().eval(ELEMENT);
+        driver.takeCommands();
+        replaceMenu("Home");
+        WebElement newLink = homeLink().eval(ELEMENT);
+        // getText() and isEnabled() fail, then 3 findElement() and getText()
+        Assert.assertEquals(6, driver.takeCommands());
+        Assert.assertNotSame(oldLink, newLink);
+        Assert.assertSame(menu.findElement(cssSelector("li a")), newLink);
+        Assert.assertEquals(1, cache.getStaleHits());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void validHandleIsKeptWhenTheChainFails() {
+        homeLink().eval();
+        driver.takeCommands();
+        // the page changes without the menu being replaced
+        ((FakeWebElement)menu.findElement(cssSelector("li a"))).text("Start");
+        driver.takeCommands();
+        final List<EvalMetrics> metrics = new ArrayList<EvalMetrics>();
+        try {
+            homeLink()
+                .setTimeout(1)
+                .setMetricsListener(new EvalMetricsListener() {
+                    @Override
+                    public void onEval(EvalMetrics m) {
+                        metrics.add(m);
+                    }
+                })
+                .eval();
+            Assert.fail("should have timed out");
+        } catch(TimeoutException e) {
+            // expected
+        }
+        int polls = metrics.get(0).getPolls();
+        Assert.assertTrue(polls > 1);
+        // getText() and isEnabled() at each poll, the cache is kept
+        Assert.assertEquals(2 * polls, driver.takeCommands());
+        Assert.assertEquals(0, cache.getStaleHits());
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(polls, metrics.get(0).getCommands() / 2);
+    }
+
+    @Test
+    public void leastRecentlyUsedHandlesAreEvicted() {
+        ElementCache small = new ElementCache(2);
+        WebElement a = driver.elem("a");
+        WebElement b = driver.elem("b");
+        WebElement c = driver.elem("c");
+        List<String> path = new ArrayList<String>(Arrays.asList("a"));
+        small.put(path, a);
+        // the key is copied
+        path.add("changed");
+        small.put(Arrays.asList("b"), b);
+        Assert.assertSame(a, small.get(Arrays.asList("a")));
+        small.put(Arrays.asList("c"), c);
+        Assert.assertEquals(2, small.size());
+        Assert.assertSame(a, small.get(Arrays.asList("a")));
+        Assert.assertNull(small.get(Arrays.asList("b")));
+        Assert.assertSame(c, small.get(Arrays.asList("c")));
+    }
+
+    // invalidation
+    // ------------
+
+    private void assertInvalidates(Runnable call) {
+        homeLink().eval();
+        Assert.assertEquals(3, cache.size());
+        call.run();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    private void assertKeeps(Runnable call) {
+        homeLink().eval();
+        call.run();
+        Assert.assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void getInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                caching.get("fake://other");
+            }
+        });
+        Assert.assertEquals("fake://other", driver.getCurrentUrl());
+    }
+
+    @Test
+    public void navigateToInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                caching.navigate().to("fake://other");
+            }
+        });
+    }
+
+    @Test
+    public void navigateToUrlInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    caching.navigate().to(new URL("http://example.com"));
+                } catch(MalformedURLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void backInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                caching.navigate().back();
+            }
+        });
+    }
+
+    @Test
+    public void forwardInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                caching.navigate().forward();
+            }
+        });
+    }
+
+    @Test
+    public void refreshInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                caching.navigate().refresh();
+            }
+        });
+    }
+
+    @Test
+    public void switchToFrameByIndexInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                Assert.assertSame(caching, caching.switchTo().frame(0));
+            }
+        });
+    }
+
+    @Test
+    public void switchToFrameByNameInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                Assert.assertSame(caching, caching.switchTo().frame("content"));
+            }
+        });
+    }
+
+    @Test
+    public void switchToFrameElementInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                Assert.assertSame(caching, caching.switchTo().frame(menu));
+            }
+        });
+    }
+
+    @Test
+    public void switchToParentFrameInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                Assert.assertSame(caching, caching.switchTo().parentFrame());
+            }
+        });
+    }
+
+    @Test
+    public void switchToWindowInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                Assert.assertSame(caching, caching.switchTo().window("fake"));
+            }
+        });
+    }
+
+    @Test
+    public void switchToDefaultContentInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                Assert.assertSame(caching, caching.switchTo().defaultContent());
+            }
+        });
+    }
+
+    @Test
+    public void closeInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                caching.close();
+            }
+        });
+    }
+
+    @Test
+    public void quitInvalidates() {
+        assertInvalidates(new Runnable() {
+            @Override
+            public void run() {
+                caching.quit();
+            }
+        });
+    }
+
+    @Test
+    public void otherCallsKeepTheCache() {
+        assertKeeps(new Runnable() {
+            @Override
+            public void run() {
+                caching.getTitle();
+                caching.getCurrentUrl();
+                caching.getWindowHandles();
+                caching.findElement(id("top-nav"));
+                caching.executeScript("return 1;");
+                caching.switchTo().activeElement();
+                caching.manage().getCookies();
+            }
+        });
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.pojosontheweb.selenium;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class EvalMetricsAggregatorTest {
+
+    private static final List<String> SLOW = Arrays.asList("By.id: top-nav", "By.tagName: a");
+    private static final List<String> MEDIUM = Collections.singletonList("By.id: search");
+    private static final List<String> FAST = Arrays.asList("By.id: main", "By.cssSelector: .title", "textEquals(Home)");
+
+    private static final long MS = 1000000;
+
+    private static EvalMetrics metrics(List<String> path, EvalMetrics.Outcome outcome, long elapsedMillis,
+                                       int polls, int commands, int exceptionRetries, long... stepMillis) {
+        long[] stepNanos = new long[stepMillis.length];
+        for (int i = 0; i < stepMillis.length; i++) {
+            stepNanos[i] = stepMillis[i] * MS;
+        }
+        return new EvalMetrics(path, outcome, elapsedMillis, polls, commands, exceptionRetries, stepNanos);
+    }
+
+    private static EvalMetricsAggregator aggregator() {
+        EvalMetricsAggregator a = new EvalMetricsAggregator();
+        a.onEval(metrics(FAST, EvalMetrics.Outcome.SUCCESS, 50, 1, 3, 0, 5, 20, 25));
+        a.onEval(metrics(SLOW, EvalMetrics.Outcome.SUCCESS, 100, 2, 3, 0, 10, 90));
+        a.onEval(metrics(MEDIUM, EvalMetrics.Outcome.SUCCESS, 250, 4, 4, 0, 250));
+        a.onEval(metrics(SLOW, EvalMetrics.Outcome.TIMEOUT, 300, 6, 10, 1, 50, 250));
+        return a;
+    }
+
+    private static List<String> paths(List<EvalMetricsAggregator.PathStats> stats) {
+        List<String> res = new ArrayList<String>();
+        for (EvalMetricsAggregator.PathStats s : stats) {
+            res.add(s.getPath());
+        }
+        return res;
+    }
+
+    @Test
+    public void slowestFirst() {
+        EvalMetricsAggregator a = aggregator();
+        Assert.assertEquals(
+            Arrays.asList("By.id: top-nav->By.tagName: a", "By.id: search", "By.id: main->By.cssSelector: .title->textEquals(Home)"),
+            paths(a.getSlowest(10)));
+        Assert.assertEquals(
+            Arrays.asList("By.id: top-nav->By.tagName: a", "By.id: search"),
+            paths(a.getSlowest(2)));
+    }
+
+    @Test
+    public void totalsPerPath() {
+        EvalMetricsAggregator.PathStats s = aggregator().getSlowest(1).get(0);
+        Assert.assertEquals(2, s.getEvals());
+        Assert.assertEquals(1, s.getTimeouts());
+        Assert.assertEquals(400, s.getTotalMillis());
+        Assert.assertEquals(300, s.getMaxMillis());
+        Assert.assertEquals(8, s.getPolls());
+        Assert.assertEquals(13, s.getCommands());
+        Assert.assertEquals(1, s.getExceptionRetries());
+        Assert.assertEquals(2, s.getStepCount());
+        Assert.assertEquals(60 * MS, s.getStepNanos(0));
+        Assert.assertEquals(340 * MS, s.getStepNanos(1));
+    }
+
+    @Test
+    public void reportListsTheSlowest() {
+        String report = aggregator().report(2);
+        String[] lines = report.split("\n");
+        Assert.assertEquals(3, lines.length);
+        Assert.assertTrue(lines[0].startsWith("[Findr] Slowest selectors"));
+        Assert.assertEquals("  400ms\t2\t300ms\t8\t13\t1\t1\t60,340\tBy.id: top-nav->By.tagName: a", lines[1]);
+        Assert.assertEquals("  250ms\t1\t250ms\t4\t4\t0\t0\t250\tBy.id: search", lines[2]);
+    }
+
+    @Test
+    public void clear() {
+        EvalMetricsAggregator a = aggregator();
+        a.clear();
+        Assert.assertTrue(a.getSlowest(10).isEmpty());
+    }
+
+    @Test
+    public void concurrentEvals() throws InterruptedException {
+        final EvalMetricsAggregator a = new EvalMetricsAggregator();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        a.onEval(metrics(SLOW, EvalMetrics.Outcome.SUCCESS, 2, 1, 1, 0, 1, 1));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        EvalMetricsAggregator.PathStats s = a.getSlowest(10).get(0);
+        Assert.assertEquals(4000, s.getEvals());
+        Assert.assertEquals(8000, s.getTotalMillis());
+        Assert.assertEquals(4000, s.getCommands());
+        Assert.assertEquals(4000 * MS, s.getStepNanos(1));
+    }
+
+}
@@ -0,0 +1,502 @@
+package com.pojosontheweb.selenium;
+
+import org.openqa.selenium.*;
+import org.openqa.selenium.logging.LogEntries;
+import org.openqa.selenium.logging.LogEntry;
+import org.openqa.selenium.logging.Logs;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-memory WebDriver over a tree of <code>FakeWebElement</code>s. Every command
+ * (on the driver or on its elements) is counted, and can be delayed in order to
+ * simulate the round trip to a real driver.
+ *
+ * Navigation only changes the current url. Windows can be opened and closed,
+ * but they all share the same document, and switching to a frame is a no-op.
+ * Once the driver has quit, every command fails.
+ *
+ * Scripts are counted separately. The only script that is evaluated is the
+ * <code>BatchProbe</code> script, other scripts return null. Scripts that clear
+ * <code>localStorage</code> or <code>sessionStorage</code> clear the fake storages.
+ */
+public class FakeWebDriver implements WebDriver, JavascriptExecutor {
+
+    private final long latencyNanos;
+    private final FakeWebElement document;
+    private final Set<Cookie> cookies = new LinkedHashSet<Cookie>();
+    private final Set<String> windowHandles = new LinkedHashSet<String>(Collections.singleton("fake"));
+    private final Map<String,String> localStorage = new HashMap<String, String>();
+    private final Map<String,String> sessionStorage = new HashMap<String, String>();
+    private String windowHandle = "fake";
+    private boolean quit = false;
+    private long commands = 0;
+    private long scripts = 0;
+    private String currentUrl = "fake://";
+    private Dimension windowSize = new Dimension(1024, 768);
+    private Point windowPosition = new Point(0, 0);
+
+    /**
+     * Create a driver with an empty document.
+     * @param latencyMicros the simulated round trip time for each command, in microseconds
+     */
+    public FakeWebDriver(long latencyMicros) {
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        this.document = new FakeWebElement(this, "html");
+    }
+
+    /**
+     * Return the root of the document.
+     */
+    public FakeWebElement getDocument() {
+        return document;
+    }
+
+    /**
+     * Create a new (detached) element.
+     * @param tagName the tag name
+     * @return a new element
+     */
+    public FakeWebElement elem(String tagName) {
+        return new FakeWebElement(this, tagName);
+    }
+
+    /**
+     * Open a new window. The current window doesn't change.
+     * @param handle the handle of the new window
+     * @return this driver
+     */
+    public FakeWebDriver openWindow(String handle) {
+        windowHandles.add(handle);
+        return this;
+    }
+
+    /**
+     * Return the (mutable) local storage.
+     */
+    public Map<String, String> getLocalStorage() {
+        return localStorage;
+    }
+
+    /**
+     * Return the (mutable) session storage.
+     */
+    public Map<String, String> getSessionStorage() {
+        return sessionStorage;
+    }
+
+    /**
+     * Return true if <code>quit()</code> has been called.
+     */
+    public boolean isQuit() {
+        return quit;
+    }
+
+    /**
+     * Return the number of commands since last call, and reset the counter.
+     */
+    public long takeCommands() {
+        long res = commands;
+        commands = 0;
+        return res;
+    }
+
+    /**
+     * Return the number of scripts executed since last call, and reset the counter.
+     */
+    public long takeScripts() {
+        long res = scripts;
+        scripts = 0;
+        return res;
+    }
+
+    /**
+     * Count a command and simulate its latency.
+     */
+    void command() {
+        if (quit) {
+            throw new WebDriverException("Driver has quit");
+        }
+        commands++;
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+    @Override
+    public void get(String url) {
+        command();
+        currentUrl = url;
+    }
+
+    @Override
+    public String getCurrentUrl() {
+        command();
+        return currentUrl;
+    }
+
+    @Override
+    public String getTitle() {
+        command();
+        return "fake";
+    }
+
+    @Override
+    public List<WebElement> findElements(By by) {
+        return document.findElements(by);
+    }
+
+    @Override
+    public WebElement findElement(By by) {
+        return document.findElement(by);
+    }
+
+    @Override
+    public String getPageSource() {
+        command();
+        return "";
+    }
+
+    @Override
+    public void close() {
+        command();
+        windowHandles.remove(windowHandle);
+    }
+
+    @Override
+    public void quit() {
+        command();
+        windowHandles.clear();
+        quit = true;
+    }
+
+    @Override
+    public Set<String> getWindowHandles() {
+        command();
+        return new LinkedHashSet<String>(windowHandles);
+    }
+
+    @Override
+    public String getWindowHandle() {
+        command();
+        if (!windowHandles.contains(windowHandle)) {
+            throw new NoSuchWindowException("Window has been closed : " + windowHandle);
+        }
+        return windowHandle;
+    }
+
+    @Override
+    public Object executeScript(String script, Object... args) {
+        command();
+        scripts++;
+        if (script.equals(BatchProbe.SCRIPT)) {
+            return probe((List<?>)args[0]);
+        }
+        if (script.contains("localStorage.clear()")) {
+            localStorage.clear();
+        }
+        if (script.contains("sessionStorage.clear()")) {
+            sessionStorage.clear();
+        }
+        return null;
+    }
+
+    @Override
+    public Object executeAsyncScript(String script, Object... args) {
+        return executeScript(script, args);
+    }
+
+    /**
+     * Evaluate the steps of a batch probe, like the script does in a browser.
+     */
+    private List<Object> probe(List<?> steps) {
+        FakeWebElement ctx = document;
+        for (int i = 0; i < steps.size(); i += 3) {
+            String op = (String)steps.get(i);
+            String arg1 = (String)steps.get(i + 1);
+            String arg2 = (String)steps.get(i + 2);
+            Long satisfied = (long)(i / 3);
+            if (op.equals("id") || op.equals("name") || op.equals("tag") || op.equals("class") || op.equals("css")) {
+                ctx = ctx.probeFind(op, arg1);
+                if (ctx == null) {
+                    return Arrays.<Object>asList(null, satisfied);
+                }
+            } else {
+                boolean neg = false;
+                while (op.charAt(0) == '!') {
+                    neg = !neg;
+                    op = op.substring(1);
+                }
+                if (ctx.probeTest(op, arg1, arg2) == neg) {
+                    return Arrays.<Object>asList(null, satisfied);
+                }
+            }
+        }
+        return Arrays.<Object>asList(ctx, (long)(steps.size() / 3));
+    }
+
+    @Override
+    public TargetLocator switchTo() {
+        return new TargetLocator() {
+            @Override
+            public WebDriver frame(int index) {
+                command();
+                return FakeWebDriver.this;
+            }
+
+            @Override
+            public WebDriver frame(String nameOrId) {
+                command();
+                return FakeWebDriver.this;
+            }
+
+            @Override
+            public WebDriver frame(WebElement frameElement) {
+                command();
+                return FakeWebDriver.this;
+            }
+
+            @Override
+            public WebDriver parentFrame() {
+                command();
+                return FakeWebDriver.this;
+            }
+
+            @Override
+            public WebDriver window(String nameOrHandle) {
+                command();
+                if (!windowHandles.contains(nameOrHandle)) {
+                    throw new NoSuchWindowException("No window " + nameOrHandle);
+                }
+                windowHandle = nameOrHandle;
+                return FakeWebDriver.this;
+            }
+
+            @Override
+            public WebDriver defaultContent() {
+                command();
+                return FakeWebDriver.this;
+            }
+
+            @Override
+            public WebElement activeElement() {
+                command();
+                return document;
+            }
+
+            @Override
+            public Alert alert() {
+                command();
+                throw new NoAlertPresentException();
+            }
+        };
+    }
+
+    @Override
+    public Navigation navigate() {
+        return new Navigation() {
+            @Override
+            public void back() {
+                command();
+            }
+
+            @Override
+            public void forward() {
+                command();
+            }
+
+            @Override
+            public void to(String url) {
+                get(url);
+            }
+
+            @Override
+            public void to(URL url) {
+                get(url.toString());
+            }
+
+            @Override
+            public void refresh() {
+                command();
+            }
+        };
+    }
+
+    @Override
+    public Options manage() {
+        return new FakeOptions();
+    }
+
+    private class FakeOptions implements Options, Timeouts, Window, ImeHandler, Logs {
+
+        @Override
+        public void addCookie(Cookie cookie) {
+            command();
+            deleteCookieNamed(cookie.getName());
+            cookies.add(cookie);
+        }
+
+        @Override
+        public void deleteCookieNamed(String name) {
+            command();
+            Cookie c = getCookieNamed(name);
+            if (c != null) {
+                cookies.remove(c);
+            }
+        }
+
+        @Override
+        public void deleteCookie(Cookie cookie) {
+            command();
+            cookies.remove(cookie);
+        }
+
+        @Override
+        public void deleteAllCookies() {
+            command();
+            cookies.clear();
+        }
+
+        @Override
+        public Set<Cookie> getCookies() {
+            command();
+            return new LinkedHashSet<Cookie>(cookies);
+        }
+
+        @Override
+        public Cookie getCookieNamed(String name) {
+            command();
+            for (Cookie c : cookies) {
+                if (c.getName().equals(name)) {
+                    return c;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Timeouts timeouts() {
+            return this;
+        }
+
+        @Override
+        public ImeHandler ime() {
+            return this;
+        }
+
+        @Override
+        public Window window() {
+            return this;
+        }
+
+        @Override
+        public Logs logs() {
+            return this;
+        }
+
+        // Timeouts
+
+        @Override
+        public Timeouts implicitlyWait(long time, TimeUnit unit) {
+            command();
+            return this;
+        }
+
+        @Override
+        public Timeouts setScriptTimeout(long time, TimeUnit unit) {
+            command();
+            return this;
+        }
+
+        @Override
+        public Timeouts pageLoadTimeout(long time, TimeUnit unit) {
+            command();
+            return this;
+        }
+
+        // Window
+
+        @Override
+        public void setSize(Dimension targetSize) {
+            command();
+            windowSize = targetSize;
+        }
+
+        @Override
+        public void setPosition(Point targetPosition) {
+            command();
+            windowPosition = targetPosition;
+        }
+
+        @Override
+        public Dimension getSize() {
+            command();
+            return windowSize;
+        }
+
+        @Override
+        public Point getPosition() {
+            command();
+            return windowPosition;
+        }
+
+        @Override
+        public void maximize() {
+            command();
+        }
+
+        // ImeHandler
+
+        @Override
+        public List<String> getAvailableEngines() {
+            command();
+            return Collections.emptyList();
+        }
+
+        @Override
+        public String getActiveEngine() {
+            command();
+            return null;
+        }
+
+        @Override
+        public boolean isActivated() {
+            command();
+            return false;
+        }
+
+        @Override
+        public void deactivate() {
+            command();
+        }
+
+        @Override
+        public void activateEngine(String engine) {
+            command();
+            throw new ImeActivationFailedException("No engine " + engine);
+        }
+
+        // Logs
+
+        @Override
+        public LogEntries get(String logType) {
+            command();
+            return new LogEntries(Collections.<LogEntry>emptyList());
+        }
+
+        @Override
+        public Set<String> getAvailableLogTypes() {
+            command();
+            return Collections.emptySet();
+        }
+    }
+}
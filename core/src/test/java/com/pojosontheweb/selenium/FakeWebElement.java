@@ -0,0 +1,423 @@
+package com.pojosontheweb.selenium;
+
+import org.openqa.selenium.*;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Element of a <code>FakeWebDriver</code> document. Supports id, name, className,
+ * tagName and simple css selectors (tags, ids and classes, with descendant
+ * combinators), and the xpaths used by <code>Select</code>.
+ *
+ * Elements that are removed from the document are stale : commands on them, or on
+ * their descendants, throw a <code>StaleElementReferenceException</code>.
+ */
+public class FakeWebElement implements WebElement {
+
+    private static final Pattern XPATH_OPTION_TEXT =
+            Pattern.compile("\\.//option\\[normalize-space\\(\\.\\) = \"(.*)\"\\]");
+
+    private final FakeWebDriver driver;
+    private final String tagName;
+    private final Map<String,String> attributes = new HashMap<String, String>();
+    private final List<FakeWebElement> children = new ArrayList<FakeWebElement>();
+    private FakeWebElement parent;
+    private String text = "";
+    private boolean selected = false;
+    private boolean enabled = true;
+    private boolean displayed = true;
+    private boolean removed = false;
+
+    FakeWebElement(FakeWebDriver driver, String tagName) {
+        this.driver = driver;
+        this.tagName = tagName;
+    }
+
+    // Builder methods (don't count as commands)
+    // ---------------
+
+    public FakeWebElement attr(String name, String value) {
+        attributes.put(name, value);
+        return this;
+    }
+
+    public FakeWebElement text(String text) {
+        this.text = text;
+        return this;
+    }
+
+    public FakeWebElement enabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    public FakeWebElement displayed(boolean displayed) {
+        this.displayed = displayed;
+        return this;
+    }
+
+    public FakeWebElement add(FakeWebElement... elements) {
+        for (FakeWebElement e : elements) {
+            e.parent = this;
+            children.add(e);
+        }
+        return this;
+    }
+
+    /**
+     * Remove this element from its parent, like a page update would. The element
+     * and its descendants are stale from now on.
+     */
+    public void remove() {
+        if (parent != null) {
+            parent.children.remove(this);
+        }
+        removed = true;
+    }
+
+    private boolean isStale() {
+        for (FakeWebElement e = this; e != null; e = e.parent) {
+            if (e.removed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count a command on this element, which must not be stale.
+     */
+    private void command() {
+        driver.command();
+        if (isStale()) {
+            throw new StaleElementReferenceException("Element is no longer attached to the DOM : " + this);
+        }
+    }
+
+    // Matching
+    // --------
+
+    private boolean hasClass(String className) {
+        String classes = attributes.get("class");
+        if (classes == null) {
+            return false;
+        }
+        for (String c : classes.split("\\s")) {
+            if (c.equals(className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Match a compound selector, like <code>div#foo.bar</code>.
+     */
+    private boolean matchesCompound(String compound) {
+        int i = 0;
+        int len = compound.length();
+        while (i < len && compound.charAt(i) != '#' && compound.charAt(i) != '.') {
+            i++;
+        }
+        String tag = compound.substring(0, i);
+        if (tag.length() > 0 && !tag.equals("*") && !tag.equalsIgnoreCase(tagName)) {
+            return false;
+        }
+        while (i < len) {
+            char kind = compound.charAt(i);
+            int start = ++i;
+            while (i < len && compound.charAt(i) != '#' && compound.charAt(i) != '.') {
+                i++;
+            }
+            String value = compound.substring(start, i);
+            if (kind == '#' && !value.equals(attributes.get("id"))) {
+                return false;
+            }
+            if (kind == '.' && !hasClass(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Match a descendant selector (compounds separated by spaces), right to left.
+     */
+    private boolean matchesCss(String[] compounds) {
+        int i = compounds.length - 1;
+        if (!matchesCompound(compounds[i])) {
+            return false;
+        }
+        FakeWebElement ancestor = parent;
+        i--;
+        while (i >= 0 && ancestor != null) {
+            if (ancestor.matchesCompound(compounds[i])) {
+                i--;
+            }
+            ancestor = ancestor.parent;
+        }
+        return i < 0;
+    }
+
+    private static String locatorValue(By by) {
+        String s = by.toString();
+        return s.substring(s.indexOf(": ") + 2);
+    }
+
+    private static boolean isBuiltIn(By by) {
+        return by instanceof By.ById || by instanceof By.ByClassName || by instanceof By.ByTagName
+                || by instanceof By.ByCssSelector || by instanceof By.ByName || by instanceof By.ByXPath;
+    }
+
+    private void collect(By by, List<WebElement> res, boolean firstOnly) {
+        String value = locatorValue(by);
+        if (by instanceof By.ById) {
+            collect("#" + value, res, firstOnly);
+        } else if (by instanceof By.ByClassName) {
+            collect("." + value, res, firstOnly);
+        } else if (by instanceof By.ByTagName || by instanceof By.ByCssSelector) {
+            collect(value, res, firstOnly);
+        } else if (by instanceof By.ByName) {
+            collectByAttr("name", value, res, firstOnly);
+        } else if (by instanceof By.ByXPath) {
+            Matcher m = XPATH_OPTION_TEXT.matcher(value);
+            if (!m.matches()) {
+                throw new InvalidSelectorException("Unsupported xpath " + value);
+            }
+            collectOptions(m.group(1), res);
+        } else {
+            throw new InvalidSelectorException("Unsupported locator " + by);
+        }
+    }
+
+    private void collect(String css, List<WebElement> res, boolean firstOnly) {
+        String[] compounds = css.trim().split("\\s+");
+        Deque<FakeWebElement> todo = new ArrayDeque<FakeWebElement>(children);
+        while (!todo.isEmpty()) {
+            FakeWebElement e = todo.removeFirst();
+            if (e.matchesCss(compounds)) {
+                res.add(e);
+                if (firstOnly) {
+                    return;
+                }
+            }
+            // depth-first, document order
+            for (int i = e.children.size() - 1; i >= 0; i--) {
+                todo.addFirst(e.children.get(i));
+            }
+        }
+    }
+
+    private void collectByAttr(String name, String value, List<WebElement> res, boolean firstOnly) {
+        for (FakeWebElement c : children) {
+            if (value.equals(c.attributes.get(name))) {
+                res.add(c);
+                if (firstOnly) {
+                    return;
+                }
+            }
+            c.collectByAttr(name, value, res, firstOnly);
+            if (firstOnly && !res.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    private void collectOptions(String text, List<WebElement> res) {
+        for (FakeWebElement c : children) {
+            if (c.tagName.equals("option") && c.text.trim().equals(text)) {
+                res.add(c);
+            }
+            c.collectOptions(text, res);
+        }
+    }
+
+    // Batch probe (the probe is a single command)
+    // -----------
+
+    FakeWebElement probeFind(String op, String value) {
+        List<WebElement> res = new ArrayList<WebElement>(1);
+        if (op.equals("id")) {
+            collect("#" + value, res, true);
+        } else if (op.equals("name")) {
+            collectByAttr("name", value, res, true);
+        } else if (op.equals("tag")) {
+            collect(value, res, true);
+        } else if (op.equals("class")) {
+            collect("." + value, res, true);
+        } else {
+            collect(value, res, true);
+        }
+        return res.isEmpty() ? null : (FakeWebElement)res.get(0);
+    }
+
+    boolean probeTest(String op, String a, String b) {
+        String v;
+        if (op.equals("attrEquals")) {
+            v = attributes.get(a);
+            return v != null && v.equals(b);
+        } else if (op.equals("attrStartsWith")) {
+            v = attributes.get(a);
+            return v != null && v.startsWith(b);
+        } else if (op.equals("attrEndsWith")) {
+            v = attributes.get(a);
+            return v != null && v.endsWith(b);
+        } else if (op.equals("hasClass")) {
+            return hasClass(a);
+        } else if (op.equals("textEquals")) {
+            return probeText().equals(a);
+        } else if (op.equals("textStartsWith")) {
+            return probeText().startsWith(a);
+        } else if (op.equals("textContains")) {
+            return probeText().contains(a);
+        } else if (op.equals("textEndsWith")) {
+            return probeText().endsWith(a);
+        } else if (op.equals("isEnabled")) {
+            return enabled;
+        }
+        return false;
+    }
+
+    private String probeText() {
+        return displayed ? allText().trim() : "";
+    }
+
+    // WebElement
+    // ----------
+
+    @Override
+    public List<WebElement> findElements(By by) {
+        if (!isBuiltIn(by)) {
+            // custom locators are made of the built-in ones
+            return by.findElements(this);
+        }
+        command();
+        List<WebElement> res = new ArrayList<WebElement>();
+        collect(by, res, false);
+        return res;
+    }
+
+    @Override
+    public WebElement findElement(By by) {
+        if (!isBuiltIn(by)) {
+            return by.findElement(this);
+        }
+        command();
+        List<WebElement> res = new ArrayList<WebElement>(1);
+        collect(by, res, true);
+        if (res.isEmpty()) {
+            throw new org.openqa.selenium.NoSuchElementException("No element found for " + by);
+        }
+        return res.get(0);
+    }
+
+    @Override
+    public void click() {
+        command();
+        if (tagName.equals("option") && parent != null) {
+            for (FakeWebElement sibling : parent.children) {
+                sibling.selected = false;
+            }
+            selected = true;
+        }
+    }
+
+    @Override
+    public void submit() {
+        command();
+    }
+
+    @Override
+    public void sendKeys(CharSequence... keysToSend) {
+        command();
+        StringBuilder sb = new StringBuilder(attributes.containsKey("value") ? attributes.get("value") : "");
+        for (CharSequence k : keysToSend) {
+            sb.append(k);
+        }
+        attributes.put("value", sb.toString());
+    }
+
+    @Override
+    public void clear() {
+        command();
+        attributes.put("value", "");
+    }
+
+    @Override
+    public String getTagName() {
+        command();
+        return tagName;
+    }
+
+    @Override
+    public String getAttribute(String name) {
+        command();
+        return attributes.get(name);
+    }
+
+    @Override
+    public boolean isSelected() {
+        command();
+        return selected;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        command();
+        return enabled;
+    }
+
+    private String allText() {
+        if (children.isEmpty()) {
+            return text;
+        }
+        StringBuilder sb = new StringBuilder(text);
+        for (FakeWebElement c : children) {
+            String t = c.allText();
+            if (t.length() > 0) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append(t);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String getText() {
+        command();
+        return displayed ? allText() : "";
+    }
+
+    @Override
+    public boolean isDisplayed() {
+        command();
+        return displayed;
+    }
+
+    @Override
+    public Point getLocation() {
+        command();
+        return new Point(0, 0);
+    }
+
+    @Override
+    public Dimension getSize() {
+        command();
+        return new Dimension(0, 0);
+    }
+
+    @Override
+    public String getCssValue(String propertyName) {
+        command();
+        return "";
+    }
+
+    @Override
+    public String toString() {
+        return "FakeWebElement{" + tagName + attributes + "}";
+    }
+}
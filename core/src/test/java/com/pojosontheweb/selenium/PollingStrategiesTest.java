@@ -0,0 +1,117 @@
+package com.pojosontheweb.selenium;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class PollingStrategiesTest {
+
+    private static final List<String> PATH = Arrays.asList("By.id: top-nav", "By.tagName: a");
+    private static final List<String> OTHER_PATH = Collections.singletonList("By.id: other");
+
+    private static long[] sleeps(PollingStrategy.Polling polling, int count) {
+        long[] res = new long[count];
+        for (int i = 0; i < count; i++) {
+            res[i] = polling.nextSleepInMillis();
+        }
+        return res;
+    }
+
+    private static void succeed(PollingStrategy strategy, List<String> path, long elapsedMillis) {
+        strategy.start(path).finished(true, 3, elapsedMillis);
+    }
+
+    @Test
+    public void fixedAlwaysSleepsTheSame() {
+        PollingStrategy.Polling polling = PollingStrategies.fixed(500).start(PATH);
+        Assert.assertArrayEquals(new long[] {500, 500, 500, 500}, sleeps(polling, 4));
+    }
+
+    @Test
+    public void exponentialDoublesUpToMax() {
+        PollingStrategy.Polling polling = PollingStrategies.exponential(10, 100).start(PATH);
+        Assert.assertArrayEquals(new long[] {10, 20, 40, 80, 100, 100}, sleeps(polling, 6));
+    }
+
+    @Test
+    public void exponentialStartsAtMax() {
+        PollingStrategy.Polling polling = PollingStrategies.exponential(300, 100).start(PATH);
+        Assert.assertArrayEquals(new long[] {100, 100, 100}, sleeps(polling, 3));
+    }
+
+    @Test
+    public void exponentialHasNoHistory() {
+        PollingStrategy strategy = PollingStrategies.exponential(10, 1000);
+        succeed(strategy, PATH, 400);
+        Assert.assertArrayEquals(new long[] {10, 20, 40}, sleeps(strategy.start(PATH), 3));
+    }
+
+    @Test
+    public void adaptiveWithoutHistoryIsExponential() {
+        PollingStrategy.Polling polling = PollingStrategies.adaptive(10, 100).start(PATH);
+        Assert.assertArrayEquals(new long[] {10, 20, 40, 80, 100, 100}, sleeps(polling, 6));
+    }
+
+    @Test
+    public void adaptiveStartsBeforeTheExpectedTime() {
+        PollingStrategy strategy = PollingStrategies.adaptive(10, 1000);
+        succeed(strategy, PATH, 400);
+        // 3/4 of the expected time, then fast again from there
+        Assert.assertArrayEquals(new long[] {300, 10, 20, 40}, sleeps(strategy.start(PATH), 4));
+        // capped by the max
+        strategy = PollingStrategies.adaptive(10, 200);
+        succeed(strategy, PATH, 400);
+        Assert.assertArrayEquals(new long[] {200, 10, 20}, sleeps(strategy.start(PATH), 3));
+    }
+
+    @Test
+    public void adaptiveKeepsAMovingAverage() {
+        PollingStrategy strategy = PollingStrategies.adaptive(10, 10000);
+        succeed(strategy, PATH, 400);
+        succeed(strategy, PATH, 800);
+        // (400 * 3 + 800) / 4 = 500
+        Assert.assertEquals(375, strategy.start(PATH).nextSleepInMillis());
+        succeed(strategy, PATH, 100);
+        // (500 * 3 + 100) / 4 = 400
+        Assert.assertEquals(300, strategy.start(PATH).nextSleepInMillis());
+    }
+
+    @Test
+    public void adaptiveIgnoresFailuresAndFastEvals() {
+        PollingStrategy strategy = PollingStrategies.adaptive(10, 1000);
+        strategy.start(PATH).finished(false, 30, 5000);
+        Assert.assertArrayEquals(new long[] {10, 20}, sleeps(strategy.start(PATH), 2));
+        // not slower than the initial sleep : nothing to adapt
+        succeed(strategy, PATH, 10);
+        Assert.assertArrayEquals(new long[] {10, 20}, sleeps(strategy.start(PATH), 2));
+    }
+
+    @Test
+    public void adaptiveHistoryIsPerPath() {
+        PollingStrategy strategy = PollingStrategies.adaptive(10, 1000);
+        succeed(strategy, PATH, 400);
+        Assert.assertArrayEquals(new long[] {10, 20}, sleeps(strategy.start(OTHER_PATH), 2));
+        // equal paths share the history
+        Assert.assertEquals(300, strategy.start(Arrays.asList("By.id: top-nav", "By.tagName: a")).nextSleepInMillis());
+        // strategies don't share their history
+        Assert.assertEquals(10, PollingStrategies.adaptive(10, 1000).start(PATH).nextSleepInMillis());
+    }
+
+    @Test
+    public void adaptiveEvictsLeastRecentlyUsedPaths() {
+        PollingStrategy strategy = PollingStrategies.adaptive(10, 1000);
+        succeed(strategy, PATH, 400);
+        succeed(strategy, OTHER_PATH, 400);
+        // PATH is used again, OTHER_PATH is now the eldest
+        strategy.start(PATH);
+        for (int i = 0; i < PollingStrategies.MAX_HISTORY_SIZE - 1; i++) {
+            succeed(strategy, Collections.singletonList("path" + i), 400);
+        }
+        Assert.assertEquals(300, strategy.start(PATH).nextSleepInMillis());
+        Assert.assertEquals(10, strategy.start(OTHER_PATH).nextSleepInMillis());
+    }
+
+}
@@ -11,12 +11,27 @@ import org.openqa.grid.internal.Registry;
 import org.openqa.grid.internal.TestSession;
 import org.openqa.selenium.remote.internal.HttpClientFactory;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Map;
 import java.util.logging.Logger;
 
 public class NodeProxy extends org.openqa.grid.selenium.proxy.DefaultRemoteProxy {
 
     private static final Logger log = Logger.getLogger(NodeProxy.class.getName());
 
+    /**
+     * Requested capability : area of the screen to record for the session, as
+     * <code>x,y,width,height</code>. Defaults to the whole screen.
+     */
+    public static final String CAPABILITY_VIDEO_AREA = "videoCaptureArea";
+
+    /**
+     * Requested capability : index of the screen to record for the session.
+     * Defaults to the default screen.
+     */
+    public static final String CAPABILITY_VIDEO_SCREEN = "videoScreen";
+
     private final HttpClient client;
     private final HttpHost remoteHost;
     private final String serviceUrl;
@@ -32,14 +47,25 @@ public class NodeProxy extends org.openqa.grid.selenium.proxy.DefaultRemoteProxy
     @Override
     public void beforeSession(TestSession session) {
         super.beforeSession(session);
-        HttpPost r = new HttpPost(serviceUrl + "?command=start");
+        StringBuilder url = new StringBuilder(serviceUrl)
+            .append("?command=start&session=").append(encode(session.getInternalKey()));
+        Map<String, Object> capabilities = session.getRequestedCapabilities();
+        Object area = capabilities.get(CAPABILITY_VIDEO_AREA);
+        if (area != null) {
+            url.append("&area=").append(encode(area.toString()));
+        }
+        Object screen = capabilities.get(CAPABILITY_VIDEO_SCREEN);
+        if (screen != null) {
+            url.append("&screen=").append(encode(screen.toString()));
+        }
+        HttpPost r = new HttpPost(url.toString());
         try {
             HttpResponse response = client.execute(remoteHost, r);
             if(response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
                 log.warning("Could not start video reporting: " + EntityUtils.toString(response.getEntity()));
                 return;
             }
-            log.info("Started recording for new session on node: " + getId());
+            log.info("Started recording for new session " + session.getInternalKey() + " on node: " + getId());
 
         } catch (Exception e) {
             log.warning("Could not start video reporting due to exception: " + e.getMessage());
@@ -53,14 +79,14 @@ public class NodeProxy extends org.openqa.grid.selenium.proxy.DefaultRemoteProxy
     @Override
     public void afterSession(TestSession session) {
         super.afterSession(session);
-        HttpPost r = new HttpPost(serviceUrl + "?command=stop");
+        HttpPost r = new HttpPost(serviceUrl + "?command=stop&session=" + encode(session.getInternalKey()));
         try {
             HttpResponse response = client.execute(remoteHost, r);
             if(response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
                 log.warning("Could not stop video reporting: " + EntityUtils.toString(response.getEntity()));
                 return;
             }
-            log.info("Stopped recording for new session on node: " + getId());
+            log.info("Stopped recording for session " + session.getInternalKey() + " on node: " + getId());
 
         } catch (Exception e) {
             log.warning("Could not stop video reporting due to exception: " + e.getMessage());
@@ -70,4 +96,12 @@ public class NodeProxy extends org.openqa.grid.selenium.proxy.DefaultRemoteProxy
             r.releaseConnection();
         }
     }
+
+    private static String encode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -1,45 +1,265 @@
 package com.pojosontheweb.selenium;
 
+import com.google.common.io.Files;
 import org.apache.http.HttpStatus;
+import org.monte.screenrecorder.SharedScreenCapture;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.awt.*;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
+/**
+ * Records the screen of the node, one recording per test session.
+ *
+ * Commands (parameter <code>command</code>) :
+ * <ul>
+ *     <li><code>start</code> : starts recording for the session</li>
+ *     <li><code>stop</code> : stops recording for the session, and keeps the video</li>
+ *     <li><code>download</code> : sends the video of the session. Long recordings are split into
+ *     several files : the <code>X-Video-Parts</code> response header gives their number, and
+ *     each one is downloaded with the <code>part</code> parameter.</li>
+ * </ul>
+ *
+ * Parameters :
+ * <ul>
+ *     <li><code>session</code> : the id of the session, so that several sessions can be recorded
+ *     at the same time. Optional, sessions without id share the same recording.</li>
+ *     <li><code>area</code> : the area of the screen to record, as <code>x,y,width,height</code>
+ *     (e.g. the browser window of the session). Optional, defaults to the whole screen.</li>
+ *     <li><code>screen</code> : the index of the screen to record. Optional, defaults to the default screen.</li>
+ *     <li><code>part</code> : the file to download, from 1 to the number of parts. Optional when the
+ *     video is a single file.</li>
+ * </ul>
+ *
+ * All recordings of a screen get their frames from a single shared screen capture :
+ * the screen is grabbed once per frame, and each recording encodes its own area of it.
+ */
 public class RecorderServlet extends HttpServlet {
 
     private static final Logger log = Logger.getLogger(RecorderServlet.class.getName());
 
-    private ScreenRecordr recordr;
+    /** Id of the recording when no session id is passed */
+    private static final String DEFAULT_SESSION = "default";
+
+    /** Frame rate of the shared screen captures, same as the recorders */
+    private static final double CAPTURE_FRAME_RATE = 15;
+
+    /** Prefix of the video files, in the directory of the session */
+    private static final String VIDEO_PREFIX = "test";
+
+    private final ConcurrentHashMap<String, ScreenRecordr> recordrs = new ConcurrentHashMap<String, ScreenRecordr>();
+    private final Map<GraphicsDevice, SharedScreenCapture> sharedCaptures = new HashMap<GraphicsDevice, SharedScreenCapture>();
     private File destDir;
 
     @Override
     public void init() throws ServletException {
-        recordr = new ScreenRecordr();
         destDir = new File(System.getProperty("java.io.tmpdir") +
             File.separator + UUID.randomUUID().toString());
         destDir.mkdirs();
     }
 
-    private void start(HttpServletResponse resp) {
-        recordr.start();
+    @Override
+    public void destroy() {
+        for (ScreenRecordr recordr : recordrs.values()) {
+            try {
+                recordr.stop();
+            } catch (Exception e) {
+                log.warning("Could not stop recording : " + e.getMessage());
+            }
+        }
+        recordrs.clear();
+        synchronized (sharedCaptures) {
+            for (SharedScreenCapture capture : sharedCaptures.values()) {
+                capture.shutdown();
+            }
+            sharedCaptures.clear();
+        }
+    }
+
+    private static String getSession(HttpServletRequest req) {
+        String session = req.getParameter("session");
+        return session == null || session.length() == 0 ? DEFAULT_SESSION : session;
+    }
+
+    /**
+     * Directory of the videos of a session. Session ids are used as file names,
+     * so anything else than letters, digits, '-' and '_' is replaced.
+     */
+    private File getSessionDir(String session) {
+        return new File(destDir, session.replaceAll("[^A-Za-z0-9_-]", "_"));
+    }
+
+    /**
+     * Video files of a session, in order : <code>test.mov</code>, or <code>test-1.mov</code>,
+     * <code>test-2.mov</code>... when the recording was split (see {@link ScreenRecordr#moveVideoFilesTo}).
+     */
+    private static List<File> getVideoParts(File sessionDir) {
+        List<File> parts = new ArrayList<File>();
+        File single = new File(sessionDir, VIDEO_PREFIX + ".mov");
+        if (single.exists()) {
+            parts.add(single);
+            return parts;
+        }
+        File part;
+        while ((part = new File(sessionDir, VIDEO_PREFIX + "-" + (parts.size() + 1) + ".mov")).exists()) {
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    private static Rectangle parseArea(String area) {
+        String[] parts = area.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("area must be x,y,width,height : " + area);
+        }
+        try {
+            Rectangle r = new Rectangle(
+                Integer.parseInt(parts[0].trim()),
+                Integer.parseInt(parts[1].trim()),
+                Integer.parseInt(parts[2].trim()),
+                Integer.parseInt(parts[3].trim()));
+            if (r.width <= 0 || r.height <= 0) {
+                throw new IllegalArgumentException("area must not be empty : " + area);
+            }
+            return r;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("area must be x,y,width,height : " + area);
+        }
+    }
+
+    private static GraphicsDevice getScreenDevice(String screen) {
+        GraphicsEnvironment env = GraphicsEnvironment.getLocalGraphicsEnvironment();
+        if (screen == null) {
+            return env.getDefaultScreenDevice();
+        }
+        GraphicsDevice[] devices = env.getScreenDevices();
+        try {
+            int index = Integer.parseInt(screen);
+            if (index >= 0 && index < devices.length) {
+                return devices[index];
+            }
+        } catch (NumberFormatException e) {
+            // invalid index, handled below
+        }
+        throw new IllegalArgumentException("screen must be between 0 and " + (devices.length - 1) + " : " + screen);
+    }
+
+    /**
+     * The shared capture of a screen, created on first use.
+     */
+    private SharedScreenCapture getSharedCapture(GraphicsDevice device) throws AWTException {
+        synchronized (sharedCaptures) {
+            SharedScreenCapture capture = sharedCaptures.get(device);
+            if (capture == null) {
+                capture = new SharedScreenCapture(device, CAPTURE_FRAME_RATE);
+                sharedCaptures.put(device, capture);
+            }
+            return capture;
+        }
+    }
+
+    private void start(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String session = getSession(req);
+        Rectangle area;
+        GraphicsDevice device;
+        try {
+            String areaParam = req.getParameter("area");
+            area = areaParam == null ? null : parseArea(areaParam);
+            device = getScreenDevice(req.getParameter("screen"));
+        } catch (IllegalArgumentException e) {
+            resp.setStatus(HttpStatus.SC_BAD_REQUEST);
+            resp.getWriter().write("Bad parameter: " + e.getMessage());
+            return;
+        }
+
+        ScreenRecordr recordr = new ScreenRecordr();
+        if (recordrs.putIfAbsent(session, recordr) != null) {
+            resp.setStatus(HttpStatus.SC_CONFLICT);
+            resp.getWriter().write("Already recording session " + session);
+            return;
+        }
+        try {
+            recordr.setScreenDevice(device)
+                .setCaptureArea(area)
+                .setSharedCapture(getSharedCapture(device))
+                .start();
+        } catch (Exception e) {
+            recordrs.remove(session);
+            log.warning("Could not start recording for session " + session + " : " + e.getMessage());
+            resp.setStatus(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+            resp.getWriter().write("Could not start recording: " + e.getMessage());
+            return;
+        }
+        log.info("Started recording for session " + session + (area != null ? ", area " + area : ""));
         resp.setStatus(HttpStatus.SC_OK);
     }
 
-    private void stop(HttpServletResponse resp) {
+    private void stop(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String session = getSession(req);
+        ScreenRecordr recordr = recordrs.remove(session);
+        if (recordr == null) {
+            resp.setStatus(HttpStatus.SC_NOT_FOUND);
+            resp.getWriter().write("Not recording session " + session);
+            return;
+        }
         recordr.stop();
-        recordr.moveVideoFilesTo(destDir, "test");
+        // remove the parts of a previous recording of the session
+        File sessionDir = getSessionDir(session);
+        for (File part : getVideoParts(sessionDir)) {
+            part.delete();
+        }
+        recordr.moveVideoFilesTo(sessionDir, VIDEO_PREFIX);
+        log.info("Stopped recording for session " + session);
         resp.setStatus(HttpStatus.SC_OK);
     }
 
-    private void download(HttpServletResponse resp) {
-        File vidFile = new File(destDir, "test-1.mov");
-
+    private void download(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String session = getSession(req);
+        List<File> parts = getVideoParts(getSessionDir(session));
+        if (parts.isEmpty()) {
+            resp.setStatus(HttpStatus.SC_NOT_FOUND);
+            resp.getWriter().write("No video for session " + session);
+            return;
+        }
+        resp.setHeader("X-Video-Parts", Integer.toString(parts.size()));
+        String partParam = req.getParameter("part");
+        int part;
+        if (partParam == null) {
+            if (parts.size() > 1) {
+                resp.setStatus(HttpStatus.SC_CONFLICT);
+                resp.getWriter().write("The video of session " + session + " has " + parts.size() +
+                    " parts, download them with part=1 to part=" + parts.size());
+                return;
+            }
+            part = 1;
+        } else {
+            try {
+                part = Integer.parseInt(partParam);
+            } catch (NumberFormatException e) {
+                part = 0;
+            }
+            if (part < 1 || part > parts.size()) {
+                resp.setStatus(HttpStatus.SC_BAD_REQUEST);
+                resp.getWriter().write("Bad parameter: part must be between 1 and " + parts.size() + " : " + partParam);
+                return;
+            }
+        }
+        File vidFile = parts.get(part - 1);
+        resp.setStatus(HttpStatus.SC_OK);
+        resp.setContentType("video/quicktime");
+        resp.setHeader("Content-Length", Long.toString(vidFile.length()));
+        Files.copy(vidFile, resp.getOutputStream());
     }
 
     protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -51,11 +271,11 @@ public class RecorderServlet extends HttpServlet {
         }
 
         if(command.equalsIgnoreCase("start")) {
-            start(resp);
+            start(req, resp);
         } else if(command.equalsIgnoreCase("stop")) {
-            stop(resp);
+            stop(req, resp);
         } else if (command.equalsIgnoreCase("download")) {
-            download(resp);
+            download(req, resp);
         }
         else {
             resp.setStatus(HttpStatus.SC_BAD_REQUEST);
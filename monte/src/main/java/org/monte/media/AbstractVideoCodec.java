@@ -21,6 +21,7 @@ import java.awt.image.DirectColorModel;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
 import javax.imageio.stream.ImageOutputStream;
+import org.monte.media.io.ByteArrayImageOutputStream;
 import static org.monte.media.VideoFormatKeys.*;
 
 /**
@@ -223,4 +224,23 @@ public abstract class AbstractVideoCodec extends AbstractCodec {
         WritableRaster raster = img.copyData(null);
         return new BufferedImage(cm, raster, isAlphaPremultiplied, null);
     }
+
+    /** Copies the data written to a scratch stream into an output buffer.
+     * <p>
+     * The data array of the output buffer is reused if it is large enough.
+     * Otherwise it is replaced by an array of the exact size. Either way,
+     * the scratch stream can be reused for the next frame, while the buffer
+     * is queued for writing.
+     */
+    protected static void copyToBuffer(ByteArrayImageOutputStream tmp, Buffer out) throws IOException {
+        int length = (int) tmp.getStreamPosition();
+        byte[] data = (out.data instanceof byte[]) ? (byte[]) out.data : null;
+        if (data == null || data.length < length) {
+            data = new byte[length];
+        }
+        System.arraycopy(tmp.getBuffer(), 0, data, 0, length);
+        out.data = data;
+        out.offset = 0;
+        out.length = length;
+    }
 }
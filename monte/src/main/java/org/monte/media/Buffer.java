@@ -57,7 +57,11 @@ public class Buffer {
      * {@code offset}, {@code length} and {@code header}.
      */
     public void setMetaTo(Buffer that) {
-        this.flags = EnumSet.copyOf(that.flags);
+        if (this.flags != that.flags) {
+            // copy in place, buffers are often re-used for each sample
+            this.flags.clear();
+            this.flags.addAll(that.flags);
+        }
         //this.data=that.data;
         //this.offset=that.offset;
         //this.length=that.length;
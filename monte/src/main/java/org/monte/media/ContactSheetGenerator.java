@@ -0,0 +1,603 @@
+/*
+ * @(#)ContactSheetGenerator.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.monte.media.converter.ScaleImageCodec;
+import org.monte.media.math.Rational;
+import static org.monte.media.VideoFormatKeys.*;
+import static org.monte.media.BufferFlag.*;
+
+/**
+ * Creates contact sheets of movies: JPEG or PNG images, with evenly spaced
+ * thumbnails of the video track in rows and columns.
+ * <p>
+ * The thumbnails are extracted with a {@link FrameExtractor}, scaled with a
+ * {@link ScaleImageCodec}, and the sheets are encoded with the JPEG or PNG
+ * encoder of the {@link Registry}.
+ * <p>
+ * The work is done by a fixed number of threads. Several movies are
+ * processed at the same time, and the thumbnails of a movie are extracted in
+ * parallel too: they are split into groups which start at different key
+ * frames, and each group is decoded with its own reader.
+ * <p>
+ * The memory used does not grow with the number of movies: only as many
+ * movies as there are threads are processed at the same time, and the
+ * images of the sheets and of the thumbnails are kept in a pool, and reused
+ * for the next movies.
+ *
+ * @version $Id$
+ */
+public class ContactSheetGenerator {
+
+    /** Space between the thumbnails, and around them. */
+    private final static int GAP = 4;
+    private final static Format BUFFERED_IMAGE_FORMAT = new Format(MediaTypeKey, MediaType.VIDEO,
+            MimeTypeKey, MIME_JAVA, EncodingKey, ENCODING_BUFFERED_IMAGE, DataClassKey, BufferedImage.class);
+    private final int threadCount;
+    private final ExecutorService executor;
+    /** Limits the number of movies which are processed at the same time. */
+    private final Semaphore moviePermits;
+    private final ImagePool images;
+    private int columns = 4;
+    private int thumbnailCount = 12;
+    private int thumbnailWidth = 240;
+    private Format sheetFormat = new Format(EncodingKey, ENCODING_QUICKTIME_JPEG, QualityKey, 0.8f);
+
+    /** A contact sheet, which is being created. */
+    private static class Sheet {
+
+        final File movie;
+        final File file;
+        final int columns;
+        final int thumbnailWidth;
+        final Format format;
+        final Rational[] times;
+        int thumbnailHeight;
+        BufferedImage image;
+        /** The number of thumbnail groups which are not done yet. */
+        int pendingGroups;
+        IOException error;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Sheet(File movie, File file, int columns, int thumbnailCount, int thumbnailWidth, Format format) {
+            this.movie = movie;
+            this.file = file;
+            this.columns = Math.min(columns, thumbnailCount);
+            this.thumbnailWidth = thumbnailWidth;
+            this.format = format;
+            this.times = new Rational[thumbnailCount];
+        }
+    }
+
+    /**
+     * The contact sheets of a batch of movies, and the errors of the movies
+     * which did not get a sheet.
+     */
+    public static class Result {
+
+        private final List<File> movies;
+        private final List<File> sheets;
+        private final List<IOException> errors;
+
+        Result(List<File> movies, List<File> sheets, List<IOException> errors) {
+            this.movies = Collections.unmodifiableList(new ArrayList<File>(movies));
+            this.sheets = Collections.unmodifiableList(sheets);
+            this.errors = Collections.unmodifiableList(errors);
+        }
+
+        /** Returns the movies, in the order they were given. */
+        public List<File> getMovies() {
+            return movies;
+        }
+
+        /**
+         * Returns the sheets, in the order of the movies. The sheet of a
+         * movie which failed is null.
+         */
+        public List<File> getSheets() {
+            return sheets;
+        }
+
+        /**
+         * Returns the errors, in the order of the movies. The error of a
+         * movie which got its sheet is null.
+         */
+        public List<IOException> getErrors() {
+            return errors;
+        }
+
+        /** Returns the sheet of the i-th movie, or null if it failed. */
+        public File getSheet(int i) {
+            return sheets.get(i);
+        }
+
+        /** Returns the error of the i-th movie, or null if it got its sheet. */
+        public IOException getError(int i) {
+            return errors.get(i);
+        }
+
+        /** Returns true if at least one movie did not get its sheet. */
+        public boolean hasErrors() {
+            for (IOException e : errors) {
+                if (e != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Keeps idle images, so that they can be reused for images of the same
+     * size and type. At most {@code capacity} images are kept.
+     */
+    private static class ImagePool {
+
+        private final int capacity;
+        private final ArrayList<BufferedImage> idle;
+
+        ImagePool(int capacity) {
+            this.capacity = capacity;
+            this.idle = new ArrayList<BufferedImage>(capacity);
+        }
+
+        /** Returns an idle image of the specified size and type, or null. */
+        synchronized BufferedImage get(int width, int height, int type) {
+            for (int i = idle.size() - 1; i >= 0; i--) {
+                BufferedImage img = idle.get(i);
+                if (img.getWidth() == width && img.getHeight() == height && img.getType() == type) {
+                    return idle.remove(i);
+                }
+            }
+            return null;
+        }
+
+        /** Keeps an image for reuse. Drops the oldest idle image, if the
+         * pool is full. */
+        synchronized void put(BufferedImage img) {
+            if (idle.size() == capacity) {
+                idle.remove(0);
+            }
+            idle.add(img);
+        }
+    }
+
+    /**
+     * Creates a contact sheet generator with a thread for each processor.
+     */
+    public ContactSheetGenerator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a contact sheet generator.
+     *
+     * @param threadCount The number of threads.
+     */
+    public ContactSheetGenerator(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1: " + threadCount);
+        }
+        this.threadCount = threadCount;
+        this.moviePermits = new Semaphore(threadCount);
+        // a sheet and a thumbnail for each movie in process
+        this.images = new ImagePool(threadCount * 2);
+        this.executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ContactSheetGenerator-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** Sets the number of thumbnails in a row. The default is 4. */
+    public void setColumns(int newValue) {
+        if (newValue < 1) {
+            throw new IllegalArgumentException("columns must be at least 1: " + newValue);
+        }
+        columns = newValue;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /** Sets the number of thumbnails of a sheet. The default is 12. */
+    public void setThumbnailCount(int newValue) {
+        if (newValue < 1) {
+            throw new IllegalArgumentException("thumbnailCount must be at least 1: " + newValue);
+        }
+        thumbnailCount = newValue;
+    }
+
+    public int getThumbnailCount() {
+        return thumbnailCount;
+    }
+
+    /**
+     * Sets the width of the thumbnails. Their height is given by the aspect
+     * ratio of the movie. The default is 240 pixels.
+     */
+    public void setThumbnailWidth(int newValue) {
+        if (newValue < 1) {
+            throw new IllegalArgumentException("thumbnailWidth must be at least 1: " + newValue);
+        }
+        thumbnailWidth = newValue;
+    }
+
+    public int getThumbnailWidth() {
+        return thumbnailWidth;
+    }
+
+    /**
+     * Sets the format of the sheets. The {@code EncodingKey} must be
+     * {@code ENCODING_QUICKTIME_JPEG} or {@code ENCODING_QUICKTIME_PNG}. The
+     * {@code QualityKey} sets the quality of JPEG images. The default is JPEG
+     * with quality 0.8.
+     */
+    public void setSheetFormat(Format newValue) {
+        String encoding = newValue.get(EncodingKey);
+        if (!ENCODING_QUICKTIME_JPEG.equals(encoding) && !ENCODING_QUICKTIME_PNG.equals(encoding)) {
+            throw new IllegalArgumentException("Sheets can only be JPEG or PNG images: " + newValue);
+        }
+        sheetFormat = newValue;
+    }
+
+    public Format getSheetFormat() {
+        return sheetFormat;
+    }
+
+    /**
+     * Returns the file name extension of the sheets, "jpg" or "png".
+     */
+    public String getExtension() {
+        return ENCODING_QUICKTIME_PNG.equals(sheetFormat.get(EncodingKey)) ? "png" : "jpg";
+    }
+
+    /**
+     * Creates the contact sheet of a movie.
+     *
+     * @param movie The movie file.
+     * @param sheet The image file of the contact sheet.
+     * @throws IOException if the movie can not be read, or the sheet can not
+     * be written.
+     */
+    public void createContactSheet(File movie, File sheet) throws IOException {
+        IOException[] errors = new IOException[1];
+        createContactSheets(Collections.singletonList(movie), Collections.singletonList(sheet), errors);
+        if (errors[0] != null) {
+            throw errors[0];
+        }
+    }
+
+    /**
+     * Creates the contact sheets of movies, in parallel. The sheet of a movie
+     * has the name of the movie file, with the extension of the sheet format,
+     * for example "test.avi" gets "test.jpg".
+     * <p>
+     * A movie which can not be read does not keep the others from getting
+     * their sheets: its error is kept in the result, and the movie is
+     * skipped.
+     *
+     * @param movies The movie files.
+     * @param dir The directory of the sheets.
+     * @return The sheets and the errors, in the order of the movies.
+     * @throws IOException if the thread is interrupted.
+     */
+    public Result createContactSheets(List<File> movies, File dir) throws IOException {
+        ArrayList<File> sheets = new ArrayList<File>(movies.size());
+        for (File movie : movies) {
+            String name = movie.getName();
+            int p = name.lastIndexOf('.');
+            sheets.add(new File(dir, (p > 0 ? name.substring(0, p) : name) + "." + getExtension()));
+        }
+        IOException[] errors = new IOException[movies.size()];
+        createContactSheets(movies, sheets, errors);
+        for (int i = 0; i < errors.length; i++) {
+            if (errors[i] != null) {
+                sheets.set(i, null);
+            }
+        }
+        return new Result(movies, sheets, Arrays.asList(errors));
+    }
+
+    /**
+     * Stops the threads. The generator can not be used anymore.
+     */
+    public void dispose() {
+        executor.shutdown();
+    }
+
+    private void createContactSheets(List<File> movies, List<File> files, IOException[] errors) throws IOException {
+        ArrayList<Sheet> sheets = new ArrayList<Sheet>(movies.size());
+        try {
+            for (int i = 0, n = movies.size(); i < n; i++) {
+                final Sheet sheet = new Sheet(movies.get(i), files.get(i), columns, thumbnailCount, thumbnailWidth, sheetFormat);
+                moviePermits.acquire();
+                sheets.add(sheet);
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            startSheet(sheet);
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    finishGroup(sheet, new IOException("The contact sheet generator has been disposed"));
+                }
+            }
+            for (Sheet sheet : sheets) {
+                sheet.done.await();
+            }
+        } catch (InterruptedException ex) {
+            InterruptedIOException ioe = new InterruptedIOException("Interrupted while creating contact sheets");
+            ioe.initCause(ex);
+            throw ioe;
+        }
+        for (int i = 0, n = sheets.size(); i < n; i++) {
+            errors[i] = sheets.get(i).error;
+        }
+    }
+
+    /**
+     * Finds the times of the thumbnails, and the key frames before them, and
+     * extracts the groups of thumbnails which start at different key frames
+     * in parallel. The first group is extracted on the current thread.
+     */
+    private void startSheet(final Sheet sheet) {
+        MovieReader reader = null;
+        int track;
+        ArrayList<int[]> groups;
+        try {
+            reader = openReader(sheet.movie);
+            track = reader.findTrack(0, new Format(MediaTypeKey, MediaType.VIDEO));
+            if (track < 0) {
+                throw new IOException("No video track in " + sheet.movie);
+            }
+            groups = planGroups(sheet, reader, track);
+        } catch (Throwable t) {
+            // no group has been started
+            finishGroup(sheet, close(reader, toIOException(t)));
+            return;
+        }
+
+        for (int i = 1; i < groups.size(); i++) {
+            final int[] group = groups.get(i);
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        IOException error = null;
+                        MovieReader groupReader = null;
+                        try {
+                            groupReader = openReader(sheet.movie);
+                            extractGroup(sheet, new FrameExtractor(groupReader), group[0], group[1]);
+                        } catch (Throwable t) {
+                            error = toIOException(t);
+                        } finally {
+                            error = close(groupReader, error);
+                        }
+                        finishGroup(sheet, error);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                finishGroup(sheet, new IOException("The contact sheet generator has been disposed"));
+            }
+        }
+        IOException error = null;
+        try {
+            extractGroup(sheet, new FrameExtractor(reader, track), groups.get(0)[0], groups.get(0)[1]);
+        } catch (Throwable t) {
+            error = toIOException(t);
+        } finally {
+            error = close(reader, error);
+        }
+        finishGroup(sheet, error);
+    }
+
+    /**
+     * Sets the times and the size of the thumbnails, and the image of the
+     * sheet, and splits the thumbnails into groups.
+     *
+     * @return The groups, as ranges of thumbnail indices.
+     */
+    private ArrayList<int[]> planGroups(Sheet sheet, MovieReader reader, int track) throws IOException {
+        Format format = reader.getFormat(track);
+        int width = format.get(WidthKey);
+        int height = format.get(HeightKey);
+        sheet.thumbnailHeight = Math.max(1, (int) ((long) sheet.thumbnailWidth * height / width));
+
+        // The reader goes to the key frame before a time: thumbnails with
+        // the same key frame are decoded by the same group
+        Rational duration = reader.getDuration(track);
+        int n = sheet.times.length;
+        Rational[] keyframes = new Rational[n];
+        int keyframeCount = 0;
+        for (int i = 0; i < n; i++) {
+            sheet.times[i] = duration.multiply(new Rational(2 * i + 1, 2 * n));
+            reader.setMovieReadTime(sheet.times[i]);
+            keyframes[i] = reader.getReadTime(track);
+            if (i == 0 || !keyframes[i].equals(keyframes[i - 1])) {
+                keyframeCount++;
+            }
+        }
+        int groupCount = Math.min(threadCount, keyframeCount);
+        ArrayList<int[]> groups = new ArrayList<int[]>(groupCount);
+        int from = 0;
+        for (int i = 1; i <= n; i++) {
+            if (i == n || (i - from >= n / groupCount && !keyframes[i].equals(keyframes[i - 1])
+                    && groups.size() < groupCount - 1)) {
+                groups.add(new int[]{from, i});
+                from = i;
+            }
+        }
+
+        int sheetWidth = sheet.columns * (sheet.thumbnailWidth + GAP) + GAP;
+        int rows = (n + sheet.columns - 1) / sheet.columns;
+        int sheetHeight = rows * (sheet.thumbnailHeight + GAP) + GAP;
+        BufferedImage image = images.get(sheetWidth, sheetHeight, BufferedImage.TYPE_INT_RGB);
+        if (image == null) {
+            image = new BufferedImage(sheetWidth, sheetHeight, BufferedImage.TYPE_INT_RGB);
+        }
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.DARK_GRAY);
+        g.fillRect(0, 0, sheetWidth, sheetHeight);
+        g.dispose();
+        sheet.image = image;
+        sheet.pendingGroups = groups.size();
+        return groups;
+    }
+
+    /** Extracts the thumbnails {@code from} to {@code to}-1 of the sheet. */
+    private void extractGroup(Sheet sheet, FrameExtractor extractor, int from, int to) throws IOException {
+        ScaleImageCodec scaler = new ScaleImageCodec();
+        scaler.setInputFormat(BUFFERED_IMAGE_FORMAT);
+        scaler.setOutputFormat(BUFFERED_IMAGE_FORMAT.prepend(
+                WidthKey, sheet.thumbnailWidth, HeightKey, sheet.thumbnailHeight));
+        Buffer frame = new Buffer();
+        Buffer thumbnail = new Buffer();
+        try {
+            for (int i = from; i < to; i++) {
+                if (!extractor.readFrame(sheet.times[i], frame)) {
+                    break;
+                }
+                if (thumbnail.data == null) {
+                    thumbnail.data = images.get(sheet.thumbnailWidth, sheet.thumbnailHeight,
+                            ((BufferedImage) frame.data).getType());
+                }
+                if (scaler.process(frame, thumbnail) != Codec.CODEC_OK) {
+                    throw new IOException("Unable to scale frame at " + sheet.times[i] + " of " + sheet.movie);
+                }
+                int x = GAP + (i % sheet.columns) * (sheet.thumbnailWidth + GAP);
+                int y = GAP + (i / sheet.columns) * (sheet.thumbnailHeight + GAP);
+                synchronized (sheet) {
+                    Graphics2D g = sheet.image.createGraphics();
+                    g.drawImage((BufferedImage) thumbnail.data, x, y, null);
+                    g.dispose();
+                }
+            }
+        } finally {
+            if (thumbnail.data instanceof BufferedImage) {
+                images.put((BufferedImage) thumbnail.data);
+            }
+        }
+    }
+
+    /**
+     * Called when a group of thumbnails is done. The last group writes the
+     * sheet.
+     */
+    private void finishGroup(Sheet sheet, IOException error) {
+        synchronized (sheet) {
+            if (error != null && sheet.error == null) {
+                sheet.error = error;
+            }
+            if (--sheet.pendingGroups > 0) {
+                return;
+            }
+        }
+        try {
+            if (sheet.error == null) {
+                writeSheet(sheet);
+            }
+        } catch (Throwable t) {
+            sheet.error = toIOException(t);
+        } finally {
+            if (sheet.image != null) {
+                images.put(sheet.image);
+                sheet.image = null;
+            }
+            moviePermits.release();
+            sheet.done.countDown();
+        }
+    }
+
+    private void writeSheet(Sheet sheet) throws IOException {
+        BufferedImage image = sheet.image;
+        Format size = new Format(WidthKey, image.getWidth(), HeightKey, image.getHeight(), DepthKey, 24);
+        Codec encoder = Registry.getInstance().getEncoder(sheet.format.prepend(MediaTypeKey, MediaType.VIDEO,
+                MimeTypeKey, MIME_QUICKTIME, DataClassKey, byte[].class).append(size));
+        if (encoder == null) {
+            throw new IOException("No encoder for format " + sheet.format);
+        }
+        try {
+            encoder.setInputFormat(BUFFERED_IMAGE_FORMAT.append(size));
+            Buffer in = new Buffer();
+            in.format = encoder.getInputFormat();
+            in.data = image;
+            Buffer out = new Buffer();
+            if (encoder.process(in, out) != Codec.CODEC_OK || out.isFlag(DISCARD)) {
+                throw new IOException("Unable to encode the contact sheet of " + sheet.movie);
+            }
+            OutputStream fout = new FileOutputStream(sheet.file);
+            try {
+                fout.write((byte[]) out.data, out.offset, out.length);
+            } finally {
+                fout.close();
+            }
+        } finally {
+            Registry.getInstance().releaseCodec(encoder);
+        }
+    }
+
+    private static MovieReader openReader(File movie) throws IOException {
+        if (!movie.isFile()) {
+            throw new IOException("No such file: " + movie);
+        }
+        MovieReader reader = Registry.getInstance().getReader(movie);
+        if (reader == null) {
+            throw new IOException("Unable to read movie " + movie);
+        }
+        return reader;
+    }
+
+    /** Closes the reader, and returns the first error. */
+    private static IOException close(MovieReader reader, IOException error) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException ex) {
+                if (error == null) {
+                    error = ex;
+                }
+            }
+        }
+        return error;
+    }
+
+    private static IOException toIOException(Throwable t) {
+        if (t instanceof IOException) {
+            return (IOException) t;
+        }
+        IOException ioe = new IOException(t.toString());
+        ioe.initCause(t);
+        return ioe;
+    }
+}
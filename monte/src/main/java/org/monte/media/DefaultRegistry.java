@@ -16,6 +16,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import static org.monte.media.VideoFormatKeys.*;
 import static org.monte.media.AudioFormatKeys.*;
 
@@ -23,6 +24,9 @@ import static org.monte.media.AudioFormatKeys.*;
  * {@code DefaultRegistry}. 
  * <p>
  * FIXME - The registry should be read from a file. 
+ * <p>
+ * The codec classes found for an input and output format are cached, until
+ * the codecs of the registry change. Lookups which hit the cache don't lock.
  *
  * @author Werner Randelshofer
  * @version $Id: DefaultRegistry.java 299 2013-01-03 07:40:18Z werner $
@@ -33,6 +37,16 @@ public class DefaultRegistry extends Registry {
     private HashMap<String, LinkedList<RegistryEntry>> readerMap;
     private HashMap<String, LinkedList<RegistryEntry>> writerMap;
     private HashMap<String, Format> fileFormatMap;
+    /**
+     * Holds the results of {@link #getCodecClasses}.
+     */
+    private final ConcurrentHashMap<CodecQuery, String[]> codecClassCache = new ConcurrentHashMap<CodecQuery, String[]>();
+    /**
+     * Max number of cached codec queries. The cache is cleared when it is
+     * full, which should not happen unless formats are built on the fly
+     * with ever changing values.
+     */
+    private final static int MAX_CACHED_QUERIES = 256;
 
     @Override
     public Format[] getReaderFormats() {
@@ -45,10 +59,40 @@ public class DefaultRegistry extends Registry {
     }
 
     @Override
-    public Format[] getFileFormats() {
+    public synchronized Format[] getFileFormats() {
         return fileFormatMap.values().toArray(new Format[fileFormatMap.size()]);
     }
 
+    /**
+     * The key of the codec class cache.
+     */
+    private static class CodecQuery {
+
+        final Format inputFormat;
+        final Format outputFormat;
+
+        CodecQuery(Format inputFormat, Format outputFormat) {
+            this.inputFormat = inputFormat;
+            this.outputFormat = outputFormat;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (inputFormat == null ? 0 : inputFormat.hashCode())
+                    + (outputFormat == null ? 0 : outputFormat.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CodecQuery)) {
+                return false;
+            }
+            CodecQuery that = (CodecQuery) o;
+            return (inputFormat == null ? that.inputFormat == null : inputFormat.equals(that.inputFormat))
+                    && (outputFormat == null ? that.outputFormat == null : outputFormat.equals(that.outputFormat));
+        }
+    }
+
     private static class RegistryEntry {
 
         Format inputFormat;
@@ -228,10 +272,11 @@ public class DefaultRegistry extends Registry {
      * @param codecClass 
      */
     @Override
-    public void putCodec(Format inputFormat, Format outputFormat, String codecClass) {
+    public synchronized void putCodec(Format inputFormat, Format outputFormat, String codecClass) {
         RegistryEntry entry = new RegistryEntry(inputFormat, outputFormat, codecClass);
         addCodecEntry(inputFormat.get(EncodingKey), entry);
         addCodecEntry(outputFormat.get(EncodingKey), entry);
+        codecClassCache.clear();
     }
 
     private void addCodecEntry(String key, RegistryEntry entry) {
@@ -249,7 +294,7 @@ public class DefaultRegistry extends Registry {
      * @param readerClass 
      */
     @Override
-    public void putReader(Format fileFormat, String readerClass) {
+    public synchronized void putReader(Format fileFormat, String readerClass) {
         RegistryEntry entry = new RegistryEntry(null, fileFormat, readerClass);
         String key = fileFormat.get(MimeTypeKey);
         LinkedList<RegistryEntry> list = readerMap.get(key);
@@ -266,7 +311,7 @@ public class DefaultRegistry extends Registry {
      * @param writerClass 
      */
     @Override
-    public void putWriter(Format fileFormat, String writerClass) {
+    public synchronized void putWriter(Format fileFormat, String writerClass) {
         RegistryEntry entry = new RegistryEntry(fileFormat, null, writerClass);
         String key = fileFormat.get(MimeTypeKey);
         LinkedList<RegistryEntry> list = writerMap.get(key);
@@ -279,6 +324,21 @@ public class DefaultRegistry extends Registry {
 
     @Override
     public String[] getCodecClasses(Format inputFormat, Format outputFormat) {
+        CodecQuery query = new CodecQuery(inputFormat, outputFormat);
+        String[] classNames = codecClassCache.get(query);
+        if (classNames == null) {
+            synchronized (this) {
+                classNames = findCodecClasses(inputFormat, outputFormat);
+                if (codecClassCache.size() >= MAX_CACHED_QUERIES) {
+                    codecClassCache.clear();
+                }
+                codecClassCache.put(query, classNames);
+            }
+        }
+        return classNames.clone();
+    }
+
+    private String[] findCodecClasses(Format inputFormat, Format outputFormat) {
         HashSet<String> classNames = new HashSet<String>();
         HashSet<RegistryEntry> entries = new HashSet<RegistryEntry>();
         if (inputFormat != null) {
@@ -327,7 +387,7 @@ public class DefaultRegistry extends Registry {
     }
 
     @Override
-    public String[] getReaderClasses(Format fileFormat) {
+    public synchronized String[] getReaderClasses(Format fileFormat) {
         LinkedList<RegistryEntry> rr = readerMap.get(fileFormat.get(MimeTypeKey));
         String[] names = new String[rr == null ? 0 : rr.size()];
         if (rr != null) {
@@ -340,7 +400,7 @@ public class DefaultRegistry extends Registry {
     }
 
     @Override
-    public Format getFileFormat(File file) {
+    public synchronized Format getFileFormat(File file) {
         String ext = file.getName();
         int p = ext.lastIndexOf('.');
         if (p != -1) {
@@ -351,7 +411,7 @@ public class DefaultRegistry extends Registry {
     }
 
     @Override
-    public String[] getWriterClasses(Format fileFormat) {
+    public synchronized String[] getWriterClasses(Format fileFormat) {
         LinkedList<RegistryEntry> rr = writerMap.get(fileFormat.get(MimeTypeKey));
         String[] names = new String[rr == null ? 0 : rr.size()];
         if (rr != null) {
@@ -364,12 +424,12 @@ public class DefaultRegistry extends Registry {
     }
 
     @Override
-    public void putFileFormat(String extension, Format format) {
+    public synchronized void putFileFormat(String extension, Format format) {
         fileFormatMap.put(extension.toLowerCase(), format);
     }
 
     @Override
-    public String getExtension(Format ff) {
+    public synchronized String getExtension(Format ff) {
         for (Map.Entry<String, Format> e : fileFormatMap.entrySet()) {
             if (e.getValue().get(MimeTypeKey).equals(ff.get(MimeTypeKey))) {
                 return e.getKey();
@@ -379,7 +439,7 @@ public class DefaultRegistry extends Registry {
     }
 
     @Override
-    public void unregisterCodec(String codecClass) {
+    public synchronized void unregisterCodec(String codecClass) {
         for (Map.Entry<String, LinkedList<RegistryEntry>> i:codecMap.entrySet()) {
             LinkedList<RegistryEntry> ll=i.getValue();
             for (Iterator<RegistryEntry> j=ll.iterator();j.hasNext();) {
@@ -389,6 +449,7 @@ public class DefaultRegistry extends Registry {
                 }
             }
         }
+        codecClassCache.clear();
     }
     
     
@@ -11,45 +11,59 @@
 package org.monte.media;
 
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Specifies the format of a media, for example of audio and video.
+ * <p>
+ * Formats are immutable. The properties are held in two small arrays,
+ * sorted by {@link FormatKey} ordinal, so that {@code get} and
+ * {@code matches} don't allocate. The hash code is computed once.
  *
  * @author Werner Randelshofer
  * @version $Id: Format.java 299 2013-01-03 07:40:18Z werner $
  */
 public class Format {
 
+    private final static FormatKey[] NO_KEYS = new FormatKey[0];
+    private final static Object[] NO_VALUES = new Object[0];
     /**
-     * Holds the properties of the format.
+     * Holds the interned formats.
      */
-    private HashMap<FormatKey, Object> properties;
-
+    private final static ConcurrentHashMap<Format, Format> interned = new ConcurrentHashMap<Format, Format>();
     /**
-     * Creates a new format onlyWith the specified properties.
+     * Holds the keys of the format, sorted by ordinal.
      */
-    public Format(Map<FormatKey, Object> properties) {
-        this(properties, true);
-    }
+    private final FormatKey[] keys;
+    /**
+     * Holds the values of the format, in the same order as the keys.
+     */
+    private final Object[] values;
+    private final int hash;
+    /**
+     * Lazily created map view of the properties.
+     */
+    private volatile Map<FormatKey, Object> properties;
 
     /**
      * Creates a new format onlyWith the specified properties.
      */
-    private Format(Map<FormatKey, Object> properties, boolean copy) {
-        if (copy || ! (properties instanceof HashMap)) {
-            for (Map.Entry<FormatKey, Object> e : properties.entrySet()) {
-                if (!e.getKey().isAssignable(e.getValue())) {
-                    throw new ClassCastException(e.getValue() + " must be of type " + e.getKey().getValueClass());
-                }
+    public Format(Map<FormatKey, Object> properties) {
+        FormatKey[] k = new FormatKey[properties.size()];
+        Object[] v = new Object[k.length];
+        int n = 0;
+        for (Map.Entry<FormatKey, Object> e : properties.entrySet()) {
+            if (!e.getKey().isAssignable(e.getValue())) {
+                throw new ClassCastException(e.getValue() + " must be of type " + e.getKey().getValueClass());
             }
-            this.properties = new HashMap< FormatKey, Object>(properties);
-        } else {
-            this.properties = (HashMap< FormatKey, Object>) properties;
+            n = put(k, v, n, e.getKey(), e.getValue());
         }
+        this.keys = trim(k, n);
+        this.values = trim(v, n);
+        this.hash = hash(keys, values);
     }
 
     /**
@@ -57,42 +71,140 @@ public class Format {
      * must be given as key value pairs.
      */
     public Format(Object... p) {
-        this.properties = new HashMap< FormatKey, Object>();
+        FormatKey[] k = new FormatKey[p.length / 2];
+        Object[] v = new Object[k.length];
+        int n = put(k, v, 0, p);
+        this.keys = trim(k, n);
+        this.values = trim(v, n);
+        this.hash = hash(keys, values);
+    }
+
+    /**
+     * Creates a new format from sorted arrays, which are not copied.
+     */
+    private Format(FormatKey[] keys, Object[] values, int n) {
+        this.keys = trim(keys, n);
+        this.values = trim(values, n);
+        this.hash = hash(this.keys, this.values);
+    }
+
+    /**
+     * Inserts a property into the sorted arrays, or replaces its value.
+     *
+     * @return the new number of properties.
+     */
+    private static int put(FormatKey[] k, Object[] v, int n, FormatKey key, Object value) {
+        int i = n;
+        while (i > 0 && k[i - 1].ordinal >= key.ordinal) {
+            i--;
+        }
+        if (i < n && k[i] == key) {
+            v[i] = value;
+            return n;
+        }
+        System.arraycopy(k, i, k, i + 1, n - i);
+        System.arraycopy(v, i, v, i + 1, n - i);
+        k[i] = key;
+        v[i] = value;
+        return n + 1;
+    }
+
+    /**
+     * Inserts properties given as key value pairs into the sorted arrays.
+     * Later pairs overwrite earlier ones.
+     *
+     * @return the new number of properties.
+     */
+    private static int put(FormatKey[] k, Object[] v, int n, Object[] p) {
         for (int i = 0; i < p.length; i += 2) {
             FormatKey key = (FormatKey) p[i];
             if (!key.isAssignable(p[i + 1])) {
                 throw new ClassCastException(key + ": " + p[i + 1] + " must be of type " + key.getValueClass());
             }
-            this.properties.put(key, p[i + 1]);
+            n = put(k, v, n, key, p[i + 1]);
         }
+        return n;
+    }
+
+    private static FormatKey[] trim(FormatKey[] a, int n) {
+        if (n == a.length) {
+            return a;
+        }
+        FormatKey[] b = n == 0 ? NO_KEYS : new FormatKey[n];
+        System.arraycopy(a, 0, b, 0, n);
+        return b;
+    }
+
+    private static Object[] trim(Object[] a, int n) {
+        if (n == a.length) {
+            return a;
+        }
+        Object[] b = n == 0 ? NO_VALUES : new Object[n];
+        System.arraycopy(a, 0, b, 0, n);
+        return b;
+    }
+
+    private static int hash(FormatKey[] keys, Object[] values) {
+        int h = 0;
+        for (int i = 0; i < keys.length; i++) {
+            h = 31 * h + (keys[i].ordinal ^ values[i].hashCode());
+        }
+        return h;
+    }
+
+    /**
+     * Returns the index of the key, or -1.
+     */
+    private int indexOf(FormatKey key) {
+        int ordinal = key.ordinal;
+        for (int i = 0; i < keys.length; i++) {
+            FormatKey k = keys[i];
+            if (k == key) {
+                return i;
+            }
+            if (k.ordinal > ordinal) {
+                break;
+            }
+        }
+        return -1;
     }
 
     @SuppressWarnings("unchecked")
     public <T> T get(FormatKey<T> key) {
-        return (T) properties.get(key);
+        int i = indexOf(key);
+        return i == -1 ? null : (T) values[i];
     }
 
     @SuppressWarnings("unchecked")
     public <T> T get(FormatKey<T> key, T defaultValue) {
-        return (properties.containsKey(key)) ? (T) properties.get(key) : defaultValue;
+        int i = indexOf(key);
+        return i == -1 ? defaultValue : (T) values[i];
     }
 
     public boolean containsKey(FormatKey key) {
-        return properties.containsKey(key);
+        return indexOf(key) != -1;
     }
 
     /**
      * Gets the properties of the format as an unmodifiable map.
      */
     public Map<FormatKey, Object> getProperties() {
-        return Collections.unmodifiableMap(properties);
+        Map<FormatKey, Object> m = properties;
+        if (m == null) {
+            LinkedHashMap<FormatKey, Object> lhm = new LinkedHashMap<FormatKey, Object>();
+            for (int i = 0; i < keys.length; i++) {
+                lhm.put(keys[i], values[i]);
+            }
+            properties = m = Collections.unmodifiableMap(lhm);
+        }
+        return m;
     }
 
     /**
      * Gets the keys of the format as an unmodifiable set.
      */
     public Set<FormatKey> getKeys() {
-        return Collections.unmodifiableSet(properties.keySet());
+        return getProperties().keySet();
     }
 
     /**
@@ -104,42 +216,71 @@ public class Format {
      * @return True if the other format matches this format.
      */
     public boolean matches(Format that) {
-        for (Map.Entry<FormatKey, Object> e : properties.entrySet()) {
-            if (!e.getKey().isComment()) {
-                if (that.properties.containsKey(e.getKey())) {
-                    Object a = e.getValue();
-                    Object b = that.properties.get(e.getKey());
-                    if (a != b && a == null || !a.equals(b)) {
-                        return false;
-                    }
+        return matchesWithout(that);
+    }
 
+    public boolean matchesWithout(Format that, FormatKey... without) {
+        if (this == that) {
+            return true;
+        }
+        FormatKey[] ak = this.keys, bk = that.keys;
+        int i = 0, j = 0;
+        OuterLoop:
+        while (i < ak.length && j < bk.length) {
+            FormatKey k = ak[i];
+            int d = k.ordinal - bk[j].ordinal;
+            if (d < 0) {
+                i++;
+            } else if (d > 0) {
+                j++;
+            } else {
+                Object a = this.values[i++];
+                Object b = that.values[j++];
+                if (k.isComment() || a == b) {
+                    continue;
+                }
+                for (int w = 0; w < without.length; w++) {
+                    if (without[w] == k) {
+                        continue OuterLoop;
+                    }
+                }
+                if (!a.equals(b)) {
+                    return false;
                 }
             }
         }
         return true;
     }
 
-    public boolean matchesWithout(Format that, FormatKey... without) {
-        OuterLoop:
-        for (Map.Entry<FormatKey, Object> e : properties.entrySet()) {
-            FormatKey k = e.getKey();
-            if (!e.getKey().isComment()) {
-                if (that.properties.containsKey(k)) {
-                    for (int i = 0; i < without.length; i++) {
-                        if (without[i] == k) {
-                            continue OuterLoop;
-                        }
-                    }
-                    Object a = e.getValue();
-                    Object b = that.properties.get(k);
-                    if (a != b && a == null || !a.equals(b)) {
-                        return false;
-                    }
-
+    /**
+     * Merges two formats. If a property is specified in both formats, then
+     * the property value from the first format is used.
+     */
+    private static Format merge(Format first, Format second) {
+        if (second.keys.length == 0) {
+            return first;
+        }
+        if (first.keys.length == 0) {
+            return second;
+        }
+        FormatKey[] ak = first.keys, bk = second.keys;
+        FormatKey[] k = new FormatKey[ak.length + bk.length];
+        Object[] v = new Object[k.length];
+        int i = 0, j = 0, n = 0;
+        while (i < ak.length || j < bk.length) {
+            int d = i == ak.length ? 1 : j == bk.length ? -1 : ak[i].ordinal - bk[j].ordinal;
+            if (d <= 0) {
+                k[n] = ak[i];
+                v[n++] = first.values[i++];
+                if (d == 0) {
+                    j++;
                 }
+            } else {
+                k[n] = bk[j];
+                v[n++] = second.values[j++];
             }
         }
-        return true;
+        return new Format(k, v, n);
     }
 
     /**
@@ -153,13 +294,7 @@ public class Format {
      * @return That format with properties overwritten by this format.
      */
     public Format append(Format that) {
-        HashMap<FormatKey, Object> m = new HashMap<FormatKey, Object>(this.properties);
-        for (Map.Entry<FormatKey, Object> e : that.properties.entrySet()) {
-            if (!m.containsKey(e.getKey())) {
-                m.put(e.getKey(), e.getValue());
-            }
-        }
-        return new Format(m,false);
+        return merge(this, that);
     }
 
     /**
@@ -173,15 +308,12 @@ public class Format {
      * @return That format with properties overwritten by this format.
      */
     public Format append(Object... p) {
-        HashMap<FormatKey, Object> m = new HashMap<FormatKey, Object>(this.properties);
-        for (int i = 0; i < p.length; i += 2) {
-            FormatKey key = (FormatKey) p[i];
-            if (!key.isAssignable(p[i + 1])) {
-                throw new ClassCastException(key + ": " + p[i + 1] + " must be of type " + key.getValueClass());
-            }
-            m.put(key, p[i + 1]);
-        }
-        return new Format(m,false);
+        FormatKey[] k = new FormatKey[keys.length + p.length / 2];
+        Object[] v = new Object[k.length];
+        System.arraycopy(keys, 0, k, 0, keys.length);
+        System.arraycopy(values, 0, v, 0, values.length);
+        int n = put(k, v, keys.length, p);
+        return new Format(k, v, n);
     }
 
     /**
@@ -196,13 +328,7 @@ public class Format {
      * @return That format with properties overwritten by this format.
      */
     public Format prepend(Format that) {
-        HashMap<FormatKey, Object> m = new HashMap<FormatKey, Object>(that.properties);
-        for (Map.Entry<FormatKey, Object> e : this.properties.entrySet()) {
-            if (!m.containsKey(e.getKey())) {
-                m.put(e.getKey(), e.getValue());
-            }
-        }
-        return new Format(m,false);
+        return merge(that, this);
     }
 
     /**
@@ -217,20 +343,7 @@ public class Format {
      * @return That format with properties overwritten by this format.
      */
     public Format prepend(Object... p) {
-        HashMap<FormatKey, Object> m = new HashMap<FormatKey, Object>();
-        for (int i = 0; i < p.length; i += 2) {
-            FormatKey key = (FormatKey) p[i];
-            if (!key.isAssignable(p[i + 1])) {
-                throw new ClassCastException(key + ": " + p[i + 1] + " must be of type " + key.getValueClass());
-            }
-            m.put(key, p[i + 1]);
-        }
-        for (Map.Entry<FormatKey, Object> e : this.properties.entrySet()) {
-            if (!m.containsKey(e.getKey())) {
-                m.put(e.getKey(), e.getValue());
-            }
-        }
-        return new Format(m,false);
+        return merge(new Format(p), this);
     }
     /**
      * Creates a new format which only has the specified keys (or less). <p> If
@@ -238,13 +351,16 @@ public class Format {
      * format.
      */
     public Format intersectKeys(FormatKey... keys) {
-        HashMap<FormatKey, Object> m = new HashMap<FormatKey, Object>();
-        for (FormatKey k : keys) {
-            if (properties.containsKey(k)) {
-                m.put(k, properties.get(k));
+        FormatKey[] k = new FormatKey[Math.min(keys.length, this.keys.length)];
+        Object[] v = new Object[k.length];
+        int n = 0;
+        for (FormatKey key : keys) {
+            int i = indexOf(key);
+            if (i != -1) {
+                n = put(k, v, n, key, values[i]);
             }
         }
-        return new Format(m,false);
+        return new Format(k, v, n);
     }
 
     /**
@@ -254,7 +370,7 @@ public class Format {
     public Format removeKeys(FormatKey... keys) {
         boolean needsRemoval = false;
         for (FormatKey k : keys) {
-            if (properties.containsKey(k)) {
+            if (containsKey(k)) {
                 needsRemoval = true;
                 break;
             }
@@ -262,38 +378,84 @@ public class Format {
         if (!needsRemoval) {
             return this;
         }
-
-        HashMap<FormatKey, Object> m = new HashMap<FormatKey, Object>(properties);
-        for (FormatKey k : keys) {
-            m.remove(k);
-        }
-        return new Format(m,false);
+        return without(keys);
     }
 
     /**
      * Returns true if the format has the specified keys.
      */
     public Format containsKeys(FormatKey... keys) {
-        HashMap<FormatKey, Object> m = new HashMap<FormatKey, Object>(properties);
-        for (FormatKey k : keys) {
-            m.remove(k);
+        return without(keys);
+    }
+
+    private Format without(FormatKey... without) {
+        FormatKey[] k = new FormatKey[keys.length];
+        Object[] v = new Object[k.length];
+        int n = 0;
+        OuterLoop:
+        for (int i = 0; i < keys.length; i++) {
+            for (FormatKey w : without) {
+                if (w == keys[i]) {
+                    continue OuterLoop;
+                }
+            }
+            k[n] = keys[i];
+            v[n++] = values[i];
+        }
+        return new Format(k, v, n);
+    }
+
+    /**
+     * Returns the canonical instance of this format. Interned formats
+     * can be compared by identity, which {@link #equals} and
+     * {@link #matches} check first.
+     * <p>
+     * The interned formats are never released, so this is meant for
+     * constant formats, not for formats created per buffer.
+     */
+    public Format intern() {
+        Format f = interned.putIfAbsent(this, this);
+        return f == null ? this : f;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Format)) {
+            return false;
         }
-        return new Format(m,false);
+        Format that = (Format) o;
+        if (this.hash != that.hash || this.keys.length != that.keys.length) {
+            return false;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (this.keys[i] != that.keys[i] || !this.values[i].equals(that.values[i])) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder("Format{");
         boolean isFirst = true;
-        for (Map.Entry<FormatKey, Object> e : properties.entrySet()) {
+        for (int i = 0; i < keys.length; i++) {
             if (isFirst) {
                 isFirst = false;
             } else {
                 buf.append(',');
             }
-            buf.append(e.getKey().toString());
+            buf.append(keys[i].toString());
             buf.append(':');
-            appendStuffedString(e.getValue(), buf);
+            appendStuffedString(values[i], buf);
         }
         buf.append('}');
         return buf.toString();
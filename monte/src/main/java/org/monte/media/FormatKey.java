@@ -10,7 +10,10 @@
  */
 package org.monte.media;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A <em>FormatKey</em> provides type-safe access to an attribute of
@@ -24,6 +27,8 @@ import java.io.Serializable;
 public class FormatKey<T> implements Serializable, Comparable {
 
     public static final long serialVersionUID = 1L;
+    /** Hands out the ordinals. */
+    private final static AtomicInteger nextOrdinal = new AtomicInteger();
     /**
      * Holds a String representation of the attribute key.
      */
@@ -39,6 +44,9 @@ public class FormatKey<T> implements Serializable, Comparable {
     
     /** Comment keys are ignored when matching two media formats with each other. */
     private boolean comment;
+    /** Identifies the key within this VM. {@link Format} keeps its
+     * properties sorted by ordinal. */
+    transient int ordinal;
 
     /** Creates a new instance with the specified attribute key, type token class,
      * default value null, and allowing null values. */
@@ -58,6 +66,12 @@ public class FormatKey<T> implements Serializable, Comparable {
         this.name = name;
         this.clazz = clazz;
         this.comment=comment;
+        this.ordinal = nextOrdinal.getAndIncrement();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.ordinal = nextOrdinal.getAndIncrement();
     }
 
     /**
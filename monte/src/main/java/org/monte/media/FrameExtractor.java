@@ -0,0 +1,244 @@
+/*
+ * @(#)FrameExtractor.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import org.monte.media.math.Rational;
+import static org.monte.media.VideoFormatKeys.*;
+import static org.monte.media.BufferFlag.*;
+
+/**
+ * Extracts the frames at given times from the video track of a movie.
+ * <p>
+ * To get the frame at a time, the reader is set to the key frame at or
+ * before that time with {@link MovieReader#setMovieReadTime}, and only the
+ * frames from that key frame up to the requested one are decoded. The
+ * readers find the key frame in the sample tables of the movie, which are
+ * read with the movie: no separate index needs to be built or stored.
+ * <p>
+ * When several frames are extracted at once, they are extracted in the order
+ * of their times, in a single forward pass over the movie: the reader only
+ * seeks to a key frame if it is after the last decoded frame.
+ * <p>
+ * The extractor does not close the reader.
+ *
+ * @version $Id$
+ */
+public class FrameExtractor {
+
+    private final MovieReader reader;
+    private final int track;
+    private final Codec codec;
+    /**
+     * Whether the codec reads {@code ByteBuffer}s, which memory mapped
+     * readers put into the buffers.
+     */
+    private final boolean isByteBufferInput;
+    private final Buffer inBuf = new Buffer();
+    private final Buffer outBuf = new Buffer();
+    /**
+     * The data of a {@code ByteBuffer}, for a codec which only reads byte
+     * arrays.
+     */
+    private byte[] inData;
+    /**
+     * The start and end time of the frame in {@code outBuf}, or null if no
+     * frame has been decoded yet.
+     */
+    private Rational decodedStart, decodedEnd;
+
+    /**
+     * Creates a frame extractor for the first video track of a movie.
+     *
+     * @param reader The movie reader.
+     */
+    public FrameExtractor(MovieReader reader) throws IOException {
+        this(reader, reader.findTrack(0, new Format(MediaTypeKey, MediaType.VIDEO)));
+    }
+
+    /**
+     * Creates a frame extractor for the specified video track of a movie.
+     *
+     * @param reader The movie reader.
+     * @param track The track number.
+     */
+    public FrameExtractor(MovieReader reader, int track) throws IOException {
+        if (track < 0 || track >= reader.getTrackCount()) {
+            throw new IllegalArgumentException("Not a track of the movie: " + track);
+        }
+        this.reader = reader;
+        this.track = track;
+
+        Format format = reader.getFormat(track);
+        Format outFormat = format.prepend(MediaTypeKey, MediaType.VIDEO,//
+                MimeTypeKey, MIME_JAVA,
+                EncodingKey, ENCODING_BUFFERED_IMAGE, DataClassKey, BufferedImage.class);
+        Codec decoder = null;
+        boolean byteBufferInput = false;
+        for (Codec c : Registry.getInstance().getDecoders(format)) {
+            byteBufferInput = null != c.setInputFormat(format.prepend(DataClassKey, ByteBuffer.class));
+            if ((byteBufferInput || null != c.setInputFormat(format))
+                    && null != c.setOutputFormat(outFormat)) {
+                decoder = c;
+                break;
+            }
+        }
+        if (decoder == null) {
+            throw new UnsupportedOperationException("Track " + track + " no codec found for format " + format);
+        }
+        this.codec = decoder;
+        this.isByteBufferInput = byteBufferInput;
+    }
+
+    /**
+     * Returns the track number.
+     */
+    public int getTrack() {
+        return track;
+    }
+
+    /**
+     * Returns the frame which is shown at the specified time. If the time is
+     * after the end of the track, returns its last frame.
+     *
+     * @param time Time in seconds.
+     * @return The frame, or null if the track has no frames.
+     */
+    public BufferedImage getFrame(Rational time) throws IOException {
+        return getFrames(new Rational[]{time})[0];
+    }
+
+    /**
+     * Decodes the frame which is shown at the specified time into a buffer,
+     * without copying it. The data of the buffer is the image of the decoder:
+     * it is only valid until the next frame is extracted.
+     * <p>
+     * Reading frames in the order of their times, decodes them in a single
+     * forward pass over the movie.
+     *
+     * @param time Time in seconds.
+     * @param frame The buffer.
+     * @return True if the buffer holds the frame, false if the track has no
+     * frames.
+     */
+    public boolean readFrame(Rational time, Buffer frame) throws IOException {
+        if (!isDecoded(time) && !decode(time)) {
+            return false;
+        }
+        frame.setMetaTo(outBuf);
+        frame.data = outBuf.data;
+        frame.offset = outBuf.offset;
+        frame.length = outBuf.length;
+        frame.header = null;
+        return true;
+    }
+
+    /**
+     * Returns the frames which are shown at the specified times, in a single
+     * forward pass over the movie.
+     *
+     * @param times Times in seconds, in any order.
+     * @return The frames, in the order of the times. A frame is null if the
+     * track has no frames.
+     */
+    public BufferedImage[] getFrames(final Rational[] times) throws IOException {
+        Integer[] order = new Integer[times.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return times[o1].compareTo(times[o2]);
+            }
+        });
+
+        BufferedImage[] frames = new BufferedImage[times.length];
+        BufferedImage frame = null;
+        for (int i : order) {
+            Rational time = times[i];
+            if (!isDecoded(time)) {
+                frame = decode(time) ? copyOf((BufferedImage) outBuf.data) : null;
+            } else if (frame == null) {
+                // decoded by a previous call
+                frame = copyOf((BufferedImage) outBuf.data);
+            }
+            frames[i] = frame;
+        }
+        return frames;
+    }
+
+    /**
+     * Returns evenly spaced frames of the track: the track is divided into
+     * {@code count} parts of the same duration, and the frame in the middle
+     * of each part is returned.
+     *
+     * @param count The number of frames.
+     * @return The frames.
+     */
+    public BufferedImage[] getThumbnails(int count) throws IOException {
+        Rational duration = reader.getDuration(track);
+        Rational[] times = new Rational[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = duration.multiply(new Rational(2 * i + 1, 2 * count));
+        }
+        return getFrames(times);
+    }
+
+    private boolean isDecoded(Rational time) {
+        return decodedStart != null && decodedStart.compareTo(time) <= 0
+                && (decodedEnd.compareTo(time) > 0 || inBuf.isFlag(END_OF_MEDIA));
+    }
+
+    /**
+     * Decodes the frames up to the one which is shown at the specified time,
+     * starting at the key frame before it, or at the last decoded frame.
+     *
+     * @return True if the frame is in {@code outBuf}.
+     */
+    private boolean decode(Rational time) throws IOException {
+        if (decodedStart == null || decodedEnd.compareTo(time) <= 0 || decodedStart.compareTo(time) > 0) {
+            reader.setMovieReadTime(time);
+        }
+        boolean isDecoded = false;
+        while (true) {
+            reader.read(track, inBuf);
+            if (inBuf.isFlag(END_OF_MEDIA)) {
+                // The last decoded frame is the last frame of the track
+                return isDecoded || decodedStart != null;
+            }
+            if (inBuf.data instanceof ByteBuffer && !isByteBufferInput) {
+                ByteBuffer data = ((ByteBuffer) inBuf.data).duplicate();
+                if (inData == null || inData.length < data.remaining()) {
+                    inData = new byte[data.remaining()];
+                }
+                inBuf.length = data.remaining();
+                inBuf.offset = 0;
+                data.get(inData, 0, inBuf.length);
+                inBuf.data = inData;
+            }
+            codec.process(inBuf, outBuf);
+            if (outBuf.isFlag(DISCARD)) {
+                continue;
+            }
+            isDecoded = true;
+            decodedStart = inBuf.timeStamp;
+            decodedEnd = inBuf.timeStamp.add(inBuf.sampleDuration.multiply(inBuf.sampleCount));
+            if (decodedEnd.compareTo(time) > 0) {
+                return true;
+            }
+        }
+    }
+
+    private static BufferedImage copyOf(BufferedImage img) {
+        return new BufferedImage(img.getColorModel(), img.copyData(null), img.isAlphaPremultiplied(), null);
+    }
+}
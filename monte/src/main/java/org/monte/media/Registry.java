@@ -11,25 +11,84 @@
 package org.monte.media;
 
 import java.io.File;
+import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.stream.ImageOutputStream;
 import static org.monte.media.FormatKeys.*;
 
 /**
  * The {@code Registry} for audio and video codecs.
+ * <p>
+ * The registry can be used concurrently by many threads. The constructors
+ * of the codecs, readers and writers are looked up only once.
  *
  * @author Werner Randelshofer
  * @version $Id: Registry.java 299 2013-01-03 07:40:18Z werner $
  */
 public abstract class Registry {
 
-    private static Registry instance;
+    private static volatile Registry instance;
+    /**
+     * Holds the constructors of the codecs, readers and writers.
+     */
+    private final ConcurrentHashMap<String, Constructor<?>> constructors = new ConcurrentHashMap<String, Constructor<?>>();
+    /**
+     * Holds the released codecs of each thread, by class name.
+     */
+    private final ThreadLocal<HashMap<String, Codec>> releasedCodecs = new ThreadLocal<HashMap<String, Codec>>() {
+        @Override
+        protected HashMap<String, Codec> initialValue() {
+            return new HashMap<String, Codec>();
+        }
+    };
 
     public static Registry getInstance() {
-        if (instance == null) {
-            instance = new DefaultRegistry();
-            instance.init();
+        Registry r = instance;
+        if (r == null) {
+            synchronized (Registry.class) {
+                r = instance;
+                if (r == null) {
+                    r = new DefaultRegistry();
+                    r.init();
+                    instance = r;
+                }
+            }
         }
-        return instance;
+        return r;
+    }
+
+    /**
+     * Creates a new instance of the specified class, with its constructor
+     * which takes one argument of the specified type, or with its no-arg
+     * constructor if the type is null.
+     */
+    private Object newInstance(String className, Class<?> parameterType, Object arg) throws Exception {
+        String key = parameterType == null ? className : className + '(' + parameterType.getName() + ')';
+        Constructor<?> c = constructors.get(key);
+        if (c == null) {
+            Class<?> clazz = Class.forName(className);
+            c = parameterType == null ? clazz.getConstructor() : clazz.getConstructor(parameterType);
+            constructors.putIfAbsent(key, c);
+        }
+        return parameterType == null ? c.newInstance() : c.newInstance(arg);
+    }
+
+    /**
+     * Gives a codec back to the registry, once the caller is done with it.
+     * The codec is reset, and the next {@link #getCodec} call with an output
+     * format from the same thread may return it, instead of creating a new
+     * instance. This saves the setup of codecs which are expensive to
+     * create, for example when a recorder starts a new file.
+     * <p>
+     * The codec must not be used by the caller after it has been released.
+     *
+     * @param codec The codec.
+     */
+    public void releaseCodec(Codec codec) {
+        codec.reset();
+        releasedCodecs.get().put(codec.getClass().getName(), codec);
     }
 
     /**
@@ -137,7 +196,7 @@ public abstract class Registry {
         ArrayList<Codec> codecs = new ArrayList<Codec>(clazz.length);
         for (int i = 0; i < clazz.length; i++) {
             try {
-                codecs.add((Codec) Class.forName(clazz[i]).newInstance());
+                codecs.add((Codec) newInstance(clazz[i], null, null));
             } catch (Exception ex) {
                 //ex.printStackTrace();
                 System.err.println("Monte Registry. Codec class not found: " + clazz[i]);
@@ -159,7 +218,12 @@ public abstract class Registry {
         String[] clazz = getCodecClasses(inputFormat, outputFormat);
         for (int i = 0; i < clazz.length; i++) {
             try {
-                Codec codec = ((Codec) Class.forName(clazz[i]).newInstance());
+                // released codecs still have their output format, so they are
+                // only reused if we set a new one
+                Codec codec = outputFormat == null ? null : releasedCodecs.get().remove(clazz[i]);
+                if (codec == null) {
+                    codec = (Codec) newInstance(clazz[i], null, null);
+                }
                 codec.setInputFormat(inputFormat);
                 if (outputFormat != null) {
                     codec.setOutputFormat(outputFormat);
@@ -216,7 +280,7 @@ public abstract class Registry {
         String[] clazz = getReaderClasses(fileFormat);
         for (int i = 0; i < clazz.length; i++) {
             try {
-                return ((MovieReader) Class.forName(clazz[i]).getConstructor(File.class).newInstance(file));
+                return (MovieReader) newInstance(clazz[i], File.class, file);
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
@@ -233,7 +297,23 @@ public abstract class Registry {
         String[] clazz = getWriterClasses(fileFormat);
         for (int i = 0; i < clazz.length; i++) {
             try {
-                return ((MovieWriter) Class.forName(clazz[i]).getConstructor(File.class).newInstance(file));
+                return (MovieWriter) newInstance(clazz[i], File.class, file);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets a writer for the specified file format, which writes into the
+     * specified stream.
+     */
+    public MovieWriter getWriter(Format fileFormat, ImageOutputStream out) {
+        String[] clazz = getWriterClasses(fileFormat);
+        for (int i = 0; i < clazz.length; i++) {
+            try {
+                return (MovieWriter) newInstance(clazz[i], ImageOutputStream.class, out);
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
@@ -74,4 +74,18 @@ public class VideoFormatKeys extends FormatKeys {
     public final static FormatKey<Boolean> InterlaceKey = new FormatKey<Boolean>("interlace", Boolean.class);
     /** Encoding quality. Value between 0 and 1. */
     public final static FormatKey<Float> QualityKey = new FormatKey<Float>("quality", Float.class);
+    /** Size of the square tiles which are compared with the previous frame
+     * by delta encoders. Unchanged tiles are skipped as a whole. 0 or no
+     * value compares pixel by pixel. */
+    public final static FormatKey<Integer> TileSizeKey = new FormatKey<Integer>("tileSize", "tileSize", Integer.class, true);
+    /** The zlib compression level of lossless encoders, from 0 (none) to 9
+     * (best). -1 or no value uses the zlib default. */
+    public final static FormatKey<Integer> CompressionLevelKey = new FormatKey<Integer>("compressionLevel", "compressionLevel", Integer.class, true);
+    /** The zlib compression strategy of lossless encoders, one of the
+     * {@code java.util.zip.Deflater} strategies. No value uses the
+     * default strategy. */
+    public final static FormatKey<Integer> CompressionStrategyKey = new FormatKey<Integer>("compressionStrategy", "compressionStrategy", Integer.class, true);
+    /** The number of threads which encode a frame in parallel. 1 or no
+     * value encodes on the calling thread. */
+    public final static FormatKey<Integer> EncoderThreadsKey = new FormatKey<Integer>("encoderThreads", "encoderThreads", Integer.class, true);
 }
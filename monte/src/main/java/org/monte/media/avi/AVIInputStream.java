@@ -14,6 +14,7 @@ import org.monte.media.AbortException;
 import org.monte.media.Format;
 import org.monte.media.ParseException;
 import org.monte.media.io.ByteArrayImageInputStream;
+import org.monte.media.io.MappedFile;
 import org.monte.media.math.Rational;
 import org.monte.media.riff.RIFFChunk;
 import org.monte.media.riff.RIFFParser;
@@ -68,19 +69,35 @@ public class AVIInputStream extends AbstractAVIStream {
      */
     private boolean isRealized = false;
     protected MainHeader mainHeader;
-    protected ArrayList<Sample> idx1 = new ArrayList<Sample>();
     private long moviOffset = 0;
 
+    /**
+     * The memory mapped file, or null if the file is not memory mapped.
+     */
+    protected final MappedFile mappedFile;
+
     /**
      * Creates a new instance.
      *
      * @param file the input file
      */
     public AVIInputStream(File file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param file the input file
+     * @param isMemoryMapped Whether the file is memory mapped. If so, the
+     * samples can be read as slices of the file, without copying them.
+     */
+    public AVIInputStream(File file, boolean isMemoryMapped) throws IOException {
 
         this.in = new FileImageInputStream(file);
         in.setByteOrder(ByteOrder.LITTLE_ENDIAN);
         this.streamOffset = 0;
+        this.mappedFile = isMemoryMapped ? new MappedFile(file) : null;
     }
 
     /**
@@ -92,6 +109,7 @@ public class AVIInputStream extends AbstractAVIStream {
         this.in = in;
         this.streamOffset = in.getStreamPosition();
         in.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        this.mappedFile = null;
     }
 
     /**
@@ -303,7 +321,7 @@ public class AVIInputStream extends AbstractAVIStream {
                                 switch (chunk.getID()) {
                                     case IDX1_ID:
                                         if (isFlagSet(mainHeader.flags, AVIH_FLAG_HAS_INDEX)) {
-                                            readIDX1(tracks, idx1, chunk.getData());
+                                            readIDX1(tracks, chunk.getData());
                                         }
                                         break;
                                     default:
@@ -318,20 +336,15 @@ public class AVIInputStream extends AbstractAVIStream {
                                 int track = (((chunkIdInt >> 24) & 0xff) - '0') * 10 + (((chunkIdInt >>> 16) & 0xff) - '0');
                                 if (track >= 0 && track < tracks.size()) {
                                     Track tr=tracks.get(track);
-                                    Sample s = new Sample(id, (id & 0xffff) == PC_ID ? 0 : 1, chunk.getScan(), chunk.getSize(), false);
+                                    int duration = (id & 0xffff) == PC_ID ? 0 : 1;
                                     // Audio chunks may contain multiple samples
                                     if (tr.format.get(MediaTypeKey)==MediaType.AUDIO) {
-                                        s.duration=(int)(s.length/(tr.format.get(FrameSizeKey)*tr.format.get(ChannelsKey)));
+                                        duration=(int)(chunk.getSize()/(tr.format.get(FrameSizeKey)*tr.format.get(ChannelsKey)));
                                     }
                                     // The first chunk and all uncompressed chunks are keyframes
-                                    s.isKeyframe=tr.samples.isEmpty()||(id & 0xffff) == WB_ID||(id & 0xffff) == DB_ID;
-                                    if (tr.samples.size()>0) {
-                                        Sample lastSample=tr.samples.get(tr.samples.size()-1);
-                                        s.timeStamp = lastSample.timeStamp+lastSample.duration;
-                                    }
-                                    tr.length=s.timeStamp+s.duration;
-                                    idx1.add(s);
-                                    tr.samples.add(s);
+                                    boolean isKeyframe=tr.samples.isEmpty()||(id & 0xffff) == WB_ID||(id & 0xffff) == DB_ID;
+                                    tr.samples.add(id, duration, chunk.getScan(), chunk.getSize(), isKeyframe);
+                                    tr.length=tr.samples.getDuration();
 
                                 }
                             }
@@ -360,6 +373,9 @@ public class AVIInputStream extends AbstractAVIStream {
         } catch (AbortException ex) {
             throw new IOException("Parsing aborted", ex);
         }
+        for (Track tr : tracks) {
+            tr.samples.trimToSize();
+        }
     }
 
     /**
@@ -618,15 +634,13 @@ public class AVIInputStream extends AbstractAVIStream {
      *
      * @param tracks
      * @param data
-     * @return The idx1 list of samples.
      * @throws java.io.IOException
      */
-    private void readIDX1(ArrayList<Track> tracks, ArrayList<Sample> idx1, byte[] data) throws IOException {
+    private void readIDX1(ArrayList<Track> tracks, byte[] data) throws IOException {
         ByteArrayImageInputStream in = new ByteArrayImageInputStream(data, ByteOrder.LITTLE_ENDIAN);
 
-        long[] trReadTimeStamp = new long[tracks.size()];
-
-        Sample paletteChange = null;
+        long paletteChangeOffset = -1;
+        long paletteChangeLength = 0;
         while (in.getStreamPosition() < data.length) {
             in.setByteOrder(ByteOrder.BIG_ENDIAN);
             int chunkIdInt = in.readInt();
@@ -646,20 +660,17 @@ public class AVIInputStream extends AbstractAVIStream {
                 duration = (int) (size * duration / af.get(FrameSizeKey));
                 flags |= 0x10; // all audio samples are keyframes
             }
-            Sample s = new Sample(chunkId, duration, offset + moviOffset, size, (flags & 0x10) != 0);
-            s.timeStamp = trReadTimeStamp[track];
-            idx1.add(s);
-            trReadTimeStamp[track] += duration;
 
             // special treatment for palette changes
             // FIXME - We should coalesce multiple palette changes
-            if ((s.chunkType & CHUNK_SUBTYPE_MASK) == PC_ID) {
-                paletteChange = s;
+            if ((chunkId & CHUNK_SUBTYPE_MASK) == PC_ID) {
+                paletteChangeOffset = offset + moviOffset;
+                paletteChangeLength = size;
             } else {
-                if (paletteChange != null) {
-                    s.header = paletteChange;
+                int i = tr.samples.add(chunkId, duration, offset + moviOffset, size, (flags & 0x10) != 0);
+                if (paletteChangeOffset != -1) {
+                    tr.samples.setHeader(i, paletteChangeOffset, paletteChangeLength);
                 }
-                tr.samples.add(s);
             }
         }
 
@@ -670,6 +681,9 @@ public class AVIInputStream extends AbstractAVIStream {
 
     public void close() throws IOException {
         in.close();
+        if (mappedFile != null) {
+            mappedFile.close();
+        }
         for (Track tr : tracks) {
             tr.samples.clear();
         }
@@ -13,7 +13,6 @@ package org.monte.media.avi;
 import java.awt.image.ColorModel;
 import org.monte.media.riff.RIFFChunk;
 import org.monte.media.math.Rational;
-import java.util.ArrayList;
 import org.monte.media.Format;
 import org.monte.media.riff.RIFFParser;
 import java.awt.Dimension;
@@ -67,7 +66,6 @@ public class AVIOutputStream extends AbstractAVIStream {
      * This chunk holds the AVI Main Header.
      */
     protected FixedSizeDataChunk avihChunk;
-    ArrayList<Sample> idx1 = new ArrayList<Sample>();
 
     /**
      * Creates a new instance.
@@ -364,9 +362,7 @@ public class AVIOutputStream extends AbstractAVIStream {
         moviChunk.add(paletteChangeChunk);
         paletteChangeChunk.finish();
         long length = getRelativeStreamPosition() - offset;
-        Sample s = new Sample(paletteChangeChunk.chunkType, 0, offset, length, isKeyframe);
-        tr.addSample(s);
-        idx1.add(s);
+        tr.addSample(paletteChangeChunk.chunkType, 0, offset, length, isKeyframe);
         //tr.length+=0;  Length is not affected by this chunk!
         offset = getRelativeStreamPosition();
     }
@@ -425,11 +421,9 @@ public class AVIOutputStream extends AbstractAVIStream {
         if (isKeyframe && 0 != (tr.flags & STRH_FLAG_VIDEO_PALETTE_CHANGES)) {
             // If a keyframe sample is immediately preceeded by a palette change
             // we can raise the palette change to a keyframe.
-            if (tr.samples.size() > 0) {
-                Sample s = tr.samples.get(tr.samples.size() - 1);
-                if ((s.chunkType & 0xffff) == PC_ID) {
-                    s.isKeyframe = true;
-                }
+            int last = tr.samples.size() - 1;
+            if (last >= 0 && (tr.samples.getChunkType(last) & 0xffff) == PC_ID) {
+                tr.samples.setKeyframe(last, true);
             }
             isKeyframe = false;
         }
@@ -446,9 +440,7 @@ public class AVIOutputStream extends AbstractAVIStream {
         }
         long length = getRelativeStreamPosition() - offset;
         dc.finish();
-        Sample s = new Sample(dc.chunkType, 1, offset, length, isKeyframe);
-        tr.addSample(s);
-        idx1.add(s);
+        tr.addSample(dc.chunkType, 1, offset, length, isKeyframe);
         tr.length++;
         if (getRelativeStreamPosition() > 1L << 32) {
             throw new IOException("AVI file is larger than 4 GB");
@@ -494,9 +486,7 @@ public class AVIOutputStream extends AbstractAVIStream {
         mdatOut.write(data, off, len);
         long length = getRelativeStreamPosition() - offset;
         dc.finish();
-        Sample s = new Sample(dc.chunkType, 1, offset, length, isKeyframe);
-        tr.addSample(s);
-        idx1.add(s);
+        tr.addSample(dc.chunkType, 1, offset, length, isKeyframe);
         if (getRelativeStreamPosition() > 1L << 32) {
             throw new IOException("AVI file is larger than 4 GB");
         }
@@ -530,9 +520,7 @@ public class AVIOutputStream extends AbstractAVIStream {
             mdatOut.write(data, off, len);
             long length = getRelativeStreamPosition() - offset;
             dc.finish();
-            Sample s = new Sample(dc.chunkType, sampleCount, offset, length, isKeyframe | tr.samples.isEmpty());
-            tr.addSample(s);
-            idx1.add(s);
+            tr.addSample(dc.chunkType, sampleCount, offset, length, isKeyframe | tr.samples.isEmpty());
             tr.length += sampleCount;
             if (getRelativeStreamPosition() > 1L << 32) {
                 throw new IOException("AVI file is larger than 4 GB");
@@ -551,10 +539,7 @@ public class AVIOutputStream extends AbstractAVIStream {
     public long getMediaDuration(int track) {
         Track tr = tracks.get(track);
         long duration = tr.startTime;
-        if (!tr.samples.isEmpty()) {
-            Sample s = tr.samples.get(tr.samples.size() - 1);
-            duration += s.timeStamp + s.duration;
-        }
+        duration += tr.samples.getDuration();
         return duration;
     }
 
@@ -706,9 +691,25 @@ public class AVIOutputStream extends AbstractAVIStream {
                 int nTracks = tracks.size();
                 int[] trackSampleIndex = new int[nTracks];
                 long[] trackSampleCount = new long[nTracks];
-                for (Sample s : idx1) {
+                while (true) {
+                    // The chunks of all tracks, in the order they were written
+                    int track = -1;
+                    for (int t = 0; t < nTracks; t++) {
+                        if (trackSampleIndex[t] < tracks.get(t).samples.size() && (track == -1
+                                || tracks.get(t).samples.getOffset(trackSampleIndex[t])
+                                < tracks.get(track).samples.getOffset(trackSampleIndex[track]))) {
+                            track = t;
+                        }
+                    }
+                    if (track == -1) {
+                        break;
+                    }
+                    SampleChunkTable samples = tracks.get(track).samples;
+                    int index = trackSampleIndex[track]++;
+                    int chunkType = samples.getChunkType(index);
+
                     d.setByteOrder(ByteOrder.BIG_ENDIAN);
-                    d.writeInt(s.chunkType); // dwChunkId
+                    d.writeInt(chunkType); // dwChunkId
                     d.setByteOrder(ByteOrder.LITTLE_ENDIAN);
                     // Specifies a FOURCC that identifies a stream in the AVI file. The
                     // FOURCC must have the form 'xxyy' where xx is the stream number and yy
@@ -720,8 +721,8 @@ public class AVIOutputStream extends AbstractAVIStream {
                     //  header                  Palette change
                     //  wb                  Audio data
 
-                    d.writeInt(((s.chunkType & 0xffff) == PC_ID ? 0x100 : 0x0)//
-                            | (s.isKeyframe ? 0x10 : 0x0)); // flags
+                    d.writeInt(((chunkType & 0xffff) == PC_ID ? 0x100 : 0x0)//
+                            | (samples.isKeyframe(index) ? 0x10 : 0x0)); // flags
                     // Specifies a bitwise combination of zero or more of the following
                     // flags:
                     //
@@ -732,13 +733,13 @@ public class AVIOutputStream extends AbstractAVIStream {
                     //                          stream. For example, this flag should be set for
                     //                          palette changes.
 
-                    d.writeInt((int) (s.offset - moviListOffset)); // dwOffset
+                    d.writeInt((int) (samples.getOffset(index) - moviListOffset)); // dwOffset
                     // Specifies the location of the data chunk in the file. The value
                     // should be specified as an offset, in bytes, from the startTime of the
                     // 'movi' list; however, in some AVI files it is given as an offset from
                     // the startTime of the file.
 
-                    d.writeInt((int) (s.length)); // dwSize
+                    d.writeInt((int) (samples.getLength(index))); // dwSize
                     // Specifies the size of the data chunk, in bytes.
                 }
 
@@ -774,14 +775,10 @@ public class AVIOutputStream extends AbstractAVIStream {
             long largestBufferSize = 0;
             long duration = 0;
             for (Track tr : tracks) {
-                long trackDuration = 0;
-                for (Sample s : tr.samples) {
-                    trackDuration += s.duration;
-                }
-                duration = max(duration, trackDuration);
-                for (Sample s : tr.samples) {
-                    if (s.length > largestBufferSize) {
-                        largestBufferSize = s.length;
+                duration = max(duration, tr.samples.getDuration());
+                for (int i = 0, n = tr.samples.size(); i < n; i++) {
+                    if (tr.samples.getLength(i) > largestBufferSize) {
+                        largestBufferSize = tr.samples.getLength(i);
                     }
                 }
             }
@@ -942,13 +939,14 @@ public class AVIOutputStream extends AbstractAVIStream {
 
             long dwSuggestedBufferSize = 0;
             long dwSampleSize = -1; // => -1 indicates unknown
-            for (Sample s : tr.samples) {
-                if (s.length > dwSuggestedBufferSize) {
-                    dwSuggestedBufferSize = s.length;
+            for (int i = 0, n = tr.samples.size(); i < n; i++) {
+                long length = tr.samples.getLength(i);
+                if (length > dwSuggestedBufferSize) {
+                    dwSuggestedBufferSize = length;
                 }
                 if (dwSampleSize == -1) {
-                    dwSampleSize = s.length;
-                } else if (dwSampleSize != s.length) {
+                    dwSampleSize = length;
+                } else if (dwSampleSize != length) {
                     dwSampleSize = 0;
                 }
             }
@@ -20,6 +20,7 @@ import org.monte.media.Buffer;
 import org.monte.media.MovieReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import javax.imageio.stream.ImageInputStream;
 import static java.lang.Math.*;
 import static org.monte.media.FormatKeys.*;
@@ -49,6 +50,18 @@ public class AVIReader extends AVIInputStream implements MovieReader {
         super(file);
     }
 
+    /**
+     * Creates a new instance.
+     *
+     * @param file the input file
+     * @param isMemoryMapped Whether the file is memory mapped. If so,
+     * {@link #read(int, org.monte.media.Buffer)} puts slices of the file into
+     * the buffers, instead of copies.
+     */
+    public AVIReader(File file, boolean isMemoryMapped) throws IOException {
+        super(file, isMemoryMapped);
+    }
+
     @Override
     public Format getFileFormat() throws IOException {
         return AVI;
@@ -65,6 +78,11 @@ public class AVIReader extends AVIInputStream implements MovieReader {
      * <p>
      * If the track is a video track with palette change "..PC" chunks,
      * then the body of the palette change chunk can be found in the buffer.header.
+     * <p>
+     * If the file is memory mapped, then buffer.data is a read-only
+     * {@code ByteBuffer} slice of the file, which is only valid until the
+     * reader is closed. Otherwise, or if the chunk can not be sliced,
+     * buffer.data is a byte array.
      * 
      * @param track The track number.
      * @param buffer The buffer for the media data.
@@ -72,6 +90,18 @@ public class AVIReader extends AVIInputStream implements MovieReader {
      */
     @Override
     public void read(int track, Buffer buffer) throws IOException {
+        read(track, buffer, mappedFile != null);
+    }
+
+    /**
+     * Reads a chunk of media data from the specified track.
+     *
+     * @param track The track number.
+     * @param buffer The buffer for the media data.
+     * @param isSliceAllowed Whether buffer.data may be a slice of the memory
+     * mapped file.
+     */
+    private void read(int track, Buffer buffer, boolean isSliceAllowed) throws IOException {
         ensureRealized();
         Track tr = tracks.get(track);
         if (tr.readIndex >= tr.samples.size()) {
@@ -80,35 +110,41 @@ public class AVIReader extends AVIInputStream implements MovieReader {
             return;
         }
 
-        Sample s = tr.samples.get((int) tr.readIndex);
-        in.seek(s.offset);
-        {
+        int s = (int) tr.readIndex;
+        long length = tr.samples.getLength(s);
+        ByteBuffer slice = isSliceAllowed ? mappedFile.slice(tr.samples.getOffset(s), (int) length) : null;
+        if (slice != null) {
+            buffer.data = slice;
+        } else {
+            in.seek(tr.samples.getOffset(s));
             byte[] b;
             if (buffer.data instanceof byte[]) {
                 b = (byte[]) buffer.data;
-                if (b.length < s.length) {
-                    buffer.data = b = new byte[(((int) s.length + 1023) / 1024) * 1024];
+                if (b.length < length) {
+                    buffer.data = b = new byte[(((int) length + 1023) / 1024) * 1024];
                 }
             } else {
-                buffer.data = b = new byte[(((int) s.length + 1023) / 1024) * 1024];
+                buffer.data = b = new byte[(((int) length + 1023) / 1024) * 1024];
             }
-            in.readFully(b, 0, (int) s.length);
+            in.readFully(b, 0, (int) length);
         }
         buffer.offset = 0;
-        buffer.length = (int) s.length;
+        buffer.length = (int) length;
 
-        if (s.header != null) {
+        if (tr.samples.hasHeader(s)) {
         {
+            long headerLength = tr.samples.getHeaderLength(s);
+            in.seek(tr.samples.getHeaderOffset(s));
             byte[] b;
             if (buffer.header instanceof byte[]) {
-                b = (byte[]) buffer.data;
-                if (b.length != s.header.length) {
-                    buffer.header = b = new byte[(((int) s.header.length + 1023) / 1024) * 1024];
+                b = (byte[]) buffer.header;
+                if (b.length != headerLength) {
+                    buffer.header = b = new byte[(((int) headerLength + 1023) / 1024) * 1024];
                 }
             } else {
-                buffer.header = b = new byte[(((int) s.header.length + 1023) / 1024) * 1024];
+                buffer.header = b = new byte[(((int) headerLength + 1023) / 1024) * 1024];
             }
-            in.readFully(b, 0, (int) s.header.length);
+            in.readFully(b, 0, (int) headerLength);
         }
         } else {
             buffer.header = null;
@@ -134,8 +170,8 @@ public class AVIReader extends AVIInputStream implements MovieReader {
         buffer.format = tr.format;
         buffer.track = track;
         buffer.sampleDuration = new Rational(tr.scale, tr.rate);
-        buffer.timeStamp = new Rational((s.timeStamp + tr.startTime) * tr.scale, tr.rate);
-        buffer.flags = s.isKeyframe ? EnumSet.of(KEYFRAME) : EnumSet.noneOf(BufferFlag.class);
+        buffer.timeStamp = new Rational((tr.samples.getTime(s) + tr.startTime) * tr.scale, tr.rate);
+        buffer.flags = tr.samples.isKeyframe(s) ? EnumSet.of(KEYFRAME) : EnumSet.noneOf(BufferFlag.class);
 
 
 
@@ -166,6 +202,7 @@ public class AVIReader extends AVIInputStream implements MovieReader {
      * @throws java.io.IOException
      */
     public BufferedImage read(int track, BufferedImage img) throws IOException {
+        ensureRealized();
         Track tr = tracks.get(track);
         if (tr.inputBuffer == null) {
             tr.inputBuffer = new Buffer();
@@ -175,8 +212,11 @@ public class AVIReader extends AVIInputStream implements MovieReader {
         }
         Buffer buf = new Buffer();
         buf.data = img;
+        // Slices of the mapped file are only passed to codecs which read them
+        boolean isSliceAllowed = mappedFile != null
+                && tr.codec.getInputFormat().get(DataClassKey) == ByteBuffer.class;
         do {
-            read(track, tr.inputBuffer);
+            read(track, tr.inputBuffer, isSliceAllowed);
             // FIXME - We assume a one-step codec here!
             tr.codec.process(tr.inputBuffer, buf);
         } while (buf.isFlag(DISCARD) && !buf.isFlag(END_OF_MEDIA));
@@ -196,7 +236,8 @@ public class AVIReader extends AVIInputStream implements MovieReader {
             throw new UnsupportedOperationException("Track " + tr + " no codec found for format " + fmt);
         } else {
             if (fmt.get(MediaTypeKey) == MediaType.VIDEO) {
-                if (null == codec.setInputFormat(fmt)) {
+                if ((mappedFile == null || null == codec.setInputFormat(fmt.prepend(DataClassKey, ByteBuffer.class)))
+                        && null == codec.setInputFormat(fmt)) {
                     throw new UnsupportedOperationException("Track " + tr + " codec does not support input format " + fmt + ". codec=" + codec);
                 }
                 Format outFormat = fmt.prepend(MediaTypeKey, MediaType.VIDEO,//
@@ -220,8 +261,7 @@ public class AVIReader extends AVIInputStream implements MovieReader {
     public Rational getReadTime(int track) throws IOException {
         Track tr = tracks.get(track);
         if (tr.samples.size() > tr.readIndex) {
-            Sample s = tr.samples.get((int) tr.readIndex);
-            return new Rational((s.timeStamp + tr.startTime) * tr.scale, tr.rate);
+            return new Rational((tr.samples.getTime((int) tr.readIndex) + tr.startTime) * tr.scale, tr.rate);
         }
         return new Rational(0, 1);
     }
@@ -238,12 +278,8 @@ public class AVIReader extends AVIInputStream implements MovieReader {
                 continue;
             }
 
-            Sample currentSample = tr.readIndex < tr.samples.size() ? tr.samples.get((int) tr.readIndex) : tr.samples.get(tr.samples.size() - 1);
-
-            long readTimeStamp = currentSample.timeStamp;
-            if (tr.readIndex >= tr.samples.size()) {
-                readTimeStamp += currentSample.duration;
-            }
+            long readTimeStamp = tr.readIndex < tr.samples.size()
+                    ? tr.samples.getTime((int) tr.readIndex) : tr.samples.getDuration();
 
             Rational trts = new Rational((readTimeStamp + tr.startTime) * tr.scale, tr.rate);
             if (trts.compareTo(ts) < 0 && tr.readIndex < tr.samples.size()) {
@@ -295,19 +331,8 @@ public class AVIReader extends AVIInputStream implements MovieReader {
         // sample in a frame.
         // FIXME - We foolishly assume that all samples have a sampleDuration != 0.
         long index = time.getNumerator() * tr.rate / time.getDenominator() / tr.scale - tr.startTime;
-        if (tr.mediaType == AVIMediaType.AUDIO) {
-            int count = 0;
-            // FIXME This is very inefficient, perform binary search with sample.timestamp
-            // this will work for all media types!
-            for (int i = 0, n = tr.samples.size(); i < n; i++) {
-                long d = tr.samples.get(i).duration * tr.scale; // foolishly assume that sampleDuration = sample count
-                if (count + d > index) {
-                    index = i;
-                    break;
-                }
-                count += d;
-
-            }
+        if (tr.mediaType == AVIMediaType.AUDIO && index < tr.samples.getDuration()) {
+            index = tr.samples.findEntry(index);
         }
 
         return max(0, min(index, tr.samples.size()));
@@ -317,10 +342,11 @@ public class AVIReader extends AVIInputStream implements MovieReader {
     public Rational sampleToTime(int track, long sampleIndex) throws IOException {
         ensureRealized();
         Track tr = tracks.get(track);
-        Sample sample = tr.samples.get((int) max(0, min(tr.samples.size() - 1, sampleIndex)));
-        long time = (tr.startTime + sample.timeStamp) * tr.scale;//
+        long time;
         if (sampleIndex >= tr.samples.size()) {
-            time += sample.duration * tr.scale;
+            time = (tr.startTime + tr.samples.getDuration()) * tr.scale;
+        } else {
+            time = (tr.startTime + tr.samples.getTime((int) max(0, sampleIndex))) * tr.scale;
         }
         return new Rational(time, tr.rate);
     }
@@ -331,11 +357,12 @@ public class AVIReader extends AVIInputStream implements MovieReader {
         for (int t = 0, n = tracks.size(); t < n; t++) {
             Track tr = tracks.get(t);
             int sample = (int) min(timeToSample(t, newValue), tr.samples.size() - 1);
-            if (tr.readIndex > sample) {
-                tr.readIndex = 0;
+            int keyframe = max(0, tr.samples.findKeyframe(sample));
+            // Keep on reading from the current chunk, if no key frame is
+            // in between: the chunks before it have already been decoded
+            if (tr.readIndex < keyframe || tr.readIndex > sample) {
+                tr.readIndex = keyframe;
             }
-            for (; sample >= 0 && sample > tr.readIndex && !tr.samples.get(sample).isKeyframe; sample--);
-            tr.readIndex = sample;
         }
     }
 
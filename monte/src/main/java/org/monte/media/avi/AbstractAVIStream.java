@@ -16,12 +16,14 @@ import org.monte.media.Buffer;
 import org.monte.media.Codec;
 import org.monte.media.Format;
 import org.monte.media.io.SubImageOutputStream;
+import org.monte.media.util.SampleTable;
 import java.awt.Dimension;
 import java.awt.image.IndexColorModel;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import javax.imageio.stream.ImageOutputStream;
@@ -179,47 +181,84 @@ public abstract class AbstractAVIStream {
     /**
      * AVI stores media data in sample chunks. A sample chunk may contain one or
      * more media samples. A media sample is a single element in a sequence of
-     * time-ordered data.
+     * time-ordered data. <p> This table holds the sample chunks of a track. The
+     * sample count of an entry is the number of media samples in the sample
+     * chunk, each with a duration of 1, and the time of an entry is its time
+     * stamp. In addition, the table holds the chunk type of each entry, and the
+     * palette change chunk which precedes it, if any.
      */
-    protected static class Sample {
+    protected static class SampleChunkTable extends SampleTable {
 
-        int chunkType;
+        private int[] chunkTypes;
         /**
-         * Offset of the sample chunk relative to the startTime of the AVI file.
+         * Offsets and lengths of the palette change chunks, null as long as
+         * there are none.
          */
-        long offset;
-        /**
-         * Data length of the sample chunk.
-         */
-        long length;
-        /**
-         * The number of media samples in the sample chunk.
-         */
-        int duration;
-        /**
-         * Whether the sample is a sync-sample.
-         */
-        boolean isKeyframe;
-        long timeStamp;
-        /**
-         * Palette change sample.
-         */
-        Sample header;
+        private long[] headerOffsets;
+        private int[] headerLengths;
+
+        @Override
+        protected void setCapacity(int capacity) {
+            super.setCapacity(capacity);
+            chunkTypes = chunkTypes == null ? new int[capacity] : Arrays.copyOf(chunkTypes, capacity);
+            if (headerOffsets != null) {
+                headerOffsets = Arrays.copyOf(headerOffsets, capacity);
+                headerLengths = Arrays.copyOf(headerLengths, capacity);
+            }
+        }
 
         /**
-         * Creates a new sample.
+         * Adds a sample chunk.
          *
+         * @param chunkType The chunk id.
          * @param duration The number of media samples contained in the sample
          * chunk.
          * @param offset The offset in the AVI stream.
          * @param length The length in the AVI stream.
+         * @param isKeyframe Whether the sample chunk is a sync sample.
+         * @return The index of the entry.
+         */
+        public int add(int chunkType, int duration, long offset, long length, boolean isKeyframe) {
+            int i = add(offset, length, duration, 1, isKeyframe);
+            chunkTypes[i] = chunkType;
+            if (headerOffsets != null) {
+                headerLengths[i] = 0;
+            }
+            return i;
+        }
+
+        public int getChunkType(int index) {
+            getOffset(index); // checks the index
+            return chunkTypes[index];
+        }
+
+        /**
+         * Sets the palette change chunk of an entry.
          */
-        public Sample(int chunkId, int duration, long offset, long length, boolean isSync) {
-            this.chunkType = chunkId;
-            this.duration = duration;
-            this.offset = offset;
-            this.length = length;
-            this.isKeyframe = isSync;
+        public void setHeader(int index, long offset, long length) {
+            getOffset(index); // checks the index
+            if (headerOffsets == null) {
+                headerOffsets = new long[getCapacity()];
+                headerLengths = new int[getCapacity()];
+            }
+            headerOffsets[index] = offset;
+            headerLengths[index] = (int) length;
+        }
+
+        /**
+         * Returns true if the entry has a palette change chunk.
+         */
+        public boolean hasHeader(int index) {
+            getOffset(index); // checks the index
+            return headerOffsets != null && headerLengths[index] != 0;
+        }
+
+        public long getHeaderOffset(int index) {
+            return headerOffsets[index];
+        }
+
+        public long getHeaderLength(int index) {
+            return headerLengths[index] & 0xffffffffL;
         }
     }
 
@@ -353,9 +392,9 @@ public abstract class AbstractAVIStream {
          * @see scale
          */
         /**
-         * List of samples.
+         * The sample chunks.
          */
-        protected ArrayList<Sample> samples;
+        protected SampleChunkTable samples;
         /**
          * Interval between sync samples (keyframes). 0 = automatic. 1 = write
          * all samples as sync samples. n = sync every n-th sample.
@@ -527,7 +566,7 @@ public abstract class AbstractAVIStream {
             twoCC = (('0'+trackIndex/10)<<24) | (('0'+trackIndex%10)<<16);
             
             this.fccHandler = fourCC;
-            this.samples = new ArrayList<Sample>();
+            this.samples = new SampleChunkTable();
             this.extraHeaders = new ArrayList<RIFFChunk>();
         }
 
@@ -535,12 +574,21 @@ public abstract class AbstractAVIStream {
 
         public abstract int getSampleChunkFourCC(boolean isSync);
 
-        public void addSample(Sample s) {
-            if (!samples.isEmpty()) {
-                s.timeStamp = samples.get(samples.size() - 1).timeStamp + samples.get(samples.size() - 1).duration;
-            }
-            samples.add(s);
-            length++;
+        /**
+         * Adds a sample chunk.
+         *
+         * @param chunkType The chunk id.
+         * @param duration The number of media samples contained in the sample
+         * chunk.
+         * @param offset The offset in the AVI stream.
+         * @param length The length in the AVI stream.
+         * @param isKeyframe Whether the sample chunk is a sync sample.
+         * @return The index of the sample chunk.
+         */
+        public int addSample(int chunkType, int duration, long offset, long length, boolean isKeyframe) {
+            int i = samples.add(chunkType, duration, offset, length, isKeyframe);
+            this.length++;
+            return i;
         }
     }
 
@@ -0,0 +1,287 @@
+/*
+ * @(#)TechSmithBandEncoder.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media.avi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes 24-bit TSCC frames in horizontal bands, in parallel.
+ * <p>
+ * Each band is run length encoded by its own {@link TechSmithCodecCore},
+ * and compressed by its own raw {@code Deflater}. All bands but the last
+ * one are ended with a sync flush, so that their compressed data ends on
+ * a byte boundary, and the bands can be stitched into a single zlib stream.
+ * Each band uses the end of the band before as preset dictionary, so that
+ * the compression ratio is nearly the same as with a single {@code Deflater}.
+ * <p>
+ * The sync flush needs Java 7.
+ *
+ * @version $Id$
+ */
+class TechSmithBandEncoder {
+
+    /** {@code Deflater.SYNC_FLUSH}. */
+    private final static int SYNC_FLUSH = 2;
+    /** Size of the deflate window. */
+    private final static int DICTIONARY_SIZE = 32 * 1024;
+    /** {@code Deflater.deflate(byte[],int,int,int)}, or null before Java 7. */
+    private final static Method deflateWithFlush;
+
+    static {
+        Method m;
+        try {
+            m = Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+        } catch (NoSuchMethodException ex) {
+            m = null;
+        }
+        deflateWithFlush = m;
+    }
+    /** The threads which encode the bands. Shared by all encoders, idle
+     * threads go away after a minute. */
+    private final static ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "TechSmithBandEncoder-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /** A band of the frame. */
+    private static class Band {
+
+        final TechSmithCodecCore core = new TechSmithCodecCore();
+        Deflater deflater;
+        byte[] deflated = new byte[8192];
+        int deflatedLength;
+        int rowFrom;
+        int rowTo;
+    }
+    /** The bands, from the top of the frame to the bottom. */
+    private final Band[] bands;
+    private final ArrayList<Future<?>> futures;
+    private final Adler32 adler = new Adler32();
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionStrategy = Deflater.DEFAULT_STRATEGY;
+
+    public static boolean isAvailable() {
+        return deflateWithFlush != null;
+    }
+
+    public TechSmithBandEncoder(int bandCount) {
+        bands = new Band[bandCount];
+        for (int i = 0; i < bandCount; i++) {
+            bands[i] = new Band();
+        }
+        futures = new ArrayList<Future<?>>(bandCount);
+    }
+
+    public int getBandCount() {
+        return bands.length;
+    }
+
+    public void setCompression(int level, int strategy) {
+        compressionLevel = level;
+        compressionStrategy = strategy;
+        for (Band b : bands) {
+            if (b.deflater != null) {
+                b.deflater.setLevel(level);
+                b.deflater.setStrategy(strategy);
+            }
+        }
+    }
+
+    public void dispose() {
+        for (Band b : bands) {
+            if (b.deflater != null) {
+                b.deflater.end();
+                b.deflater = null;
+            }
+        }
+    }
+
+    /** Encodes a 24-bit frame.
+     *
+     * @param out The output stream.
+     * @param data The image data.
+     * @param prev The image data of the previous frame, or null for a key
+     * frame.
+     * @param offset The offset to the first pixel in the data array.
+     * @param width The width of the image in data elements.
+     * @param scanlineStride The number to add to offset to get to the next scanline.
+     * @param tileSize The tile size of delta frames, or 0 to compare pixel
+     * by pixel.
+     */
+    public void encode24(OutputStream out, final int[] data, final int[] prev, final int width, final int height,
+            final int offset, final int scanlineStride, final int tileSize) throws IOException {
+        // Bands start on a tile boundary
+        int unit = prev != null && tileSize > 0 ? tileSize : 1;
+        int bandHeight = ((height + bands.length - 1) / bands.length + unit - 1) / unit * unit;
+        for (int i = 0; i < bands.length; i++) {
+            bands[i].rowFrom = Math.min(height, i * bandHeight);
+            bands[i].rowTo = Math.min(height, (i + 1) * bandHeight);
+        }
+
+        // Run length encode the bands
+        for (int i = 1; i < bands.length; i++) {
+            final Band b = bands[i];
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws IOException {
+                    b.core.encodeBand24(data, prev, width, height, offset, scanlineStride, tileSize, b.rowFrom, b.rowTo);
+                    return null;
+                }
+            }));
+        }
+        bands[0].core.encodeBand24(data, prev, width, height, offset, scanlineStride, tileSize, bands[0].rowFrom, bands[0].rowTo);
+        awaitBands();
+
+        int length = 0;
+        for (Band b : bands) {
+            length += b.core.getBandLength();
+        }
+        if (prev != null && length == 2) {
+            // => nothing changed, write the end of bitmap op-code uncompressed
+            out.write(bands[0].core.getBandBuffer(), 0, 2);
+            return;
+        }
+
+        // Compress the bands. The bottom band comes first in the stream, and
+        // each band uses the band below as dictionary.
+        for (int i = 1; i < bands.length; i++) {
+            final Band b = bands[i];
+            final Band below = i + 1 < bands.length ? bands[i + 1] : null;
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws IOException {
+                    deflateBand(b, below, false);
+                    return null;
+                }
+            }));
+        }
+        deflateBand(bands[0], bands.length > 1 ? bands[1] : null, true);
+        awaitBands();
+
+        // Stitch the bands into a zlib stream
+        out.write(0x78);
+        out.write(zlibFlags(compressionLevel));
+        adler.reset();
+        for (int i = bands.length - 1; i >= 0; i--) {
+            Band b = bands[i];
+            adler.update(b.core.getBandBuffer(), 0, b.core.getBandLength());
+            out.write(b.deflated, 0, b.deflatedLength);
+        }
+        int checksum = (int) adler.getValue();
+        out.write(checksum >>> 24);
+        out.write(checksum >>> 16);
+        out.write(checksum >>> 8);
+        out.write(checksum);
+    }
+
+    /** Waits until the submitted band tasks are done. */
+    private void awaitBands() throws IOException {
+        Throwable error = null;
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (ExecutionException ex) {
+                error = ex.getCause();
+            } catch (InterruptedException ex) {
+                error = ex;
+            }
+        }
+        futures.clear();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            IOException ioe = new IOException("Band encoding failed");
+            ioe.initCause(error);
+            throw ioe;
+        }
+    }
+
+    /** Compresses a band, with the end of the band below as dictionary.
+     * The last band of the stream is finished, the others are flushed. */
+    private void deflateBand(Band b, Band below, boolean last) throws IOException {
+        if (b.deflater == null) {
+            b.deflater = new Deflater(compressionLevel, true);
+            b.deflater.setStrategy(compressionStrategy);
+        } else {
+            b.deflater.reset();
+        }
+        Deflater d = b.deflater;
+        if (below != null && below.core.getBandLength() > 0) {
+            int len = Math.min(DICTIONARY_SIZE, below.core.getBandLength());
+            d.setDictionary(below.core.getBandBuffer(), below.core.getBandLength() - len, len);
+        }
+        d.setInput(b.core.getBandBuffer(), 0, b.core.getBandLength());
+        b.deflatedLength = 0;
+        if (last) {
+            d.finish();
+            while (!d.finished()) {
+                ensureCapacity(b);
+                b.deflatedLength += d.deflate(b.deflated, b.deflatedLength, b.deflated.length - b.deflatedLength);
+            }
+        } else {
+            int len;
+            do {
+                ensureCapacity(b);
+                len = syncFlush(d, b.deflated, b.deflatedLength, b.deflated.length - b.deflatedLength);
+                b.deflatedLength += len;
+            } while (b.deflatedLength == b.deflated.length);
+        }
+    }
+
+    private static void ensureCapacity(Band b) {
+        if (b.deflatedLength == b.deflated.length) {
+            byte[] newBuf = new byte[b.deflated.length * 2];
+            System.arraycopy(b.deflated, 0, newBuf, 0, b.deflatedLength);
+            b.deflated = newBuf;
+        }
+    }
+
+    private static int syncFlush(Deflater d, byte[] buf, int off, int len) throws IOException {
+        try {
+            return (Integer) deflateWithFlush.invoke(d, buf, off, len, SYNC_FLUSH);
+        } catch (IllegalAccessException ex) {
+            throw new IOException(ex.toString());
+        } catch (InvocationTargetException ex) {
+            throw new IOException(ex.getCause().toString());
+        }
+    }
+
+    /** Returns the second byte of the zlib header, for a 32K window. */
+    private static int zlibFlags(int level) {
+        int flevel;
+        if (level == Deflater.DEFAULT_COMPRESSION || level == 6) {
+            flevel = 2;
+        } else if (level < 2) {
+            flevel = 0;
+        } else if (level < 6) {
+            flevel = 1;
+        } else {
+            flevel = 3;
+        }
+        int flg = flevel << 6;
+        return flg + (31 - (0x78 * 256 + flg) % 31) % 31;
+    }
+}
@@ -28,6 +28,7 @@ import org.monte.media.Buffer;
 import org.monte.media.io.SeekableByteArrayOutputStream;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.zip.Deflater;
 import org.monte.media.BufferFlag;
 import static org.monte.media.VideoFormatKeys.*;
 import static org.monte.media.BufferFlag.*;
@@ -169,6 +170,9 @@ public class TechSmithCodec extends AbstractVideoCodec {
 
     @Override
     public void reset() {
+        if (state != null) {
+            state.dispose();
+        }
         state = null;
         frameCounter = 0;
     }
@@ -317,6 +321,10 @@ public class TechSmithCodec extends AbstractVideoCodec {
             return CODEC_OK;
         }
 
+        state.setCompression(outputFormat.get(CompressionLevelKey, Deflater.DEFAULT_COMPRESSION),
+                outputFormat.get(CompressionStrategyKey, Deflater.DEFAULT_STRATEGY));
+        state.setEncoderThreads(outputFormat.get(EncoderThreadsKey, 1));
+
         SeekableByteArrayOutputStream tmp;
         if (out.data instanceof byte[]) {
             tmp = new SeekableByteArrayOutputStream((byte[]) out.data);
@@ -410,6 +418,8 @@ public class TechSmithCodec extends AbstractVideoCodec {
                     } else {
                         if (in.isFlag(SAME_DATA)) {
                             state.encodeSameDelta24(tmp, pixels, (int[]) previousPixels, outputFormat.get(WidthKey), outputFormat.get(HeightKey), offset, scanlineStride);
+                        } else if (outputFormat.get(TileSizeKey, 0) > 0) {
+                            state.encodeTiledDelta24(tmp, pixels, (int[]) previousPixels, outputFormat.get(WidthKey), outputFormat.get(HeightKey), offset, scanlineStride, outputFormat.get(TileSizeKey));
                         } else {
                             state.encodeDelta24(tmp, pixels, (int[]) previousPixels, outputFormat.get(WidthKey), outputFormat.get(HeightKey), offset, scanlineStride);
                         }
@@ -11,7 +11,7 @@
 package org.monte.media.avi;
 
 import java.util.zip.InflaterInputStream;
-import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Deflater;
 import org.monte.media.io.UncachedImageInputStream;
 import java.io.ByteArrayInputStream;
 import org.monte.media.AbstractVideoCodecCore;
@@ -20,6 +20,7 @@ import org.monte.media.io.ByteArrayImageOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import static java.lang.Math.*;
 
 /**
@@ -169,6 +170,15 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
     private ByteArrayImageOutputStream temp = new ByteArrayImageOutputStream(ByteOrder.LITTLE_ENDIAN);
     private byte[] temp2;
     private int[] palette;
+    private boolean[] dirtyTiles;
+    /** Compresses the frames. Created on first use, and reused for all
+     * frames, so that we don't hold a native zlib stream per frame. */
+    private Deflater deflater;
+    private byte[] deflateBuffer;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionStrategy = Deflater.DEFAULT_STRATEGY;
+    /** Encodes 24-bit frames in parallel bands, if enabled. */
+    private TechSmithBandEncoder bandEncoder;
 
     public TechSmithCodecCore() {
         reset();
@@ -178,6 +188,139 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         palette = null;
     }
 
+    /**
+     * Sets the zlib compression level and strategy of the encoder.
+     *
+     * @param level A level from {@code Deflater.NO_COMPRESSION} to
+     * {@code Deflater.BEST_COMPRESSION}, or
+     * {@code Deflater.DEFAULT_COMPRESSION}.
+     * @param strategy {@code Deflater.DEFAULT_STRATEGY},
+     * {@code Deflater.FILTERED} or {@code Deflater.HUFFMAN_ONLY}.
+     */
+    public void setCompression(int level, int strategy) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Illegal compression level:" + level);
+        }
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("Illegal compression strategy:" + strategy);
+        }
+        compressionLevel = level;
+        compressionStrategy = strategy;
+        if (deflater != null) {
+            deflater.setLevel(level);
+            deflater.setStrategy(strategy);
+        }
+        if (bandEncoder != null) {
+            bandEncoder.setCompression(level, strategy);
+        }
+    }
+
+    /**
+     * Sets the number of threads which encode a 24-bit frame. With more than
+     * one thread, the frame is split into horizontal bands, which are run
+     * length encoded and compressed in parallel, and then stitched into
+     * a single TSCC frame.
+     * <p>
+     * Parallel encoding needs Java 7. On older VMs, and with 1 thread, the
+     * frames are encoded on the calling thread.
+     *
+     * @param threads The number of threads.
+     */
+    public void setEncoderThreads(int threads) {
+        if (threads > 1 && TechSmithBandEncoder.isAvailable()) {
+            if (bandEncoder == null || bandEncoder.getBandCount() != threads) {
+                if (bandEncoder != null) {
+                    bandEncoder.dispose();
+                }
+                bandEncoder = new TechSmithBandEncoder(threads);
+                bandEncoder.setCompression(compressionLevel, compressionStrategy);
+            }
+        } else if (bandEncoder != null) {
+            bandEncoder.dispose();
+            bandEncoder = null;
+        }
+    }
+
+    /**
+     * Releases the native resources of the encoder. The core can still be
+     * used afterwards.
+     */
+    public void dispose() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (bandEncoder != null) {
+            bandEncoder.dispose();
+            bandEncoder = null;
+        }
+    }
+
+    /**
+     * Encodes the rows {@code rowFrom} to {@code rowTo} (exclusive) of a
+     * 24-bit frame into the temp stream, as one band of a frame which is
+     * encoded in parallel. The band ends at the beginning of the band above,
+     * or with the end of bitmap op-code, if it is the top band.
+     *
+     * @param prev The previous frame, or null for a key frame.
+     * @param tileSize The tile size, or 0 to compare pixel by pixel.
+     */
+    void encodeBand24(int[] data, int[] prev, int width, int height, int offset, int scanlineStride, int tileSize, int rowFrom, int rowTo)
+            throws IOException {
+        temp.clear();temp.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        int verticalOffset;
+        if (prev == null) {
+            encodeKey24Rows(data, width, offset, scanlineStride, rowFrom, rowTo);
+            verticalOffset = 0;
+        } else if (tileSize > 0) {
+            verticalOffset = encodeTiledDelta24Rows(data, prev, width, height, offset, scanlineStride, tileSize, rowFrom, rowTo);
+        } else {
+            verticalOffset = encodeDelta24Rows(data, prev, width, offset, scanlineStride, rowFrom, rowTo);
+        }
+        if (rowFrom == 0) {
+            temp.write(0); // Escape code
+            temp.write(0x01);// End of bitmap
+        } else {
+            while (verticalOffset > 0) {
+                temp.write(0x00); // Escape code
+                temp.write(0x02); // Skip OP-code
+                temp.write(0); // horizontal offset
+                temp.write(min(255, verticalOffset)); // vertical offset
+                verticalOffset -= min(255, verticalOffset);
+            }
+        }
+    }
+
+    /** Returns the buffer holding the band encoded by {@link #encodeBand24}. */
+    byte[] getBandBuffer() {
+        return temp.getBuffer();
+    }
+
+    /** Returns the length of the band encoded by {@link #encodeBand24}. */
+    int getBandLength() {
+        return (int) temp.length();
+    }
+
+    /**
+     * Writes the content of the temp stream to the output stream, compressed
+     * with zlib.
+     */
+    private void deflate(OutputStream out) throws IOException {
+        if (deflater == null) {
+            deflater = new Deflater(compressionLevel);
+            deflater.setStrategy(compressionStrategy);
+            deflateBuffer = new byte[8192];
+        } else {
+            deflater.reset();
+        }
+        deflater.setInput(temp.getBuffer(), 0, (int) temp.length());
+        deflater.finish();
+        while (!deflater.finished()) {
+            int len = deflater.deflate(deflateBuffer);
+            out.write(deflateBuffer, 0, len);
+        }
+    }
+
     public int[] getPalette() {
         if (palette == null) {
             palette = new int[256];
@@ -661,9 +804,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         if (temp.length() == 2) {
             temp.toOutputStream(out);
         } else {
-            DeflaterOutputStream defl = new DeflaterOutputStream(out);
-            temp.toOutputStream(defl);
-            defl.finish();
+            deflate(out);
         }
     }
 
@@ -805,9 +946,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         if (temp.length() == 2) {
             temp.toOutputStream(out);
         } else {
-            DeflaterOutputStream defl = new DeflaterOutputStream(out);
-            temp.toOutputStream(defl);
-            defl.finish();
+            deflate(out);
         }
     }
 
@@ -976,9 +1115,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         temp.write(0x0001);// End of bitmap
         //temp.toOutputStream(out);
 
-        DeflaterOutputStream defl = new DeflaterOutputStream(out);
-        temp.toOutputStream(defl);
-        defl.finish();
+        deflate(out);
     }
 
     /** Encodes a 8-bit key frame with indexed colors to 24-bit.
@@ -1076,9 +1213,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         temp.write(0x0001);// End of bitmap
         //temp.toOutputStream(out);
 
-        DeflaterOutputStream defl = new DeflaterOutputStream(out);
-        temp.toOutputStream(defl);
-        defl.finish();
+        deflate(out);
     }
 
     /** Encodes a 16-bit delta frame.
@@ -1210,9 +1345,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         if (temp.length() == 2) {
             temp.toOutputStream(out);
         } else {
-            DeflaterOutputStream defl = new DeflaterOutputStream(out);
-            temp.toOutputStream(defl);
-            defl.finish();
+            deflate(out);
         }
     }
 
@@ -1226,13 +1359,26 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
      */
     public void encodeKey24(OutputStream out, int[] data, int width, int height, int offset, int scanlineStride)
             throws IOException {
+        if (bandEncoder != null) {
+            bandEncoder.encode24(out, data, null, width, height, offset, scanlineStride, 0);
+            return;
+        }
         temp.clear();temp.setByteOrder(ByteOrder.LITTLE_ENDIAN);
-        int ymax = offset + height * scanlineStride;
-        int upsideDown = ymax - scanlineStride + offset;
+        encodeKey24Rows(data, width, offset, scanlineStride, 0, height);
+        temp.write(0);
+        temp.write(0x0001);// End of bitmap
+        //temp.toOutputStream(out);
 
+        deflate(out);
+    }
+
+    /** Encodes the rows {@code rowFrom} to {@code rowTo} (exclusive) of a
+     * 24-bit key frame into the temp stream, bottom up. */
+    private void encodeKey24Rows(int[] data, int width, int offset, int scanlineStride, int rowFrom, int rowTo)
+            throws IOException {
         // Encode each scanline separately
-        for (int y = offset; y < ymax; y += scanlineStride) {
-            int xy = upsideDown - y;
+        for (int r = rowTo - 1; r >= rowFrom; --r) {
+            int xy = offset + r * scanlineStride;
             int xymax = xy + width;
 
             int literalCount = 0;
@@ -1298,13 +1444,6 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             temp.write(0);
             temp.write(0x0000);// End of line
         }
-        temp.write(0);
-        temp.write(0x0001);// End of bitmap
-        //temp.toOutputStream(out);
-
-        DeflaterOutputStream defl = new DeflaterOutputStream(out);
-        temp.toOutputStream(defl);
-        defl.finish();
     }
 
     /** Encodes a 24-bit delta frame.
@@ -1318,17 +1457,37 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
      */
     public void encodeDelta24(OutputStream out, int[] data, int[] prev, int width, int height, int offset, int scanlineStride)
             throws IOException {
+        if (bandEncoder != null) {
+            bandEncoder.encode24(out, data, prev, width, height, offset, scanlineStride, 0);
+            return;
+        }
 
         temp.clear();temp.setByteOrder(ByteOrder.LITTLE_ENDIAN);
 
-        int ymax = offset + height * scanlineStride;
-        int upsideDown = ymax - scanlineStride + offset;
+        encodeDelta24Rows(data, prev, width, offset, scanlineStride, 0, height);
 
+        temp.write(0); // Escape code
+        temp.write(0x01);// End of bitmap
+
+        if (temp.length() == 2) {
+            temp.toOutputStream(out);
+        } else {
+            deflate(out);
+        }
+    }
+
+    /** Encodes the rows {@code rowFrom} to {@code rowTo} (exclusive) of a
+     * 24-bit delta frame into the temp stream, bottom up.
+     *
+     * @return The number of unchanged rows at the end, which have not
+     * been skipped yet.
+     */
+    private int encodeDelta24Rows(int[] data, int[] prev, int width, int offset, int scanlineStride, int rowFrom, int rowTo)
+            throws IOException {
         // Encode each scanline
         int verticalOffset = 0;
-        ScanlineLoop:
-        for (int y = offset; y < ymax; y += scanlineStride) {
-            int xy = upsideDown - y;
+        for (int r = rowTo - 1; r >= rowFrom; --r) {
+            int xy = offset + r * scanlineStride;
             int xymax = xy + width;
 
             // determine skip count
@@ -1435,6 +1594,35 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
             temp.write(0); // Escape code
             temp.write(0x00); // End of line OP-code
         }
+        return verticalOffset;
+    }
+
+    /** Encodes a 24-bit delta frame, comparing the frames in square tiles
+     * instead of pixel by pixel.
+     * <p>
+     * Tiles which did not change are skipped as a whole, without looking
+     * at their pixels again. Screen captures usually only change in a few
+     * small regions, so most of the frame is never encoded. The result is a
+     * regular TSCC stream which can be read by any decoder.
+     *
+     * @param out The output stream.
+     * @param data The image data.
+     * @param prev The image data of the previous frame.
+     * @param offset The offset to the first pixel in the data array.
+     * @param width The width of the image in data elements.
+     * @param scanlineStride The number to add to offset to get to the next scanline.
+     * @param tileSize The width and height of a tile in pixels.
+     */
+    public void encodeTiledDelta24(OutputStream out, int[] data, int[] prev, int width, int height, int offset, int scanlineStride, int tileSize)
+            throws IOException {
+        if (bandEncoder != null) {
+            bandEncoder.encode24(out, data, prev, width, height, offset, scanlineStride, tileSize);
+            return;
+        }
+
+        temp.clear();temp.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+
+        encodeTiledDelta24Rows(data, prev, width, height, offset, scanlineStride, tileSize, 0, height);
 
         temp.write(0); // Escape code
         temp.write(0x01);// End of bitmap
@@ -1442,10 +1630,188 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         if (temp.length() == 2) {
             temp.toOutputStream(out);
         } else {
-            DeflaterOutputStream defl = new DeflaterOutputStream(out);
-            temp.toOutputStream(defl);
-            defl.finish();
+            deflate(out);
+        }
+    }
+
+    /** Encodes the rows {@code rowFrom} to {@code rowTo} (exclusive) of a
+     * 24-bit delta frame into the temp stream, bottom up, comparing the
+     * frames in square tiles.
+     *
+     * @return The number of unchanged rows at the end, which have not
+     * been skipped yet.
+     */
+    private int encodeTiledDelta24Rows(int[] data, int[] prev, int width, int height, int offset, int scanlineStride, int tileSize, int rowFrom, int rowTo)
+            throws IOException {
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        if (dirtyTiles == null || dirtyTiles.length < tilesX * tilesY) {
+            dirtyTiles = new boolean[tilesX * tilesY];
+        }
+        boolean[] dirty = dirtyTiles;
+
+        // Determine the dirty tiles. We stop comparing a tile at its first
+        // changed pixel.
+        int tyFrom = rowFrom / tileSize;
+        int tyTo = (rowTo + tileSize - 1) / tileSize;
+        for (int ty = tyFrom; ty < tyTo; ty++) {
+            int rowTiles = ty * tilesX;
+            Arrays.fill(dirty, rowTiles, rowTiles + tilesX, false);
+            int dirtyCount = 0;
+            int rmax = min(height, (ty + 1) * tileSize);
+            for (int r = ty * tileSize; r < rmax && dirtyCount < tilesX; r++) {
+                int line = offset + r * scanlineStride;
+                for (int tx = 0; tx < tilesX; tx++) {
+                    if (dirty[rowTiles + tx]) {
+                        continue;
+                    }
+                    int xymax = line + min(width, (tx + 1) * tileSize);
+                    for (int xy = line + tx * tileSize; xy < xymax; ++xy) {
+                        if (data[xy] != prev[xy]) {
+                            dirty[rowTiles + tx] = true;
+                            dirtyCount++;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        // Encode each scanline, bottom up
+        int verticalOffset = 0;
+        for (int r = rowTo - 1; r >= rowFrom; --r) {
+            int rowTiles = (r / tileSize) * tilesX;
+            int line = offset + r * scanlineStride;
+            int x = 0;
+            boolean isLineDirty = false;
+            for (int tx = 0; tx < tilesX;) {
+                if (!dirty[rowTiles + tx]) {
+                    ++tx;
+                    continue;
+                }
+                // => write the run of dirty tiles starting here
+                int spanStart = tx * tileSize;
+                while (tx < tilesX && dirty[rowTiles + tx]) {
+                    ++tx;
+                }
+                int spanEnd = min(width, tx * tileSize);
+
+                int xy = line + spanStart;
+                int xymax = line + spanEnd;
+                while (xy < xymax && data[xy] == prev[xy]) {
+                    ++xy;
+                }
+                if (xy == xymax) {
+                    // => this line of the tiles did not change
+                    continue;
+                }
+                int skipCount = xy - line - x;
+                while (verticalOffset > 0 || skipCount > 0) {
+                    temp.write(0x00); // Escape code
+                    temp.write(0x02); // Skip OP-code
+                    temp.write(min(255, skipCount)); // horizontal offset
+                    temp.write(min(255, verticalOffset)); // vertical offset
+                    skipCount -= min(255, skipCount);
+                    verticalOffset -= min(255, verticalOffset);
+                }
+                x = spanEnd - writeDeltaRuns24(data, prev, xy, xymax);
+                isLineDirty = true;
+            }
+            if (!isLineDirty) {
+                // => the entire line can be skipped
+                ++verticalOffset;
+                continue;
+            }
+
+            temp.write(0); // Escape code
+            temp.write(0x00); // End of line OP-code
+        }
+        return verticalOffset;
+    }
+
+    /** Writes the pixels from {@code xy} to {@code xymax} with skip, repeat
+     * and literal op-codes into the temp stream. The first pixel must differ
+     * from the previous frame.
+     *
+     * @return The number of unchanged pixels at the end of the run, which
+     * have not been written.
+     */
+    private int writeDeltaRuns24(int[] data, int[] prev, int xy, int xymax) throws IOException {
+        int literalCount = 0;
+        int repeatCount = 0;
+        int skipCount = 0;
+        int trailingCount = 0;
+        for (; xy < xymax; ++xy) {
+            // determine skip count
+            for (skipCount = 0; xy < xymax; ++xy, ++skipCount) {
+                if (data[xy] != prev[xy]) {
+                    break;
+                }
+            }
+            xy -= skipCount;
+
+            // determine repeat count
+            int v = data[xy];
+            for (repeatCount = 0; xy < xymax && repeatCount < 255; ++xy, ++repeatCount) {
+                if (data[xy] != v) {
+                    break;
+                }
+            }
+            xy -= repeatCount;
+
+            if (skipCount < 4 && xy + skipCount < xymax && repeatCount < 3) {
+                literalCount++;
+            } else {
+                while (literalCount > 0) {
+                    if (literalCount < 3) {
+                        temp.write(1); // Repeat OP-code
+                        writeInt24LE(temp, data[xy - literalCount]);
+                        literalCount--;
+                    } else {
+                        int literalRun = min(254, literalCount);
+                        temp.write(0);
+                        temp.write(literalRun); // Literal OP-code
+                        writeInts24LE(temp, data, xy - literalCount, literalRun);
+                        literalCount -= literalRun;
+                    }
+                }
+                if (xy + skipCount == xymax) {
+                    // => leave the skip to the caller
+                    trailingCount = skipCount;
+                    xy += skipCount - 1;
+                } else if (skipCount >= repeatCount) {
+                    while (skipCount > 0) {
+                        temp.write(0);
+                        temp.write(0x0002); // Skip OP-code
+                        temp.write(min(255, skipCount));
+                        temp.write(0);
+                        xy += min(255, skipCount);
+                        skipCount -= min(255, skipCount);
+                    }
+                    xy -= 1;
+                } else {
+                    temp.write(repeatCount); // Repeat OP-code
+                    writeInt24LE(temp, v);
+                    xy += repeatCount - 1;
+                }
+            }
+        }
+
+        // flush literal run
+        while (literalCount > 0) {
+            if (literalCount < 3) {
+                temp.write(1); // Repeat OP-code
+                writeInt24LE(temp, data[xy - literalCount]);
+                literalCount--;
+            } else {
+                int literalRun = min(254, literalCount);
+                temp.write(0);
+                temp.write(literalRun); // Literal OP-code
+                writeInts24LE(temp, data, xy - literalCount, literalRun);
+                literalCount -= literalRun;
+            }
         }
+        return trailingCount;
     }
 
     /** Encodes a 16-bit key frame.
@@ -1534,9 +1900,7 @@ public class TechSmithCodecCore extends AbstractVideoCodecCore {
         temp.write(0x0001);// End of bitmap
         //temp.toOutputStream(out);
 
-        DeflaterOutputStream defl = new DeflaterOutputStream(out);
-        temp.toOutputStream(defl);
-        defl.finish();
+        deflate(out);
     }
 
     public void setPalette(byte[] redValues, byte[] greenValues, byte[] blueValues) {
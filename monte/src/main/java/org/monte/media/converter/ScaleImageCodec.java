@@ -83,7 +83,8 @@ public class ScaleImageCodec extends AbstractVideoCodec {
         }
         Graphics2D g = imgOut.createGraphics();
         g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-        g.drawImage(imgIn, 0, 0, imgOut.getWidth() - 1, imgOut.getHeight() - 1, 0, 0, imgIn.getWidth() - 1, imgIn.getHeight() - 1, null);
+        // the second corners are exclusive
+        g.drawImage(imgIn, 0, 0, imgOut.getWidth(), imgOut.getHeight(), 0, 0, imgIn.getWidth(), imgIn.getHeight(), null);
         g.dispose();
 
         out.data = imgOut;
@@ -332,5 +332,7 @@ public class ByteArrayImageOutputStream extends ImageOutputStreamImpl {
     public synchronized void clear() {
 	count = arrayOffset;
         streamPos=arrayOffset;
+        flushedPos=0;
+        bitOffset=0;
     }
 }
@@ -0,0 +1,80 @@
+/*
+ * @(#)ByteBufferImageInputStream.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@code ByteBufferImageInputStream} reads the bytes between the position
+ * and the limit of a {@code ByteBuffer}, for example a slice of a memory
+ * mapped file, without copying them first.
+ * <p>
+ * The position and limit of the {@code ByteBuffer} are not changed.
+ * Closing a {@code ByteBufferImageInputStream} has no effect.
+ *
+ * @version $Id$
+ */
+public class ByteBufferImageInputStream extends ImageInputStreamImpl2 {
+
+    private final ByteBuffer buf;
+
+    public ByteBufferImageInputStream(ByteBuffer buf) {
+        this(buf, ByteOrder.BIG_ENDIAN);
+    }
+
+    public ByteBufferImageInputStream(ByteBuffer buf, ByteOrder byteOrder) {
+        this.buf = buf.slice();
+        this.byteOrder = byteOrder;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        return (streamPos < buf.limit()) ? (buf.get((int) (streamPos++)) & 0xff) : -1;
+    }
+
+    @Override
+    public synchronized int read(byte b[], int off, int len) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (streamPos >= buf.limit()) {
+            return -1;
+        }
+        if (streamPos + len > buf.limit()) {
+            len = (int) (buf.limit() - streamPos);
+        }
+        if (len <= 0) {
+            return 0;
+        }
+        ByteBuffer src = buf.duplicate();
+        src.position((int) streamPos);
+        src.get(b, off, len);
+        streamPos += len;
+        return len;
+    }
+
+    @Override
+    public long length() {
+        return buf.limit();
+    }
+
+    /**
+     * Closing a {@code ByteBufferImageInputStream} has no effect.
+     */
+    @Override
+    public void close() {
+        // does nothing
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * @(#)MappedFile.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Maps a file into memory, read-only, and hands out slices of it.
+ * <p>
+ * A {@code MappedByteBuffer} can not be larger than 2 GB, so the file is
+ * mapped in segments, when they are first needed. The segments overlap, so
+ * that a range of bytes which is smaller than the overlap can always be found
+ * in a single segment. A range which spans two segments, and is larger than
+ * the overlap, can not be sliced.
+ * <p>
+ * The slices share the memory of the mapping: reading them does not copy
+ * the data. The mapping is released by the garbage collector, once the
+ * slices are not used anymore. They must not be used after the file has been
+ * closed.
+ *
+ * @version $Id$
+ */
+public class MappedFile {
+
+    /**
+     * The distance between the starts of two segments.
+     */
+    private final static long SEGMENT_SIZE = 1L << 30;
+    /**
+     * The overlap of two segments.
+     */
+    private final static long SEGMENT_OVERLAP = 1L << 26;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long length;
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Opens the file. The segments are mapped when they are first needed.
+     *
+     * @param file The file.
+     */
+    public MappedFile(File file) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        length = channel.size();
+        segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+    }
+
+    /**
+     * Returns the length of the file.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Returns a read-only slice of the file.
+     *
+     * @param offset The offset of the slice in the file.
+     * @param length The length of the slice.
+     * @return The slice, with position 0 and limit {@code length}, or null if
+     * the range can not be sliced, because it spans two segments.
+     * @throws IOException if the range is not inside of the file, or if the
+     * segment can not be mapped.
+     */
+    public ByteBuffer slice(long offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IOException("Range " + offset + ".." + (offset + length) + " is not inside of the file of length " + this.length);
+        }
+        int index = (int) (offset / SEGMENT_SIZE);
+        if (index == segments.length) {
+            // Empty range at the end of the file
+            return ByteBuffer.allocate(0);
+        }
+        long start = index * SEGMENT_SIZE;
+        if (offset + length > start + SEGMENT_SIZE + SEGMENT_OVERLAP) {
+            return null;
+        }
+        ByteBuffer b = getSegment(index).duplicate();
+        b.position((int) (offset - start));
+        b.limit((int) (offset - start) + length);
+        return b.slice();
+    }
+
+    private synchronized MappedByteBuffer getSegment(int index) throws IOException {
+        if (segments[index] == null) {
+            long start = index * SEGMENT_SIZE;
+            long size = Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, length - start);
+            segments[index] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        }
+        return segments[index];
+    }
+
+    /**
+     * Closes the file.
+     */
+    public void close() throws IOException {
+        raf.close();
+    }
+}
@@ -11,13 +11,18 @@
 package org.monte.media.jpeg;
 
 import org.monte.media.io.ByteArrayImageInputStream;
+import org.monte.media.io.ByteBufferImageInputStream;
+import org.monte.media.io.ImageInputStreamImpl2;
 import javax.imageio.ImageReader;
 import org.monte.media.Format;
 import org.monte.media.AbstractVideoCodec;
 import org.monte.media.Buffer;
 import org.monte.media.io.ByteArrayImageOutputStream;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageWriteParam;
@@ -33,6 +38,8 @@ import static org.monte.media.BufferFlag.*;
  * {@code VideoFormat} with {@code BufferedImage.class}, any width, any height,
  * any depth.
  * </ul>
+ * When decoding, the input data can also be a {@code ByteBuffer}, for example
+ * a slice of a memory mapped file.
  * Supported output formats:
  * <ul>
  * {@code VideoFormat} with {@code byte[].class}, same width and height as input
@@ -44,6 +51,15 @@ import static org.monte.media.BufferFlag.*;
  */
 public class JPEGCodec extends AbstractVideoCodec {
 
+    /** The image writer, reused for all frames. */
+    private ImageWriter writer;
+    private ImageWriteParam writeParam;
+    private IIOImage writeImage;
+    /** The stream the frames are written into, reused for all frames. */
+    private ByteArrayImageOutputStream tmp;
+    /** Int RGB frames are converted into this image before they are written. */
+    private BufferedImage bgrImage;
+
     public JPEGCodec() {
         super(new Format[]{
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
@@ -55,6 +71,14 @@ public class JPEGCodec extends AbstractVideoCodec {
                     //
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI,
                     EncodingKey, ENCODING_AVI_MJPG, DataClassKey, byte[].class, DepthKey, 24), //
+                    //
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_QUICKTIME,
+                    EncodingKey, ENCODING_QUICKTIME_JPEG,//
+                    CompressorNameKey, COMPRESSOR_NAME_QUICKTIME_JPEG, //
+                    DataClassKey, ByteBuffer.class, DepthKey, 24), //
+                    //
+                    new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_AVI,
+                    EncodingKey, ENCODING_AVI_MJPG, DataClassKey, ByteBuffer.class, DepthKey, 24), //
                 },
                 new Format[]{
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
@@ -91,49 +115,95 @@ public class JPEGCodec extends AbstractVideoCodec {
             out.setFlag(DISCARD);
             return CODEC_FAILED;
         }
-        ByteArrayImageOutputStream tmp;
-        if (out.data instanceof byte[]) {
-            tmp = new ByteArrayImageOutputStream((byte[]) out.data);
-        } else {
-            tmp = new ByteArrayImageOutputStream();
-        }
-
         try {
-            ImageWriter iw = ImageIO.getImageWritersByMIMEType("image/jpeg").next();
-            ImageWriteParam iwParam = iw.getDefaultWriteParam();
-            iwParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            if (writer == null) {
+                writer = ImageIO.getImageWritersByMIMEType("image/jpeg").next();
+                writeParam = writer.getDefaultWriteParam();
+                writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                writeImage = new IIOImage(image, null, null);
+                tmp = new ByteArrayImageOutputStream();
+            }
             float quality = outputFormat.get(QualityKey, 1f);
-            iwParam.setCompressionQuality(quality);
-            iw.setOutput(tmp);
-            IIOImage img = new IIOImage(image, null, null);
-            iw.write(null, img, iwParam);
-            iw.dispose();
+            writeParam.setCompressionQuality(quality);
+            writeImage.setRenderedImage(toBGR(image));
+            tmp.clear();
+            writer.setOutput(tmp);
+            writer.write(null, writeImage, writeParam);
 
             out.sampleCount = 1;
             out.setFlag(KEYFRAME);
-            out.data = tmp.getBuffer();
-            out.offset = 0;
-            out.length = (int) tmp.getStreamPosition();
+            copyToBuffer(tmp, out);
             return CODEC_OK;
         } catch (IOException ex) {
             ex.printStackTrace();
+            disposeWriter();
             out.setFlag(DISCARD);
             return CODEC_FAILED;
         }
     }
 
+    /** Converts int RGB images (screen captures) to 3-byte BGR. The JPEG
+     * writer reads 3-byte BGR rasters as they are, but makes several copies
+     * of int RGB rasters, which is slower and allocates about four times
+     * as much memory per frame.
+     */
+    private BufferedImage toBGR(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_INT_BGR) {
+            return image;
+        }
+        if (bgrImage == null || bgrImage.getWidth() != image.getWidth() || bgrImage.getHeight() != image.getHeight()) {
+            bgrImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        }
+        Graphics2D g = bgrImage.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return bgrImage;
+    }
+
+    /**
+     * Disposes the image writer, and drops the image and the stream used with
+     * it. New ones are created for the next frame.
+     */
+    private void disposeWriter() {
+        if (writer != null) {
+            writer.dispose();
+            writer = null;
+        }
+        writeParam = null;
+        writeImage = null;
+        tmp = null;
+    }
+
+    /**
+     * Releases the image writer and the images of the last frame. Called when
+     * the codec is released to the {@link org.monte.media.Registry}, which
+     * keeps it for reuse.
+     */
+    @Override
+    public void reset() {
+        disposeWriter();
+        bgrImage = null;
+    }
+
     public int decode(Buffer in, Buffer out) {
         out.setMetaTo(in);
         out.format = outputFormat;
         if (in.isFlag(DISCARD)) {
             return CODEC_OK;
         }
-        byte[] data = (byte[]) in.data;
-        if (data == null) {
+        ImageInputStreamImpl2 tmp;
+        if (in.data instanceof byte[]) {
+            tmp = new ByteArrayImageInputStream((byte[]) in.data, in.offset, in.length, ByteOrder.BIG_ENDIAN);
+        } else if (in.data instanceof ByteBuffer) {
+            // A slice of a memory mapped file: the image is read in place
+            tmp = new ByteBufferImageInputStream((ByteBuffer) in.data);
+        } else {
             out.setFlag(DISCARD);
             return CODEC_FAILED;
         }
-        ByteArrayImageInputStream tmp = new ByteArrayImageInputStream(data);
 
         try {
             // ImageReader ir = (ImageReader) ImageIO.getImageReadersByMIMEType("image/jpeg").next();
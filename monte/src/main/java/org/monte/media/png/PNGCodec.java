@@ -42,6 +42,13 @@ import static org.monte.media.BufferFlag.*;
  */
 public class PNGCodec extends AbstractVideoCodec {
 
+    /** The image writer, reused for all frames. */
+    private ImageWriter writer;
+    private ImageWriteParam writeParam;
+    private IIOImage writeImage;
+    /** The stream the frames are written into, reused for all frames. */
+    private ByteArrayImageOutputStream tmp;
+
     public PNGCodec() {
         super(new Format[]{
                     new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, MIME_JAVA,
@@ -88,31 +95,51 @@ public class PNGCodec extends AbstractVideoCodec {
             return CODEC_FAILED;
         }
 
-        ByteArrayImageOutputStream tmp;
-        if (out.data instanceof byte[]) {
-            tmp = new ByteArrayImageOutputStream((byte[]) out.data);
-        } else {
-            tmp = new ByteArrayImageOutputStream();
-        }
-
         try {
-            ImageWriter iw = ImageIO.getImageWritersByMIMEType("image/png").next();
-            ImageWriteParam iwParam = iw.getDefaultWriteParam();
-            iw.setOutput(tmp);
-            IIOImage img = new IIOImage(image, null, null);
-            iw.write(null, img, iwParam);
-            iw.dispose();
+            if (writer == null) {
+                writer = ImageIO.getImageWritersByMIMEType("image/png").next();
+                writeParam = writer.getDefaultWriteParam();
+                writeImage = new IIOImage(image, null, null);
+                tmp = new ByteArrayImageOutputStream();
+            }
+            writeImage.setRenderedImage(image);
+            tmp.clear();
+            writer.setOutput(tmp);
+            writer.write(null, writeImage, writeParam);
 
             out.setFlag(KEYFRAME);
             out.header = null;
-            out.data = tmp.getBuffer();
-            out.offset = 0;
-            out.length = (int) tmp.getStreamPosition();
+            copyToBuffer(tmp, out);
             return CODEC_OK;
         } catch (IOException ex) {
             ex.printStackTrace();
+            disposeWriter();
             out.setFlag(DISCARD);
             return CODEC_FAILED;
         }
     }
+
+    /**
+     * Disposes the image writer, and drops the image and the stream used with
+     * it. New ones are created for the next frame.
+     */
+    private void disposeWriter() {
+        if (writer != null) {
+            writer.dispose();
+            writer = null;
+        }
+        writeParam = null;
+        writeImage = null;
+        tmp = null;
+    }
+
+    /**
+     * Releases the image writer and the images of the last frame. Called when
+     * the codec is released to the {@link org.monte.media.Registry}, which
+     * keeps it for reuse.
+     */
+    @Override
+    public void reset() {
+        disposeWriter();
+    }
 }
@@ -16,6 +16,7 @@ import org.monte.media.Codec;
 import org.monte.media.Format;
 import org.monte.media.io.ImageOutputStreamAdapter;
 import org.monte.media.math.Rational;
+import org.monte.media.util.SampleTable;
 import java.awt.image.IndexColorModel;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -114,6 +115,11 @@ public class AbstractQuickTimeStream {
      * The transformation matrix for the entire movie.
      */
     protected double[] movieMatrix = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+    /**
+     * The duration of a movie fragment in movie time scale units, or 0 if the
+     * movie is not fragmented.
+     */
+    protected long fragmentDuration = 0;
 
     /**
      * The states of the movie output stream.
@@ -406,253 +412,10 @@ public class AbstractQuickTimeStream {
     }
 
     /**
-     * Groups consecutive samples with same characteristics.
-     */
-    protected abstract static class Group {
-
-        protected Sample firstSample;
-        protected Sample lastSample;
-        protected long sampleCount;
-        protected final static long maxSampleCount = Integer.MAX_VALUE;
-
-        protected Group(Sample firstSample) {
-            this.firstSample = this.lastSample = firstSample;
-            sampleCount = 1;
-        }
-
-        protected Group(Sample firstSample, Sample lastSample, long sampleCount) {
-            this.firstSample = firstSample;
-            this.lastSample = lastSample;
-            this.sampleCount = sampleCount;
-            if (sampleCount > maxSampleCount) {
-                throw new IllegalArgumentException("Capacity exceeded");
-            }
-        }
-
-        protected Group(Group group) {
-            this.firstSample = group.firstSample;
-            this.lastSample = group.lastSample;
-            sampleCount = group.sampleCount;
-        }
-
-        /**
-         * Returns true, if the samples was added to the group. If false is
-         * returned, the sample must be added to a new group. <p> A sample can
-         * only be added to a group, if the capacity of the group is not
-         * exceeded.
-         */
-        protected boolean maybeAddSample(Sample sample) {
-            if (sampleCount < maxSampleCount) {
-                lastSample = sample;
-                sampleCount++;
-                return true;
-            }
-            return false;
-        }
-
-        /**
-         * Returns true, if the chunk was added to the group. If false is
-         * returned, the chunk must be added to a new group. <p> A chunk can
-         * only be added to a group, if the capacity of the group is not
-         * exceeded.
-         */
-        protected boolean maybeAddChunk(Chunk chunk) {
-            if (sampleCount + chunk.sampleCount <= maxSampleCount) {
-                lastSample = chunk.lastSample;
-                sampleCount += chunk.sampleCount;
-                return true;
-            }
-            return false;
-        }
-
-        public long getSampleCount() {
-            return sampleCount;
-        }
-    }
-
-    /**
-     * QuickTime stores media data in samples. A sample is a single element in a
-     * sequence of time-ordered data. Samples are stored in the mdat atom.
-     */
-    protected static class Sample {
-
-        /**
-         * Offset of the sample relative to the start of the QuickTime file.
-         */
-        long offset;
-        /**
-         * Data length of the sample.
-         */
-        long length;
-        /**
-         * The duration of the sample in media time scale units.
-         */
-        long duration;
-
-        /**
-         * Creates a new sample.
-         *
-         * @param duration
-         * @param offset
-         * @param length
-         */
-        public Sample(long duration, long offset, long length) {
-            this.duration = duration;
-            this.offset = offset;
-            this.length = length;
-        }
-    }
-
-    /**
-     * Groups consecutive smples of the same duration.
-     */
-    protected static class TimeToSampleGroup extends Group {
-
-        public TimeToSampleGroup(Sample firstSample) {
-            super(firstSample);
-        }
-
-        public TimeToSampleGroup(Group group) {
-            super(group);
-        }
-
-        /**
-         * Returns true, if the sample was added to the group. If false is
-         * returned, the sample must be added to a new group. <p> A sample can
-         * only be added to a TimeToSampleGroup, if it has the same duration as
-         * previously added samples, and if the capacity of the group is not
-         * exceeded.
-         */
-        @Override
-        public boolean maybeAddSample(Sample sample) {
-            if (firstSample.duration == sample.duration) {
-                return super.maybeAddSample(sample);
-            }
-            return false;
-        }
-
-        @Override
-        public boolean maybeAddChunk(Chunk chunk) {
-            if (firstSample.duration == chunk.firstSample.duration) {
-                return super.maybeAddChunk(chunk);
-            }
-            return false;
-        }
-
-        /**
-         * Returns the duration that all samples in this group share.
-         */
-        public long getSampleDuration() {
-            return firstSample.duration;
-        }
-    }
-
-    /**
-     * Groups consecutive samples of the same size.
+     * The maximal number of samples in a chunk or in an entry of the
+     * time-to-sample table.
      */
-    protected static class SampleSizeGroup extends Group {
-
-        public SampleSizeGroup(Sample firstSample) {
-            super(firstSample);
-        }
-
-        public SampleSizeGroup(Group group) {
-            super(group);
-        }
-
-        /**
-         * Returns true, if the sample was added to the group. If false is
-         * returned, the sample must be added to a new group. <p> A sample can
-         * only be added to a SampleSizeGroup, if it has the same size as
-         * previously added samples, and if the capacity of the group is not
-         * exceeded.
-         */
-        @Override
-        public boolean maybeAddSample(Sample sample) {
-            if (firstSample.length == sample.length) {
-                return super.maybeAddSample(sample);
-            }
-            return false;
-        }
-
-        @Override
-        public boolean maybeAddChunk(Chunk chunk) {
-            if (firstSample.length == chunk.firstSample.length) {
-                return super.maybeAddChunk(chunk);
-            }
-            return false;
-        }
-
-        /**
-         * Returns the length that all samples in this group share.
-         */
-        public long getSampleLength() {
-            return firstSample.length;
-        }
-    }
-
-    /**
-     * Groups consecutive samples with the same sample description Id and with
-     * adjacent offsets in the movie file.
-     */
-    protected static class Chunk extends Group {
-
-        protected int sampleDescriptionId;
-
-        /**
-         * Creates a new Chunk.
-         *
-         * @param firstSample The first sample contained in this chunk.
-         * @param sampleDescriptionId The description Id of the sample.
-         */
-        public Chunk(Sample firstSample, int sampleDescriptionId) {
-            super(firstSample);
-            this.sampleDescriptionId = sampleDescriptionId;
-        }
-
-        /**
-         * Creates a new Chunk.
-         *
-         * @param firstSample The first sample contained in this chunk.
-         * @param sampleDescriptionId The description Id of the sample.
-         */
-        public Chunk(Sample firstSample, Sample lastSample, int sampleCount, int sampleDescriptionId) {
-            super(firstSample, lastSample, sampleCount);
-            this.sampleDescriptionId = sampleDescriptionId;
-        }
-
-        /**
-         * Returns true, if the sample was added to the chunk. If false is
-         * returned, the sample must be added to a new chunk. <p> A sample can
-         * only be added to a chunk, if it has the same sample description Id as
-         * previously added samples, if the capacity of the chunk is not
-         * exceeded and if the sample offset is adjacent to the last sample in
-         * this chunk.
-         */
-        public boolean maybeAddSample(Sample sample, int sampleDescriptionId) {
-            if (sampleDescriptionId == this.sampleDescriptionId
-                    && lastSample.offset + lastSample.length == sample.offset) {
-                return super.maybeAddSample(sample);
-            }
-            return false;
-        }
-
-        @Override
-        public boolean maybeAddChunk(Chunk chunk) {
-            if (sampleDescriptionId == chunk.sampleDescriptionId //
-                    && lastSample.offset + lastSample.length == chunk.firstSample.offset) {
-                return super.maybeAddChunk(chunk);
-            }
-            return false;
-        }
-
-        /**
-         * Returns the offset of the chunk in the movie file.
-         */
-        public long getChunkOffset() {
-            return firstSample.offset;
-        }
-    }
+    private final static long MAX_GROUP_SAMPLE_COUNT = Integer.MAX_VALUE;
 
     /**
      * Represents a track.
@@ -683,22 +446,10 @@ public class AbstractQuickTimeStream {
          */
         protected String mediaCompressorName;
         /**
-         * List of chunks.
-         */
-        protected ArrayList<Chunk> chunks = new ArrayList<Chunk>();
-        /**
-         * List of TimeToSample entries.
-         */
-        protected ArrayList<TimeToSampleGroup> timeToSamples = new ArrayList<TimeToSampleGroup>();
-        /**
-         * List of SampleSize entries.
-         */
-        protected ArrayList<SampleSizeGroup> sampleSizes = new ArrayList<SampleSizeGroup>();
-        /**
-         * List of sync samples. This list is null as long as all samples in
-         * this track are sync samples.
+         * The sample table. Consecutive samples with the same length,
+         * duration and sync flag share an entry.
          */
-        protected ArrayList<Long> syncSamples = null;
+        protected SampleTable samples = new SampleTable();
         /**
          * The number of samples in this track.
          */
@@ -722,6 +473,14 @@ public class AbstractQuickTimeStream {
         protected Codec codec;
         protected Buffer outputBuffer;
         protected Buffer inputBuffer;
+        /**
+         * The current entry of the sample table of the reader.
+         */
+        protected int readIndex;
+        /**
+         * The current sample in the current entry of the reader.
+         */
+        protected int readSampleIndex;
         /**
          * Start time of the first buffer that was added to the track.
          */
@@ -744,74 +503,83 @@ public class AbstractQuickTimeStream {
             this.mediaType = mediaType;
         }
 
-        public void addSample(Sample sample, int sampleDescriptionId, boolean isSyncSample) {
-            mediaDuration += sample.duration;
-            sampleCount++;
+        /**
+         * Adds a sample.
+         *
+         * @param offset The offset of the sample relative to the start of the
+         * QuickTime file.
+         * @param length The data length of the sample.
+         * @param duration The duration of the sample in media time scale units.
+         * @param isSyncSample Whether the sample is a sync sample.
+         */
+        public void addSample(long offset, long length, long duration, boolean isSyncSample) {
+            addSamples(offset, length, 1, duration, isSyncSample);
+        }
 
-            // Keep track of sync samples. If all samples in a track are sync
-            // samples, we do not need to create a syncSample list.
-            if (isSyncSample) {
-                if (syncSamples != null) {
-                    syncSamples.add(sampleCount);
-                }
-            } else {
-                if (syncSamples == null) {
-                    syncSamples = new ArrayList<Long>();
-                    for (long i = 1; i < sampleCount; i++) {
-                        syncSamples.add(i);
-                    }
-                }
+        /**
+         * Adds samples of the same length and duration, which are stored one
+         * after the other.
+         *
+         * @param offset The offset of the first sample relative to the start of
+         * the QuickTime file.
+         * @param sampleLength The data length of a sample.
+         * @param sampleCount The number of samples.
+         * @param sampleDuration The duration of a sample in media time scale
+         * units.
+         * @param isSyncSample Whether the samples are sync samples.
+         */
+        public void addSamples(long offset, long sampleLength, int sampleCount, long sampleDuration, boolean isSyncSample) {
+            if (!samples.addToLast(offset, sampleLength, sampleCount, sampleDuration, isSyncSample)) {
+                samples.add(offset, sampleLength * sampleCount, sampleCount, sampleDuration, isSyncSample);
             }
+            mediaDuration += sampleDuration * sampleCount;
+            this.sampleCount += sampleCount;
+        }
 
-            //
-            if (timeToSamples.isEmpty()//
-                    || !timeToSamples.get(timeToSamples.size() - 1).maybeAddSample(sample)) {
-                timeToSamples.add(new TimeToSampleGroup(sample));
-            }
-            if (sampleSizes.isEmpty()//
-                    || !sampleSizes.get(sampleSizes.size() - 1).maybeAddSample(sample)) {
-                sampleSizes.add(new SampleSizeGroup(sample));
-            }
-            if (chunks.isEmpty()//
-                    || !chunks.get(chunks.size() - 1).maybeAddSample(sample, sampleDescriptionId)) {
-                chunks.add(new Chunk(sample, sampleDescriptionId));
+        /**
+         * Returns the entry after the run of entries with the same sample
+         * duration which starts at the specified entry. Each run is an entry of
+         * the time-to-sample table.
+         */
+        private int nextTimeToSampleGroup(int entry) {
+            int sampleDuration = samples.getSampleDuration(entry);
+            long count = samples.getSampleCount(entry);
+            for (entry++; entry < samples.size(); entry++) {
+                count += samples.getSampleCount(entry);
+                if (samples.getSampleDuration(entry) != sampleDuration || count > MAX_GROUP_SAMPLE_COUNT) {
+                    break;
+                }
             }
+            return entry;
         }
 
-        public void addChunk(Chunk chunk, boolean isSyncSample) {
-            mediaDuration += chunk.firstSample.duration * chunk.sampleCount;
-            sampleCount += chunk.sampleCount;
-
-            // Keep track of sync samples. If all samples in a track are sync
-            // samples, we do not need to create a syncSample list.
-            if (isSyncSample) {
-                if (syncSamples != null) {
-                    for (long i = sampleCount - chunk.sampleCount; i < sampleCount; i++) {
-                        syncSamples.add(i);
-                    }
-                }
-            } else {
-                if (syncSamples == null) {
-                    syncSamples = new ArrayList<Long>();
-                    for (long i = 1; i < sampleCount; i++) {
-                        syncSamples.add(i);
-                    }
+        /**
+         * Returns the entry after the chunk which starts at the specified
+         * entry. A chunk holds consecutive samples with adjacent offsets in the
+         * movie file.
+         */
+        private int nextChunk(int entry) {
+            long end = samples.getOffset(entry) + samples.getLength(entry);
+            long count = samples.getSampleCount(entry);
+            for (entry++; entry < samples.size(); entry++) {
+                count += samples.getSampleCount(entry);
+                if (samples.getOffset(entry) != end || count > MAX_GROUP_SAMPLE_COUNT) {
+                    break;
                 }
+                end += samples.getLength(entry);
             }
+            return entry;
+        }
 
-            //
-            if (timeToSamples.isEmpty()//
-                    || !timeToSamples.get(timeToSamples.size() - 1).maybeAddChunk(chunk)) {
-                timeToSamples.add(new TimeToSampleGroup(chunk));
-            }
-            if (sampleSizes.isEmpty()//
-                    || !sampleSizes.get(sampleSizes.size() - 1).maybeAddChunk(chunk)) {
-                sampleSizes.add(new SampleSizeGroup(chunk));
-            }
-            if (chunks.isEmpty()//
-                    || !chunks.get(chunks.size() - 1).maybeAddChunk(chunk)) {
-                chunks.add(chunk);
+        /**
+         * Returns the number of samples in the specified entries.
+         */
+        private long getSampleCount(int fromEntry, int toEntry) {
+            long count = 0;
+            for (int i = fromEntry; i < toEntry; i++) {
+                count += samples.getSampleCount(i);
             }
+            return count;
         }
 
         public boolean isEmpty() {
@@ -968,48 +736,53 @@ public class AbstractQuickTimeStream {
             d.writeFixed16D16(mediaType == MediaType.VIDEO ? ((VideoTrack) this).height : 0); // height
             // A 32-bit fixed-point number that indicates the height of this track in pixels.
 
-            /* Edit Atom ========= */
-            CompositeAtom edtsAtom = new CompositeAtom("edts");
-            trakAtom.add(edtsAtom);
+            /* Edit Atom =========
+             * A fragmented movie has no edit list, unless one has been set:
+             * the track duration is not known when the movie atom is written,
+             * and players take it from the fragments. */
+            if (fragmentDuration == 0 || editList != null && editList.length > 0) {
+                CompositeAtom edtsAtom = new CompositeAtom("edts");
+                trakAtom.add(edtsAtom);
 
-            /* Edit List atom ------- */
-            /*
-             typedef struct {
-             byte version;
-             byte[3] flags;
-             int numberOfEntries;
-             editListTable editListTable[numberOfEntries];
-             } editListAtom;
+                /* Edit List atom ------- */
+                /*
+                 typedef struct {
+                 byte version;
+                 byte[3] flags;
+                 int numberOfEntries;
+                 editListTable editListTable[numberOfEntries];
+                 } editListAtom;
             
-             typedef struct {
-             int trackDuration;
-             int mediaTime;
-             fixed16d16 mediaRate;
-             } editListTable;
-             */
-            leaf = new DataAtom("elst");
-            edtsAtom.add(leaf);
-            d = leaf.getOutputStream();
+                 typedef struct {
+                 int trackDuration;
+                 int mediaTime;
+                 fixed16d16 mediaRate;
+                 } editListTable;
+                 */
+                leaf = new DataAtom("elst");
+                edtsAtom.add(leaf);
+                d = leaf.getOutputStream();
 
-            d.write(0); // version
-            // One byte that specifies the version of this header atom.
+                d.write(0); // version
+                // One byte that specifies the version of this header atom.
 
-            d.write(0); // flag[0]
-            d.write(0); // flag[1]
-            d.write(0); // flag[2]
+                d.write(0); // flag[0]
+                d.write(0); // flag[1]
+                d.write(0); // flag[2]
 
-            Edit[] elist = editList;
-            if (elist == null || elist.length == 0) {
-                d.writeUInt(1); // numberOfEntries
-                d.writeUInt(getTrackDuration(movieTimeScale)); // trackDuration
-                d.writeUInt(0); // mediaTime
-                d.writeFixed16D16(1); // mediaRate
-            } else {
-                d.writeUInt(elist.length); // numberOfEntries
-                for (int i = 0; i < elist.length; ++i) {
-                    d.writeUInt(elist[i].trackDuration); // trackDuration
-                    d.writeUInt(elist[i].mediaTime); // mediaTime
-                    d.writeUInt(elist[i].mediaRate); // mediaRate
+                Edit[] elist = editList;
+                if (elist == null || elist.length == 0) {
+                    d.writeUInt(1); // numberOfEntries
+                    d.writeUInt(getTrackDuration(movieTimeScale)); // trackDuration
+                    d.writeUInt(0); // mediaTime
+                    d.writeFixed16D16(1); // mediaRate
+                } else {
+                    d.writeUInt(elist.length); // numberOfEntries
+                    for (int i = 0; i < elist.length; ++i) {
+                        d.writeUInt(elist[i].trackDuration); // trackDuration
+                        d.writeUInt(elist[i].mediaTime); // mediaTime
+                        d.writeUInt(elist[i].mediaRate); // mediaRate
+                    }
                 }
             }
 
@@ -1314,18 +1087,24 @@ public class AbstractQuickTimeStream {
             d.write(0); // flag[2]
             // A 3-byte space for time-to-sample flags. Set this field to 0.
 
-            d.writeUInt(timeToSamples.size()); // numberOfEntries
+            int entryCount = 0;
+            for (int i = 0, n = samples.size(); i < n; i = nextTimeToSampleGroup(i)) {
+                entryCount++;
+            }
+            d.writeUInt(entryCount); // numberOfEntries
             // A 32-bit integer containing the count of entries in the
             // time-to-sample table.
 
-            for (TimeToSampleGroup tts : timeToSamples) {
-                d.writeUInt(tts.getSampleCount()); // timeToSampleTable[0].sampleCount
+            for (int i = 0, n = samples.size(); i < n;) {
+                int next = nextTimeToSampleGroup(i);
+                d.writeUInt(getSampleCount(i, next)); // timeToSampleTable[0].sampleCount
                 // A 32-bit integer that specifies the number of consecutive
                 // samples that have the same duration.
 
-                d.writeUInt(tts.getSampleDuration()); // timeToSampleTable[0].sampleDuration
+                d.writeUInt(samples.getSampleDuration(i)); // timeToSampleTable[0].sampleDuration
                 // A 32-bit integer that specifies the duration of each
                 // sample.
+                i = next;
             }
             /* sample to chunk atom -------- */
             // The sample-to-chunk atom contains a table that maps samples to chunks
@@ -1356,16 +1135,20 @@ public class AbstractQuickTimeStream {
             d.write(0); // flag[2]
             // A 3-byte space for time-to-sample flags. Set this field to 0.
 
-            int entryCount = 0;
+            int chunkCount = 0;
+            long lastChunkOffset = 0;
+            entryCount = 0;
             long previousSampleCount = -1;
-            long previousSampleDescriptionId = -1;
-            for (Chunk c : chunks) {
-                if (c.sampleCount != previousSampleCount//
-                        || c.sampleDescriptionId != previousSampleDescriptionId) {
-                    previousSampleCount = c.sampleCount;
-                    previousSampleDescriptionId = c.sampleDescriptionId;
+            for (int i = 0, n = samples.size(); i < n;) {
+                int next = nextChunk(i);
+                long chunkSampleCount = getSampleCount(i, next);
+                if (chunkSampleCount != previousSampleCount) {
+                    previousSampleCount = chunkSampleCount;
                     entryCount++;
                 }
+                chunkCount++;
+                lastChunkOffset = samples.getOffset(i);
+                i = next;
             }
 
             d.writeInt(entryCount); // number of entries
@@ -1373,20 +1156,19 @@ public class AbstractQuickTimeStream {
 
             int firstChunk = 1;
             previousSampleCount = -1;
-            previousSampleDescriptionId = -1;
-            for (Chunk c : chunks) {
-                if (c.sampleCount != previousSampleCount//
-                        || c.sampleDescriptionId != previousSampleDescriptionId) {
-                    previousSampleCount = c.sampleCount;
-                    previousSampleDescriptionId = c.sampleDescriptionId;
+            for (int i = 0, n = samples.size(); i < n;) {
+                int next = nextChunk(i);
+                long chunkSampleCount = getSampleCount(i, next);
+                if (chunkSampleCount != previousSampleCount) {
+                    previousSampleCount = chunkSampleCount;
 
                     d.writeUInt(firstChunk); // first chunk
                     // The first chunk number using this table entry.
 
-                    d.writeUInt(c.sampleCount); // samples per chunk
+                    d.writeUInt(chunkSampleCount); // samples per chunk
                     // The number of samples in each chunk.
 
-                    d.writeInt(c.sampleDescriptionId); // sample description
+                    d.writeInt(1); // sample description
 
                     // The identification number associated with the sample description for
                     // the sample. For details on sample description atoms, see “Sample
@@ -1394,10 +1176,11 @@ public class AbstractQuickTimeStream {
                     // http://developer.apple.com/documentation/QuickTime/QTFF/QTFFChap2/chapter_3_section_5.html#//apple_ref/doc/uid/TP40000939-CH204-25691
                 }
                 firstChunk++;
+                i = next;
             }
             //
         /* sync sample atom -------- */
-            if (syncSamples != null) {
+            if (!samples.isAllKeyframes()) {
                 leaf = new DataAtom("stss");
                 stblAtom.add(leaf);
                 /*
@@ -1421,14 +1204,27 @@ public class AbstractQuickTimeStream {
                 d.write(0); // flag[2]
                 // A 3-byte space for time-to-sample flags. Set this field to 0.
 
-                d.writeUInt(syncSamples.size());
+                long syncSampleCount = 0;
+                for (int i = 0, n = samples.size(); i < n; i++) {
+                    if (samples.isKeyframe(i)) {
+                        syncSampleCount += samples.getSampleCount(i);
+                    }
+                }
+                d.writeUInt(syncSampleCount);
                 // Number of entries
                 //A 32-bit integer containing the count of entries in the sync sample table.
 
-                for (Long number : syncSamples) {
-                    d.writeUInt(number);
-                    // Sync sample table A table of sample numbers; each sample
-                    // number corresponds to a key frame.
+                long number = 1;
+                for (int i = 0, n = samples.size(); i < n; i++) {
+                    int count = samples.getSampleCount(i);
+                    if (samples.isKeyframe(i)) {
+                        for (int j = 0; j < count; j++) {
+                            d.writeUInt(number + j);
+                            // Sync sample table A table of sample numbers; each sample
+                            // number corresponds to a key frame.
+                        }
+                    }
+                    number += count;
                 }
             }
 
@@ -1467,14 +1263,21 @@ public class AbstractQuickTimeStream {
                     && ((AudioTrack) this).soundCompressionId != -2 //
                     ? ((AudioTrack) this).soundSampleSize / 8 * ((AudioTrack) this).soundNumberOfChannels//
                     : 1;
-            if (sampleSizes.size() == 1) {
-                d.writeUInt(sampleSizes.get(0).getSampleLength() / sampleUnit); // sample size
+            // All samples have the same size, if all entries have the same
+            // sample length
+            long sampleLength = -1;
+            for (int i = 0, n = samples.size(); i < n && sampleLength != -2; i++) {
+                long length = samples.getLength(i) / samples.getSampleCount(i);
+                sampleLength = sampleLength == -1 || sampleLength == length ? length : -2;
+            }
+            if (sampleLength >= 0 && samples.getSampleCount() <= MAX_GROUP_SAMPLE_COUNT) {
+                d.writeUInt(sampleLength / sampleUnit); // sample size
                 // A 32-bit integer specifying the sample size. If all the samples are
                 // the same size, this field contains that size value. If this field is
                 // set to 0, then the samples have different sizes, and those sizes are
                 // stored in the sample size table.
 
-                d.writeUInt(sampleSizes.get(0).getSampleCount()); // number of entries
+                d.writeUInt(samples.getSampleCount()); // number of entries
                 // A 32-bit integer containing the count of entries in the sample size
                 // table.
 
@@ -1486,17 +1289,14 @@ public class AbstractQuickTimeStream {
                 // stored in the sample size table.
 
 
-                long count = 0;
-                for (SampleSizeGroup s : sampleSizes) {
-                    count += s.sampleCount;
-                }
-                d.writeUInt(count); // number of entries
+                d.writeUInt(samples.getSampleCount()); // number of entries
                 // A 32-bit integer containing the count of entries in the sample size
                 // table.
 
-                for (SampleSizeGroup s : sampleSizes) {
-                    long sampleSize = s.getSampleLength() / sampleUnit;
-                    for (int i = 0; i < s.sampleCount; i++) {
+                for (int e = 0, n = samples.size(); e < n; e++) {
+                    int count = samples.getSampleCount(e);
+                    long sampleSize = samples.getLength(e) / count / sampleUnit;
+                    for (int i = 0; i < count; i++) {
                         d.writeUInt(sampleSize); // sample size
                         // The size field contains the size, in bytes, of the sample in
                         // question. The table is indexed by sample number—the first entry
@@ -1512,7 +1312,7 @@ public class AbstractQuickTimeStream {
             // 32-bit or 64-bit offsets. The latter is useful when managing very
             // large movies. Only one of these variants occurs in any single
             // instance of a sample table atom.
-            if (chunks.isEmpty() || chunks.get(chunks.size() - 1).getChunkOffset() <= 0xffffffffL) {
+            if (lastChunkOffset <= 0xffffffffL) {
                 /* 32-bit chunk offset atom -------- */
                 leaf = new DataAtom("stco");
                 stblAtom.add(leaf);
@@ -1537,11 +1337,11 @@ public class AbstractQuickTimeStream {
                 d.write(0); // flag[2]
                 // A 3-byte space for time-to-sample flags. Set this field to 0.
 
-                d.writeUInt(chunks.size()); // number of entries
+                d.writeUInt(chunkCount); // number of entries
                 // A 32-bit integer containing the count of entries in the chunk
                 // offset table.
-                for (Chunk c : chunks) {
-                    d.writeUInt(c.getChunkOffset() + mdatOffset); // offset
+                for (int i = 0, n = samples.size(); i < n; i = nextChunk(i)) {
+                    d.writeUInt(samples.getOffset(i) + mdatOffset); // offset
                     // The offset contains the byte offset from the beginning of the
                     // data stream to the chunk. The table is indexed by chunk
                     // number—the first table entry corresponds to the first chunk,
@@ -1572,12 +1372,12 @@ public class AbstractQuickTimeStream {
                 d.write(0); // flag[2]
                 // A 3-byte space for time-to-sample flags. Set this field to 0.
 
-                d.writeUInt(chunks.size()); // number of entries
+                d.writeUInt(chunkCount); // number of entries
                 // A 32-bit integer containing the count of entries in the chunk
                 // offset table.
 
-                for (Chunk c : chunks) {
-                    d.writeLong(c.getChunkOffset()); // offset
+                for (int i = 0, n = samples.size(); i < n; i = nextChunk(i)) {
+                    d.writeLong(samples.getOffset(i)); // offset
                     // The offset contains the byte offset from the beginning of the
                     // data stream to the chunk. The table is indexed by chunk
                     // number—the first table entry corresponds to the first chunk,
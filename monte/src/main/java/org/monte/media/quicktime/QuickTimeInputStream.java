@@ -22,7 +22,13 @@ import java.util.HashSet;
 import java.util.zip.InflaterInputStream;
 import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
+import org.monte.media.Format;
 import org.monte.media.io.ImageInputStreamAdapter;
+import org.monte.media.io.MappedFile;
+import org.monte.media.math.Rational;
+import org.monte.media.util.SampleTable;
+import static org.monte.media.AudioFormatKeys.*;
+import static org.monte.media.VideoFormatKeys.*;
 
 /**
  * Provides low-level support for reading encoded audio and video samples from a
@@ -89,16 +95,33 @@ public class QuickTimeInputStream extends AbstractQuickTimeStream {
         compositeAtoms.add("mvex");
     }
 
+    /**
+     * The memory mapped file, or null if the file is not memory mapped.
+     */
+    protected final MappedFile mappedFile;
+
     /**
      * Creates a new instance.
      *
      * @param file the input file
      */
     public QuickTimeInputStream(File file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param file the input file
+     * @param isMemoryMapped Whether the file is memory mapped. If so, the
+     * samples can be read as slices of the file, without copying them.
+     */
+    public QuickTimeInputStream(File file, boolean isMemoryMapped) throws IOException {
 
         this.in = new FileImageInputStream(file);
         in.setByteOrder(ByteOrder.BIG_ENDIAN);
         this.streamOffset = 0;
+        this.mappedFile = isMemoryMapped ? new MappedFile(file) : null;
     }
 
     /**
@@ -110,11 +133,12 @@ public class QuickTimeInputStream extends AbstractQuickTimeStream {
         this.in = in;
         this.streamOffset = in.getStreamPosition();
         in.setByteOrder(ByteOrder.BIG_ENDIAN);
+        this.mappedFile = null;
     }
 
     public int getTrackCount() throws IOException {
         ensureRealized();
-        throw new UnsupportedOperationException("Not supported yet.");
+        return tracks.size();
     }
 
     public long getMovieDuration() throws IOException {
@@ -378,6 +402,9 @@ public class QuickTimeInputStream extends AbstractQuickTimeStream {
 
     public void close() throws IOException {
         in.close();
+        if (mappedFile != null) {
+            mappedFile.close();
+        }
     }
 
     /**
@@ -452,9 +479,6 @@ public class QuickTimeInputStream extends AbstractQuickTimeStream {
      * Parses track atoms.
      */
     private void parseTrack(HashMap<String, InputAtom> atoms) throws IOException {
-        for (String p : atoms.keySet()) {
-            System.out.println("QuickTimeInputStream " + p);
-        }
         HashMap<String, Object> hdlrMap = parseHdlr(atoms.get("moov.trak.mdia.hdlr").data);
         String trackType = (String) hdlrMap.get("componentSubtype");
         Track t;
@@ -470,9 +494,10 @@ public class QuickTimeInputStream extends AbstractQuickTimeStream {
         if (atoms.get("moov.trak.edts") != null) {
             parseEdts(t, atoms.get("moov.trak.edts").data);
         }
-        if (atoms.get("moov.trak.mdhd") != null) {
-            parseMdhd(t, atoms.get("moov.trak.mdhd").data);
+        if (atoms.get("moov.trak.mdia.mdhd") != null) {
+            parseMdhd(t, atoms.get("moov.trak.mdia.mdhd").data);
         }
+        parseSampleTable(t, atoms);
 
         if ("vide".equals(trackType)) {
             parseVideoTrack((VideoTrack) t, atoms);
@@ -484,10 +509,294 @@ public class QuickTimeInputStream extends AbstractQuickTimeStream {
         tracks.add(t);
     }
 
+    /**
+     * Parses the stts, stsc, stsz, stco or co64, and stss atoms of a track
+     * into its sample table.
+     * <p>
+     * Consecutive samples, which have the same size, duration and sync flag,
+     * are stored in a single entry of the table.
+     */
+    private void parseSampleTable(Track t, HashMap<String, InputAtom> atoms) throws IOException {
+        InputAtom stts = atoms.get("moov.trak.mdia.minf.stbl.stts");
+        InputAtom stsc = atoms.get("moov.trak.mdia.minf.stbl.stsc");
+        InputAtom stsz = atoms.get("moov.trak.mdia.minf.stbl.stsz");
+        InputAtom stco = atoms.get("moov.trak.mdia.minf.stbl.stco");
+        InputAtom co64 = atoms.get("moov.trak.mdia.minf.stbl.co64");
+        InputAtom stss = atoms.get("moov.trak.mdia.minf.stbl.stss");
+        if (stts == null || stsc == null || stsz == null || (stco == null && co64 == null)) {
+            // The track has no samples, or they are in movie fragments
+            return;
+        }
+
+        /* Chunk offset atom -------
+         typedef struct {
+         byte version;
+         byte[3] flags;
+         int numberOfEntries;
+         int or long chunkOffsetTable[numberOfEntries];
+         } chunkOffsetAtom;
+         */
+        boolean isLongOffsets = co64 != null;
+        DataAtomInputStream chunkOffsets = new DataAtomInputStream(new ByteArrayInputStream(isLongOffsets ? co64.data : stco.data));
+        chunkOffsets.skipBytes(4);
+        long chunkCount = chunkOffsets.readUInt();
+
+        /* Sample-to-chunk atom -------
+         typedef struct {
+         byte version;
+         byte[3] flags;
+         int numberOfEntries;
+         sampleToChunkTable sampleToChunkTable[numberOfEntries];
+         } sampleToChunkAtom;
+
+         typedef struct {
+         int firstChunk;
+         int samplesPerChunk;
+         int sampleDescription;
+         } sampleToChunkTable;
+         */
+        DataAtomInputStream sampleToChunk = new DataAtomInputStream(new ByteArrayInputStream(stsc.data));
+        sampleToChunk.skipBytes(4);
+        long sampleToChunkCount = sampleToChunk.readUInt();
+        long samplesPerChunk = 0;
+        long nextFirstChunk = 1;
+        long nextSamplesPerChunk = 0;
+
+        /* Time-to-sample atom -------
+         typedef struct {
+         byte version;
+         byte[3] flags;
+         int numberOfEntries;
+         timeToSampleTable timeToSampleTable[numberOfEntries];
+         } timeToSampleAtom;
+
+         typedef struct {
+         int sampleCount;
+         int sampleDuration;
+         } timeToSampleTable;
+         */
+        DataAtomInputStream timeToSample = new DataAtomInputStream(new ByteArrayInputStream(stts.data));
+        timeToSample.skipBytes(4);
+        long timeToSampleCount = timeToSample.readUInt();
+        long remainingDurationCount = 0;
+        long sampleDuration = 0;
+
+        /* Sample size atom -------
+         typedef struct {
+         byte version;
+         byte[3] flags;
+         int sampleSize;
+         int numberOfEntries;
+         int sampleSizeTable[numberOfEntries];
+         } sampleSizeAtom;
+         */
+        DataAtomInputStream sampleSizes = new DataAtomInputStream(new ByteArrayInputStream(stsz.data));
+        sampleSizes.skipBytes(4);
+        long constantSampleSize = sampleSizes.readUInt();
+        long sampleCount = sampleSizes.readUInt();
+
+        /* Sync sample atom -------
+         typedef struct {
+         byte version;
+         byte[3] flags;
+         int numberOfEntries;
+         int syncSampleTable[numberOfEntries];
+         } syncSampleAtom;
+         */
+        DataAtomInputStream syncSamples = null;
+        long syncSampleCount = 0;
+        long nextSyncSample = -1;
+        if (stss != null) {
+            syncSamples = new DataAtomInputStream(new ByteArrayInputStream(stss.data));
+            syncSamples.skipBytes(4);
+            syncSampleCount = syncSamples.readUInt();
+            if (syncSampleCount > 0) {
+                nextSyncSample = syncSamples.readUInt();
+                syncSampleCount--;
+            }
+        }
+
+        SampleTable samples = new SampleTable((int) Math.min(Integer.MAX_VALUE, Math.max(1, chunkCount)));
+        long sample = 1; // sample numbers start at 1
+        for (long chunk = 1; chunk <= chunkCount && sample <= sampleCount; chunk++) {
+            long offset = isLongOffsets ? chunkOffsets.readLong() : chunkOffsets.readUInt();
+            while (chunk >= nextFirstChunk) {
+                samplesPerChunk = nextSamplesPerChunk;
+                if (sampleToChunkCount > 0) {
+                    sampleToChunkCount--;
+                    nextFirstChunk = sampleToChunk.readUInt();
+                    nextSamplesPerChunk = sampleToChunk.readUInt();
+                    sampleToChunk.skipBytes(4); // sample description id
+                } else {
+                    nextFirstChunk = Long.MAX_VALUE;
+                }
+            }
+
+            for (long i = 0; i < samplesPerChunk && sample <= sampleCount; i++, sample++) {
+                long size = constantSampleSize != 0 ? constantSampleSize : sampleSizes.readUInt();
+                while (remainingDurationCount == 0 && timeToSampleCount > 0) {
+                    timeToSampleCount--;
+                    remainingDurationCount = timeToSample.readUInt();
+                    sampleDuration = timeToSample.readUInt();
+                }
+                remainingDurationCount--;
+                boolean isSync = syncSamples == null || sample == nextSyncSample;
+                if (sample == nextSyncSample) {
+                    if (syncSampleCount > 0) {
+                        nextSyncSample = syncSamples.readUInt();
+                        syncSampleCount--;
+                    } else {
+                        nextSyncSample = -1;
+                    }
+                }
+                if (!samples.addToLast(offset, size, 1, sampleDuration, isSync)) {
+                    samples.add(offset, size, 1, sampleDuration, isSync);
+                }
+                offset += size;
+            }
+        }
+        samples.trimToSize();
+        t.samples = samples;
+        t.sampleCount = samples.getSampleCount();
+        if (t.mediaDuration == 0) {
+            t.mediaDuration = samples.getDuration();
+        }
+    }
+
+    /**
+     * Parses the video sample description of a track, and creates the format
+     * of the track.
+     */
     private void parseVideoTrack(VideoTrack t, HashMap<String, InputAtom> atoms) throws IOException {
+        InputAtom stsd = atoms.get("moov.trak.mdia.minf.stbl.stsd");
+        if (stsd == null) {
+            throw new IOException("Sample description atom missing.");
+        }
+        /* Sample Description atom -------
+         typedef struct {
+         byte version;
+         byte[3] flags;
+         int numberOfEntries;
+         sampleDescriptionEntry sampleDescriptionTable[numberOfEntries];
+         } sampleDescriptionAtom;
+
+         typedef struct {
+         int size;
+         magic type;
+         byte[6] reserved;
+         short dataReferenceIndex;
+         ushort version;
+         ushort revisionLevel;
+         magic vendor;
+         uint temporalQuality;
+         uint spatialQuality;
+         ushort width;
+         ushort height;
+         fixed16d16 horizontalResolution;
+         fixed16d16 verticalResolution;
+         uint dataSize;
+         ushort frameCount;
+         byte[32] compressorName;
+         ushort depth;
+         short colorTableId;
+         } videoSampleDescriptionEntry;
+         */
+        DataAtomInputStream dain = new DataAtomInputStream(new ByteArrayInputStream(stsd.data));
+        dain.skipBytes(8 + 4);
+        t.mediaCompressionType = dain.readType();
+        dain.skipBytes(6 + 2 + 2 + 2 + 4 + 4 + 4);
+        int width = dain.readUShort();
+        int height = dain.readUShort();
+        dain.skipBytes(4 + 4 + 4 + 2);
+        byte[] compressorName = new byte[32];
+        dain.readFully(compressorName);
+        t.mediaCompressorName = new String(compressorName, 1, Math.min(31, compressorName[0] & 0xff), "ASCII");
+        t.videoDepth = dain.readUShort();
+
+        // The frame rate is not stored in the file: we assume a constant one
+        Rational frameRate = t.samples.isEmpty() || t.samples.getSampleDuration(0) == 0
+                ? new Rational(t.mediaTimeScale, 1)
+                : new Rational(t.mediaTimeScale, t.samples.getSampleDuration(0));
+        t.format = new Format(
+                MediaTypeKey, MediaType.VIDEO,
+                MimeTypeKey, MIME_QUICKTIME,
+                EncodingKey, t.mediaCompressionType,
+                CompressorNameKey, t.mediaCompressorName,
+                DataClassKey, byte[].class,
+                WidthKey, width, HeightKey, height, DepthKey, t.videoDepth,
+                FrameRateKey, frameRate);
     }
 
+    /**
+     * Parses the sound sample description of a track, and creates the format
+     * of the track.
+     */
     private void parseAudioTrack(AudioTrack t, HashMap<String, InputAtom> atoms) throws IOException {
+        InputAtom stsd = atoms.get("moov.trak.mdia.minf.stbl.stsd");
+        if (stsd == null) {
+            throw new IOException("Sample description atom missing.");
+        }
+        /* Sample Description atom -------
+         typedef struct {
+         int size;
+         magic type;
+         byte[6] reserved;
+         short dataReferenceIndex;
+         ushort version;
+         ushort revisionLevel;
+         uint vendor;
+         ushort numberOfChannels;
+         ushort sampleSize;
+         short compressionId;
+         ushort packetSize;
+         fixed16d16 sampleRate;
+         // version 1 only:
+         uint samplesPerPacket;
+         uint bytesPerPacket;
+         uint bytesPerFrame;
+         uint bytesPerSample;
+         } soundSampleDescriptionEntry;
+         */
+        DataAtomInputStream dain = new DataAtomInputStream(new ByteArrayInputStream(stsd.data));
+        dain.skipBytes(8 + 4);
+        t.mediaCompressionType = dain.readType();
+        dain.skipBytes(6 + 2);
+        int version = dain.readUShort();
+        dain.skipBytes(2 + 4);
+        t.soundNumberOfChannels = dain.readUShort();
+        t.soundSampleSize = dain.readUShort();
+        t.soundCompressionId = dain.readShort();
+        dain.skipBytes(2);
+        t.soundSampleRate = dain.readFixed16D16();
+        if (version == 1) {
+            t.soundSamplesPerPacket = dain.readUInt();
+            t.soundBytesPerPacket = dain.readInt();
+            t.soundBytesPerFrame = dain.readInt();
+            t.soundBytesPerSample = dain.readInt();
+        } else {
+            t.soundSamplesPerPacket = 1;
+            t.soundBytesPerSample = t.soundSampleSize / 8;
+            t.soundBytesPerPacket = t.soundBytesPerSample;
+            t.soundBytesPerFrame = t.soundBytesPerSample * t.soundNumberOfChannels;
+        }
+
+        t.format = new Format(
+                MediaTypeKey, MediaType.AUDIO,
+                MimeTypeKey, MIME_QUICKTIME,
+                EncodingKey, t.mediaCompressionType,
+                SampleRateKey, Rational.valueOf(t.soundSampleRate),
+                SampleSizeInBitsKey, t.soundSampleSize,
+                ChannelsKey, t.soundNumberOfChannels,
+                FrameSizeKey, t.soundBytesPerFrame);
+        if (t.mediaCompressionType.equals(ENCODING_QUICKTIME_TWOS_PCM)
+                || t.mediaCompressionType.equals(ENCODING_QUICKTIME_IN24_PCM)
+                || t.mediaCompressionType.equals(ENCODING_QUICKTIME_IN32_PCM)) {
+            t.format = t.format.append(SignedKey, true, ByteOrderKey, ByteOrder.BIG_ENDIAN);
+        } else if (t.mediaCompressionType.equals(ENCODING_QUICKTIME_SOWT_PCM)) {
+            t.format = t.format.append(SignedKey, true, ByteOrderKey, ByteOrder.LITTLE_ENDIAN);
+        } else if (t.mediaCompressionType.equals(ENCODING_QUICKTIME_RAW_PCM)) {
+            t.format = t.format.append(SignedKey, false, ByteOrderKey, ByteOrder.BIG_ENDIAN);
+        }
     }
 
     /**
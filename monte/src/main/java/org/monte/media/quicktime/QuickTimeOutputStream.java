@@ -18,6 +18,7 @@ import org.monte.media.math.Rational;
 import java.awt.image.IndexColorModel;
 import java.io.*;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.zip.DeflaterOutputStream;
 import javax.imageio.stream.*;
@@ -34,6 +35,137 @@ import static org.monte.media.AudioFormatKeys.*;
  */
 public class QuickTimeOutputStream extends AbstractQuickTimeStream {
 
+    /**
+     * Sample flags of a sync sample in a movie fragment: the sample does not
+     * depend on other samples.
+     */
+    private final static int SYNC_SAMPLE_FLAGS = 0x02000000;
+    /**
+     * Sample flags of a non-sync sample in a movie fragment: the sample
+     * depends on other samples, and is a non-sync sample.
+     */
+    private final static int NON_SYNC_SAMPLE_FLAGS = 0x01010000;
+
+    /**
+     * Holds the samples of a track which have not been written into a movie
+     * fragment yet. Consecutive samples with the same size, duration and flags
+     * are stored as a single run.
+     */
+    private static class TrackFragment {
+
+        byte[] data = new byte[0];
+        int dataLength;
+        int runCount;
+        int[] runSampleCounts = new int[16];
+        int[] runSampleSizes = new int[16];
+        int[] runSampleDurations = new int[16];
+        int[] runSampleFlags = new int[16];
+        long sampleCount;
+        /**
+         * The duration of the samples in media time scale units.
+         */
+        long duration;
+
+        void write(byte[] b, int off, int len) {
+            ensureCapacity(dataLength + len);
+            System.arraycopy(b, off, data, dataLength, len);
+            dataLength += len;
+        }
+
+        void write(InputStream in) throws IOException {
+            int len;
+            do {
+                ensureCapacity(dataLength + 4096);
+                len = in.read(data, dataLength, data.length - dataLength);
+                if (len > 0) {
+                    dataLength += len;
+                }
+            } while (len != -1);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > data.length) {
+                byte[] b = new byte[Math.max(capacity, data.length * 2)];
+                System.arraycopy(data, 0, b, 0, dataLength);
+                data = b;
+            }
+        }
+
+        void addSamples(int count, int size, int sampleDuration, int flags) {
+            int last = runCount - 1;
+            if (last >= 0 && runSampleSizes[last] == size && runSampleDurations[last] == sampleDuration
+                    && runSampleFlags[last] == flags && runSampleCounts[last] <= Integer.MAX_VALUE - count) {
+                runSampleCounts[last] += count;
+            } else {
+                if (runCount == runSampleCounts.length) {
+                    int n = runCount * 2;
+                    runSampleCounts = Arrays.copyOf(runSampleCounts, n);
+                    runSampleSizes = Arrays.copyOf(runSampleSizes, n);
+                    runSampleDurations = Arrays.copyOf(runSampleDurations, n);
+                    runSampleFlags = Arrays.copyOf(runSampleFlags, n);
+                }
+                runSampleCounts[runCount] = count;
+                runSampleSizes[runCount] = size;
+                runSampleDurations[runCount] = sampleDuration;
+                runSampleFlags[runCount] = flags;
+                runCount++;
+            }
+            sampleCount += count;
+            duration += (sampleDuration & 0xffffffffL) * count;
+        }
+
+        void clear() {
+            dataLength = 0;
+            runCount = 0;
+            sampleCount = 0;
+            duration = 0;
+        }
+
+        /**
+         * Returns the tfhd flags for the sample fields which are the same
+         * for all samples.
+         */
+        int getDefaultFlags() {
+            int flags = 0x08 | 0x10 | 0x20;
+            for (int i = 1; i < runCount; i++) {
+                if (runSampleDurations[i] != runSampleDurations[0]) {
+                    flags &= ~0x08;
+                }
+                if (runSampleSizes[i] != runSampleSizes[0]) {
+                    flags &= ~0x10;
+                }
+                if (runSampleFlags[i] != runSampleFlags[0]) {
+                    flags &= ~0x20;
+                }
+            }
+            return flags;
+        }
+
+        /**
+         * Returns the size of the traf atom of this fragment.
+         */
+        long getTrafSize() {
+            int defaults = Integer.bitCount(getDefaultFlags());
+            long tfhdSize = 8 + 4 + 4 + 8 + 4 * defaults;
+            long trunSize = 8 + 4 + 4 + sampleCount * 4 * (3 - defaults);
+            return 8 + tfhdSize + trunSize;
+        }
+    }
+    /**
+     * The samples of the current movie fragment, one per track. Null if the
+     * movie is not fragmented.
+     */
+    private ArrayList<TrackFragment> fragments;
+    /**
+     * The sequence number of the last movie fragment.
+     */
+    private long fragmentSequenceNumber;
+    /**
+     * The offset of the movie atom of a fragmented movie, or -1 if it has
+     * not been written yet.
+     */
+    private long fragmentedMoovOffset = -1;
+
     /**
      * Creates a new instance.
      *
@@ -88,6 +220,41 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
         return movieTimeScale;
     }
 
+    /**
+     * Sets the duration of a movie fragment in movie time scale units. <p> A
+     * fragmented movie starts with a movie header without samples. The samples
+     * are written in movie fragments, each with its own sample table, every
+     * time the samples of a track add up to the fragment duration. <p> This
+     * way the sample tables of the whole movie are not kept in memory, and a
+     * movie which has not been finished, because the process writing it has
+     * died, can be played up to its last fragment. <p> All tracks must be
+     * added before the first sample is written. A fragmented movie can not
+     * be turned into a web optimized movie. <p> The default value is 0, the
+     * movie is not fragmented. This value can only be changed before the
+     * first track is added.
+     *
+     * @param duration The fragment duration, or 0.
+     */
+    public void setFragmentDuration(long duration) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("duration must not be negative:" + duration);
+        }
+        if (state != States.REALIZED) {
+            throw new IllegalStateException("The fragment duration must be set before the movie is started.");
+        }
+        this.fragmentDuration = duration;
+    }
+
+    /**
+     * Returns the duration of a movie fragment in movie time scale units, or
+     * 0 if the movie is not fragmented.
+     *
+     * @see #setFragmentDuration(long)
+     */
+    public long getFragmentDuration() {
+        return fragmentDuration;
+    }
+
     /**
      * Returns the time scale of the media in a track.
      *
@@ -216,6 +383,7 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
      */
     public int addVideoTrack(String compressionType, String compressorName, long timeScale, int width, int height, int depth, int syncInterval) throws IOException {
         ensureStarted();
+        ensureTracksCanBeAdded();
         if (compressionType == null || compressionType.length() != 4) {
             throw new IllegalArgumentException("compressionType must be 4 characters long:" + compressionType);
         }
@@ -246,6 +414,9 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
                 WidthKey, width, HeightKey, height, DepthKey, depth,
                 FrameRateKey, new Rational(timeScale, 1));
         tracks.add(t);
+        if (fragments != null) {
+            fragments.add(new TrackFragment());
+        }
         return tracks.size() - 1;
     }
 
@@ -279,6 +450,7 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
             boolean isCompressed, //
             int frameDuration, int frameSize, boolean signed, ByteOrder byteOrder) throws IOException {
         ensureStarted();
+        ensureTracksCanBeAdded();
         if (compressionType == null || compressionType.length() != 4) {
             throw new IllegalArgumentException("audioFormat must be 4 characters long:" + compressionType);
         }
@@ -324,6 +496,9 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
                 SignedKey, signed,
                 ByteOrderKey, byteOrder);
         tracks.add(t);
+        if (fragments != null) {
+            fragments.add(new TrackFragment());
+        }
         return tracks.size() - 1;
     }
 
@@ -589,11 +764,25 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
         }
         if (state != States.STARTED) {
             writeProlog();
-            mdatAtom = new WideDataAtom("mdat");
+            if (fragmentDuration == 0) {
+                mdatAtom = new WideDataAtom("mdat");
+            } else {
+                fragments = new ArrayList<TrackFragment>();
+            }
             state = States.STARTED;
         }
     }
 
+    /**
+     * Throws an exception if the movie atom of a fragmented movie has already
+     * been written.
+     */
+    private void ensureTracksCanBeAdded() {
+        if (fragmentedMoovOffset != -1) {
+            throw new IllegalStateException("Tracks must be added before the first sample of a fragmented movie is written.");
+        }
+    }
+
     /**
      * Writes an already encoded sample from a file into a track. <p> This
      * method does not inspect the contents of the samples. The contents has to
@@ -645,6 +834,15 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
         Track t = tracks.get(track); // throws index out of bounds exception if illegal track index
         ensureOpen();
         ensureStarted();
+        if (fragments != null) {
+            beginFragmentSamples();
+            TrackFragment f = fragments.get(track);
+            int offset = f.dataLength;
+            f.write(in);
+            addFragmentSamples(track, 1, f.dataLength - offset, duration, isSync);
+            writeFragmentIfComplete(track);
+            return;
+        }
         long offset = getRelativeStreamPosition();
         OutputStream mdatOut = mdatAtom.getOutputStream();
         byte[] buf = new byte[4096];
@@ -653,7 +851,7 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
             mdatOut.write(buf, 0, len);
         }
         long length = getRelativeStreamPosition() - offset;
-        t.addSample(new Sample(duration, offset, length), 1, isSync);
+        t.addSample(offset, length, duration, isSync);
     }
 
     /**
@@ -696,10 +894,17 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
         Track t = tracks.get(track); // throws index out of bounds exception if illegal track index
         ensureOpen();
         ensureStarted();
+        if (fragments != null) {
+            beginFragmentSamples();
+            fragments.get(track).write(data, off, len);
+            addFragmentSamples(track, 1, len, duration, isSync);
+            writeFragmentIfComplete(track);
+            return;
+        }
         long offset = getRelativeStreamPosition();
         OutputStream mdatOut = mdatAtom.getOutputStream();
         mdatOut.write(data, off, len);
-        t.addSample(new Sample(duration, offset, len), 1, isSync);
+        t.addSample(offset, len, duration, isSync);
     }
 
     /**
@@ -776,15 +981,190 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
         Track t = tracks.get(track); // throws index out of bounds exception if illegal track index
         ensureOpen();
         ensureStarted();
+        if (fragments != null) {
+            beginFragmentSamples();
+            fragments.get(track).write(data, off, len);
+            int sampleSize = len / sampleCount;
+            if (sampleCount > 1) {
+                addFragmentSamples(track, sampleCount - 1, sampleSize, sampleDuration, isSync);
+            }
+            addFragmentSamples(track, 1, len - sampleSize * (sampleCount - 1), sampleDuration, isSync);
+            writeFragmentIfComplete(track);
+            return;
+        }
         long offset = getRelativeStreamPosition();
         OutputStream mdatOut = mdatAtom.getOutputStream();
         mdatOut.write(data, off, len);
 
 
         int sampleLength = len / sampleCount;
-        Sample first = new Sample(sampleDuration, offset, sampleLength);
-        Sample last = new Sample(sampleDuration, offset + sampleLength * (sampleCount - 1), sampleLength);
-        t.addChunk(new Chunk(first, last, sampleCount, 1), isSync);
+        t.addSamples(offset, sampleLength, sampleCount, sampleDuration, isSync);
+    }
+
+    /**
+     * Writes the movie atom of a fragmented movie, if this has not been done
+     * yet. This is done before the first sample is added, so that the
+     * durations in the movie atom are 0 until the movie is finished.
+     */
+    private void beginFragmentSamples() throws IOException {
+        if (fragmentedMoovOffset == -1) {
+            fragmentedMoovOffset = getRelativeStreamPosition();
+            writeEpilog();
+        }
+    }
+
+    /**
+     * Adds samples, whose data has already been put into the fragment of the
+     * track.
+     */
+    private void addFragmentSamples(int track, int sampleCount, int sampleSize, long sampleDuration, boolean isSync) throws IOException {
+        if (sampleDuration > 0xffffffffL) {
+            throw new IllegalArgumentException("sampleDuration must be less than 2^32:" + sampleDuration);
+        }
+        Track t = tracks.get(track);
+        fragments.get(track).addSamples(sampleCount, sampleSize, (int) sampleDuration, isSync ? SYNC_SAMPLE_FLAGS : NON_SYNC_SAMPLE_FLAGS);
+        t.sampleCount += sampleCount;
+        t.mediaDuration += sampleDuration * sampleCount;
+    }
+
+    /**
+     * Writes the movie fragment if the samples of the track add up to the
+     * fragment duration.
+     */
+    private void writeFragmentIfComplete(int track) throws IOException {
+        if (fragments.get(track).duration * movieTimeScale / tracks.get(track).mediaTimeScale >= fragmentDuration) {
+            writeFragment();
+        }
+    }
+
+    /**
+     * Writes the pending samples of all tracks as a movie fragment: a movie
+     * fragment atom with the sample tables, followed by a media data atom.
+     */
+    private void writeFragment() throws IOException {
+        long moofSize = 8 + 16;
+        long dataSize = 0;
+        for (TrackFragment f : fragments) {
+            if (f.sampleCount > 0) {
+                moofSize += f.getTrafSize();
+                dataSize += f.dataLength;
+            }
+        }
+        if (dataSize == 0 && moofSize == 8 + 16) {
+            return;
+        }
+        long moofOffset = getRelativeStreamPosition();
+        // The samples of each track are stored one after the other in the
+        // media data atom, which follows the movie fragment atom.
+        long dataOffset = moofOffset + moofSize + 8;
+
+        /* Movie Fragment Atom ========= */
+        CompositeAtom moofAtom = new CompositeAtom("moof");
+
+        /* Movie Fragment Header Atom ------- */
+        DataAtom leaf = new DataAtom("mfhd");
+        moofAtom.add(leaf);
+        DataAtomOutputStream d = leaf.getOutputStream();
+        d.writeInt(0); // version and flags
+        d.writeUInt(++fragmentSequenceNumber); // sequenceNumber
+
+        for (int i = 0, n = fragments.size(); i < n; i++) {
+            TrackFragment f = fragments.get(i);
+            if (f.sampleCount == 0) {
+                continue;
+            }
+            /* Track Fragment Atom ========= */
+            CompositeAtom trafAtom = new CompositeAtom("traf");
+            moofAtom.add(trafAtom);
+
+            /* Track Fragment Header Atom ------- */
+            int defaults = f.getDefaultFlags();
+            leaf = new DataAtom("tfhd");
+            trafAtom.add(leaf);
+            d = leaf.getOutputStream();
+            d.writeInt(0x01 | defaults); // version and flags: base data offset, defaults
+            d.writeInt(i + 1); // trackId
+            d.writeLong(dataOffset + mdatOffset); // baseDataOffset
+            if ((defaults & 0x08) != 0) {
+                d.writeInt(f.runSampleDurations[0]); // defaultSampleDuration
+            }
+            if ((defaults & 0x10) != 0) {
+                d.writeInt(f.runSampleSizes[0]); // defaultSampleSize
+            }
+            if ((defaults & 0x20) != 0) {
+                d.writeInt(f.runSampleFlags[0]); // defaultSampleFlags
+            }
+
+            /* Track Fragment Run Atom ------- */
+            leaf = new DataAtom("trun");
+            trafAtom.add(leaf);
+            d = leaf.getOutputStream();
+            int perSample = ((defaults & 0x08) == 0 ? 0x100 : 0)
+                    | ((defaults & 0x10) == 0 ? 0x200 : 0)
+                    | ((defaults & 0x20) == 0 ? 0x400 : 0);
+            d.writeInt(perSample); // version and flags: the sample fields which are present
+            d.writeUInt(f.sampleCount); // sampleCount
+            if (perSample != 0) {
+                for (int r = 0; r < f.runCount; r++) {
+                    for (int j = f.runSampleCounts[r]; j > 0; j--) {
+                        if ((perSample & 0x100) != 0) {
+                            d.writeInt(f.runSampleDurations[r]); // sampleDuration
+                        }
+                        if ((perSample & 0x200) != 0) {
+                            d.writeInt(f.runSampleSizes[r]); // sampleSize
+                        }
+                        if ((perSample & 0x400) != 0) {
+                            d.writeInt(f.runSampleFlags[r]); // sampleFlags
+                        }
+                    }
+                }
+            }
+            dataOffset += f.dataLength;
+        }
+        moofAtom.finish();
+        if (getRelativeStreamPosition() != moofOffset + moofSize) {
+            throw new IOException("Movie fragment has size " + (getRelativeStreamPosition() - moofOffset) + " instead of " + moofSize);
+        }
+
+        /* Media Data Atom ========= */
+        DataAtom mdat = new DataAtom("mdat");
+        for (TrackFragment f : fragments) {
+            mdat.getOutputStream().write(f.data, 0, f.dataLength);
+            f.clear();
+        }
+        mdat.finish();
+    }
+
+    /**
+     * Writes the movie extends atom, which tells that the movie has
+     * fragments.
+     */
+    private void writeMovieExtendsAtoms() throws IOException {
+        /* Movie Extends Atom ========= */
+        CompositeAtom mvexAtom = new CompositeAtom("mvex");
+        moovAtom.add(mvexAtom);
+        for (int i = 0, n = tracks.size(); i < n; i++) {
+            /* Track Extends Atom -------
+             typedef struct {
+             byte version;
+             byte[3] flags;
+             int trackId;
+             int defaultSampleDescriptionIndex;
+             int defaultSampleDuration;
+             int defaultSampleSize;
+             int defaultSampleFlags;
+             } trackExtendsAtom;
+             */
+            DataAtom leaf = new DataAtom("trex");
+            mvexAtom.add(leaf);
+            DataAtomOutputStream d = leaf.getOutputStream();
+            d.writeInt(0); // version and flags
+            d.writeInt(i + 1); // trackId
+            d.writeInt(1); // defaultSampleDescriptionIndex
+            d.writeInt(0); // defaultSampleDuration
+            d.writeInt(0); // defaultSampleSize
+            d.writeInt(0); // defaultSampleFlags
+        }
     }
 
     /**
@@ -839,6 +1219,11 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
     public void finish() throws IOException {
         ensureOpen();
         if (state != States.FINISHED) {
+            if (fragments != null) {
+                finishFragments();
+                state = States.FINISHED;
+                return;
+            }
             for (int i = 0, n = tracks.size(); i < n; i++) {
             }
             mdatAtom.finish();
@@ -854,6 +1239,26 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
         }
     }
 
+    /**
+     * Writes the last fragment of a fragmented movie, and rewrites the movie
+     * atom with the durations of the tracks.
+     */
+    private void finishFragments() throws IOException {
+        if (fragmentedMoovOffset == -1) {
+            beginFragmentSamples();
+            return;
+        }
+        writeFragment();
+        long end = getRelativeStreamPosition();
+        long moovSize = moovAtom.size();
+        seekRelative(fragmentedMoovOffset);
+        writeEpilog();
+        if (moovAtom.size() != moovSize) {
+            throw new IOException("Movie atom has size " + moovAtom.size() + " instead of " + moovSize);
+        }
+        seekRelative(end);
+    }
+
     /**
      * Check to make sure that this stream has not been closed
      */
@@ -1020,6 +1425,9 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
             /* Track Atom ======== */
             t.writeTrackAtoms(i, moovAtom, modificationTime);
         }
+        if (fragmentDuration != 0) {
+            writeMovieExtendsAtoms();
+        }
         //
         moovAtom.finish();
     }
@@ -1034,6 +1442,9 @@ public class QuickTimeOutputStream extends AbstractQuickTimeStream {
      * @param compressHeader Whether the movie header shall be compressed.
      */
     public void toWebOptimizedMovie(File outputFile, boolean compressHeader) throws IOException {
+        if (fragmentDuration != 0) {
+            throw new IOException("Can not web optimize a fragmented movie.");
+        }
         finish();
         long originalMdatOffset = mdatAtom.getOffset();
         CompositeAtom originalMoovAtom = moovAtom;
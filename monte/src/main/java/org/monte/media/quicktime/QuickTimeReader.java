@@ -13,17 +13,22 @@ package org.monte.media.quicktime;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
 import javax.imageio.stream.ImageInputStream;
 import org.monte.media.Buffer;
+import org.monte.media.BufferFlag;
 import org.monte.media.Format;
 import org.monte.media.MovieReader;
 import org.monte.media.math.Rational;
+import org.monte.media.util.SampleTable;
 import static org.monte.media.FormatKeys.*;
 import static org.monte.media.AudioFormatKeys.*;
 import static org.monte.media.VideoFormatKeys.*;
 import org.monte.media.Codec;
 import org.monte.media.Registry;
 import static org.monte.media.BufferFlag.*;
+import static java.lang.Math.*;
 
 /**
  * {@code QuickTimeReader}.
@@ -43,6 +48,18 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
         super(file);
     }
 
+    /**
+     * Creates a new instance.
+     *
+     * @param file the input file
+     * @param isMemoryMapped Whether the file is memory mapped. If so,
+     * {@link #read(int, org.monte.media.Buffer)} puts slices of the file into
+     * the buffers, instead of copies.
+     */
+    public QuickTimeReader(File file, boolean isMemoryMapped) throws IOException {
+        super(file, isMemoryMapped);
+    }
+
     /**
      * Creates a new instance.
      *
@@ -53,13 +70,38 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
     }
 
     @Override
-    public long timeToSample(int track, Rational seconds) {
-        throw new UnsupportedOperationException("Not supported yet.");
+    public long timeToSample(int track, Rational seconds) throws IOException {
+        ensureRealized();
+        Track tr = tracks.get(track);
+        SampleTable samples = tr.samples;
+        long time = seconds.getNumerator() * tr.mediaTimeScale / seconds.getDenominator();
+        if (time >= samples.getDuration()) {
+            return samples.getSampleCount();
+        }
+        int i = samples.findEntry(time);
+        if (i < 0 || time < 0) {
+            return 0;
+        }
+        long sampleDuration = samples.getSampleDuration(i);
+        long sample = sampleDuration == 0 ? 0 : (time - samples.getTime(i)) / sampleDuration;
+        return samples.getFirstSample(i) + min(sample, samples.getSampleCount(i) - 1);
     }
 
     @Override
-    public Rational sampleToTime(int track, long sample) {
-        throw new UnsupportedOperationException("Not supported yet.");
+    public Rational sampleToTime(int track, long sample) throws IOException {
+        ensureRealized();
+        Track tr = tracks.get(track);
+        SampleTable samples = tr.samples;
+        long time;
+        if (sample >= samples.getSampleCount()) {
+            time = samples.getDuration();
+        } else if (sample <= 0) {
+            time = 0;
+        } else {
+            int i = samples.findSample(sample);
+            time = samples.getTime(i) + (sample - samples.getFirstSample(i)) * samples.getSampleDuration(i);
+        }
+        return new Rational(time, tr.mediaTimeScale);
     }
 
     @Override
@@ -69,7 +111,8 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
 
     @Override
     public Format getFormat(int track) throws IOException {
-        throw new UnsupportedOperationException("Not supported yet.");
+        ensureRealized();
+        return tracks.get(track).format;
     }
 
     @Override
@@ -87,6 +130,7 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
      * @throws java.io.IOException
      */
     public BufferedImage read(int track, BufferedImage img) throws IOException {
+        ensureRealized();
         AbstractQuickTimeStream.Track tr = tracks.get(track);
         if (tr.inputBuffer == null) {
             tr.inputBuffer = new Buffer();
@@ -96,8 +140,11 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
         }
         Buffer buf = new Buffer();
         buf.data = img;
+        // Slices of the mapped file are only passed to codecs which read them
+        boolean isSliceAllowed = mappedFile != null
+                && tr.codec.getInputFormat().get(DataClassKey) == ByteBuffer.class;
         do {
-            read(track, tr.inputBuffer);
+            read(track, tr.inputBuffer, isSliceAllowed);
             // FIXME - We assume a one-step codec here!
             tr.codec.process(tr.inputBuffer, buf);
         } while (buf.isFlag(DISCARD) && !buf.isFlag(END_OF_MEDIA));
@@ -109,24 +156,157 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
         return (BufferedImage) buf.data;
     }
 
+    /**
+     * Reads a sample of a video track, or a chunk of samples of an audio
+     * track.
+     * <p>
+     * If the file is memory mapped, then buffer.data is a read-only
+     * {@code ByteBuffer} slice of the file, which is only valid until the
+     * reader is closed. Otherwise, or if the samples can not be sliced,
+     * buffer.data is a byte array.
+     *
+     * @param track The track number.
+     * @param buffer The buffer for the media data.
+     */
     @Override
     public void read(int track, Buffer buffer) throws IOException {
-        throw new UnsupportedOperationException("Not supported yet.");
+        read(track, buffer, mappedFile != null);
+    }
+
+    /**
+     * Reads a sample of a video track, or a chunk of samples of an audio
+     * track.
+     *
+     * @param track The track number.
+     * @param buffer The buffer for the media data.
+     * @param isSliceAllowed Whether buffer.data may be a slice of the memory
+     * mapped file.
+     */
+    private void read(int track, Buffer buffer, boolean isSliceAllowed) throws IOException {
+        ensureRealized();
+        Track tr = tracks.get(track);
+        SampleTable samples = tr.samples;
+        if (tr.readIndex >= samples.size()) {
+            buffer.setFlagsTo(END_OF_MEDIA, DISCARD);
+            buffer.length = 0;
+            return;
+        }
+
+        int i = tr.readIndex;
+        long offset = samples.getOffset(i);
+        long length = samples.getLength(i);
+        long time = samples.getTime(i);
+        int sampleCount = samples.getSampleCount(i);
+        if (tr.mediaType == MediaType.VIDEO && sampleCount > 1) {
+            // Video samples which share an entry are read one by one
+            length /= sampleCount;
+            offset += length * tr.readSampleIndex;
+            time += (long) samples.getSampleDuration(i) * tr.readSampleIndex;
+            if (++tr.readSampleIndex == sampleCount) {
+                tr.readSampleIndex = 0;
+                tr.readIndex++;
+            }
+            sampleCount = 1;
+        } else {
+            tr.readIndex++;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Chunk is too large: " + length);
+        }
+
+        ByteBuffer slice = isSliceAllowed ? mappedFile.slice(offset, (int) length) : null;
+        if (slice != null) {
+            buffer.data = slice;
+        } else {
+            in.seek(offset);
+            byte[] b;
+            if (buffer.data instanceof byte[] && ((byte[]) buffer.data).length >= length) {
+                b = (byte[]) buffer.data;
+            } else {
+                buffer.data = b = new byte[(((int) length + 1023) / 1024) * 1024];
+            }
+            in.readFully(b, 0, (int) length);
+        }
+        buffer.offset = 0;
+        buffer.length = (int) length;
+        buffer.header = null;
+        buffer.sampleCount = sampleCount;
+        buffer.format = tr.format;
+        buffer.track = track;
+        buffer.sampleDuration = new Rational(samples.getSampleDuration(i), tr.mediaTimeScale);
+        buffer.timeStamp = new Rational(time, tr.mediaTimeScale);
+        buffer.flags = samples.isKeyframe(i) ? EnumSet.of(KEYFRAME) : EnumSet.noneOf(BufferFlag.class);
     }
 
     @Override
     public int nextTrack() throws IOException {
-        throw new UnsupportedOperationException("Not supported yet.");
+        ensureRealized();
+        Rational ts = null;
+        int nextTrack = -1;
+        for (int i = 0, n = tracks.size(); i < n; i++) {
+            Track tr = tracks.get(i);
+            if (tr.readIndex < tr.samples.size()) {
+                Rational trts = getReadTime(i);
+                if (ts == null || trts.compareTo(ts) < 0) {
+                    ts = trts;
+                    nextTrack = i;
+                }
+            }
+        }
+        return nextTrack;
     }
 
+    /**
+     * Sets the read time of all tracks to the closest sync sample before or
+     * at the specified time.
+     * <p>
+     * The sync samples are found in the sample tables of the tracks. If a
+     * track has already been read up to a sample between that sync sample
+     * and the specified time, the track is not rewound, so that reading can
+     * go on from there.
+     *
+     * @param newValue Time in seconds.
+     */
     @Override
-    public void setMovieReadTime(Rational newValue) {
-        throw new UnsupportedOperationException("Not supported yet.");
+    public void setMovieReadTime(Rational newValue) throws IOException {
+        ensureRealized();
+        for (int t = 0, n = tracks.size(); t < n; t++) {
+            Track tr = tracks.get(t);
+            SampleTable samples = tr.samples;
+            if (samples.isEmpty()) {
+                continue;
+            }
+            long sample = min(timeToSample(t, newValue), samples.getSampleCount() - 1);
+            int index = samples.findSample(sample);
+            int sampleIndex = (int) (sample - samples.getFirstSample(index));
+            if (tr.mediaType != MediaType.VIDEO) {
+                // Other tracks are read one entry at a time
+                sampleIndex = 0;
+            } else if (!samples.isKeyframe(index)) {
+                // The last sample of the preceding key frame entry
+                index = samples.findKeyframe(index);
+                sampleIndex = index < 0 ? 0 : samples.getSampleCount(index) - 1;
+                index = max(0, index);
+            }
+            long readSample = tr.readIndex < samples.size()
+                    ? samples.getFirstSample(tr.readIndex) + tr.readSampleIndex : samples.getSampleCount();
+            if (readSample < samples.getFirstSample(index) + sampleIndex || readSample > sample) {
+                tr.readIndex = index;
+                tr.readSampleIndex = sampleIndex;
+            }
+        }
     }
 
     @Override
     public Rational getReadTime(int track) throws IOException {
-        throw new UnsupportedOperationException("Not supported yet.");
+        ensureRealized();
+        Track tr = tracks.get(track);
+        SampleTable samples = tr.samples;
+        if (tr.readIndex >= samples.size()) {
+            return new Rational(samples.getDuration(), tr.mediaTimeScale);
+        }
+        return new Rational(samples.getTime(tr.readIndex)
+                + (long) tr.readSampleIndex * samples.getSampleDuration(tr.readIndex), tr.mediaTimeScale);
     }
 
     @Override
@@ -159,7 +339,8 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
             throw new UnsupportedOperationException("Track " + tr + " no codec found for format " + fmt);
         } else {
             if (fmt.get(MediaTypeKey) == MediaType.VIDEO) {
-                if (null == codec.setInputFormat(fmt)) {
+                if ((mappedFile == null || null == codec.setInputFormat(fmt.prepend(DataClassKey, ByteBuffer.class)))
+                        && null == codec.setInputFormat(fmt)) {
                     throw new UnsupportedOperationException("Track " + tr + " codec does not support input format " + fmt + ". codec=" + codec);
                 }
                 Format outFormat = fmt.prepend(MediaTypeKey, MediaType.VIDEO,//
@@ -175,7 +356,7 @@ public class QuickTimeReader extends QuickTimeInputStream implements MovieReader
     }
 
     private Codec createCodec(Format fmt) {
-        Codec[] codecs = Registry.getInstance().getDecoders(fmt.prepend(MimeTypeKey, MIME_AVI));
+        Codec[] codecs = Registry.getInstance().getDecoders(fmt.prepend(MimeTypeKey, MIME_QUICKTIME));
         return codecs.length == 0 ? null : codecs[0];
     }
 }
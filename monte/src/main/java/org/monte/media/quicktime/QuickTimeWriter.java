@@ -538,12 +538,7 @@ public class QuickTimeWriter extends QuickTimeOutputStream implements MovieWrite
 
             isSync = vt.outputBuffer.isFlag(KEYFRAME);
 
-            long offset = getRelativeStreamPosition();
-            OutputStream mdatOut = mdatAtom.getOutputStream();
-            mdatOut.write((byte[]) vt.outputBuffer.data, vt.outputBuffer.offset, vt.outputBuffer.length);
-
-            long length = getRelativeStreamPosition() - offset;
-            vt.addSample(new Sample(duration, offset, length), 1, isSync);
+            writeSample(track, (byte[]) vt.outputBuffer.data, vt.outputBuffer.offset, vt.outputBuffer.length, duration, isSync);
         }
     }
 
@@ -0,0 +1,378 @@
+/*
+ * @(#)SampleTable.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media.util;
+
+import java.util.Arrays;
+
+/**
+ * Holds the sample table of a track in primitive arrays.
+ * <p>
+ * Each entry of the table describes a chunk of one or more media samples,
+ * which have the same size and the same duration, and are stored one after
+ * the other in the file: the offset of the chunk, its length in bytes, the
+ * number of samples, the duration of a sample, whether the samples are key
+ * frames (sync samples), and the time of the chunk, which is the sum of the
+ * durations of the entries before it.
+ * <p>
+ * The table is stored column by column, in arrays which grow like an
+ * {@code ArrayList}. An entry takes 28 bytes and a bit, instead of one or
+ * more objects, and consecutive samples with the same properties can share
+ * an entry, see {@link #addToLast}. Subclasses can add columns by overriding
+ * {@link #setCapacity}.
+ *
+ * @version $Id$
+ */
+public class SampleTable {
+
+    private int size;
+    private long[] offsets;
+    private int[] lengths;
+    private int[] sampleCounts;
+    private int[] sampleDurations;
+    private long[] times;
+    /**
+     * The key frame flags, as a bit set.
+     */
+    private long[] keyframes;
+    private int keyframeCount;
+    /**
+     * The sum of the durations of all entries.
+     */
+    private long duration;
+    /**
+     * The sum of the sample counts of all entries.
+     */
+    private long sampleCount;
+    /**
+     * The number of the first sample of each entry. This column is only
+     * created when it is needed, see {@link #findSample}.
+     */
+    private long[] firstSamples;
+
+    public SampleTable() {
+        this(16);
+    }
+
+    public SampleTable(int initialCapacity) {
+        setCapacity(Math.max(1, initialCapacity));
+    }
+
+    /**
+     * Returns the number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the capacity of the columns.
+     */
+    protected int getCapacity() {
+        return offsets.length;
+    }
+
+    /**
+     * Sets the capacity of the columns. Subclasses which add columns must
+     * override this method, and resize their columns too.
+     *
+     * @param capacity The new capacity, which is at least {@code size()}.
+     */
+    protected void setCapacity(int capacity) {
+        if (offsets == null) {
+            offsets = new long[capacity];
+            lengths = new int[capacity];
+            sampleCounts = new int[capacity];
+            sampleDurations = new int[capacity];
+            times = new long[capacity];
+            keyframes = new long[(capacity + 63) >>> 6];
+        } else {
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            sampleCounts = Arrays.copyOf(sampleCounts, capacity);
+            sampleDurations = Arrays.copyOf(sampleDurations, capacity);
+            times = Arrays.copyOf(times, capacity);
+            keyframes = Arrays.copyOf(keyframes, (capacity + 63) >>> 6);
+        }
+    }
+
+    /**
+     * Adds an entry.
+     *
+     * @param offset The offset of the chunk in the file.
+     * @param length The length of the chunk in bytes, between 0 and 2^32-1.
+     * @param sampleCount The number of samples in the chunk.
+     * @param sampleDuration The duration of a sample, between 0 and 2^31-1.
+     * @param isKeyframe Whether the samples are key frames.
+     * @return The index of the entry.
+     */
+    public int add(long offset, long length, int sampleCount, long sampleDuration, boolean isKeyframe) {
+        if (length < 0 || length > 0xffffffffL) {
+            throw new IllegalArgumentException("length must be between 0 and 2^32-1:" + length);
+        }
+        if (sampleCount < 0) {
+            throw new IllegalArgumentException("sampleCount must not be negative:" + sampleCount);
+        }
+        if (sampleDuration < 0 || sampleDuration > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("sampleDuration must be between 0 and 2^31-1:" + sampleDuration);
+        }
+        if (size == offsets.length) {
+            setCapacity(size + (size >> 1) + 1);
+        }
+        int i = size++;
+        firstSamples = null;
+        offsets[i] = offset;
+        lengths[i] = (int) length;
+        this.sampleCounts[i] = sampleCount;
+        sampleDurations[i] = (int) sampleDuration;
+        times[i] = duration;
+        setKeyframe(i, isKeyframe);
+        duration += sampleDuration * sampleCount;
+        this.sampleCount += sampleCount;
+        return i;
+    }
+
+    /**
+     * Adds samples to the last entry, if they are stored right after it, and
+     * have the same length, duration and key frame flag as its samples.
+     *
+     * @param offset The offset of the first sample in the file.
+     * @param sampleLength The length of a sample in bytes.
+     * @param sampleCount The number of samples.
+     * @param sampleDuration The duration of a sample.
+     * @param isKeyframe Whether the samples are key frames.
+     * @return True if the samples have been added to the last entry, false
+     * if they need an entry of their own.
+     */
+    public boolean addToLast(long offset, long sampleLength, int sampleCount, long sampleDuration, boolean isKeyframe) {
+        if (size == 0 || sampleCount <= 0) {
+            return false;
+        }
+        int i = size - 1;
+        long length = lengths[i] & 0xffffffffL;
+        int count = sampleCounts[i];
+        if (count == 0
+                || offsets[i] + length != offset
+                || length != sampleLength * count
+                || sampleDurations[i] != sampleDuration
+                || isKeyframe(i) != isKeyframe
+                || (long) count + sampleCount > Integer.MAX_VALUE
+                || length + sampleLength * sampleCount > 0xffffffffL) {
+            return false;
+        }
+        firstSamples = null;
+        lengths[i] = (int) (length + sampleLength * sampleCount);
+        sampleCounts[i] = count + sampleCount;
+        duration += sampleDuration * sampleCount;
+        this.sampleCount += sampleCount;
+        return true;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        size = 0;
+        firstSamples = null;
+        Arrays.fill(keyframes, 0L);
+        keyframeCount = 0;
+        duration = 0;
+        sampleCount = 0;
+    }
+
+    /**
+     * Reduces the capacity of the columns to the number of entries.
+     */
+    public void trimToSize() {
+        if (size < offsets.length) {
+            setCapacity(Math.max(1, size));
+        }
+    }
+
+    /**
+     * Returns the offset of the chunk in the file.
+     */
+    public long getOffset(int index) {
+        checkIndex(index);
+        return offsets[index];
+    }
+
+    /**
+     * Returns the length of the chunk in bytes.
+     */
+    public long getLength(int index) {
+        checkIndex(index);
+        return lengths[index] & 0xffffffffL;
+    }
+
+    /**
+     * Returns the number of samples in the chunk.
+     */
+    public int getSampleCount(int index) {
+        checkIndex(index);
+        return sampleCounts[index];
+    }
+
+    /**
+     * Returns the duration of a sample in the chunk.
+     */
+    public int getSampleDuration(int index) {
+        checkIndex(index);
+        return sampleDurations[index];
+    }
+
+    /**
+     * Returns the duration of the chunk, that is the number of samples times
+     * the duration of a sample.
+     */
+    public long getDuration(int index) {
+        checkIndex(index);
+        return (long) sampleDurations[index] * sampleCounts[index];
+    }
+
+    /**
+     * Returns the time of the chunk, that is the sum of the durations of the
+     * entries before it.
+     */
+    public long getTime(int index) {
+        checkIndex(index);
+        return times[index];
+    }
+
+    public boolean isKeyframe(int index) {
+        checkIndex(index);
+        return (keyframes[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public void setKeyframe(int index, boolean isKeyframe) {
+        checkIndex(index);
+        long bit = 1L << index;
+        boolean wasKeyframe = (keyframes[index >>> 6] & bit) != 0;
+        if (isKeyframe && !wasKeyframe) {
+            keyframes[index >>> 6] |= bit;
+            keyframeCount++;
+        } else if (!isKeyframe && wasKeyframe) {
+            keyframes[index >>> 6] &= ~bit;
+            keyframeCount--;
+        }
+    }
+
+    /**
+     * Returns true if all entries are key frames.
+     */
+    public boolean isAllKeyframes() {
+        return keyframeCount == size;
+    }
+
+    /**
+     * Returns the index of the last key frame at or before the specified
+     * index, or -1 if there is none.
+     */
+    public int findKeyframe(int index) {
+        if (index >= size) {
+            index = size - 1;
+        }
+        if (index < 0) {
+            return -1;
+        }
+        int w = index >>> 6;
+        long word = keyframes[w] & (-1L >>> (63 - (index & 63)));
+        while (word == 0) {
+            if (w == 0) {
+                return -1;
+            }
+            word = keyframes[--w];
+        }
+        return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+    }
+
+    /**
+     * Returns the index of the entry which contains the specified time. Returns
+     * 0 if the time is before the first entry, and the index of the last entry
+     * if the time is after it. Returns -1 if the table is empty.
+     */
+    public int findEntry(long time) {
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (times[mid] <= time) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high < 0 ? -1 : low;
+    }
+
+    /**
+     * Returns the number of the first sample of the entry, that is the sum of
+     * the sample counts of the entries before it.
+     */
+    public long getFirstSample(int index) {
+        checkIndex(index);
+        ensureFirstSamples();
+        return firstSamples[index];
+    }
+
+    /**
+     * Returns the index of the entry which contains the specified sample.
+     * Returns 0 if the sample number is negative, and the index of the last
+     * entry if it is after it. Returns -1 if the table is empty.
+     * <p>
+     * The first call after entries have been added takes linear time, the
+     * following calls take logarithmic time.
+     */
+    public int findSample(long sample) {
+        ensureFirstSamples();
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firstSamples[mid] <= sample) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high < 0 ? -1 : low;
+    }
+
+    private void ensureFirstSamples() {
+        if (firstSamples == null) {
+            firstSamples = new long[size];
+            long sample = 0;
+            for (int i = 0; i < size; i++) {
+                firstSamples[i] = sample;
+                sample += sampleCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the durations of all entries.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the sum of the sample counts of all entries.
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    private void checkIndex(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
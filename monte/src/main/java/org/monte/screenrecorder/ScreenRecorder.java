@@ -25,22 +25,33 @@ import java.awt.Toolkit;
 import java.awt.event.AWTEventListener;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import static java.lang.Math.*;
 import java.nio.ByteOrder;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.BooleanControl;
@@ -150,9 +161,15 @@ public class ScreenRecorder extends AbstractStateModel {
      */
     private ArrayBlockingQueue<Buffer> mouseCaptures;
     /**
-     * Timer for screen captures.
+     * Timer for screen captures. Null when the screen is captured by a
+     * shared screen capture.
      */
     private ScheduledThreadPoolExecutor screenCaptureTimer;
+    /**
+     * Captures the screen for this recorder and others, or null if this
+     * recorder captures the screen on its own.
+     */
+    private SharedScreenCapture sharedScreenCapture;
     /**
      * Timer for mouse captures.
      */
@@ -183,6 +200,8 @@ public class ScreenRecorder extends AbstractStateModel {
      * This codec encodes a video frame.
      */
     private Codec frameEncoder;
+    private Format videoInputFormat;
+    private Format videoOutputFormat;
     /**
      * outputTime and ffrDuration are needed for conversion of the video stream
      * from variable frame rate to fixed frame rate. FIXME - Do this with a
@@ -207,7 +226,7 @@ public class ScreenRecorder extends AbstractStateModel {
     private ScreenGrabber screenGrabber;
     protected MouseGrabber mouseGrabber;
     private ScheduledFuture audioFuture;
-    private ScheduledFuture screenFuture;
+    private Future<?> screenFuture;
     protected ScheduledFuture mouseFuture;
     /**
      * Where to store the movie.
@@ -216,10 +235,83 @@ public class ScreenRecorder extends AbstractStateModel {
     private AWTEventListener awtEventListener;
     private long maxRecordingTime = 60 * 60 * 1000;
     private long maxFileSize = Long.MAX_VALUE;
+    /**
+     * Duration of the movie fragments in milliseconds, 0 if the movie files
+     * are not fragmented.
+     */
+    private long fragmentDuration = 0;
     /**
      * Audio mixer used for audio input. Set to null for default audio input.
      */
     private Mixer mixer;
+    /**
+     * Number of threads encoding the video frames. Set to 0 to encode the
+     * frames on the screen capture thread.
+     */
+    private int encoderThreads = 0;
+    /**
+     * Max number of raw frames waiting for an encoder thread. Set to 0 for
+     * twice the number of encoder threads.
+     */
+    private int encodeQueueCapacity = 0;
+    /**
+     * Raw video frames waiting for an encoder thread.
+     */
+    private volatile ArrayBlockingQueue<EncodeJob> encodeQueue;
+    /**
+     * The format of the captured video frames.
+     */
+    private static final Format VIDEO_FRAME_FORMAT = new Format(MediaTypeKey, MediaType.VIDEO, EncodingKey, ENCODING_BUFFERED_IMAGE).intern();
+    /**
+     * Jobs available for the captured frames. Jobs are re-used, together with
+     * their buffer and their copy of the frame.
+     */
+    private ArrayBlockingQueue<EncodeJob> freeJobs;
+    private int jobCount;
+    private int maxJobCount;
+    private ArrayList<Thread> encoderWorkers;
+    /**
+     * Encoded frames waiting for their predecessors, by sequence number.
+     */
+    private final TreeMap<Long, List<Buffer>> encodedFrames = new TreeMap<Long, List<Buffer>>();
+    private long nextEncodeSequence;
+    private long nextWriteSequence;
+    /**
+     * Time stamp of the first frame dropped since the last encoded frame, or
+     * null.
+     */
+    private Rational droppedTimeStamp;
+    private final AtomicLong droppedFrameCount = new AtomicLong();
+    private final AtomicLong encodedFrameCount = new AtomicLong();
+    private volatile int maxEncodeQueueDepth;
+    /**
+     * Whether unchanged frames are written as repeats of the previous frame,
+     * instead of being encoded.
+     */
+    private boolean skipUnchangedFrames = false;
+    private boolean intraFrameEncoding;
+    private long previousFrameHash;
+    private boolean hasPreviousFrameHash;
+    /**
+     * With a variable frame rate, the last video buffer is held back by the
+     * writer thread, so that the duration of unchanged frames can be added
+     * to it.
+     */
+    private boolean holdVideoBuffers;
+    private Buffer lastVideoBuffer;
+    private final AtomicLong skippedFrameCount = new AtomicLong();
+    private final AtomicLong encodingNanos = new AtomicLong();
+    private final AtomicLong changeDetectionNanos = new AtomicLong();
+    /**
+     * Duration of the ring buffer in milliseconds. Set to 0 to write all the
+     * frames to movie files.
+     */
+    private long ringBufferDuration = 0;
+    private long ringBufferMaxSize = 256L * 1024 * 1024;
+    /**
+     * Holds the last encoded frames in ring buffer mode, null otherwise.
+     */
+    private volatile FrameRing ringBuffer;
 
     /**
      * Creates a screen recorder.
@@ -295,7 +387,7 @@ public class ScreenRecorder extends AbstractStateModel {
             Format screenFormat,
             Format mouseFormat,
             Format audioFormat) throws IOException, AWTException {
-        this(cfg, null, fileFormat, screenFormat, mouseFormat, audioFormat, null);
+        this(cfg, captureArea, fileFormat, screenFormat, mouseFormat, audioFormat, null);
     }
 
     /**
@@ -358,16 +450,46 @@ public class ScreenRecorder extends AbstractStateModel {
         recordedFiles.add(f);
 
         MovieWriter mw = w = Registry.getInstance().getWriter(fileFormat, f);
+        if (fragmentDuration > 0 && mw instanceof QuickTimeWriter) {
+            QuickTimeWriter qtw = (QuickTimeWriter) mw;
+            qtw.setFragmentDuration(fragmentDuration * qtw.getMovieTimeScale() / 1000);
+        }
+        addTracks(mw);
+        frameEncoder = createFrameEncoder();
+
+        fileStartTime = System.currentTimeMillis();
+        return mw;
+    }
+
+    /**
+     * Creates the movie writer used in ring buffer mode. It writes into
+     * memory, and is only used for setting up the tracks and the encoders :
+     * the encoded frames go to the ring buffer.
+     */
+    private MovieWriter createRingBufferWriter() throws IOException {
+        MovieWriter mw = w = Registry.getInstance().getWriter(fileFormat,
+                new MemoryCacheImageOutputStream(new ByteArrayOutputStream()));
+        if (mw == null) {
+            throw new IOException("No writer for format " + fileFormat);
+        }
+        addTracks(mw);
+        frameEncoder = createFrameEncoder();
+        return mw;
+    }
 
-        // Create the video encoder
+    /**
+     * Adds the video and audio tracks to passed movie writer.
+     */
+    private void addTracks(MovieWriter mw) throws IOException {
+        // Create the video format
         Rational videoRate = Rational.max(screenFormat.get(FrameRateKey), mouseFormat.get(FrameRateKey));
         ffrDuration = videoRate.inverse();
-        Format videoInputFormat = screenFormat.prepend(MediaTypeKey, MediaType.VIDEO,
+        videoInputFormat = screenFormat.prepend(MediaTypeKey, MediaType.VIDEO,
                 EncodingKey, ENCODING_BUFFERED_IMAGE,
                 WidthKey, captureArea.width,
                 HeightKey, captureArea.height,
                 FrameRateKey, videoRate);
-        Format videoOutputFormat = screenFormat.prepend(
+        videoOutputFormat = screenFormat.prepend(
                 FrameRateKey, videoRate,
                 MimeTypeKey, fileFormat.get(MimeTypeKey))//
                 //
@@ -375,19 +497,35 @@ public class ScreenRecorder extends AbstractStateModel {
                 WidthKey, captureArea.width,
                 HeightKey, captureArea.height);
 
-        videoTrack = w.addTrack(videoOutputFormat);
+        videoTrack = mw.addTrack(videoOutputFormat);
         if (audioFormat != null) {
-            audioTrack = w.addTrack(audioFormat);
+            audioTrack = mw.addTrack(audioFormat);
+        }
+
+        // FIXME - There should be no need for format-specific code.
+        if (screenFormat.get(DepthKey) == 8) {
+            if (mw instanceof AVIWriter) {
+                AVIWriter aviw = (AVIWriter) mw;
+                aviw.setPalette(videoTrack, Colors.createMacColors());
+            } else if (mw instanceof QuickTimeWriter) {
+                QuickTimeWriter qtw = (QuickTimeWriter) mw;
+                qtw.setVideoColorTable(videoTrack, Colors.createMacColors());
+            }
         }
+    }
 
+    /**
+     * Creates a video encoder for the formats of the current movie writer.
+     * The encoder worker threads each get their own encoder.
+     */
+    protected Codec createFrameEncoder() throws IOException {
         Codec encoder = Registry.getInstance().getEncoder(w.getFormat(videoTrack));
         if (encoder == null) {
             throw new IOException("No encoder for format " + w.getFormat(videoTrack));
         }
-        frameEncoder = encoder;
-        frameEncoder.setInputFormat(videoInputFormat);
-        frameEncoder.setOutputFormat(videoOutputFormat);
-        if (frameEncoder.getOutputFormat() == null) {
+        encoder.setInputFormat(videoInputFormat);
+        encoder.setOutputFormat(videoOutputFormat);
+        if (encoder.getOutputFormat() == null) {
             throw new IOException("Unable to encode video frames in this output format:\n" + videoOutputFormat);
         }
 
@@ -399,23 +537,9 @@ public class ScreenRecorder extends AbstractStateModel {
             ScaleImageCodec sic = new ScaleImageCodec();
             sic.setInputFormat(videoInputFormat);
             sic.setOutputFormat(videoOutputFormat.intersectKeys(WidthKey, HeightKey).append(videoInputFormat));
-            frameEncoder = new CodecChain(sic, frameEncoder);
-        }
-
-
-        // FIXME - There should be no need for format-specific code.
-        if (screenFormat.get(DepthKey) == 8) {
-            if (w instanceof AVIWriter) {
-                AVIWriter aviw = (AVIWriter) w;
-                aviw.setPalette(videoTrack, Colors.createMacColors());
-            } else if (w instanceof QuickTimeWriter) {
-                QuickTimeWriter qtw = (QuickTimeWriter) w;
-                qtw.setVideoColorTable(videoTrack, Colors.createMacColors());
-            }
+            encoder = new CodecChain(sic, encoder);
         }
-
-        fileStartTime = System.currentTimeMillis();
-        return mw;
+        return encoder;
     }
 
     /**
@@ -482,13 +606,21 @@ public class ScreenRecorder extends AbstractStateModel {
     public void start() throws IOException {
         stop();
         recordedFiles.clear();
-        createMovieWriter();
+        if (ringBufferDuration > 0) {
+            ringBuffer = new FrameRing(ringBufferDuration, ringBufferMaxSize);
+            createRingBufferWriter();
+        } else {
+            ringBuffer = null;
+            createMovieWriter();
+        }
         try {
             recordingStartTime = System.currentTimeMillis();
             recordingStopTime = Long.MAX_VALUE;
 
             outputTime = new Rational(0, 0);
+            resetStatistics();
             startWriter();
+            startEncoders();
             try {
                 startScreenCapture();
             } catch (AWTException e) {
@@ -524,14 +656,34 @@ public class ScreenRecorder extends AbstractStateModel {
      * Starts screen capture.
      */
     private void startScreenCapture() throws AWTException, IOException {
-        screenCaptureTimer = new ScheduledThreadPoolExecutor(1);
-        int delay = max(1, (int) (1000 / screenFormat.get(FrameRateKey).doubleValue()));
         screenGrabber = new ScreenGrabber(this, recordingStartTime);
-        screenFuture = screenCaptureTimer.scheduleAtFixedRate(screenGrabber, delay, delay, TimeUnit.MILLISECONDS);
+        if (sharedScreenCapture != null) {
+            screenFuture = sharedScreenCapture.add(screenGrabber);
+        } else {
+            screenCaptureTimer = new ScheduledThreadPoolExecutor(1);
+            int delay = max(1, (int) (1000 / screenFormat.get(FrameRateKey).doubleValue()));
+            screenFuture = screenCaptureTimer.scheduleAtFixedRate(screenGrabber, delay, delay, TimeUnit.MILLISECONDS);
+        }
         screenGrabber.setFuture(screenFuture);
     }
 
-    private static class ScreenGrabber implements Runnable {
+    /**
+     * Sets the shared screen capture which captures the screen for this
+     * recorder. The shared capture hands this recorder the capture area of
+     * each of its screen captures, at its own frame rate. Set to null to let
+     * this recorder capture the screen on its own, which is the default.
+     * <p>
+     * Takes effect at the next call to {@code start()}.
+     */
+    public void setSharedScreenCapture(SharedScreenCapture newValue) {
+        sharedScreenCapture = newValue;
+    }
+
+    public SharedScreenCapture getSharedScreenCapture() {
+        return sharedScreenCapture;
+    }
+
+    private static class ScreenGrabber implements Runnable, SharedScreenCapture.Consumer {
 
         /**
          * Previously draw mouse location. This is used to have the last mouse
@@ -545,9 +697,9 @@ public class ScreenRecorder extends AbstractStateModel {
          */
         private BufferedImage screenCapture;
         private ScreenRecorder recorder;
-        private ScheduledThreadPoolExecutor screenTimer;
         /**
-         * The AWT Robot which we use for capturing the screen.
+         * The AWT Robot which we use for capturing the screen. Null when the
+         * screen is captured by a shared screen capture.
          */
         private Robot robot;
         private Rectangle captureArea;
@@ -567,19 +719,30 @@ public class ScreenRecorder extends AbstractStateModel {
          */
         private ArrayBlockingQueue<Buffer> mouseCaptures;
         /**
-         * The time the previous screen frame was captured.
+         * The time the previous screen frame was captured, in milliseconds.
+         */
+        private long prevScreenCaptureTime;
+        /**
+         * The buffer passed on to the recorder, re-used for all frames.
          */
-        private Rational prevScreenCaptureTime;
+        private final Buffer buf = new Buffer();
+        /**
+         * The duration of the previous frame, in milliseconds and as a
+         * rational. Frames are usually captured at a regular interval, so
+         * the rational can be re-used.
+         */
+        private long prevDuration = -1;
+        private Rational prevDurationRational;
         private final Object sync;
         private BufferedImage cursorImg, cursorImgPressed;
         private Point cursorOffset;
         private int videoTrack;
         private long startTime;
         private volatile long stopTime = Long.MAX_VALUE;
-        private ScheduledFuture future;
+        private Future<?> future;
         private long sequenceNumber;
 
-        public void setFuture(ScheduledFuture future) {
+        public void setFuture(Future<?> future) {
             this.future = future;
         }
 
@@ -594,7 +757,9 @@ public class ScreenRecorder extends AbstractStateModel {
         public ScreenGrabber(ScreenRecorder recorder, long startTime) throws AWTException, IOException {
             this.recorder = recorder;
             this.captureArea = recorder.captureArea;
-            this.robot = new Robot(recorder.captureDevice);
+            if (recorder.sharedScreenCapture == null) {
+                this.robot = new Robot(recorder.captureDevice);
+            }
             this.mouseFormat = recorder.mouseFormat;
             this.mouseCaptures = recorder.mouseCaptures;
             this.sync = recorder.sync;
@@ -602,7 +767,8 @@ public class ScreenRecorder extends AbstractStateModel {
             this.cursorImgPressed = recorder.cursorImgPressed;
             this.cursorOffset = recorder.cursorOffset;
             this.videoTrack = recorder.videoTrack;
-            this.prevScreenCaptureTime = new Rational(startTime, 1000);
+            this.prevScreenCaptureTime = startTime;
+            this.buf.format = VIDEO_FRAME_FORMAT;
             this.startTime = startTime;
 
             Format screenFormat = recorder.screenFormat;
@@ -627,8 +793,24 @@ public class ScreenRecorder extends AbstractStateModel {
                 grabScreen();
             } catch (Throwable ex) {
                 ex.printStackTrace();
-                screenTimer.shutdown();
+                future.cancel(false);
+                recorder.recordingFailed(ex.getMessage());
+            }
+        }
+
+        @Override
+        public Rectangle getCaptureArea() {
+            return captureArea;
+        }
+
+        @Override
+        public boolean screenCaptured(BufferedImage capture, long timeBeforeCapture, long timeAfterCapture) {
+            try {
+                return processScreenCapture(capture, timeBeforeCapture, timeAfterCapture);
+            } catch (Throwable ex) {
+                ex.printStackTrace();
                 recorder.recordingFailed(ex.getMessage());
+                return false;
             }
         }
 
@@ -638,10 +820,10 @@ public class ScreenRecorder extends AbstractStateModel {
          */
         private void grabScreen() throws IOException, InterruptedException {
             // Capture the screen
-            BufferedImage previousScreenCapture = screenCapture;
+            BufferedImage capture;
             long timeBeforeCapture = System.currentTimeMillis();
             try {
-                screenCapture = robot.createScreenCapture(captureArea);
+                capture = robot.createScreenCapture(captureArea);
             } catch (IllegalMonitorStateException e) {
                 //IOException ioe= new IOException("Could not grab screen");
                 //ioe.initCause(e);
@@ -650,20 +832,34 @@ public class ScreenRecorder extends AbstractStateModel {
                 return;
             }
             long timeAfterCapture = System.currentTimeMillis();
+            if (!processScreenCapture(capture, timeBeforeCapture, timeAfterCapture)) {
+                future.cancel(false);
+            }
+        }
+
+        /**
+         * Generates video images from a screen capture with pending mouse
+         * captures and writes them into the movie file.
+         *
+         * @return false if the recording has been stopped.
+         */
+        private boolean processScreenCapture(BufferedImage capture, long timeBeforeCapture, long timeAfterCapture)
+                throws IOException, InterruptedException {
+            BufferedImage previousScreenCapture = screenCapture;
+            screenCapture = capture;
             if (previousScreenCapture == null) {
                 previousScreenCapture = screenCapture;
             }
             videoGraphics.drawImage(previousScreenCapture, 0, 0, null);
 
-            Buffer buf = new Buffer();
-            buf.format = new Format(MediaTypeKey, MediaType.VIDEO, EncodingKey, ENCODING_BUFFERED_IMAGE);
             // Generate video frames with mouse cursor painted on them
             boolean hasMouseCapture = false;
             if (mouseFormat != null && mouseFormat.get(FrameRateKey).intValue() > 0) {
-                while (!mouseCaptures.isEmpty() && mouseCaptures.peek().timeStamp.compareTo(new Rational(timeAfterCapture, 1000)) < 0) {
+                while (!mouseCaptures.isEmpty() && toMillis(mouseCaptures.peek().timeStamp) < timeAfterCapture) {
                     Buffer mouseCapture = mouseCaptures.poll();
-                    if (mouseCapture.timeStamp.compareTo(prevScreenCaptureTime) > 0) {
-                        if (mouseCapture.timeStamp.compareTo(new Rational(timeBeforeCapture, 1000)) < 0) {
+                    long mouseCaptureTime = toMillis(mouseCapture.timeStamp);
+                    if (mouseCaptureTime > prevScreenCaptureTime) {
+                        if (mouseCaptureTime < timeBeforeCapture) {
                             previousScreenCapture = screenCapture;
                             videoGraphics.drawImage(previousScreenCapture, 0, 0, null);
                         }
@@ -674,7 +870,7 @@ public class ScreenRecorder extends AbstractStateModel {
                         Point p = prevDrawnMouseLocation;
 
                         long localStopTime = getStopTime();
-                        if (mouseCapture.timeStamp.compareTo(new Rational(localStopTime, 1000)) > 0) {
+                        if (mouseCaptureTime > localStopTime) {
                             break;
                         }
                         {
@@ -686,17 +882,8 @@ public class ScreenRecorder extends AbstractStateModel {
                             } else {
                                 videoGraphics.drawImage(cursorImg, p.x + cursorOffset.x, p.y + cursorOffset.y, null);
                             }
-                            buf.clearFlags();
-                            buf.data = videoImg;
-                            buf.sampleDuration = mouseCapture.timeStamp.subtract(prevScreenCaptureTime);
-                            buf.timeStamp = prevScreenCaptureTime.subtract(new Rational(startTime, 1000));
-                            buf.track = videoTrack;
-                            buf.sequenceNumber = sequenceNumber++;
-
                             // Fudge mouse position into the header
-                            buf.header = p.x == Integer.MAX_VALUE ? null : p;
-                            recorder.write(buf);
-                            prevScreenCaptureTime = mouseCapture.timeStamp;
+                            writeFrame(mouseCaptureTime, p.x == Integer.MAX_VALUE ? null : p);
 
                             // erase cursor
                             videoGraphics.drawImage(previousScreenCapture, //
@@ -710,7 +897,7 @@ public class ScreenRecorder extends AbstractStateModel {
                     }
                 }
 
-                if (!hasMouseCapture && prevScreenCaptureTime.compareTo(new Rational(getStopTime(), 1000)) < 0) {
+                if (!hasMouseCapture && prevScreenCaptureTime < getStopTime()) {
                     Point p = prevDrawnMouseLocation;
                     if (p != null) {
                         if (prevMousePressed) {
@@ -720,14 +907,7 @@ public class ScreenRecorder extends AbstractStateModel {
                         }
                     }
 
-                    buf.data = videoImg;
-                    buf.sampleDuration = new Rational(timeAfterCapture, 1000).subtract(prevScreenCaptureTime);
-                    buf.timeStamp = prevScreenCaptureTime.subtract(new Rational(startTime, 1000));
-                    buf.track = videoTrack;
-                    buf.sequenceNumber = sequenceNumber++;
-                    buf.header = p.x == Integer.MAX_VALUE ? null : p;
-                    recorder.write(buf);
-                    prevScreenCaptureTime = new Rational(timeAfterCapture, 1000);
+                    writeFrame(timeAfterCapture, p.x == Integer.MAX_VALUE ? null : p);
                     if (p != null) {//erase cursor
                         videoGraphics.drawImage(previousScreenCapture, //
                                 p.x + cursorOffset.x, p.y + cursorOffset.y,//
@@ -737,20 +917,40 @@ public class ScreenRecorder extends AbstractStateModel {
                                 null);
                     }
                 }
-            } else if (prevScreenCaptureTime.compareTo(new Rational(getStopTime(), 1000)) < 0) {
-                buf.data = videoImg;
-                buf.sampleDuration = new Rational(timeAfterCapture, 1000).subtract(prevScreenCaptureTime);
-                buf.timeStamp = prevScreenCaptureTime.subtract(new Rational(startTime, 1000));
-                buf.track = videoTrack;
-                buf.sequenceNumber = sequenceNumber++;
-                buf.header = null; // no mouse position has been recorded for this frame
-                recorder.write(buf);
-                prevScreenCaptureTime = new Rational(timeAfterCapture, 1000);
+            } else if (prevScreenCaptureTime < getStopTime()) {
+                // no mouse position has been recorded for this frame
+                writeFrame(timeAfterCapture, null);
             }
 
-            if (timeBeforeCapture > getStopTime()) {
-                future.cancel(false);
+            return timeBeforeCapture <= getStopTime();
+        }
+
+        /**
+         * Writes the video image as the frame which lasts from the previous
+         * capture time to {@code endTime}.
+         */
+        private void writeFrame(long endTime, Point mouseLocation) throws IOException, InterruptedException {
+            long duration = endTime - prevScreenCaptureTime;
+            if (duration != prevDuration) {
+                prevDuration = duration;
+                prevDurationRational = new Rational(duration, 1000);
             }
+            buf.clearFlags();
+            buf.data = videoImg;
+            buf.sampleDuration = prevDurationRational;
+            buf.timeStamp = new Rational(prevScreenCaptureTime - startTime, 1000);
+            buf.track = videoTrack;
+            buf.sequenceNumber = sequenceNumber++;
+            buf.header = mouseLocation;
+            recorder.write(buf);
+            prevScreenCaptureTime = endTime;
+        }
+
+        /**
+         * Converts a time stamp of a mouse capture to milliseconds.
+         */
+        private static long toMillis(Rational time) {
+            return time.getNumerator() * 1000 / time.getDenominator();
         }
 
         public void close() {
@@ -1170,10 +1370,15 @@ public class ScreenRecorder extends AbstractStateModel {
                             Buffer buf = writerQueue.take();
                             doWrite(buf);
                         } catch (InterruptedException ex) {
-                            // We have been interrupted, terminate
+                            // We have been interrupted, write the pending
+                            // buffers and terminate
+                            for (Buffer buf = writerQueue.poll(); buf != null; buf = writerQueue.poll()) {
+                                doWrite(buf);
+                            }
                             break;
                         }
                     }
+                    flushVideoBuffer();
                 } catch (Throwable e) {
                     e.printStackTrace();
                     recordingFailed(e.getMessage()==null?e.toString():e.getMessage());
@@ -1207,7 +1412,7 @@ public class ScreenRecorder extends AbstractStateModel {
         if (state == State.RECORDING) {
             recordingStopTime = System.currentTimeMillis();
             stopMouseCapture();
-            if (screenCaptureTimer != null) {
+            if (screenGrabber != null) {
                 screenGrabber.setStopTime(recordingStopTime);
             }
             if (audioCaptureTimer != null) {
@@ -1215,16 +1420,18 @@ public class ScreenRecorder extends AbstractStateModel {
             }
             try {
                 waitUntilMouseCaptureStopped();
-                if (screenCaptureTimer != null) {
+                if (screenGrabber != null) {
                     try {
                         screenFuture.get();
                     } catch (InterruptedException ex) {
                     } catch (CancellationException ex) {
                     } catch (ExecutionException ex) {
                     }
-                    screenCaptureTimer.shutdown();
-                    screenCaptureTimer.awaitTermination(5000, TimeUnit.MILLISECONDS);
-                    screenCaptureTimer = null;
+                    if (screenCaptureTimer != null) {
+                        screenCaptureTimer.shutdown();
+                        screenCaptureTimer.awaitTermination(5000, TimeUnit.MILLISECONDS);
+                        screenCaptureTimer = null;
+                    }
                     screenGrabber.close();
                     screenGrabber = null;
                 }
@@ -1244,11 +1451,24 @@ public class ScreenRecorder extends AbstractStateModel {
             } catch (InterruptedException ex) {
                 // nothing to do
             }
+            stopEncoders();
             stopWriter();
+            releaseFrameEncoder();
             setState(State.DONE, null);
         }
     }
 
+    /**
+     * Gives the frame encoder back to the registry, so that the next
+     * recording started from this thread can reuse it.
+     */
+    private void releaseFrameEncoder() {
+        if (frameEncoder != null && !(frameEncoder instanceof CodecChain)) {
+            Registry.getInstance().releaseCodec(frameEncoder);
+        }
+        frameEncoder = null;
+    }
+
     private void stopWriter() throws IOException {
         Thread pendingWriterThread = writerThread;
         writerThread = null;
@@ -1263,10 +1483,378 @@ public class ScreenRecorder extends AbstractStateModel {
             ex.printStackTrace();
         }
         if (w != null) {
-            w.close();
+            if (ringBuffer == null) {
+                w.close();
+            } // else nothing was written, there's nothing to finish
             w = null;
         }
     }
+
+    /**
+     * A captured video frame, waiting for an encoder thread. Jobs are pooled:
+     * the buffer, the image and the mouse location are re-used for other
+     * frames once the frame has been encoded.
+     */
+    private static class EncodeJob {
+
+        long sequence;
+        final Buffer buf = new Buffer();
+        /**
+         * The copy of the frame. Null until a frame needs to be copied.
+         */
+        BufferedImage image;
+        final Point mouseLocation = new Point();
+        int count;
+        boolean fixedFrameRate;
+        boolean unchanged;
+    }
+    /**
+     * Tells an encoder thread to terminate.
+     */
+    private static final EncodeJob END_OF_FRAMES = new EncodeJob();
+    private final Object encodeLock = new Object();
+
+    /**
+     * Starts the encoder threads, if enabled. <p> Only encoders which encode
+     * each frame independently (JPEG, PNG) can run in parallel. The others
+     * (Animation, TechSmith, DosBox) are given a single thread, which still
+     * takes the encoding off the screen capture thread.
+     */
+    private void startEncoders() throws IOException {
+        stopEncoders();
+        int threads = encoderThreads;
+        if (threads <= 0) {
+            return;
+        }
+        if (!isIntraFrameEncoding(videoOutputFormat)) {
+            threads = 1;
+        }
+        int capacity = encodeQueueCapacity > 0 ? encodeQueueCapacity : 2 * threads;
+        final ArrayBlockingQueue<EncodeJob> queue = new ArrayBlockingQueue<EncodeJob>(capacity);
+        final ArrayBlockingQueue<EncodeJob> jobs = new ArrayBlockingQueue<EncodeJob>(capacity + threads);
+        synchronized (encodeLock) {
+            freeJobs = jobs;
+            jobCount = 0;
+            maxJobCount = capacity + threads;
+            nextEncodeSequence = 0;
+            droppedTimeStamp = null;
+        }
+        synchronized (encodedFrames) {
+            encodedFrames.clear();
+            nextWriteSequence = 0;
+        }
+
+        encoderWorkers = new ArrayList<Thread>(threads);
+        for (int i = 0; i < threads; i++) {
+            final Codec encoder = createFrameEncoder();
+            Thread t = new Thread("ScreenRecorder-encoder-" + (i + 1)) {
+                @Override
+                public void run() {
+                    encodeFrames(queue, jobs, encoder);
+                }
+            };
+            t.setDaemon(true);
+            encoderWorkers.add(t);
+            t.start();
+        }
+        encodeQueue = queue;
+    }
+
+    /**
+     * Resets the statistics and the frame change detection.
+     */
+    private void resetStatistics() {
+        droppedFrameCount.set(0);
+        encodedFrameCount.set(0);
+        skippedFrameCount.set(0);
+        encodingNanos.set(0);
+        changeDetectionNanos.set(0);
+        maxEncodeQueueDepth = 0;
+        hasPreviousFrameHash = false;
+        intraFrameEncoding = isIntraFrameEncoding(videoOutputFormat);
+        holdVideoBuffers = skipUnchangedFrames
+                && !w.getFormat(videoTrack).get(FixedFrameRateKey, false);
+        lastVideoBuffer = null;
+    }
+
+    private static boolean isIntraFrameEncoding(Format format) {
+        String encoding = format.get(EncodingKey);
+        return ENCODING_QUICKTIME_JPEG.equals(encoding)
+                || ENCODING_AVI_MJPG.equals(encoding)
+                || ENCODING_QUICKTIME_PNG.equals(encoding)
+                || ENCODING_AVI_PNG.equals(encoding);
+    }
+
+    /**
+     * Stops the encoder threads, once they have encoded all the queued
+     * frames.
+     */
+    private void stopEncoders() {
+        ArrayBlockingQueue<EncodeJob> queue = encodeQueue;
+        ArrayList<Thread> workers = encoderWorkers;
+        encodeQueue = null;
+        encoderWorkers = null;
+        if (workers == null) {
+            return;
+        }
+        try {
+            for (int i = 0; i < workers.size(); i++) {
+                queue.put(END_OF_FRAMES);
+            }
+            for (Thread t : workers) {
+                t.join();
+            }
+        } catch (InterruptedException ex) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * The encoder thread loop.
+     */
+    private void encodeFrames(ArrayBlockingQueue<EncodeJob> queue, ArrayBlockingQueue<EncodeJob> jobs, Codec encoder) {
+        boolean failed = false;
+        while (true) {
+            EncodeJob job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if (job == END_OF_FRAMES) {
+                return;
+            }
+            List<Buffer> encoded = Collections.emptyList();
+            long sequence = job.sequence;
+            try {
+                if (!failed) {
+                    encoded = encodeFrame(encoder, job.buf, job.count, job.fixedFrameRate, job.unchanged);
+                }
+            } catch (Throwable e) {
+                // keep consuming the queue, so that nobody waits on us
+                failed = true;
+                e.printStackTrace();
+                recordingFailed(e.getMessage() == null ? e.toString() : e.getMessage());
+            } finally {
+                jobs.offer(job);
+            }
+            try {
+                frameEncoded(sequence, encoded);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Encodes a video frame. With a fixed frame rate, the frame fills
+     * {@code count} consecutive samples. <p> Samples which repeat the
+     * previous frame are not encoded if possible : they are passed on to the
+     * writer thread as buffers without data, with the {@code SAME_DATA}
+     * flag.
+     */
+    private List<Buffer> encodeFrame(Codec encoder, Buffer buf, int count, boolean fixedFrameRate, boolean unchanged) throws IOException {
+        List<Buffer> res = new ArrayList<Buffer>(count);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                // fixed frame rate : repeat the frame
+                buf.timeStamp = buf.timeStamp.add(buf.sampleDuration);
+            }
+            if (unchanged || i > 0) {
+                if (isRepeat(fixedFrameRate)) {
+                    Buffer repeat = new Buffer();
+                    repeat.setMetaTo(buf);
+                    repeat.setFlag(SAME_DATA);
+                    repeat.clearFlag(KEYFRAME);
+                    res.add(repeat);
+                    skippedFrameCount.incrementAndGet();
+                    continue;
+                }
+                buf.setFlag(SAME_DATA);
+            }
+            Buffer wbuf = new Buffer();
+            long start = System.nanoTime();
+            int status = encoder.process(buf, wbuf);
+            encodingNanos.addAndGet(System.nanoTime() - start);
+            encodedFrameCount.incrementAndGet();
+            if (status != Codec.CODEC_OK && fixedFrameRate) {
+                throw new IOException("Codec failed or could not process frame in a single step.");
+            }
+            res.add(wbuf);
+        }
+        return res;
+    }
+
+    /**
+     * Returns true if a sample that repeats the previous frame can be
+     * written without encoding it. The writer thread then extends the
+     * duration of the previous frame (variable frame rate), or writes the
+     * previous frame again (fixed frame rate). The latter only works if
+     * each frame is encoded independently : delta encoders are given the
+     * frame with the {@code SAME_DATA} flag instead, which is cheap.
+     */
+    private boolean isRepeat(boolean fixedFrameRate) {
+        return skipUnchangedFrames && (!fixedFrameRate || intraFrameEncoding);
+    }
+
+    /**
+     * Computes a checksum of the pixels of passed image. Checking all the
+     * pixels takes a fraction of the time needed to encode them, and catches
+     * small changes (a blinking caret) that sampling would miss.
+     */
+    private static long frameHash(BufferedImage img) {
+        DataBuffer db = img.getRaster().getDataBuffer();
+        long h = 0xcbf29ce484222325L;
+        if (db instanceof DataBufferInt && db.getNumBanks() == 1) {
+            int[] data = ((DataBufferInt) db).getData();
+            for (int i = 0; i < data.length; i++) {
+                h = (h ^ data[i]) * 0x100000001b3L;
+            }
+        } else if (db instanceof DataBufferUShort && db.getNumBanks() == 1) {
+            short[] data = ((DataBufferUShort) db).getData();
+            for (int i = 0; i < data.length; i++) {
+                h = (h ^ data[i]) * 0x100000001b3L;
+            }
+        } else if (db instanceof DataBufferByte && db.getNumBanks() == 1) {
+            byte[] data = ((DataBufferByte) db).getData();
+            for (int i = 0; i < data.length; i++) {
+                h = (h ^ data[i]) * 0x100000001b3L;
+            }
+        } else {
+            int width = img.getWidth();
+            int[] row = new int[width];
+            for (int y = 0, height = img.getHeight(); y < height; y++) {
+                img.getRGB(0, y, width, 1, row, 0, width);
+                for (int i = 0; i < width; i++) {
+                    h = (h ^ row[i]) * 0x100000001b3L;
+                }
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Puts the encoded frames back in capture order, and passes them on to
+     * the writer thread.
+     */
+    private void frameEncoded(long sequence, List<Buffer> encoded) throws InterruptedException {
+        synchronized (encodedFrames) {
+            encodedFrames.put(sequence, encoded);
+            while (!encodedFrames.isEmpty() && encodedFrames.firstKey() == nextWriteSequence) {
+                for (Buffer wbuf : encodedFrames.remove(nextWriteSequence)) {
+                    writerQueue.put(wbuf);
+                }
+                nextWriteSequence++;
+            }
+        }
+    }
+
+    /**
+     * Copies a captured video frame and hands it over to the encoder threads.
+     * <p> The frame is dropped if the encoders lag behind. With a variable
+     * frame rate, the next frame that makes it through then starts at the
+     * time stamp of the dropped frame. With a fixed frame rate, it is
+     * repeated in place of the dropped frame.
+     */
+    private boolean enqueueFrame(ArrayBlockingQueue<EncodeJob> queue, Buffer buf, boolean fixedFrameRate, boolean unchanged) {
+        synchronized (encodeLock) {
+            Rational timeStamp = buf.timeStamp;
+            Rational duration = buf.sampleDuration;
+            Rational nextOutputTime = outputTime;
+            int count = 1;
+            if (fixedFrameRate) {
+                Rational inputTime = timeStamp.add(duration);
+                count = 0;
+                while (nextOutputTime.compareTo(inputTime) < 0) {
+                    nextOutputTime = nextOutputTime.add(ffrDuration);
+                    count++;
+                }
+                if (count == 0) {
+                    return false;
+                }
+                timeStamp = outputTime;
+                duration = ffrDuration;
+            } else if (droppedTimeStamp != null) {
+                duration = timeStamp.add(duration).subtract(droppedTimeStamp);
+                timeStamp = droppedTimeStamp;
+            }
+
+            // repeated frames need no image
+            boolean needsImage = !(unchanged && isRepeat(fixedFrameRate));
+            EncodeJob job = null;
+            if (!needsImage || queue.remainingCapacity() > 0) {
+                job = takeJob();
+            }
+            boolean queued = false;
+            if (job != null) {
+                if (needsImage) {
+                    copyFrame((BufferedImage) buf.data, job);
+                }
+                Buffer jbuf = job.buf;
+                jbuf.setMetaTo(buf);
+                jbuf.data = needsImage ? job.image : null;
+                if (buf.header instanceof Point) {
+                    job.mouseLocation.setLocation((Point) buf.header);
+                    jbuf.header = job.mouseLocation;
+                } else {
+                    jbuf.header = buf.header;
+                }
+                jbuf.timeStamp = timeStamp;
+                jbuf.sampleDuration = duration;
+                job.sequence = nextEncodeSequence;
+                job.count = count;
+                job.fixedFrameRate = fixedFrameRate;
+                job.unchanged = unchanged;
+                queued = queue.offer(job);
+                if (!queued) {
+                    freeJobs.offer(job);
+                }
+            }
+            if (!queued) {
+                droppedFrameCount.incrementAndGet();
+                if (!fixedFrameRate && droppedTimeStamp == null) {
+                    droppedTimeStamp = timeStamp;
+                }
+                return false;
+            }
+            nextEncodeSequence++;
+            outputTime = nextOutputTime;
+            droppedTimeStamp = null;
+            int depth = queue.size();
+            if (depth > maxEncodeQueueDepth) {
+                maxEncodeQueueDepth = depth;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Takes a job from the pool. Returns null if all the jobs are in use.
+     */
+    private EncodeJob takeJob() {
+        EncodeJob job = freeJobs.poll();
+        if (job == null && jobCount < maxJobCount) {
+            job = new EncodeJob();
+            jobCount++;
+        }
+        return job;
+    }
+
+    /**
+     * Copies passed frame into the image of passed job.
+     */
+    private static void copyFrame(BufferedImage frame, EncodeJob job) {
+        BufferedImage img = job.image;
+        if (img == null || img.getWidth() != frame.getWidth() || img.getHeight() != frame.getHeight()
+                || !img.getColorModel().equals(frame.getColorModel())) {
+            ColorModel cm = frame.getColorModel();
+            img = new BufferedImage(cm, cm.createCompatibleWritableRaster(frame.getWidth(), frame.getHeight()),
+                    cm.isAlphaPremultiplied(), null);
+            job.image = img;
+        }
+        img.getRaster().setDataElements(0, 0, frame.getRaster());
+    }
+
     long counter = 0;
 
     /**
@@ -1286,7 +1874,8 @@ public class ScreenRecorder extends AbstractStateModel {
      * {@code BufferedImage} in {@code buffer.data} and a {@code Point} in
      * {@code buffer.header} with the recorded mouse location. The header is
      * null if the mouse is outside the capture area, or mouse recording has not
-     * been enabled.
+     * been enabled. The screen grabber re-uses the buffer, and its image, for
+     * the next frame.
      *
      * @throws java.io.IOException
      */
@@ -1296,33 +1885,52 @@ public class ScreenRecorder extends AbstractStateModel {
             return;
         }
         if (buf.track == videoTrack) {
-            if (writer.getFormat(videoTrack).get(FixedFrameRateKey, false) == false) {
+            boolean fixedFrameRate = writer.getFormat(videoTrack).get(FixedFrameRateKey, false);
+            // frames are compared to the last frame that was passed on
+            boolean hashed = false;
+            long hash = 0;
+            if (skipUnchangedFrames && buf.data instanceof BufferedImage) {
+                long start = System.nanoTime();
+                hash = frameHash((BufferedImage) buf.data);
+                changeDetectionNanos.addAndGet(System.nanoTime() - start);
+                hashed = true;
+            }
+            boolean unchanged = hashed && hasPreviousFrameHash && hash == previousFrameHash;
+            boolean passedOn = true;
+            ArrayBlockingQueue<EncodeJob> queue = encodeQueue;
+            if (queue != null && buf.data instanceof BufferedImage) {
+                // encoder threads are enabled
+                passedOn = enqueueFrame(queue, buf, fixedFrameRate, unchanged);
+            } else if (fixedFrameRate == false) {
                 // variable frame rate is supported => easy
-                Buffer wbuf = new Buffer();
-                frameEncoder.process(buf, wbuf);
-                writerQueue.put(wbuf);
+                for (Buffer wbuf : encodeFrame(frameEncoder, buf, 1, false, unchanged)) {
+                    writerQueue.put(wbuf);
+                }
             } else {// variable frame rate not supported => convert to fixed frame rate
 
                 // FIXME - Use CodecChain for this
 
                 Rational inputTime = buf.timeStamp.add(buf.sampleDuration);
-                boolean isFirst = true;
-                while (outputTime.compareTo(inputTime) < 0) {
+                Rational nextOutputTime = outputTime;
+                int count = 0;
+                while (nextOutputTime.compareTo(inputTime) < 0) {
+                    nextOutputTime = nextOutputTime.add(ffrDuration);
+                    count++;
+                }
+                passedOn = count > 0;
+                if (passedOn) {
                     buf.timeStamp = outputTime;
                     buf.sampleDuration = ffrDuration;
-                    if (isFirst) {
-                        isFirst = false;
-                    } else {
-                        buf.setFlag(SAME_DATA);
-                    }
-                    Buffer wbuf = new Buffer();
-                    if (frameEncoder.process(buf, wbuf) != Codec.CODEC_OK) {
-                        throw new IOException("Codec failed or could not process frame in a single step.");
+                    for (Buffer wbuf : encodeFrame(frameEncoder, buf, count, true, unchanged)) {
+                        writerQueue.put(wbuf);
                     }
-                    writerQueue.put(wbuf);
-                    outputTime = outputTime.add(ffrDuration);
+                    outputTime = nextOutputTime;
                 }
             }
+            if (hashed && passedOn) {
+                previousFrameHash = hash;
+                hasPreviousFrameHash = true;
+            }
         } else {
             Buffer wbuf = new Buffer();
             wbuf.setMetaTo(buf);
@@ -1341,6 +1949,61 @@ public class ScreenRecorder extends AbstractStateModel {
      * @throws java.io.IOException
      */
     private void doWrite(Buffer buf) throws IOException {
+        if (buf.track == videoTrack) {
+            boolean repeat = buf.data == null && buf.isFlag(SAME_DATA);
+            Buffer last = lastVideoBuffer;
+            if (holdVideoBuffers) {
+                if (repeat) {
+                    // extend the previous frame
+                    if (last != null) {
+                        last.sampleDuration = last.sampleDuration.add(buf.sampleDuration);
+                    }
+                    return;
+                }
+                // write the previous frame, now that its duration is known
+                lastVideoBuffer = buf;
+                if (last == null) {
+                    return;
+                }
+                buf = last;
+            } else if (repeat) {
+                // write the previous frame again
+                if (last == null) {
+                    return;
+                }
+                Buffer copy = new Buffer();
+                copy.setMetaTo(last);
+                copy.data = last.data;
+                copy.offset = last.offset;
+                copy.length = last.length;
+                copy.header = last.header;
+                copy.timeStamp = buf.timeStamp;
+                copy.sampleDuration = buf.sampleDuration;
+                buf = copy;
+            } else {
+                lastVideoBuffer = buf;
+            }
+        }
+        writeBuffer(buf);
+    }
+
+    /**
+     * Writes the video buffer held back by the writer thread, if any.
+     */
+    private void flushVideoBuffer() throws IOException {
+        Buffer last = lastVideoBuffer;
+        lastVideoBuffer = null;
+        if (holdVideoBuffers && last != null) {
+            writeBuffer(last);
+        }
+    }
+
+    private void writeBuffer(Buffer buf) throws IOException {
+        FrameRing ring = ringBuffer;
+        if (ring != null) {
+            ring.add(buf, buf.track == videoTrack);
+            return;
+        }
         MovieWriter mw = w;
         // Close file on a separate thread if file is full or an hour
         // has passed.
@@ -1398,6 +2061,310 @@ public class ScreenRecorder extends AbstractStateModel {
         this.maxFileSize = maxFileSize;
     }
 
+    /**
+     * Duration of the ring buffer in milliseconds, 0 if the recorder writes
+     * all the frames to movie files.
+     */
+    public long getRingBufferDuration() {
+        return ringBufferDuration;
+    }
+
+    /**
+     * Sets the duration of the ring buffer in milliseconds. <p> With a
+     * positive duration, the recorder writes no movie file while recording.
+     * It holds the encoded frames of (at least) the last
+     * {@code ringBufferDuration} milliseconds in memory, starting at a key
+     * frame, and drops the older ones. Invoke {@link #writeRingBuffer} after
+     * {@link #stop} to write them to a movie file. <p> Set to 0 (the
+     * default) to write all the frames to movie files. Takes effect on the
+     * next {@link #start}.
+     */
+    public void setRingBufferDuration(long ringBufferDuration) {
+        this.ringBufferDuration = ringBufferDuration;
+    }
+
+    /**
+     * Max size of the encoded data held in the ring buffer, in bytes.
+     */
+    public long getRingBufferMaxSize() {
+        return ringBufferMaxSize;
+    }
+
+    /**
+     * Sets the max size of the encoded data held in the ring buffer, in
+     * bytes. Older frames are dropped when it is exceeded, even if they are
+     * within the ring buffer duration. Takes effect on the next
+     * {@link #start}.
+     */
+    public void setRingBufferMaxSize(long ringBufferMaxSize) {
+        this.ringBufferMaxSize = ringBufferMaxSize;
+    }
+
+    /**
+     * Duration of the movie fragments in milliseconds, 0 if the movie files
+     * are not fragmented.
+     */
+    public long getFragmentDuration() {
+        return fragmentDuration;
+    }
+
+    /**
+     * Sets the duration of the movie fragments in milliseconds. <p> With a
+     * positive duration, QuickTime movie files are written as fragmented
+     * movies: the frames are written in fragments of this duration, each
+     * with its own sample table. The recorder then does not keep the sample
+     * tables of the whole recording in memory, and a movie file can be played
+     * up to its last fragment if the recorder has not been stopped, e.g.
+     * because the JVM has been killed. <p> Set to 0 (the default) to write
+     * regular movie files. AVI files are never fragmented. Takes effect on
+     * the next movie file.
+     */
+    public void setFragmentDuration(long fragmentDuration) {
+        this.fragmentDuration = fragmentDuration;
+    }
+
+    /**
+     * Size of the encoded data currently held in the ring buffer, in bytes.
+     */
+    public long getRingBufferSize() {
+        FrameRing ring = ringBuffer;
+        return ring == null ? 0 : ring.getSize();
+    }
+
+    /**
+     * Writes the frames held in the ring buffer to a new movie file, and
+     * empties the ring buffer. The file is added to the
+     * {@link #getCreatedMovieFiles created movie files}. <p> Invoke this
+     * method after {@link #stop}.
+     *
+     * @return the movie file, or null if the ring buffer is empty or not
+     * enabled
+     * @throws IllegalStateException if the recorder is recording
+     */
+    public File writeRingBuffer() throws IOException {
+        if (state == State.RECORDING) {
+            throw new IllegalStateException("Stop the recorder before writing the ring buffer");
+        }
+        FrameRing ring = ringBuffer;
+        List<Buffer> buffers = ring == null ? Collections.<Buffer>emptyList() : ring.drain();
+        if (buffers.isEmpty()) {
+            return null;
+        }
+        File f = createMovieFile(fileFormat);
+        MovieWriter mw = Registry.getInstance().getWriter(fileFormat, f);
+        if (mw == null) {
+            throw new IOException("No writer for format " + fileFormat);
+        }
+        recordedFiles.add(f);
+        try {
+            addTracks(mw);
+            for (Buffer buf : buffers) {
+                mw.write(buf.track, buf);
+            }
+        } finally {
+            mw.close();
+        }
+        return f;
+    }
+
+    /**
+     * Discards the frames held in the ring buffer.
+     */
+    public void clearRingBuffer() {
+        FrameRing ring = ringBuffer;
+        if (ring != null) {
+            ring.drain();
+        }
+    }
+
+    /**
+     * Holds the last encoded buffers of a recording, in segments starting
+     * at a video key frame, so that they can be written to a movie file from
+     * the first segment on.
+     */
+    private static class FrameRing {
+
+        private static class Segment {
+
+            final ArrayList<Buffer> buffers = new ArrayList<Buffer>();
+            double duration;
+            long size;
+        }
+        private final double maxDuration;
+        private final long maxSize;
+        private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+        private double duration;
+        private long size;
+
+        FrameRing(long maxDurationMillis, long maxSize) {
+            this.maxDuration = maxDurationMillis / 1000.0;
+            this.maxSize = maxSize;
+        }
+
+        synchronized void add(Buffer buf, boolean video) {
+            if (segments.isEmpty() || (video && buf.isFlag(KEYFRAME))) {
+                segments.addLast(new Segment());
+            }
+            Segment last = segments.getLast();
+            last.buffers.add(buf);
+            long bufSize = buf.data instanceof byte[] ? buf.length : 0;
+            last.size += bufSize;
+            size += bufSize;
+            if (video && buf.sampleDuration != null) {
+                double d = buf.sampleDuration.doubleValue();
+                last.duration += d;
+                duration += d;
+            }
+            // drop the first segment if we have enough without it
+            while (segments.size() > 1
+                    && (duration - segments.getFirst().duration >= maxDuration || size > maxSize)) {
+                Segment first = segments.removeFirst();
+                duration -= first.duration;
+                size -= first.size;
+            }
+        }
+
+        synchronized List<Buffer> drain() {
+            ArrayList<Buffer> res = new ArrayList<Buffer>();
+            for (Segment segment : segments) {
+                res.addAll(segment.buffers);
+            }
+            segments.clear();
+            duration = 0;
+            size = 0;
+            return res;
+        }
+
+        synchronized long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Number of threads encoding the video frames. 0 if the frames are
+     * encoded on the screen capture thread.
+     */
+    public int getEncoderThreads() {
+        return encoderThreads;
+    }
+
+    /**
+     * Sets the number of threads encoding the video frames. With 0 (the
+     * default), the frames are encoded on the screen capture thread, which
+     * misses captures when encoding a frame takes longer than the frame
+     * interval. Otherwise, captured frames are queued for the encoder
+     * threads, and dropped when the queue is full. Takes effect on the next
+     * {@link #start}.
+     */
+    public void setEncoderThreads(int encoderThreads) {
+        this.encoderThreads = encoderThreads;
+    }
+
+    /**
+     * Max number of captured frames waiting for an encoder thread.
+     */
+    public int getEncodeQueueCapacity() {
+        return encodeQueueCapacity;
+    }
+
+    /**
+     * Sets the max number of captured frames waiting for an encoder thread.
+     * Each one holds a copy of the captured image. Set to 0 (the default) for
+     * twice the number of encoder threads. Takes effect on the next
+     * {@link #start}.
+     */
+    public void setEncodeQueueCapacity(int encodeQueueCapacity) {
+        this.encodeQueueCapacity = encodeQueueCapacity;
+    }
+
+    /**
+     * Number of captured frames currently waiting for an encoder thread.
+     */
+    public int getEncodeQueueDepth() {
+        ArrayBlockingQueue<EncodeJob> queue = encodeQueue;
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Max number of captured frames that waited for an encoder thread since
+     * the recorder was started.
+     */
+    public int getMaxEncodeQueueDepth() {
+        return maxEncodeQueueDepth;
+    }
+
+    /**
+     * Number of captured frames dropped because the encoder threads lagged
+     * behind, since the recorder was started.
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrameCount.get();
+    }
+
+    /**
+     * Number of video samples encoded since the recorder was started.
+     */
+    public long getEncodedFrameCount() {
+        return encodedFrameCount.get();
+    }
+
+    /**
+     * Whether unchanged frames are written without encoding them.
+     */
+    public boolean isSkipUnchangedFrames() {
+        return skipUnchangedFrames;
+    }
+
+    /**
+     * Sets whether unchanged frames are written without encoding them. <p>
+     * If enabled, each captured frame is compared to the previous one. With a
+     * variable frame rate (QuickTime), the duration of unchanged frames is
+     * added to the previous frame. With a fixed frame rate (AVI), the
+     * previous frame is written again, without encoding it again if the
+     * encoder encodes frames independently (JPEG, PNG). Takes effect on the
+     * next {@link #start}.
+     */
+    public void setSkipUnchangedFrames(boolean skipUnchangedFrames) {
+        this.skipUnchangedFrames = skipUnchangedFrames;
+    }
+
+    /**
+     * Number of video samples that were not encoded because they repeat the
+     * previous frame, since the recorder was started.
+     */
+    public long getSkippedFrameCount() {
+        return skippedFrameCount.get();
+    }
+
+    /**
+     * Time spent encoding video samples since the recorder was started, in
+     * milliseconds.
+     */
+    public long getEncodingTime() {
+        return encodingNanos.get() / 1000000;
+    }
+
+    /**
+     * Time spent comparing captured frames to the previous ones since the
+     * recorder was started, in milliseconds.
+     */
+    public long getChangeDetectionTime() {
+        return changeDetectionNanos.get() / 1000000;
+    }
+
+    /**
+     * Estimated time saved by not encoding the skipped samples, in
+     * milliseconds : the average encoding time of a sample, times the
+     * number of skipped samples.
+     */
+    public long getSavedEncodingTime() {
+        long encoded = encodedFrameCount.get();
+        if (encoded == 0) {
+            return 0;
+        }
+        return encodingNanos.get() / encoded * skippedFrameCount.get() / 1000000;
+    }
+
     /**
      * Gets the audio mixer used for sound input. Returns null, if the default
      * mixer is used.
@@ -0,0 +1,201 @@
+/*
+ * @(#)SharedScreenCapture.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.screenrecorder;
+
+import java.awt.AWTException;
+import java.awt.GraphicsDevice;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captures the screen for several consumers at once.
+ * <p>
+ * Each consumer wants an area of the screen. At each tick, a single screen
+ * capture of the union of these areas is made with AWT Robot, and each
+ * consumer gets a sub-image of it. This way, several {@link ScreenRecorder}s
+ * which record different parts of the same screen (e.g. the windows of
+ * browsers running side by side) share one capture thread and one capture
+ * per frame, instead of each grabbing the screen on its own.
+ * <p>
+ * The sub-images share the pixels of the screen capture. Consumers must not
+ * modify them, and must copy them if they need them after the next tick.
+ *
+ * @version $Id$
+ */
+public class SharedScreenCapture {
+
+    /**
+     * Receives the screen captures.
+     */
+    public interface Consumer {
+
+        /**
+         * Returns the area of the screen that this consumer wants, in
+         * screen coordinates.
+         */
+        Rectangle getCaptureArea();
+
+        /**
+         * Called on the capture thread with the capture of the area.
+         *
+         * @param capture The capture of the area.
+         * @param timeBeforeCapture The time before the capture was made, in
+         * milliseconds.
+         * @param timeAfterCapture The time after the capture was made, in
+         * milliseconds.
+         * @return false if this consumer does not want further captures.
+         */
+        boolean screenCaptured(BufferedImage capture, long timeBeforeCapture, long timeAfterCapture) throws Exception;
+    }
+
+    /**
+     * A consumer, and the future which is done when it is removed.
+     */
+    private static class Registration extends FutureTask<Object> {
+
+        private final static Runnable NOTHING = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        final Consumer consumer;
+
+        Registration(Consumer consumer) {
+            super(NOTHING, null);
+            this.consumer = consumer;
+        }
+
+        void finish() {
+            set(null);
+        }
+
+        void fail(Throwable t) {
+            setException(t);
+        }
+    }
+    private final Robot robot;
+    private final ScheduledThreadPoolExecutor timer;
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+    private final Rectangle union = new Rectangle();
+
+    /**
+     * Creates a shared screen capture, and starts the capture thread.
+     *
+     * @param device The screen to capture.
+     * @param frameRate The number of captures per second.
+     */
+    public SharedScreenCapture(GraphicsDevice device, double frameRate) throws AWTException {
+        if (frameRate <= 0) {
+            throw new IllegalArgumentException("frameRate must be positive : " + frameRate);
+        }
+        robot = new Robot(device);
+        timer = new ScheduledThreadPoolExecutor(1);
+        int delay = Math.max(1, (int) (1000 / frameRate));
+        timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                captureScreen();
+            }
+        }, delay, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a consumer. It gets captures until it returns false from
+     * {@code screenCaptured}, throws an exception, or the returned future
+     * is cancelled.
+     *
+     * @return A future which is done when the consumer is removed.
+     */
+    public Future<?> add(Consumer consumer) {
+        if (timer.isShutdown()) {
+            throw new IllegalStateException("Shared screen capture has been shut down");
+        }
+        Registration r = new Registration(consumer);
+        registrations.add(r);
+        return r;
+    }
+
+    /**
+     * Returns the number of consumers.
+     */
+    public int getConsumerCount() {
+        return registrations.size();
+    }
+
+    /**
+     * Stops the capture thread. The consumers are removed, and their futures
+     * are cancelled.
+     */
+    public void shutdown() {
+        timer.shutdown();
+        try {
+            timer.awaitTermination(5000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            // nothing to do
+        }
+        for (Registration r : registrations) {
+            r.cancel(false);
+        }
+        registrations.clear();
+    }
+
+    /**
+     * Grabs the union of the areas of the consumers, and hands each consumer
+     * its part of it.
+     */
+    private void captureScreen() {
+        // Consumers added from now on get their first capture at the next tick
+        Registration[] current = registrations.toArray(new Registration[registrations.size()]);
+        union.setBounds(0, 0, 0, 0);
+        for (Registration r : current) {
+            if (r.isDone()) {
+                registrations.remove(r);
+            } else if (union.isEmpty()) {
+                union.setBounds(r.consumer.getCaptureArea());
+            } else {
+                union.add(r.consumer.getCaptureArea());
+            }
+        }
+        if (union.isEmpty()) {
+            return;
+        }
+
+        long timeBeforeCapture = System.currentTimeMillis();
+        BufferedImage capture;
+        try {
+            capture = robot.createScreenCapture(union);
+        } catch (IllegalMonitorStateException e) {
+            // Screen capture failed due to a synchronization error
+            return;
+        }
+        long timeAfterCapture = System.currentTimeMillis();
+
+        for (Registration r : current) {
+            if (r.isDone()) {
+                continue;
+            }
+            Rectangle area = r.consumer.getCaptureArea();
+            try {
+                BufferedImage image = area.equals(union) ? capture
+                        : capture.getSubimage(area.x - union.x, area.y - union.y, area.width, area.height);
+                if (!r.consumer.screenCaptured(image, timeBeforeCapture, timeAfterCapture)) {
+                    registrations.remove(r);
+                    r.finish();
+                }
+            } catch (Throwable t) {
+                registrations.remove(r);
+                r.fail(t);
+            }
+        }
+    }
+}
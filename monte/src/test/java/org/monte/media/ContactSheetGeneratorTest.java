@@ -0,0 +1,114 @@
+/*
+ * @(#)ContactSheetGeneratorTest.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monte.media.avi.AVIWriter;
+import org.monte.media.math.Rational;
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Creates contact sheets of a batch of movies, some of which can not be
+ * read, and checks that the caller gets the error of each movie.
+ *
+ * @version $Id$
+ */
+public class ContactSheetGeneratorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    private ContactSheetGenerator generator;
+
+    @Before
+    public void createGenerator() {
+        generator = new ContactSheetGenerator(2);
+        generator.setColumns(2);
+        generator.setThumbnailCount(4);
+        generator.setThumbnailWidth(32);
+    }
+
+    @After
+    public void disposeGenerator() {
+        generator.dispose();
+    }
+
+    private File writeMovie(String name) throws IOException {
+        File file = tmp.newFile(name);
+        AVIWriter w = new AVIWriter(file);
+        int track = w.addTrack(new Format(MediaTypeKey, MediaType.VIDEO, EncodingKey, ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE,
+                DepthKey, 24, FrameRateKey, new Rational(15, 1), WidthKey, 64, HeightKey, 48, KeyFrameIntervalKey, 5));
+        for (int i = 0; i < 20; i++) {
+            BufferedImage img = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = img.createGraphics();
+            g.setColor(new Color(i * 12, 0, 200));
+            g.fillRect(0, 0, 64, 48);
+            g.dispose();
+            w.write(track, img, 1);
+        }
+        w.close();
+        return file;
+    }
+
+    @Test
+    public void errorsAreReportedPerMovie() throws IOException {
+        File first = writeMovie("first.avi");
+        File missing = new File(tmp.getRoot(), "missing.avi");
+        File garbage = tmp.newFile("garbage.avi");
+        FileOutputStream out = new FileOutputStream(garbage);
+        out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        out.close();
+        File last = writeMovie("last.avi");
+        File dir = tmp.newFolder("sheets");
+
+        ContactSheetGenerator.Result result = generator.createContactSheets(
+                Arrays.asList(first, missing, garbage, last), dir);
+
+        Assert.assertTrue(result.hasErrors());
+        Assert.assertEquals(Arrays.asList(first, missing, garbage, last), result.getMovies());
+        Assert.assertNull(result.getError(0));
+        Assert.assertNotNull(result.getError(1));
+        Assert.assertNotNull(result.getError(2));
+        Assert.assertNull(result.getError(3));
+        Assert.assertNull(result.getSheet(1));
+        Assert.assertNull(result.getSheet(2));
+        for (int i : new int[]{0, 3}) {
+            BufferedImage sheet = ImageIO.read(result.getSheet(i));
+            Assert.assertNotNull(sheet);
+            // 2 columns and 2 rows of 32x24 thumbnails, with 4 pixel gaps
+            Assert.assertEquals(2 * 36 + 4, sheet.getWidth());
+            Assert.assertEquals(2 * 28 + 4, sheet.getHeight());
+        }
+    }
+
+    @Test
+    public void noErrors() throws IOException {
+        ContactSheetGenerator.Result result = generator.createContactSheets(
+                Arrays.asList(writeMovie("a.avi"), writeMovie("b.avi")), tmp.newFolder("sheets"));
+        Assert.assertFalse(result.hasErrors());
+        Assert.assertEquals(Arrays.asList(null, null), result.getErrors());
+        Assert.assertEquals(new File(tmp.getRoot(), "sheets/a.jpg"), result.getSheet(0));
+        Assert.assertTrue(result.getSheet(1).isFile());
+    }
+
+    @Test(expected = IOException.class)
+    public void singleSheetThrows() throws IOException {
+        generator.createContactSheet(new File(tmp.getRoot(), "missing.avi"), new File(tmp.getRoot(), "missing.jpg"));
+    }
+}
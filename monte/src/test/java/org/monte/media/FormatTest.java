@@ -0,0 +1,320 @@
+/*
+ * @(#)FormatTest.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.monte.media.math.Rational;
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Checks the sorted array properties of {@link Format} : precedence of
+ * merged properties, equality, and matching against the map based
+ * implementation it replaces.
+ *
+ * @version $Id$
+ */
+public class FormatTest {
+
+    private static Format video(int width, int height) {
+        return new Format(MediaTypeKey, MediaType.VIDEO, EncodingKey, ENCODING_AVI_PNG,
+                WidthKey, width, HeightKey, height);
+    }
+
+    private static List<Integer> ordinals(Format f) {
+        List<Integer> res = new ArrayList<Integer>();
+        for (FormatKey k : f.getKeys()) {
+            res.add(k.ordinal);
+        }
+        return res;
+    }
+
+    private static void assertSorted(Format f) {
+        List<Integer> ordinals = ordinals(f);
+        List<Integer> sorted = new ArrayList<Integer>(ordinals);
+        Collections.sort(sorted);
+        Assert.assertEquals(sorted, ordinals);
+    }
+
+    @Test
+    public void keysAreSortedWhateverTheOrder() {
+        Format a = new Format(MediaTypeKey, MediaType.VIDEO, WidthKey, 640, HeightKey, 480, DepthKey, 24);
+        Format b = new Format(DepthKey, 24, HeightKey, 480, MediaTypeKey, MediaType.VIDEO, WidthKey, 640);
+        Map<FormatKey, Object> m = new LinkedHashMap<FormatKey, Object>();
+        m.put(HeightKey, 480);
+        m.put(DepthKey, 24);
+        m.put(WidthKey, 640);
+        m.put(MediaTypeKey, MediaType.VIDEO);
+        Format c = new Format(m);
+        assertSorted(a);
+        Assert.assertEquals(a.getProperties(), b.getProperties());
+        Assert.assertEquals(ordinals(a), ordinals(b));
+        Assert.assertEquals(ordinals(a), ordinals(c));
+        Assert.assertEquals(a, b);
+        Assert.assertEquals(a, c);
+        Assert.assertEquals(a.hashCode(), b.hashCode());
+        Assert.assertEquals(a.hashCode(), c.hashCode());
+    }
+
+    @Test
+    public void laterPairsOverwrite() {
+        Format f = new Format(WidthKey, 640, HeightKey, 480, WidthKey, 320);
+        Assert.assertEquals(2, f.getKeys().size());
+        Assert.assertEquals(Integer.valueOf(320), f.get(WidthKey));
+        Assert.assertEquals(new Format(HeightKey, 480, WidthKey, 320), f);
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void valuesAreTypeChecked() {
+        new Format(WidthKey, "640");
+    }
+
+    @Test
+    public void get() {
+        Format f = video(640, 480);
+        Assert.assertEquals(Integer.valueOf(640), f.get(WidthKey));
+        Assert.assertEquals(MediaType.VIDEO, f.get(MediaTypeKey));
+        Assert.assertNull(f.get(DepthKey));
+        Assert.assertEquals(Integer.valueOf(24), f.get(DepthKey, 24));
+        Assert.assertEquals(Integer.valueOf(480), f.get(HeightKey, 24));
+        Assert.assertTrue(f.containsKey(EncodingKey));
+        Assert.assertFalse(f.containsKey(FrameRateKey));
+        Assert.assertTrue(new Format().getKeys().isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void propertiesAreUnmodifiable() {
+        video(640, 480).getProperties().put(DepthKey, 24);
+    }
+
+    // append / prepend
+    // ----------------
+
+    @Test
+    public void appendFormatKeepsThisValues() {
+        Format f = video(640, 480).append(new Format(WidthKey, 320, DepthKey, 24));
+        Assert.assertEquals(Integer.valueOf(640), f.get(WidthKey));
+        Assert.assertEquals(Integer.valueOf(24), f.get(DepthKey));
+        Assert.assertEquals(5, f.getKeys().size());
+        assertSorted(f);
+    }
+
+    @Test
+    public void appendPairsOverwriteThisValues() {
+        Format f = video(640, 480).append(WidthKey, 320, DepthKey, 24);
+        Assert.assertEquals(Integer.valueOf(320), f.get(WidthKey));
+        Assert.assertEquals(Integer.valueOf(24), f.get(DepthKey));
+        Assert.assertEquals(5, f.getKeys().size());
+        assertSorted(f);
+    }
+
+    @Test
+    public void prependFormatKeepsThatValues() {
+        Format f = video(640, 480).prepend(new Format(WidthKey, 320, DepthKey, 24));
+        Assert.assertEquals(Integer.valueOf(320), f.get(WidthKey));
+        Assert.assertEquals(Integer.valueOf(480), f.get(HeightKey));
+        Assert.assertEquals(Integer.valueOf(24), f.get(DepthKey));
+        Assert.assertEquals(5, f.getKeys().size());
+        assertSorted(f);
+    }
+
+    @Test
+    public void prependPairsOverwriteThisValues() {
+        Format f = video(640, 480).prepend(WidthKey, 320, DepthKey, 24);
+        Assert.assertEquals(Integer.valueOf(320), f.get(WidthKey));
+        Assert.assertEquals(Integer.valueOf(24), f.get(DepthKey));
+        Assert.assertEquals(5, f.getKeys().size());
+        assertSorted(f);
+    }
+
+    @Test
+    public void mergeWithEmptyFormat() {
+        Format f = video(640, 480);
+        Format empty = new Format();
+        Assert.assertSame(f, f.append(empty));
+        Assert.assertSame(f, f.prepend(empty));
+        Assert.assertSame(f, empty.append(f));
+        Assert.assertSame(f, empty.prepend(f));
+    }
+
+    @Test
+    public void mergeInterleavedKeys() {
+        Format a = new Format(MediaTypeKey, MediaType.VIDEO, HeightKey, 480, QualityKey, 0.5f);
+        Format b = new Format(EncodingKey, ENCODING_AVI_PNG, WidthKey, 640, DepthKey, 24, QualityKey, 1f);
+        Format f = a.append(b);
+        assertSorted(f);
+        Assert.assertEquals(6, f.getKeys().size());
+        Assert.assertEquals(Float.valueOf(0.5f), f.get(QualityKey));
+        Assert.assertEquals(f, b.prepend(a));
+        Assert.assertEquals(Float.valueOf(1f), a.prepend(b).get(QualityKey));
+    }
+
+    // key subsets
+    // -----------
+
+    @Test
+    public void intersectKeys() {
+        Format f = video(640, 480).intersectKeys(HeightKey, DepthKey, MediaTypeKey);
+        Assert.assertEquals(new Format(MediaTypeKey, MediaType.VIDEO, HeightKey, 480), f);
+        assertSorted(f);
+        Assert.assertTrue(video(640, 480).intersectKeys(DepthKey).getKeys().isEmpty());
+    }
+
+    @Test
+    public void removeKeys() {
+        Format f = video(640, 480);
+        Assert.assertEquals(new Format(MediaTypeKey, MediaType.VIDEO, EncodingKey, ENCODING_AVI_PNG),
+                f.removeKeys(WidthKey, HeightKey, DepthKey));
+        // nothing to remove
+        Assert.assertSame(f, f.removeKeys(DepthKey, FrameRateKey));
+        // containsKeys() removes the keys too
+        Assert.assertEquals(new Format(MediaTypeKey, MediaType.VIDEO, EncodingKey, ENCODING_AVI_PNG, HeightKey, 480),
+                f.containsKeys(WidthKey));
+    }
+
+    // equality
+    // --------
+
+    @Test
+    public void valuesAreComparedWithEquals() {
+        Format a = new Format(FrameRateKey, new Rational(30, 1), EncodingKey, new String("png"));
+        Format b = new Format(EncodingKey, new String("png"), FrameRateKey, new Rational(30, 1));
+        Assert.assertEquals(a, b);
+        Assert.assertEquals(a.hashCode(), b.hashCode());
+        Assert.assertFalse(a.equals(b.append(FrameRateKey, new Rational(15, 1))));
+        Assert.assertFalse(a.equals(b.append(WidthKey, 640)));
+        Assert.assertFalse(a.equals(null));
+        Assert.assertFalse(a.equals("png"));
+    }
+
+    @Test
+    public void commentsAreComparedByEquals() {
+        Format a = video(640, 480).append(CompressorNameKey, "PNG");
+        Format b = video(640, 480).append(CompressorNameKey, "Portable Network Graphics");
+        Assert.assertFalse(a.equals(b));
+        Assert.assertTrue(a.matches(b));
+    }
+
+    @Test
+    public void equalFormatsCanBeMapKeys() {
+        Map<Format, String> m = new HashMap<Format, String>();
+        m.put(video(640, 480), "vga");
+        Assert.assertEquals("vga", m.get(new Format(HeightKey, 480, WidthKey, 640,
+                EncodingKey, ENCODING_AVI_PNG, MediaTypeKey, MediaType.VIDEO)));
+        Assert.assertNull(m.get(video(320, 240)));
+    }
+
+    @Test
+    public void intern() {
+        Format a = video(1024, 768).intern();
+        Format b = video(1024, 768);
+        Assert.assertNotSame(a, b);
+        Assert.assertSame(a, b.intern());
+        Assert.assertSame(a, a.intern());
+        Assert.assertNotSame(a, video(768, 1024).intern());
+    }
+
+    // matching
+    // --------
+
+    @Test
+    public void matches() {
+        Format f = video(640, 480);
+        Assert.assertTrue(f.matches(f));
+        Assert.assertTrue(f.matches(new Format(WidthKey, 640, DepthKey, 24)));
+        Assert.assertTrue(f.matches(new Format()));
+        Assert.assertFalse(f.matches(new Format(WidthKey, 320)));
+        Assert.assertTrue(f.matchesWithout(new Format(WidthKey, 320, HeightKey, 480), WidthKey));
+        Assert.assertFalse(f.matchesWithout(new Format(WidthKey, 320, HeightKey, 240), WidthKey));
+    }
+
+    /**
+     * <code>matchesWithout()</code> of the map based implementation.
+     */
+    private static boolean baselineMatchesWithout(Format a, Format b, FormatKey... without) {
+        Map<FormatKey, Object> that = b.getProperties();
+        OuterLoop:
+        for (Map.Entry<FormatKey, Object> e : a.getProperties().entrySet()) {
+            FormatKey k = e.getKey();
+            if (!k.isComment() && that.containsKey(k)) {
+                for (FormatKey w : without) {
+                    if (w == k) {
+                        continue OuterLoop;
+                    }
+                }
+                if (!e.getValue().equals(that.get(k))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void matchesLikeBaseline() {
+        FormatKey[] keys = {MediaTypeKey, EncodingKey, WidthKey, HeightKey, DepthKey, CompressorNameKey, QualityKey};
+        Object[][] values = {
+            {MediaType.VIDEO, MediaType.AUDIO},
+            {ENCODING_AVI_PNG, ENCODING_AVI_MJPG},
+            {640, 320},
+            {480, 240},
+            {24, 8},
+            {"PNG", "JPEG"},
+            {0.5f, 1f}
+        };
+        Random random = new Random(42);
+        Format[] formats = new Format[200];
+        for (int i = 0; i < formats.length; i++) {
+            List<Object> p = new ArrayList<Object>();
+            for (int k = 0; k < keys.length; k++) {
+                if (random.nextInt(3) > 0) {
+                    p.add(keys[k]);
+                    p.add(values[k][random.nextInt(2)]);
+                }
+            }
+            formats[i] = new Format(p.toArray());
+        }
+        int matches = 0;
+        for (int i = 0; i < formats.length; i++) {
+            for (int j = 0; j < formats.length; j++) {
+                Format a = formats[i];
+                Format b = formats[j];
+                String msg = a + " / " + b;
+                boolean expected = baselineMatchesWithout(a, b);
+                Assert.assertEquals(msg, expected, a.matches(b));
+                Assert.assertEquals(msg, expected, a.matchesWithout(b));
+                Assert.assertEquals(msg, expected, b.matches(a));
+                Assert.assertEquals(msg, baselineMatchesWithout(a, b, WidthKey, HeightKey),
+                        a.matchesWithout(b, WidthKey, HeightKey));
+                Assert.assertEquals(msg, baselineMatchesWithout(a, b, HeightKey, EncodingKey, MediaTypeKey),
+                        a.matchesWithout(b, HeightKey, EncodingKey, MediaTypeKey));
+                if (expected) {
+                    matches++;
+                }
+            }
+        }
+        // both outcomes are covered
+        Assert.assertTrue(matches > 0);
+        Assert.assertTrue(matches < formats.length * formats.length);
+    }
+
+    @Test
+    public void toStringListsProperties() {
+        String s = new Format(WidthKey, 640, HeightKey, 480).toString();
+        Assert.assertTrue(s, s.startsWith("Format{"));
+        Assert.assertTrue(s, s.contains("640"));
+        Assert.assertTrue(s, s.contains("480"));
+        Assert.assertEquals(s, new Format(HeightKey, 480, WidthKey, 640).toString());
+    }
+}
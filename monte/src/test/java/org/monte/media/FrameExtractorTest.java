@@ -0,0 +1,216 @@
+/*
+ * @(#)FrameExtractorTest.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.monte.media.avi.AVIReader;
+import org.monte.media.avi.AVIWriter;
+import org.monte.media.math.Rational;
+import org.monte.media.quicktime.QuickTimeReader;
+import org.monte.media.quicktime.QuickTimeWriter;
+import static org.monte.media.VideoFormatKeys.*;
+
+/**
+ * Extracts frames at random times with {@link FrameExtractor}, and checks
+ * that they are the frames which a sequential read of the movie decodes.
+ *
+ * @version $Id$
+ */
+@RunWith(Parameterized.class)
+public class FrameExtractorTest {
+
+    private static final int FRAMES = 40;
+    private static final int FRAME_RATE = 15;
+    private static final int KEY_FRAME_INTERVAL = 7;
+
+    @Parameters(name = "{0} {1} mapped={2}")
+    public static Collection<Object[]> parameters() {
+        List<Object[]> res = new ArrayList<Object[]>();
+        for (boolean mapped : new boolean[]{false, true}) {
+            res.add(new Object[]{MIME_AVI, ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE, mapped});
+            res.add(new Object[]{MIME_AVI, ENCODING_AVI_MJPG, mapped});
+            res.add(new Object[]{MIME_QUICKTIME, ENCODING_AVI_TECHSMITH_SCREEN_CAPTURE, mapped});
+            res.add(new Object[]{MIME_QUICKTIME, ENCODING_QUICKTIME_JPEG, mapped});
+        }
+        return res;
+    }
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    private final String mimeType;
+    private final String encoding;
+    private final boolean mapped;
+    private File file;
+    /** The pixels of the frames, as decoded by a sequential read. */
+    private List<int[]> frames;
+
+    public FrameExtractorTest(String mimeType, String encoding, boolean mapped) {
+        this.mimeType = mimeType;
+        this.encoding = encoding;
+        this.mapped = mapped;
+    }
+
+    private static BufferedImage image(int i) {
+        BufferedImage img = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 64, 48);
+        g.setColor(new Color(i * 7 % 255, 0, 200));
+        g.fillRect(i * 3 % 60, 10, 10, 10);
+        g.dispose();
+        return img;
+    }
+
+    private static int[] pixels(BufferedImage img) {
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+
+    private boolean isQuickTime() {
+        return mimeType.equals(MIME_QUICKTIME);
+    }
+
+    private MovieReader open() throws IOException {
+        return isQuickTime() ? new QuickTimeReader(file, mapped) : new AVIReader(file, mapped);
+    }
+
+    @Before
+    public void writeMovie() throws IOException {
+        file = tmp.newFile(isQuickTime() ? "movie.mov" : "movie.avi");
+        Format format = new Format(MediaTypeKey, MediaType.VIDEO, MimeTypeKey, mimeType,
+                EncodingKey, encoding, DepthKey, 24, QualityKey, 0.8f,
+                FrameRateKey, new Rational(FRAME_RATE, 1), WidthKey, 64, HeightKey, 48,
+                KeyFrameIntervalKey, KEY_FRAME_INTERVAL);
+        if (isQuickTime()) {
+            QuickTimeWriter w = new QuickTimeWriter(file);
+            int track = w.addTrack(format);
+            for (int i = 0; i < FRAMES; i++) {
+                w.write(track, image(i), 1);
+            }
+            w.close();
+        } else {
+            AVIWriter w = new AVIWriter(file);
+            int track = w.addTrack(format);
+            for (int i = 0; i < FRAMES; i++) {
+                w.write(track, image(i), 1);
+            }
+            w.close();
+        }
+
+        frames = new ArrayList<int[]>();
+        MovieReader r = open();
+        try {
+            BufferedImage img;
+            while ((img = isQuickTime()
+                    ? ((QuickTimeReader) r).read(0, (BufferedImage) null)
+                    : ((AVIReader) r).read(0, (BufferedImage) null)) != null) {
+                frames.add(pixels(img));
+            }
+        } finally {
+            r.close();
+        }
+        Assert.assertEquals(FRAMES, frames.size());
+        Assert.assertFalse(Arrays.equals(frames.get(0), frames.get(1)));
+    }
+
+    private int[] frameAt(Rational time) {
+        int index = time.multiply(FRAME_RATE).floor(1).intValue();
+        return frames.get(Math.max(0, Math.min(FRAMES - 1, index)));
+    }
+
+    @Test
+    public void framesAtRandomTimes() throws IOException {
+        MovieReader r = open();
+        try {
+            FrameExtractor fx = new FrameExtractor(r);
+            Random rnd = new Random(1);
+            Rational[] times = new Rational[30];
+            for (int i = 0; i < times.length; i++) {
+                // includes times after the end of the movie
+                times[i] = new Rational(rnd.nextInt(FRAMES * 4 + 20), 60);
+            }
+            times[5] = times[3];
+            // twice: the second pass seeks backwards
+            for (int pass = 0; pass < 2; pass++) {
+                BufferedImage[] res = fx.getFrames(times);
+                for (int i = 0; i < times.length; i++) {
+                    Assert.assertArrayEquals("time " + times[i], frameAt(times[i]), pixels(res[i]));
+                }
+            }
+        } finally {
+            r.close();
+        }
+    }
+
+    @Test
+    public void singleFrames() throws IOException {
+        MovieReader r = open();
+        try {
+            FrameExtractor fx = new FrameExtractor(r);
+            // backwards, so that each frame needs a seek
+            for (int i = FRAMES - 1; i >= 0; i -= 3) {
+                Rational time = new Rational(i, FRAME_RATE);
+                Assert.assertArrayEquals("frame " + i, frames.get(i), pixels(fx.getFrame(time)));
+            }
+            // forwards, across key frames, without a seek
+            Buffer buf = new Buffer();
+            for (int i = 0; i < FRAMES; i++) {
+                Rational time = new Rational(2 * i + 1, 2 * FRAME_RATE);
+                Assert.assertTrue(fx.readFrame(time, buf));
+                Assert.assertArrayEquals("frame " + i, frames.get(i), pixels((BufferedImage) buf.data));
+            }
+        } finally {
+            r.close();
+        }
+    }
+
+    @Test
+    public void sameFrameTwice() throws IOException {
+        MovieReader r = open();
+        try {
+            FrameExtractor fx = new FrameExtractor(r);
+            for (int i : new int[]{0, 7, 7, 8, 3, 3}) {
+                Rational time = new Rational(i, FRAME_RATE);
+                Assert.assertArrayEquals("frame " + i, frames.get(i), pixels(fx.getFrame(time)));
+            }
+        } finally {
+            r.close();
+        }
+    }
+
+    @Test
+    public void thumbnails() throws IOException {
+        MovieReader r = open();
+        try {
+            BufferedImage[] thumbs = new FrameExtractor(r).getThumbnails(4);
+            Assert.assertEquals(4, thumbs.length);
+            for (int i = 0; i < thumbs.length; i++) {
+                // the middle of each quarter of the movie
+                Rational time = new Rational((2 * i + 1) * FRAMES, 8 * FRAME_RATE);
+                Assert.assertArrayEquals("thumbnail " + i, frameAt(time), pixels(thumbs[i]));
+            }
+        } finally {
+            r.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * @(#)MovieWriterOutputTest.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.zip.CRC32;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.monte.media.avi.AVIOutputStream;
+import org.monte.media.quicktime.QuickTimeOutputStream;
+
+/**
+ * Checks that the AVI and QuickTime writers produce the same bytes as
+ * before their sample tables were stored in {@link org.monte.media.util.SampleTable}s.
+ * The expected lengths and checksums were computed with the writers of the
+ * previous release.
+ *
+ * @version $Id$
+ */
+public class MovieWriterOutputTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static long crc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] b = new byte[8192];
+            for (int len; (len = in.read(b)) != -1;) {
+                crc.update(b, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes samples of different lengths, durations and sync flags, and
+     * chunks of several samples.
+     */
+    @Test
+    public void quickTimeOutput() throws IOException {
+        File file = tmp.newFile("out.mov");
+        QuickTimeOutputStream out = new QuickTimeOutputStream(file);
+        out.setCreationTime(new Date(0));
+        out.setModificationTime(new Date(0));
+        int video = out.addVideoTrack("raw ", "None", 30, 16, 16, 24, 10);
+        for (int i = 0; i < 200; i++) {
+            if (i % 20 == 19) {
+                out.writeSamples(video, 3, new byte[300], 2, false);
+            } else {
+                byte[] d = new byte[i < 50 ? 100 : 100 + i % 7];
+                Arrays.fill(d, (byte) i);
+                out.writeSample(video, d, i < 100 ? 1 : 2, i % 5 == 0);
+            }
+        }
+        out.close();
+        Assert.assertEquals(24249, file.length());
+        Assert.assertEquals(0x782e4550L, crc(file));
+    }
+
+    /**
+     * Writes a video and an audio track, which are interleaved in the index.
+     */
+    @Test
+    public void aviOutput() throws IOException {
+        File file = tmp.newFile("out.avi");
+        AVIOutputStream out = new AVIOutputStream(file);
+        int video = out.addVideoTrack("DIB ", 1, 30, 16, 16, 24, 10);
+        int audio = out.addAudioTrack(1, 1, 8000, 1, 16, true, 8000, 2);
+        for (int i = 0; i < 200; i++) {
+            byte[] d = new byte[100 + i % 7];
+            Arrays.fill(d, (byte) i);
+            out.writeSample(video, d, 0, d.length, i % 5 == 0);
+            if (i % 3 == 0) {
+                out.writeSamples(audio, 100, new byte[200], 0, 200, true);
+            }
+        }
+        out.close();
+        Assert.assertEquals(40822, file.length());
+        Assert.assertEquals(0x47b4bb86L, crc(file));
+    }
+}
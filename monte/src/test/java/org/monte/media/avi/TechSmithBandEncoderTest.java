@@ -0,0 +1,138 @@
+/*
+ * @(#)TechSmithBandEncoderTest.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media.avi;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.monte.media.avi.TechSmithCodecCoreTest.*;
+
+/**
+ * Encodes 24-bit frames in parallel bands, and checks that they decode to
+ * the same pixels as frames encoded on a single thread.
+ *
+ * @version $Id$
+ */
+public class TechSmithBandEncoderTest {
+
+    private static final int[] THREADS = {2, 3, 4, 7};
+
+    @Before
+    public void checkAvailable() {
+        Assume.assumeTrue(TechSmithBandEncoder.isAvailable());
+    }
+
+    private static TechSmithCodecCore core(int threads) {
+        TechSmithCodecCore core = new TechSmithCodecCore();
+        core.setEncoderThreads(threads);
+        return core;
+    }
+
+    @Test
+    public void bandedKeyFrameRoundTrip() throws IOException {
+        Random r = new Random(1);
+        for (int threads : THREADS) {
+            TechSmithCodecCore core = core(threads);
+            int[] data = screen(r, WIDTH, HEIGHT);
+            Assert.assertArrayEquals("threads " + threads, data,
+                    decode(encodeKey(core, data, WIDTH, HEIGHT), null, WIDTH, HEIGHT));
+            core.dispose();
+        }
+    }
+
+    @Test
+    public void bandedDeltaFrameRoundTrip() throws IOException {
+        for (int threads : THREADS) {
+            TechSmithCodecCore core = core(threads);
+            checkDeltas(core, 0);
+            core.dispose();
+        }
+    }
+
+    @Test
+    public void bandedTiledDeltaFrameRoundTrip() throws IOException {
+        for (int threads : THREADS) {
+            TechSmithCodecCore core = core(threads);
+            for (int tileSize : new int[]{8, 16, 33}) {
+                checkDeltas(core, tileSize);
+            }
+            core.dispose();
+        }
+    }
+
+    @Test
+    public void moreBandsThanRows() throws IOException {
+        Random r = new Random(2);
+        int width = 40, height = 3;
+        TechSmithCodecCore core = core(8);
+        int[] prev = screen(r, width, height);
+        int[] decoded = decode(encodeKey(core, prev, width, height), null, width, height);
+        Assert.assertArrayEquals(prev, decoded);
+        for (int tileSize : new int[]{0, 16}) {
+            int[] data = change(prev, r, width, height, 2);
+            decoded = decode(encodeDelta(core, data, prev, width, height, tileSize), decoded, width, height);
+            Assert.assertArrayEquals("tile size " + tileSize, data, decoded);
+            prev = data;
+        }
+        core.dispose();
+    }
+
+    /**
+     * The bands are stitched into a single zlib stream, with a valid
+     * checksum.
+     */
+    @Test
+    public void bandsAreSingleZlibStream() throws IOException, DataFormatException {
+        Random r = new Random(3);
+        int[] prev = screen(r, WIDTH, HEIGHT);
+        int[] data = change(prev, r, WIDTH, HEIGHT, 3);
+        for (int threads : THREADS) {
+            TechSmithCodecCore core = core(threads);
+            for (byte[] frame : new byte[][]{
+                        encodeKey(core, data, WIDTH, HEIGHT),
+                        encodeDelta(core, data, prev, WIDTH, HEIGHT, 0),
+                        encodeDelta(core, data, prev, WIDTH, HEIGHT, 16)}) {
+                Inflater inflater = new Inflater();
+                inflater.setInput(frame);
+                byte[] buf = new byte[WIDTH * HEIGHT * 4];
+                while (!inflater.finished()) {
+                    // throws on a bad checksum
+                    Assert.assertTrue(inflater.inflate(buf) > 0 || inflater.finished());
+                }
+                Assert.assertEquals("threads " + threads, 0, inflater.getRemaining());
+                inflater.end();
+            }
+            core.dispose();
+        }
+    }
+
+    /**
+     * Single threaded and banded frames decode to the same pixels, whatever
+     * the previous frames were encoded with.
+     */
+    @Test
+    public void bandedAndSingleFramesMix() throws IOException {
+        Random r = new Random(4);
+        TechSmithCodecCore single = new TechSmithCodecCore();
+        TechSmithCodecCore banded = core(3);
+        int[] prev = screen(r, WIDTH, HEIGHT);
+        int[] decoded = decode(encodeKey(banded, prev, WIDTH, HEIGHT), null, WIDTH, HEIGHT);
+        for (int i = 0; i < 10; i++) {
+            int[] data = change(prev, r, WIDTH, HEIGHT, 2);
+            TechSmithCodecCore core = i % 2 == 0 ? single : banded;
+            decoded = decode(encodeDelta(core, data, prev, WIDTH, HEIGHT, i % 3 == 0 ? 16 : 0), decoded, WIDTH, HEIGHT);
+            Assert.assertArrayEquals("frame " + i, data, decoded);
+            prev = data;
+        }
+        banded.dispose();
+    }
+}
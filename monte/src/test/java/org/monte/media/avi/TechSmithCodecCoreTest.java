@@ -0,0 +1,153 @@
+/*
+ * @(#)TechSmithCodecCoreTest.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media.avi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Encodes 24-bit frames with {@link TechSmithCodecCore}, and checks that they
+ * decode to the same pixels.
+ *
+ * @version $Id$
+ */
+public class TechSmithCodecCoreTest {
+
+    static final int WIDTH = 101;
+    static final int HEIGHT = 67;
+
+    /**
+     * Creates a frame which looks like a screen capture: flat rectangles,
+     * with a noisy region.
+     */
+    static int[] screen(Random r, int width, int height) {
+        int[] data = new int[width * height];
+        Arrays.fill(data, 0xeeeeee);
+        for (int i = 0; i < 12; i++) {
+            fillRect(data, width, height, r, r.nextInt(0x1000000));
+        }
+        int x0 = r.nextInt(width / 2), y0 = r.nextInt(height / 2);
+        for (int y = y0; y < y0 + height / 3; y++) {
+            for (int x = x0; x < x0 + width / 3; x++) {
+                data[y * width + x] = r.nextInt(0x1000000);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Changes a few small regions of a frame.
+     */
+    static int[] change(int[] prev, Random r, int width, int height, int regions) {
+        int[] data = prev.clone();
+        for (int i = 0; i < regions; i++) {
+            fillRect(data, width, height, r, r.nextInt(0x1000000));
+        }
+        // a single pixel, which is easily missed
+        data[r.nextInt(data.length)] ^= 0x010101;
+        return data;
+    }
+
+    private static void fillRect(int[] data, int width, int height, Random r, int rgb) {
+        int x0 = r.nextInt(width), y0 = r.nextInt(height);
+        int x1 = Math.min(width, x0 + 1 + r.nextInt(Math.max(1, width / 4)));
+        int y1 = Math.min(height, y0 + 1 + r.nextInt(Math.max(1, height / 4)));
+        for (int y = y0; y < y1; y++) {
+            Arrays.fill(data, y * width + x0, y * width + x1, rgb);
+        }
+    }
+
+    static byte[] encodeKey(TechSmithCodecCore core, int[] data, int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        core.encodeKey24(out, data, width, height, 0, width);
+        return out.toByteArray();
+    }
+
+    static byte[] encodeDelta(TechSmithCodecCore core, int[] data, int[] prev, int width, int height, int tileSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (tileSize > 0) {
+            core.encodeTiledDelta24(out, data, prev, width, height, 0, width, tileSize);
+        } else {
+            core.encodeDelta24(out, data, prev, width, height, 0, width);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a frame over the previous one.
+     */
+    static int[] decode(byte[] frame, int[] prev, int width, int height) throws IOException {
+        TechSmithCodecCore decoder = new TechSmithCodecCore();
+        int[] data = prev == null ? new int[width * height] : prev.clone();
+        decoder.decode24(frame, 0, frame.length, data, data, width, height, false);
+        return data;
+    }
+
+    @Test
+    public void keyFrameRoundTrip() throws IOException {
+        Random r = new Random(1);
+        TechSmithCodecCore core = new TechSmithCodecCore();
+        for (int i = 0; i < 10; i++) {
+            int[] data = screen(r, WIDTH, HEIGHT);
+            Assert.assertArrayEquals(data, decode(encodeKey(core, data, WIDTH, HEIGHT), null, WIDTH, HEIGHT));
+        }
+    }
+
+    @Test
+    public void deltaFrameRoundTrip() throws IOException {
+        checkDeltas(new TechSmithCodecCore(), 0);
+    }
+
+    @Test
+    public void tiledDeltaFrameRoundTrip() throws IOException {
+        // tiles which do and don't divide the frame, and tiles larger than the frame
+        for (int tileSize : new int[]{1, 8, 16, 33, 128}) {
+            checkDeltas(new TechSmithCodecCore(), tileSize);
+        }
+    }
+
+    /**
+     * Encodes a sequence of delta frames, and decodes each one over the
+     * previous decoded frame.
+     */
+    static void checkDeltas(TechSmithCodecCore core, int tileSize) throws IOException {
+        Random r = new Random(tileSize);
+        int[] prev = screen(r, WIDTH, HEIGHT);
+        int[] decoded = decode(encodeKey(core, prev, WIDTH, HEIGHT), null, WIDTH, HEIGHT);
+        for (int i = 0; i < 20; i++) {
+            int[] data = change(prev, r, WIDTH, HEIGHT, i % 4);
+            decoded = decode(encodeDelta(core, data, prev, WIDTH, HEIGHT, tileSize), decoded, WIDTH, HEIGHT);
+            Assert.assertArrayEquals("tile size " + tileSize + ", frame " + i, data, decoded);
+            prev = data;
+        }
+    }
+
+    @Test
+    public void unchangedFrameIsEmptyDelta() throws IOException {
+        Random r = new Random(2);
+        TechSmithCodecCore core = new TechSmithCodecCore();
+        int[] data = screen(r, WIDTH, HEIGHT);
+        for (int tileSize : new int[]{0, 16}) {
+            byte[] delta = encodeDelta(core, data, data.clone(), WIDTH, HEIGHT, tileSize);
+            Assert.assertArrayEquals(data, decode(delta, data, WIDTH, HEIGHT));
+        }
+    }
+
+    @Test
+    public void tiledDeltaIsSmallerThanKeyFrame() throws IOException {
+        Random r = new Random(3);
+        TechSmithCodecCore core = new TechSmithCodecCore();
+        int[] prev = screen(r, WIDTH, HEIGHT);
+        int[] data = change(prev, r, WIDTH, HEIGHT, 1);
+        Assert.assertTrue(encodeDelta(core, data, prev, WIDTH, HEIGHT, 16).length
+                < encodeKey(core, data, WIDTH, HEIGHT).length);
+    }
+}
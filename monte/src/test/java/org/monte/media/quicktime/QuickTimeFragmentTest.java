@@ -0,0 +1,320 @@
+/*
+ * @(#)QuickTimeFragmentTest.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media.quicktime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes fragmented movies with {@link QuickTimeOutputStream}, and walks
+ * their atoms: the movie atom comes first, and each movie fragment is
+ * followed by a media data atom, which holds the samples at the offsets of
+ * the fragment.
+ *
+ * @version $Id$
+ */
+public class QuickTimeFragmentTest {
+
+    private static final int FRAMES = 100;
+    /** Audio samples per video frame. */
+    private static final int AUDIO_SAMPLES = 266;
+    private static final int SYNC_SAMPLE_FLAGS = 0x02000000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** An atom of the movie file. */
+    private static class Atom {
+
+        final String type;
+        final int offset;
+        final int headerSize;
+        final int size;
+
+        Atom(String type, int offset, int headerSize, int size) {
+            this.type = type;
+            this.offset = offset;
+            this.headerSize = headerSize;
+            this.size = size;
+        }
+
+        int dataOffset() {
+            return offset + headerSize;
+        }
+
+        int end() {
+            return offset + size;
+        }
+    }
+
+    /** A sample found through the movie fragments. */
+    private static class Sample {
+
+        final int duration, size, flags;
+        final byte[] data;
+
+        Sample(int duration, int size, int flags, byte[] data) {
+            this.duration = duration;
+            this.size = size;
+            this.flags = flags;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Returns the complete atoms between {@code off} and {@code end}.
+     */
+    private static List<Atom> atoms(ByteBuffer b, int off, int end) {
+        List<Atom> atoms = new ArrayList<Atom>();
+        while (off + 8 <= end) {
+            long size = b.getInt(off) & 0xffffffffL;
+            int headerSize = 8;
+            if (size == 1) {
+                size = b.getLong(off + 8);
+                headerSize = 16;
+            }
+            if (size < headerSize || off + size > end) {
+                // truncated
+                break;
+            }
+            byte[] type = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                type[i] = b.get(off + 4 + i);
+            }
+            atoms.add(new Atom(new String(type), off, headerSize, (int) size));
+            off += size;
+        }
+        return atoms;
+    }
+
+    private static Atom find(ByteBuffer b, Atom parent, String... path) {
+        for (Atom a : atoms(b, parent.dataOffset(), parent.end())) {
+            if (a.type.equals(path[0])) {
+                return path.length == 1 ? a : find(b, a, Arrays.copyOfRange(path, 1, path.length));
+            }
+        }
+        return null;
+    }
+
+    private static ByteBuffer read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] b = new byte[(int) in.length()];
+            in.readFully(b);
+            return ByteBuffer.wrap(b).order(ByteOrder.BIG_ENDIAN);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] videoSample(int frame) {
+        byte[] d = new byte[frame % 10 == 0 ? 300 : 50 + frame % 3];
+        Arrays.fill(d, (byte) frame);
+        return d;
+    }
+
+    private static byte[] audioSamples(int frame) {
+        byte[] d = new byte[2 * AUDIO_SAMPLES];
+        Arrays.fill(d, (byte) (0x80 | (frame & 0x7f)));
+        return d;
+    }
+
+    /**
+     * Writes a fragmented movie with a video and an audio track, and
+     * returns its content, either after it is closed, or as it is on disk
+     * before it is closed.
+     */
+    private ByteBuffer writeMovie(long fragmentDuration, boolean finish) throws IOException {
+        File file = tmp.newFile("fragmented.mov");
+        QuickTimeOutputStream out = new QuickTimeOutputStream(file);
+        try {
+            out.setMovieTimeScale(600);
+            out.setFragmentDuration(fragmentDuration);
+            int video = out.addVideoTrack("raw ", "None", 30, 16, 16, 24, 10);
+            int audio = out.addAudioTrack("twos", 8000, 8000, 1, 16, false, 1, 2, true, ByteOrder.BIG_ENDIAN);
+            for (int i = 0; i < FRAMES; i++) {
+                out.writeSample(video, videoSample(i), 1, i % 10 == 0);
+                out.writeSamples(audio, AUDIO_SAMPLES, audioSamples(i), 1, true);
+            }
+            if (!finish) {
+                return read(file);
+            }
+        } finally {
+            out.close();
+        }
+        return read(file);
+    }
+
+    /**
+     * Walks the movie fragments, checks their offsets, and returns the
+     * samples of each track.
+     */
+    private static List<List<Sample>> walkFragments(ByteBuffer b) {
+        List<List<Sample>> samples = new ArrayList<List<Sample>>();
+        samples.add(new ArrayList<Sample>());
+        samples.add(new ArrayList<Sample>());
+        List<Atom> top = atoms(b, 0, b.limit());
+        Atom last = top.get(top.size() - 1);
+        Assert.assertEquals("no truncated atom", b.limit(), last.end());
+        long sequenceNumber = 0;
+        for (int i = 0; i < top.size(); i++) {
+            Atom moof = top.get(i);
+            if (!moof.type.equals("moof")) {
+                continue;
+            }
+            Atom mdat = top.get(i + 1);
+            Assert.assertEquals("mdat", mdat.type);
+            Atom mfhd = find(b, moof, "mfhd");
+            Assert.assertEquals(++sequenceNumber, b.getInt(mfhd.dataOffset() + 4) & 0xffffffffL);
+            for (Atom traf : atoms(b, moof.dataOffset(), moof.end())) {
+                if (!traf.type.equals("traf")) {
+                    continue;
+                }
+                Atom tfhd = find(b, traf, "tfhd");
+                int p = tfhd.dataOffset();
+                int flags = b.getInt(p);
+                int trackId = b.getInt(p + 4);
+                long base = b.getLong(p + 8);
+                p += 16;
+                Assert.assertEquals("base data offset", 1, flags & 1);
+                int defaultDuration = 0, defaultSize = 0, defaultFlags = 0;
+                if ((flags & 0x08) != 0) {
+                    defaultDuration = b.getInt(p);
+                    p += 4;
+                }
+                if ((flags & 0x10) != 0) {
+                    defaultSize = b.getInt(p);
+                    p += 4;
+                }
+                if ((flags & 0x20) != 0) {
+                    defaultFlags = b.getInt(p);
+                    p += 4;
+                }
+                Assert.assertEquals(tfhd.end(), p);
+
+                Atom trun = find(b, traf, "trun");
+                p = trun.dataOffset();
+                int trunFlags = b.getInt(p);
+                int count = b.getInt(p + 4);
+                p += 8;
+                long pos = base;
+                for (int j = 0; j < count; j++) {
+                    int duration = defaultDuration, size = defaultSize, sampleFlags = defaultFlags;
+                    if ((trunFlags & 0x100) != 0) {
+                        duration = b.getInt(p);
+                        p += 4;
+                    }
+                    if ((trunFlags & 0x200) != 0) {
+                        size = b.getInt(p);
+                        p += 4;
+                    }
+                    if ((trunFlags & 0x400) != 0) {
+                        sampleFlags = b.getInt(p);
+                        p += 4;
+                    }
+                    Assert.assertTrue("sample in the mdat of its fragment",
+                            pos >= mdat.dataOffset() && pos + size <= mdat.end());
+                    byte[] data = new byte[size];
+                    for (int k = 0; k < size; k++) {
+                        data[k] = b.get((int) pos + k);
+                    }
+                    samples.get(trackId - 1).add(new Sample(duration, size, sampleFlags, data));
+                    pos += size;
+                }
+                Assert.assertEquals(trun.end(), p);
+            }
+        }
+        Assert.assertTrue(sequenceNumber > 0);
+        return samples;
+    }
+
+    private static void checkSamples(List<List<Sample>> samples) {
+        List<Sample> video = samples.get(0);
+        for (int i = 0; i < video.size(); i++) {
+            Sample s = video.get(i);
+            Assert.assertArrayEquals("video sample " + i, videoSample(i), s.data);
+            Assert.assertEquals(1, s.duration);
+            Assert.assertEquals(i % 10 == 0, s.flags == SYNC_SAMPLE_FLAGS);
+        }
+        List<Sample> audio = samples.get(1);
+        for (int i = 0; i < audio.size(); i++) {
+            Sample s = audio.get(i);
+            Assert.assertEquals(2, s.size);
+            Assert.assertEquals(1, s.duration);
+            Assert.assertEquals("audio sample " + i, (byte) (0x80 | ((i / AUDIO_SAMPLES) & 0x7f)), s.data[0]);
+        }
+    }
+
+    private static long movieDuration(ByteBuffer b) {
+        Atom mvhd = find(b, new Atom("", 0, 0, b.limit()), "moov", "mvhd");
+        return b.getInt(mvhd.dataOffset() + 16) & 0xffffffffL;
+    }
+
+    @Test
+    public void finishedMovie() throws IOException {
+        ByteBuffer b = writeMovie(300, true);
+        List<Atom> top = atoms(b, 0, b.limit());
+        int moov = -1, firstMoof = -1;
+        for (int i = 0; i < top.size(); i++) {
+            if (top.get(i).type.equals("moov")) {
+                moov = i;
+            } else if (firstMoof == -1 && top.get(i).type.equals("moof")) {
+                firstMoof = i;
+            }
+        }
+        Assert.assertTrue("moov before the fragments", moov != -1 && moov < firstMoof);
+        Atom mvex = find(b, new Atom("", 0, 0, b.limit()), "moov", "mvex");
+        Assert.assertNotNull(mvex);
+        Assert.assertEquals(2, atoms(b, mvex.dataOffset(), mvex.end()).size());
+
+        List<List<Sample>> samples = walkFragments(b);
+        Assert.assertEquals(FRAMES, samples.get(0).size());
+        Assert.assertEquals(FRAMES * AUDIO_SAMPLES, samples.get(1).size());
+        checkSamples(samples);
+        // 100 frames at 30 fps, in movie time scale units
+        Assert.assertEquals(2000, movieDuration(b));
+    }
+
+    @Test
+    public void unfinishedMovie() throws IOException {
+        ByteBuffer b = writeMovie(300, false);
+        List<List<Sample>> samples = walkFragments(b);
+        // the samples of the complete fragments are there: a fragment is
+        // written every 15 video frames, after the video sample
+        Assert.assertEquals(90, samples.get(0).size());
+        Assert.assertEquals(89 * AUDIO_SAMPLES, samples.get(1).size());
+        checkSamples(samples);
+        Assert.assertEquals("durations are set when the movie is finished", 0, movieDuration(b));
+    }
+
+    @Test
+    public void singleFragment() throws IOException {
+        // longer than the movie: everything goes into the last fragment
+        ByteBuffer b = writeMovie(100000, true);
+        List<Atom> top = atoms(b, 0, b.limit());
+        int moofs = 0;
+        for (Atom a : top) {
+            if (a.type.equals("moof")) {
+                moofs++;
+            }
+        }
+        Assert.assertEquals(1, moofs);
+        List<List<Sample>> samples = walkFragments(b);
+        Assert.assertEquals(FRAMES, samples.get(0).size());
+        checkSamples(samples);
+    }
+}
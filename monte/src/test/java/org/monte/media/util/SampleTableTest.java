@@ -0,0 +1,211 @@
+/*
+ * @(#)SampleTableTest.java
+ *
+ * Part of selenium-utils, licensed under the Apache License, Version 2.0.
+ * See LICENSE.txt at the root of the project.
+ */
+package org.monte.media.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link SampleTable} against a list of entry objects.
+ *
+ * @version $Id$
+ */
+public class SampleTableTest {
+
+    /** An entry of the reference table. */
+    private static class Entry {
+
+        long offset, length;
+        int sampleCount, sampleDuration;
+        boolean isKeyframe;
+
+        Entry(long offset, long length, int sampleCount, int sampleDuration, boolean isKeyframe) {
+            this.offset = offset;
+            this.length = length;
+            this.sampleCount = sampleCount;
+            this.sampleDuration = sampleDuration;
+            this.isKeyframe = isKeyframe;
+        }
+    }
+
+    /**
+     * Fills a table and a reference list with the same random samples, which
+     * are merged into the last entry when possible.
+     */
+    private static SampleTable fill(Random r, int samples, List<Entry> entries) {
+        SampleTable t = new SampleTable(1);
+        long offset = 0;
+        for (int i = 0; i < samples; i++) {
+            if (r.nextInt(10) == 0) {
+                // a gap in the file
+                offset += 1 + r.nextInt(8);
+            }
+            long sampleLength = r.nextInt(3);
+            int count = 1 + r.nextInt(3);
+            int duration = 1 + r.nextInt(2);
+            boolean isKeyframe = r.nextInt(4) == 0;
+            if (!t.addToLast(offset, sampleLength, count, duration, isKeyframe)) {
+                Assert.assertEquals(entries.size(), t.add(offset, sampleLength * count, count, duration, isKeyframe));
+                entries.add(new Entry(offset, sampleLength * count, count, duration, isKeyframe));
+            } else {
+                Entry last = entries.get(entries.size() - 1);
+                Assert.assertEquals(last.offset + last.length, offset);
+                Assert.assertEquals(last.length, sampleLength * last.sampleCount);
+                Assert.assertEquals(last.sampleDuration, duration);
+                Assert.assertEquals(last.isKeyframe, isKeyframe);
+                last.length += sampleLength * count;
+                last.sampleCount += count;
+            }
+            offset += sampleLength * count;
+        }
+        return t;
+    }
+
+    @Test
+    public void columnsMatchEntries() {
+        List<Entry> entries = new ArrayList<Entry>();
+        SampleTable t = fill(new Random(1), 5000, entries);
+        Assert.assertEquals(entries.size(), t.size());
+        long time = 0, sample = 0;
+        boolean allKeyframes = true;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            Assert.assertEquals(e.offset, t.getOffset(i));
+            Assert.assertEquals(e.length, t.getLength(i));
+            Assert.assertEquals(e.sampleCount, t.getSampleCount(i));
+            Assert.assertEquals(e.sampleDuration, t.getSampleDuration(i));
+            Assert.assertEquals((long) e.sampleDuration * e.sampleCount, t.getDuration(i));
+            Assert.assertEquals(e.isKeyframe, t.isKeyframe(i));
+            Assert.assertEquals(time, t.getTime(i));
+            Assert.assertEquals(sample, t.getFirstSample(i));
+            time += (long) e.sampleDuration * e.sampleCount;
+            sample += e.sampleCount;
+            allKeyframes &= e.isKeyframe;
+        }
+        Assert.assertEquals(time, t.getDuration());
+        Assert.assertEquals(sample, t.getSampleCount());
+        Assert.assertEquals(allKeyframes, t.isAllKeyframes());
+    }
+
+    @Test
+    public void findEntriesAndKeyframes() {
+        List<Entry> entries = new ArrayList<Entry>();
+        SampleTable t = fill(new Random(2), 3000, entries);
+        int lastKeyframe = -1;
+        long sample = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            if (e.isKeyframe) {
+                lastKeyframe = i;
+            }
+            Assert.assertEquals(lastKeyframe, t.findKeyframe(i));
+            if (e.sampleCount > 0) {
+                Assert.assertEquals(i, t.findSample(sample));
+                Assert.assertEquals(i, t.findSample(sample + e.sampleCount - 1));
+            }
+            if (t.getDuration(i) > 0) {
+                Assert.assertEquals(i, t.findEntry(t.getTime(i)));
+                Assert.assertEquals(i, t.findEntry(t.getTime(i) + t.getDuration(i) - 1));
+            }
+            sample += e.sampleCount;
+        }
+        int last = entries.size() - 1;
+        Assert.assertEquals(lastKeyframe, t.findKeyframe(last + 100));
+        Assert.assertEquals(0, t.findEntry(-1));
+        Assert.assertEquals(last, t.findEntry(t.getDuration() + 100));
+        Assert.assertEquals(0, t.findSample(-1));
+        Assert.assertEquals(last, t.findSample(t.getSampleCount() + 100));
+    }
+
+    @Test
+    public void keyframesAcrossWords() {
+        SampleTable t = new SampleTable();
+        for (int i = 0; i < 300; i++) {
+            t.add(i, 1, 1, 1, i % 70 == 5);
+        }
+        Assert.assertEquals(-1, t.findKeyframe(4));
+        Assert.assertEquals(5, t.findKeyframe(5));
+        Assert.assertEquals(5, t.findKeyframe(74));
+        Assert.assertEquals(75, t.findKeyframe(144));
+        Assert.assertEquals(285, t.findKeyframe(299));
+        t.setKeyframe(285, false);
+        Assert.assertEquals(215, t.findKeyframe(299));
+        for (int i = 0; i < 300; i++) {
+            t.setKeyframe(i, true);
+        }
+        Assert.assertTrue(t.isAllKeyframes());
+        t.setKeyframe(63, false);
+        Assert.assertFalse(t.isAllKeyframes());
+        Assert.assertEquals(62, t.findKeyframe(63));
+    }
+
+    @Test
+    public void addToLastNeedsMatchingSamples() {
+        SampleTable t = new SampleTable();
+        Assert.assertFalse("empty table", t.addToLast(0, 10, 1, 1, true));
+        t.add(0, 20, 2, 1, true);
+        Assert.assertFalse("gap", t.addToLast(21, 10, 1, 1, true));
+        Assert.assertFalse("length", t.addToLast(20, 11, 1, 1, true));
+        Assert.assertFalse("duration", t.addToLast(20, 10, 1, 2, true));
+        Assert.assertFalse("key frame", t.addToLast(20, 10, 1, 1, false));
+        Assert.assertFalse("no samples", t.addToLast(20, 10, 0, 1, true));
+        Assert.assertTrue(t.addToLast(20, 10, 3, 1, true));
+        Assert.assertEquals(1, t.size());
+        Assert.assertEquals(50, t.getLength(0));
+        Assert.assertEquals(5, t.getSampleCount(0));
+        Assert.assertEquals(5, t.getDuration());
+    }
+
+    @Test
+    public void unsignedLengths() {
+        SampleTable t = new SampleTable();
+        t.add(0, 0xffffffffL, 1, Integer.MAX_VALUE, true);
+        Assert.assertEquals(0xffffffffL, t.getLength(0));
+        Assert.assertEquals(Integer.MAX_VALUE, t.getSampleDuration(0));
+        Assert.assertFalse("length overflow", t.addToLast(0xffffffffL, 0xffffffffL, 1, Integer.MAX_VALUE, true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lengthOutOfRange() {
+        new SampleTable().add(0, 1L << 32, 1, 1, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void durationOutOfRange() {
+        new SampleTable().add(0, 1, 1, 1L << 31, true);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void indexOutOfBounds() {
+        SampleTable t = new SampleTable();
+        t.add(0, 1, 1, 1, true);
+        t.getOffset(1);
+    }
+
+    @Test
+    public void clearAndTrim() {
+        List<Entry> entries = new ArrayList<Entry>();
+        SampleTable t = fill(new Random(3), 1000, entries);
+        t.trimToSize();
+        Assert.assertEquals(entries.size(), t.size());
+        Assert.assertEquals(entries.get(entries.size() - 1).offset, t.getOffset(entries.size() - 1));
+        t.clear();
+        Assert.assertTrue(t.isEmpty());
+        Assert.assertEquals(0, t.getDuration());
+        Assert.assertEquals(0, t.getSampleCount());
+        Assert.assertEquals(-1, t.findEntry(0));
+        Assert.assertEquals(-1, t.findSample(0));
+        Assert.assertEquals(-1, t.findKeyframe(0));
+        t.add(5, 1, 1, 1, false);
+        Assert.assertFalse("key frames are cleared", t.isKeyframe(0));
+        Assert.assertEquals(0, t.getTime(0));
+        Assert.assertEquals(0, t.getFirstSample(0));
+    }
+}
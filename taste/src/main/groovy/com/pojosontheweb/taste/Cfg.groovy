@@ -8,6 +8,7 @@ class Cfg {
 
     Map<String,String> sysProps = [:]
     OutputFormat output = OutputFormat.text
+    int workers = 1
 
     static Cfg load(File configFile) {
         if (configFile.exists()) {
@@ -51,6 +52,7 @@ class Cfg {
     public String toString() {
         return "Cfg{" +
             "sysProps=" + sysProps +
+            ", workers=" + workers +
             '}';
     }
 
@@ -78,6 +80,22 @@ class Cfg {
         }
     }
 
+    void parallel(@DelegatesTo(ParallelCfg) Closure c) {
+        ParallelCfg cfg = new ParallelCfg()
+        def code = c.rehydrate(cfg, this, this)
+        code.resolveStrategy = Closure.DELEGATE_ONLY
+        code()
+    }
+
+    class ParallelCfg {
+        void workers(int w) {
+            if (w < 1) {
+                throw new IllegalArgumentException("workers must be >= 1 : $w")
+            }
+            workers = w
+        }
+    }
+
     void video(@DelegatesTo(VideoCfg) Closure c) {
         VideoCfg cfg = new VideoCfg()
         def code = c.rehydrate(cfg, this, this)
@@ -95,9 +113,37 @@ class Cfg {
         void failuresOnly(boolean f) {
             sysProps[webtests.video.failures.only] = f.toString()
         }
+        void bufferSeconds(int seconds) {
+            sysProps[webtests.video.buffer.seconds] = Integer.toString(seconds)
+        }
+        void bufferMaxMB(int maxMB) {
+            sysProps[webtests.video.buffer.maxMB] = Integer.toString(maxMB)
+        }
+        void encoding(String encoding) {
+            sysProps[webtests.video.encoding] = encoding
+        }
 
     }
 
+    void pool(@DelegatesTo(PoolCfg) Closure c) {
+        PoolCfg cfg = new PoolCfg()
+        def code = c.rehydrate(cfg, this, this)
+        code.resolveStrategy = Closure.DELEGATE_ONLY
+        code()
+    }
+
+    class PoolCfg {
+        void enabled(boolean enabled) {
+            sysProps[webtests.pool.enabled] = enabled.toString()
+        }
+        void maxReuse(int maxReuse) {
+            sysProps[webtests.pool.maxReuse] = Integer.toString(maxReuse)
+        }
+        void spawnAhead(int spawnAhead) {
+            sysProps[webtests.pool.spawnAhead] = Integer.toString(spawnAhead)
+        }
+    }
+
     void chrome() {
         sysProps[webtests.browser] = Browsr.Chrome.sysProp
     }
@@ -1,6 +1,16 @@
 package com.pojosontheweb.taste
 
+import com.pojosontheweb.selenium.DriverPool
 import com.pojosontheweb.selenium.Findr
+import com.pojosontheweb.selenium.SysProps
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
 
 class Suite {
 
@@ -17,13 +27,68 @@ class Suite {
         tests = []
         code()
         Findr.logDebug("[Suite][$name] Will execute ${tests.size()} test(s)")
-        List<TestResult> results = tests.collect { Test t ->
-            t.execute(cfg)
+        if (DriverPool.isEnabledFromSysProps()) {
+            // start drivers ahead of time if configured
+            DriverPool.getDefault().expect(tests.size())
+        }
+        if ((cfg?.workers ?: 1) > 1 && Boolean.valueOf(System.getProperty(SysProps.webtests.video.enabled))) {
+            // all the recorders would capture the same screen, with all the browsers on it
+            throw new IllegalArgumentException("Video recording can't be enabled with workers > 1")
+        }
+        int workers = Math.min(cfg?.workers ?: 1, tests.size())
+        List<TestResult> results
+        if (workers > 1) {
+            results = executeParallel(cfg, workers)
+        } else {
+            results = tests.collect { Test t ->
+                t.execute(cfg)
+            }
         }
         Findr.logDebug("[Suite][$name] Done, returning results")
         new SuiteResult(name, startedOn, new Date(), results)
     }
 
+    /**
+     * Run the tests with passed number of workers (each test has its own driver),
+     * and return the results in declaration order.
+     */
+    private List<TestResult> executeParallel(Cfg cfg, int workers) {
+        Findr.logDebug("[Suite][$name] Running tests with $workers worker(s)")
+        AtomicInteger threadCount = new AtomicInteger()
+        ExecutorService executor = Executors.newFixedThreadPool(workers, { Runnable r ->
+            Thread t = new Thread(r, "taste-worker-${threadCount.incrementAndGet()}")
+            t.daemon = true
+            t
+        } as ThreadFactory)
+        TestLogs logs = TestLogs.install()
+        try {
+            List<Future<TestResult>> futures = tests.collect { Test t ->
+                executor.submit({
+                    logs.capture {
+                        Date startedOn = new Date()
+                        try {
+                            t.execute(cfg)
+                        } catch (Throwable err) {
+                            // driver init failed : don't let it spoil the other tests
+                            Findr.logDebug("[Test][$t.name] FAILURE")
+                            new ResultFailure(t.name, startedOn, new Date(), err)
+                        }
+                    }
+                } as Callable<TestResult>)
+            }
+            futures.collect { Future<TestResult> f ->
+                try {
+                    f.get()
+                } catch (ExecutionException e) {
+                    throw e.cause
+                }
+            }
+        } finally {
+            executor.shutdownNow()
+            logs.uninstall()
+        }
+    }
+
     void add(Test test) {
         Findr.logDebug("[Suite][$name] << $test.name")
         tests << test
@@ -92,6 +92,8 @@ _/      _/_/_/  _/_/_/        _/_/    _/_/_/
                 System.setProperty(k, v)
             }
         }
+        // verbose flag is cached by Findr
+        Findr.setDebugEnabled(Boolean.valueOf(System.getProperty(webtests.findr.verbose, "false")))
 
         logDebug(LOGO)
 
@@ -107,8 +109,9 @@ _/      _/_/_/  _/_/_/        _/_/    _/_/_/
         // post-load overrides
 
         if (verbose) {
-            logDebug("[Taste] verbose mode")
             System.setProperty(webtests.findr.verbose, "true")
+            Findr.setDebugEnabled(true)
+            logDebug("[Taste] verbose mode")
         }
 
         if (options.b) {
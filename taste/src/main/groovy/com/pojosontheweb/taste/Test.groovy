@@ -25,27 +25,26 @@ class Test {
             TestUtil testUtil = new TestUtil()
             try {
                 testUtil.setUp()
+                // driver is quit (or given back to the pool) in tearDown
                 WebDriver webDriver = testUtil.webDriver
-                webDriver.withQuit {
-                    TestContext tc = new TestContext(webDriver, name)
-                    def code = body.rehydrate(tc, this, this)
-                    code.resolveStrategy = DELEGATE_ONLY
-                    try {
-                        def res = code()
-                        Findr.logDebug("[Test][$name] SUCCESS")
-                        def r = new ResultSuccess(name, tc.startTime, new Date(), res)
-                        if (testUtil.failuresOnly) {
-                            testUtil.removeVideoFiles()
-                        } else {
-                            testUtil.moveVideoFiles(name)
-                        }
-                        return r
-                    } catch (Throwable err) {
-                        Findr.logDebug("[Test][$name] FAILURE")
-                        def r = new ResultFailure(name, tc.startTime, new Date(), err)
+                TestContext tc = new TestContext(webDriver, name)
+                def code = body.rehydrate(tc, this, this)
+                code.resolveStrategy = DELEGATE_ONLY
+                try {
+                    def res = code()
+                    Findr.logDebug("[Test][$name] SUCCESS")
+                    def r = new ResultSuccess(name, tc.startTime, new Date(), res)
+                    if (testUtil.failuresOnly) {
+                        testUtil.removeVideoFiles()
+                    } else {
                         testUtil.moveVideoFiles(name)
-                        return r
                     }
+                    return r
+                } catch (Throwable err) {
+                    Findr.logDebug("[Test][$name] FAILURE")
+                    def r = new ResultFailure(name, tc.startTime, new Date(), err)
+                    testUtil.moveVideoFiles(name)
+                    return r
                 }
             } finally {
                 testUtil.tearDown()
@@ -0,0 +1,69 @@
+package com.pojosontheweb.taste
+
+import com.google.common.base.Function
+import com.pojosontheweb.selenium.Findr
+
+/**
+ * Findr debug handler that buffers the logs of each test (per thread),
+ * and outputs them in one block when the test is done, so that the logs
+ * of concurrent tests don't get interleaved.
+ */
+class TestLogs implements Function<String, Object> {
+
+    private final Function<String, ?> target
+    private final ThreadLocal<List<String>> buffer = new ThreadLocal<List<String>>()
+
+    private TestLogs(Function<String, ?> target) {
+        this.target = target
+    }
+
+    /**
+     * Replace the current Findr debug handler with a new TestLogs,
+     * that outputs to the previous one.
+     */
+    static TestLogs install() {
+        TestLogs logs = new TestLogs(Findr.getDebugHandler())
+        Findr.setDebugHandler(logs)
+        return logs
+    }
+
+    /**
+     * Restore the previous Findr debug handler.
+     */
+    void uninstall() {
+        Findr.setDebugHandler(target)
+    }
+
+    @Override
+    Object apply(String input) {
+        List<String> lines = buffer.get()
+        if (lines != null) {
+            lines << input
+        } else {
+            output([input])
+        }
+        return null
+    }
+
+    private synchronized void output(List<String> lines) {
+        lines.each { String line ->
+            target.apply(line)
+        }
+    }
+
+    /**
+     * Invoke passed closure, buffering the logs of the current thread
+     * until it returns.
+     */
+    def <T> T capture(Closure<T> c) {
+        buffer.set([])
+        try {
+            return c()
+        } finally {
+            List<String> lines = buffer.get()
+            buffer.remove()
+            output(lines)
+        }
+    }
+
+}